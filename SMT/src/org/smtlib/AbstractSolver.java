@@ -6,6 +6,10 @@
 package org.smtlib;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 
 import org.smtlib.ICommand.Ideclare_const;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -231,4 +235,154 @@ public class AbstractSolver implements ISolver {
 	public IResponse checkSatStatus() {
 		throw new UnsupportedOperationException("AbstractSolver.checkSatStatus");
 	}
+
+	/** Executes submitted commands in the background (created when first needed) */
+	private /*@Nullable*/ CommandQueue commandQueue;
+	
+	/** @see org.smtlib.ISolver#submit(ICommand)*/
+	@Override
+	synchronized public Future<IResponse> submit(ICommand command) {
+		if (commandQueue == null) commandQueue = new CommandQueue(this);
+		return commandQueue.submit(command);
+	}
+	
+	/** Parses the text of a response from a solver process */
+	protected IResponse parseResponse(String response) {
+		throw new UnsupportedOperationException("AbstractSolver.parseResponse");
+	}
+	
+	/** A command sent to a solver process in pipelined mode, whose response has not yet been checked */
+	static protected class Pending {
+		/** The name of the command, for error messages */
+		final public String command;
+		/** The position to report an error against */
+		final public /*@Nullable*/ IPos pos;
+		/** The response to come */
+		final public Future<String> response;
+		
+		public Pending(String command, /*@Nullable*/ IPos pos, Future<String> response) {
+			this.command = command;
+			this.pos = pos;
+			this.response = response;
+		}
+	}
+	
+	/** The commands sent in pipelined mode whose responses have not yet been checked, in the order sent */
+	final protected LinkedList<Pending> pending = new LinkedList<Pending>();
+	
+	/** Sends a command whose response is expected to be success. If SMT.Configuration.pipeline is
+	 * set, this returns at once, without waiting for the response, which is checked by the next 
+	 * call of flush(); otherwise it waits for the response and returns it, parsed.
+	 * @param process the solver process to send to
+	 * @param command the name of the command
+	 * @param pos the position to report an error in the command against
+	 * @param args the text of the command (Strings or SolverProcess.Text objects)
+	 */
+	protected IResponse sendChecked(SolverProcess process, String command, /*@Nullable*/ IPos pos, Object ... args) throws IOException {
+		if (!smt().pipeline) return parseResponse(process.sendAndListen(args));
+		pending.add(new Pending(command,pos,process.sendAsync(args)));
+		return successOrEmpty(smt());
+	}
+	
+	/** True if the last check-sat was not answered by its deadline */
+	protected boolean timedOut = false;
+	
+	/** Returns the number of milliseconds to wait for the response to a query, or 0 for no limit;
+	 * this is a little more than SMT.Configuration.timeout, so that a solver given the timeout as
+	 * an option can answer for itself.
+	 */
+	protected long deadline() {
+		double timeout = smt().timeout;
+		return timeout > 0 ? Math.round(1000*timeout) + 500 : 0;
+	}
+	
+	/** Sends a query (e.g. check-sat) to the process and waits for the response until the deadline;
+	 * if there is none by then, restarts the process, with the declarations and assertions sent
+	 * to it so far, and throws TimeoutException.
+	 */
+	protected String query(SolverProcess process, Object ... args) throws IOException, TimeoutException {
+		try {
+			return process.sendQuery(deadline(),args);
+		} catch (TimeoutException e) {
+			// A query interrupted before it was sent leaves the process idle
+			if (process.busy()) process.restart();
+			throw e;
+		}
+	}
+	
+	/** The solver process of an adapter for an external solver, or null if there is none */
+	public /*@Nullable*/ SolverProcess process() {
+		return null;
+	}
+	
+	/** Interrupts the query (e.g. check-sat) in progress, or the next one sent if there is none; the
+	 * query is answered as if its deadline had passed (see query()). Does nothing if there is no 
+	 * solver process.
+	 */
+	public void interrupt() {
+		SolverProcess p = process();
+		if (p != null) p.interrupt();
+	}
+	
+	/** Withdraws a call of interrupt() that has not yet interrupted a query */
+	public void clearInterrupt() {
+		SolverProcess p = process();
+		if (p != null) p.clearInterrupt();
+	}
+	
+	/** Returns the response to get-info for the given :reason-unknown keyword after a timeout */
+	protected IResponse timeoutReason(IKeyword key) {
+		IExpr.IAttribute<?> attr = smt().exprFactory.attribute(key,smt().exprFactory.symbol(Utils.TIMEOUT));
+		return smt().responseFactory.get_info_response(attr);
+	}
+	
+	/** Returns the position of the command, if it has one */
+	static protected /*@Nullable*/ IPos pos(ICommand command) {
+		return command instanceof IPos.IPosable ? ((IPos.IPosable)command).pos() : null;
+	}
+	
+	/** Waits for the responses to all the commands sent in pipelined mode. Every error among them is
+	 * logged, reported against the position of the command that caused it; the result is success if
+	 * there were none, or otherwise an error giving the number of commands that failed.
+	 */
+	public IResponse flush() {
+		int failed = flushAll();
+		if (failed == 0) return smt().responseFactory.success();
+		return smt().responseFactory.error(failed == 1 ? "1 pipelined command failed" : failed + " pipelined commands failed");
+	}
+	
+	/** Calls flush() before running the given command, which should not be run if any of the
+	 * pipelined commands failed; the result is success, or an error saying that the command was not
+	 * run (the errors themselves have been logged).
+	 */
+	public IResponse flush(String command) {
+		int failed = flushAll();
+		if (failed == 0) return smt().responseFactory.success();
+		return smt().responseFactory.error("The " + command + " command was not run because " +
+				(failed == 1 ? "an earlier pipelined command" : failed + " earlier pipelined commands") + " failed");
+	}
+	
+	/** Waits for the responses to all the commands sent in pipelined mode, logging each error; returns
+	 * the number of errors.
+	 */
+	private int flushAll() {
+		int failed = 0;
+		while (!pending.isEmpty()) {
+			Pending p = pending.removeFirst();
+			IResponse r;
+			try {
+				r = parseResponse(p.response.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				r = smt().responseFactory.error("Interrupted while waiting for the solver");
+			} catch (ExecutionException e) {
+				r = smt().responseFactory.error("Error reading from the solver: " + e.getCause());
+			}
+			if (r.isError()) {
+				smt().log.logError(smt().responseFactory.error("The " + p.command + " command failed: " + ((IResponse.IError)r).errorMsg(),p.pos));
+				failed++;
+			}
+		}
+		return failed;
+	}
 }
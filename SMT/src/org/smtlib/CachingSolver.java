@@ -0,0 +1,604 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.smtlib.ICommand.Ideclare_const;
+import org.smtlib.ICommand.Ideclare_fun;
+import org.smtlib.ICommand.Ideclare_sort;
+import org.smtlib.ICommand.Idefine_fun;
+import org.smtlib.ICommand.Idefine_sort;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.ISort.IApplication;
+import org.smtlib.ISort.IParameter;
+import org.smtlib.IVisitor.VisitorException;
+
+/** This class puts a QueryCache in front of another solver (the backend). Every command is given
+ * to the backend, except that a check-sat whose result is in the cache is answered from it,
+ * without the backend. The query for check-sat is identified by a canonical form of the logic,
+ * the declarations and definitions it uses, and the assertions in the live assertion sets:
+ * the assertions are ordered by their text with declared names elided, and then the declared
+ * names (and bound variables) are renamed in order of appearance. So scripts that differ only
+ * in the names they declare, or in the order of their assertions, usually share results;
+ * declarations that no assertion uses do not matter. Only sat and unsat results are stored.
+ * <P>
+ * Commands that need the backend to have checked the assertions (get-value, get-model, etc.)
+ * first give it the check-sat that was answered from the cache. The statistics (get-info
+ * :all-statistics) include those of the cache.
+ */
+public class CachingSolver extends AbstractSolver implements ISolver {
+
+	/** A reference to the SMT configuration */
+	protected SMT.Configuration smtConfig;
+
+	/** The store of results */
+	final protected QueryCache cache;
+
+	/** The solver given the commands */
+	final protected ISolver backend;
+
+	/** The logic set, if any */
+	protected /*@Nullable*/ String logic = null;
+
+	/** An assertion accepted by the backend, with its text with declared names elided */
+	static protected class Assertion {
+		final IExpr expr;
+		final String shape;
+		Assertion(IExpr expr, String shape) { this.expr = expr; this.shape = shape; }
+	}
+
+	/** The declarations, definitions and assertions of one assertion set; the declaration of
+	 * a name is its command, or for a name given by a :named attribute, the attribute. */
+	static protected class Frame {
+		final Map<String,Object> funs = new HashMap<String,Object>();
+		final Map<String,Object> sorts = new HashMap<String,Object>();
+		final List<Assertion> assertions = new ArrayList<Assertion>();
+	}
+
+	/** The assertion sets, outermost first */
+	final protected LinkedList<Frame> frames = new LinkedList<Frame>();
+
+	/** True if the last check-sat was answered from the cache and not given to the backend */
+	protected boolean unchecked = false;
+
+	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
+	protected /*@Nullable*/ IResponse checkSatStatus = null;
+
+	/** Creates a solver answering check-sat from the given cache when it can, and otherwise
+	 * passing the commands to the given solver, which has not been started */
+	public CachingSolver(SMT.Configuration smtConfig, QueryCache cache, ISolver backend) {
+		this.smtConfig = smtConfig;
+		this.cache = cache;
+		this.backend = backend;
+		frames.add(new Frame());
+	}
+
+	/** A reference to the SMT configuration */
+	@Override
+	public SMT.Configuration smt() { return smtConfig; }
+
+	@Override
+	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
+
+	@Override
+	public /*@Nullable*/ SolverProcess process() {
+		return backend instanceof AbstractSolver ? ((AbstractSolver)backend).process() : null;
+	}
+
+	@Override
+	public void interrupt() {
+		if (backend instanceof AbstractSolver) ((AbstractSolver)backend).interrupt();
+	}
+
+	@Override
+	public void clearInterrupt() {
+		if (backend instanceof AbstractSolver) ((AbstractSolver)backend).clearInterrupt();
+	}
+
+	/** Returns the declaration of the given function or sort name, or null if it is not declared */
+	protected /*@Nullable*/ Object lookup(String name, boolean sort) {
+		for (int i = frames.size()-1; i >= 0; --i) {
+			Frame f = frames.get(i);
+			Object decl = (sort ? f.sorts : f.funs).get(name);
+			if (decl != null) return decl;
+		}
+		return null;
+	}
+
+	/** Records a declaration the backend has accepted */
+	protected IResponse declared(IResponse r, ISymbol name, Object decl, boolean sort) {
+		if (!r.isError()) (sort ? frames.getLast().sorts : frames.getLast().funs).put(name.value(),decl);
+		return r;
+	}
+
+	/** Commands that change the assertions make the backend's state current again */
+	protected void changed() {
+		unchecked = false;
+		checkSatStatus = null;
+	}
+
+	/** Gives the backend a check-sat answered from the cache, so that it can answer questions
+	 * about the result */
+	protected /*@Nullable*/ IResponse check() {
+		if (!unchecked) return null;
+		unchecked = false;
+		IResponse r = backend.check_sat();
+		return r.isError() ? r : null;
+	}
+
+	/** Prints expressions with the declared names and bound variables renamed: each bound variable
+	 * is named by its position (#vN) among those in scope. In a shape, each declared name is
+	 * printed as @; otherwise declared function names are #fN and sorts #sN, numbered in order
+	 * of appearance, and the declarations named are collected (in names) to be printed after.
+	 * In a shape, :named attributes add their names to the innermost assertion set.
+	 */
+	protected class Canonicalizer extends org.smtlib.sexpr.Printer {
+		final protected boolean shape;
+		/** The canonical name of each declaration printed */
+		final protected Map<Object,String> names = new IdentityHashMap<Object,String>();
+		/** The declarations named, in order */
+		final protected List<Object> named = new ArrayList<Object>();
+		/** The bound variables and sort parameters in scope, innermost last */
+		final protected List<String> vars = new ArrayList<String>();
+		final protected List<String> sortParams = new ArrayList<String>();
+		/** Greater than zero while printing a sort */
+		protected int inSort = 0;
+
+		public Canonicalizer(Writer w, boolean shape) {
+			super(w);
+			this.shape = shape;
+		}
+
+		/** Prints an assertion, or declaration, on a line of its own */
+		public void print(Object o) throws VisitorException {
+			try {
+				if (o instanceof IExpr) ((IExpr)o).accept(this);
+				else declaration(o);
+				w.append('\n');
+			} catch (IOException e) {
+				throw new VisitorException(e);
+			}
+		}
+
+		/** The canonical name of a declaration */
+		protected String name(Object decl, boolean sort) {
+			String n = names.get(decl);
+			if (n == null) {
+				n = (sort ? "#s" : "#f") + names.size();
+				names.put(decl,n);
+				named.add(decl);
+			}
+			return n;
+		}
+
+		@Override
+		public Void visit(ISymbol e) throws VisitorException {
+			String s = e.value();
+			List<String> bound = inSort > 0 ? sortParams : vars;
+			int i = bound.lastIndexOf(s);
+			Object decl;
+			try {
+				if (i >= 0) w.append(inSort > 0 ? "#p" : "#v").append(Integer.toString(i));
+				else if ((decl = lookup(s,inSort > 0)) == null) super.visit(e);
+				else w.append(shape ? "@" : name(decl,inSort > 0));
+			} catch (IOException ex) {
+				throw new VisitorException(ex,e.pos());
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(IApplication s) throws VisitorException {
+			++inSort;
+			try {
+				return super.visit(s);
+			} finally {
+				--inSort;
+			}
+		}
+
+		@Override
+		public Void visit(IParameter s) throws VisitorException {
+			++inSort;
+			try {
+				return super.visit(s);
+			} finally {
+				--inSort;
+			}
+		}
+
+		/** Prints the parameters of a quantifier or definition, which come into scope */
+		protected void parameters(List<IDeclaration> params) throws IOException, VisitorException {
+			w.append("(");
+			for (IDeclaration d: params) {
+				vars.add(d.parameter().value());
+				w.append("(#v").append(Integer.toString(vars.size()-1)).append(" ");
+				d.sort().accept(this);
+				w.append(")");
+			}
+			w.append(") ");
+		}
+
+		/** Takes the given number of variables out of scope */
+		protected void unbind(int n) {
+			for (int i = 0; i < n; i++) vars.remove(vars.size()-1);
+		}
+
+		protected Void quantifier(String q, List<IDeclaration> params, IExpr body, IExpr e) throws VisitorException {
+			try {
+				w.append("(").append(q).append(" ");
+				parameters(params);
+				body.accept(this);
+				w.append(")");
+			} catch (IOException ex) {
+				throw new VisitorException(ex,e.pos());
+			} finally {
+				unbind(params.size());
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(IForall e) throws VisitorException {
+			return quantifier(Utils.FORALL,e.parameters(),e.expr(),e);
+		}
+
+		@Override
+		public Void visit(IExists e) throws VisitorException {
+			return quantifier(Utils.EXISTS,e.parameters(),e.expr(),e);
+		}
+
+		@Override
+		public Void visit(ILet e) throws VisitorException {
+			// The bound expressions are in the enclosing scope
+			int n = e.bindings().size();
+			int bound = 0;
+			try {
+				w.append("(" + Utils.LET + " (");
+				for (int i = 0; i < n; i++) {
+					w.append("(#v").append(Integer.toString(vars.size()+i)).append(" ");
+					e.bindings().get(i).expr().accept(this);
+					w.append(")");
+				}
+				w.append(") ");
+				for (IBinding b: e.bindings()) {
+					vars.add(b.parameter().value());
+					++bound;
+				}
+				e.expr().accept(this);
+				w.append(")");
+			} catch (IOException ex) {
+				throw new VisitorException(ex,e.pos());
+			} finally {
+				unbind(bound);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(IAttributedExpr e) throws VisitorException {
+			if (shape) {
+				for (IAttribute<?> a: e.attributes()) {
+					if (":named".equals(a.keyword().value()) && a.attrValue() instanceof ISymbol) {
+						frames.getLast().funs.put(((ISymbol)a.attrValue()).value(),a);
+					}
+				}
+			}
+			return super.visit(e);
+		}
+
+		/** Prints a declaration, with its canonical name */
+		protected void declaration(Object decl) throws IOException, VisitorException {
+			if (decl instanceof Ideclare_sort) {
+				w.append("(").append(names.get(decl)).append(" ").append(((Ideclare_sort)decl).arity().toString()).append(")");
+			} else if (decl instanceof Idefine_sort) {
+				Idefine_sort d = (Idefine_sort)decl;
+				w.append("(").append(names.get(decl)).append(" (");
+				for (IParameter p: d.parameters()) {
+					sortParams.add(p.symbol().value());
+					w.append("#p").append(Integer.toString(sortParams.size()-1)).append(" ");
+				}
+				w.append(") ");
+				d.expression().accept(this);
+				w.append(")");
+				sortParams.clear();
+			} else if (decl instanceof Ideclare_fun) {
+				Ideclare_fun d = (Ideclare_fun)decl;
+				w.append("(").append(names.get(decl)).append(" (");
+				for (ISort s: d.argSorts()) {
+					s.accept(this);
+					w.append(" ");
+				}
+				w.append(") ");
+				d.resultSort().accept(this);
+				w.append(")");
+			} else if (decl instanceof Ideclare_const) {
+				w.append("(").append(names.get(decl)).append(" () ");
+				((Ideclare_const)decl).resultSort().accept(this);
+				w.append(")");
+			} else if (decl instanceof Idefine_fun) {
+				Idefine_fun d = (Idefine_fun)decl;
+				w.append("(").append(names.get(decl)).append(" ");
+				parameters(d.parameters());
+				d.resultSort().accept(this);
+				w.append(" ");
+				d.expression().accept(this);
+				w.append(")");
+				unbind(d.parameters().size());
+			} else {
+				// A name given by a :named attribute, whose meaning is in the assertion it names
+				w.append("(").append(names.get(decl)).append(" label)");
+			}
+		}
+	}
+
+	/** Returns the text of the expression with declared names elided */
+	protected String shape(IExpr expr) {
+		StringWriter sw = new StringWriter();
+		try {
+			new Canonicalizer(sw,true).print(expr);
+		} catch (VisitorException e) {
+			throw new SMT.InternalException("Failed to print " + expr + ": " + e.getMessage());
+		}
+		return sw.toString();
+	}
+
+	/** Returns the canonical form of the current query: the logic, the declarations used
+	 * (in order of their canonical names) and the live assertions. */
+	public String canonicalForm() {
+		List<Assertion> assertions = new ArrayList<Assertion>();
+		for (Frame f: frames) assertions.addAll(f.assertions);
+		Collections.sort(assertions,new Comparator<Assertion>() {
+			@Override
+			public int compare(Assertion a, Assertion b) {
+				return a.shape.compareTo(b.shape);
+			}
+		});
+		StringWriter body = new StringWriter();
+		StringWriter decls = new StringWriter();
+		try {
+			Canonicalizer c = new Canonicalizer(body,false);
+			for (Assertion a: assertions) c.print(a.expr);
+			// Printing a definition may name further declarations
+			Canonicalizer d = new Canonicalizer(decls,false);
+			d.names.putAll(c.names);
+			d.named.addAll(c.named);
+			for (int i = 0; i < d.named.size(); i++) d.print(d.named.get(i));
+		} catch (VisitorException e) {
+			throw new SMT.InternalException("Failed to print the query: " + e.getMessage());
+		}
+		return logic + "\n" + decls + body;
+	}
+
+	@Override
+	public IResponse start() {
+		return backend.start();
+	}
+
+	@Override
+	public IResponse exit() {
+		if (smtConfig.verbose != 0) {
+			smtConfig.log.logDiag("Query cache " + cache.file + ": " + cache.hits() + " hits, " + cache.misses() + " misses, "
+					+ cache.entries() + " of " + cache.capacity() + " entries, " + cache.evictions() + " evictions");
+		}
+		return backend.exit();
+	}
+
+	@Override
+	public IResponse echo(IStringLiteral arg) {
+		return backend.echo(arg);
+	}
+
+	@Override
+	public void comment(String comment) {
+		backend.comment(comment);
+	}
+
+	@Override
+	public IResponse set_logic(String logicName, /*@Nullable*/ IPos pos) {
+		IResponse r = backend.set_logic(logicName,pos);
+		if (!r.isError()) logic = logicName;
+		return r;
+	}
+
+	@Override
+	public IResponse reset() {
+		IResponse r = backend.reset();
+		if (!r.isError()) {
+			logic = null;
+			frames.clear();
+			frames.add(new Frame());
+			changed();
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse reset_assertions() {
+		IResponse r = backend.reset_assertions();
+		if (!r.isError()) {
+			frames.clear();
+			frames.add(new Frame());
+			changed();
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse push(int number) {
+		IResponse r = backend.push(number);
+		if (!r.isError()) {
+			for (int i = 0; i < number; i++) frames.add(new Frame());
+			changed();
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse pop(int number) {
+		IResponse r = backend.pop(number);
+		if (!r.isError()) {
+			for (int i = 0; i < number && frames.size() > 1; i++) frames.removeLast();
+			changed();
+		}
+		return r;
+	}
+
+	@Override
+	public IResponse assertExpr(IExpr expr) {
+		IResponse r = backend.assertExpr(expr);
+		if (!r.isError()) {
+			frames.getLast().assertions.add(new Assertion(expr,shape(expr)));
+			changed();
+		}
+		return r;
+	}
+
+	/** Answers from the cache if it can, otherwise gives check-sat to the backend and stores a
+	 * sat or unsat result */
+	@Override
+	public IResponse check_sat() {
+		if (logic == null) return backend.check_sat();
+		String query = canonicalForm();
+		Boolean sat = cache.get(query);
+		if (sat != null) {
+			unchecked = true;
+			checkSatStatus = sat ? smtConfig.responseFactory.sat() : smtConfig.responseFactory.unsat();
+			return checkSatStatus;
+		}
+		unchecked = false;
+		IResponse r = backend.check_sat();
+		if (smtConfig.responseFactory.sat().equals(r)) cache.put(query,true);
+		else if (smtConfig.responseFactory.unsat().equals(r)) cache.put(query,false);
+		checkSatStatus = r;
+		return r;
+	}
+
+	@Override
+	public IResponse check_sat_assuming(IExpr... exprs) {
+		changed();
+		checkSatStatus = backend.check_sat_assuming(exprs);
+		return checkSatStatus;
+	}
+
+	@Override
+	public IResponse declare_const(Ideclare_const cmd) {
+		return declared(backend.declare_const(cmd),cmd.symbol(),cmd,false);
+	}
+
+	@Override
+	public IResponse declare_fun(Ideclare_fun cmd) {
+		return declared(backend.declare_fun(cmd),cmd.symbol(),cmd,false);
+	}
+
+	@Override
+	public IResponse declare_sort(Ideclare_sort cmd) {
+		return declared(backend.declare_sort(cmd),cmd.sortSymbol(),cmd,true);
+	}
+
+	@Override
+	public IResponse define_fun(Idefine_fun cmd) {
+		return declared(backend.define_fun(cmd),cmd.symbol(),cmd,false);
+	}
+
+	@Override
+	public IResponse define_sort(Idefine_sort cmd) {
+		return declared(backend.define_sort(cmd),cmd.sortSymbol(),cmd,true);
+	}
+
+	@Override
+	public IResponse set_option(IKeyword option, IAttributeValue value) {
+		return backend.set_option(option,value);
+	}
+
+	@Override
+	public IResponse set_info(IKeyword key, IAttributeValue value) {
+		return backend.set_info(key,value);
+	}
+
+	@Override
+	public IResponse get_assertions() {
+		return backend.get_assertions();
+	}
+
+	@Override
+	public IResponse get_proof() {
+		IResponse r = check();
+		return r != null ? r : backend.get_proof();
+	}
+
+	@Override
+	public IResponse get_model() {
+		IResponse r = check();
+		return r != null ? r : backend.get_model();
+	}
+
+	@Override
+	public IResponse get_unsat_core() {
+		IResponse r = check();
+		return r != null ? r : backend.get_unsat_core();
+	}
+
+	@Override
+	public IResponse get_value(IExpr... terms) {
+		IResponse r = check();
+		return r != null ? r : backend.get_value(terms);
+	}
+
+	@Override
+	public IResponse get_assignment() {
+		IResponse r = check();
+		return r != null ? r : backend.get_assignment();
+	}
+
+	@Override
+	public IResponse get_option(IKeyword option) {
+		return backend.get_option(option);
+	}
+
+	/** The statistics of the backend, if any, are followed by those of the cache */
+	@Override
+	public IResponse get_info(IKeyword option) {
+		if (!Utils.ALL_STATISTICS.equals(option)) return backend.get_info(option);
+		IResponse r = backend.get_info(option);
+		List<IAttribute<?>> stats = new ArrayList<IAttribute<?>>();
+		if (r instanceof IResponse.IAttributeList) stats.addAll(((IResponse.IAttributeList)r).attributes());
+		IExpr.IFactory f = smtConfig.exprFactory;
+		long lookups = cache.hits() + cache.misses();
+		BigDecimal rate = lookups == 0 ? BigDecimal.ZERO
+				: BigDecimal.valueOf(cache.hits()).divide(BigDecimal.valueOf(lookups),3,RoundingMode.HALF_EVEN);
+		stats.add(f.attribute(f.keyword(":cache-hits"),f.numeral(cache.hits())));
+		stats.add(f.attribute(f.keyword(":cache-misses"),f.numeral(cache.misses())));
+		stats.add(f.attribute(f.keyword(":cache-hit-rate"),f.decimal(rate.toPlainString())));
+		stats.add(f.attribute(f.keyword(":cache-entries"),f.numeral(cache.entries())));
+		stats.add(f.attribute(f.keyword(":cache-capacity"),f.numeral(cache.capacity())));
+		stats.add(f.attribute(f.keyword(":cache-size"),f.numeral(cache.size())));
+		stats.add(f.attribute(f.keyword(":cache-evictions"),f.numeral(cache.evictions())));
+		return smtConfig.responseFactory.get_info_response(stats);
+	}
+}
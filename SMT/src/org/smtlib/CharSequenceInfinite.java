@@ -6,7 +6,6 @@
 package org.smtlib;
 
 import java.io.IOException;
-import java.nio.CharBuffer;
 
 /** This class implements a CharSequence that obtains its characters from a source of characters
  * of unknown length; it also provides some functionality to retain the characters and compute line numbers.  
@@ -15,6 +14,17 @@ import java.nio.CharBuffer;
  * read are held in an internal char array, whose size grows as needed; it starts as initialSize and
  * is expanded to currentSize*sizeMultiple + sizeIncrease whenever needed.
  * <P>
+ * A client may call release(int) to declare that characters before a given position will not be 
+ * needed again (the Parser does so after each top-level command when SMT.Configuration.windowedInput
+ * is set).  When the internal array is full, released characters are discarded and the remaining
+ * characters are moved to the front of the array, before the array is expanded, so that
+ * memory use is proportional to the amount of unreleased text rather than to the whole input.
+ * Positions are always absolute (counted from the beginning of the input); charAt and subSequence
+ * throw an IndexOutOfBoundsException for a position that has been discarded.
+ * <P>
+ * As characters are read, the positions of line beginnings are recorded in a LineIndex (see
+ * lineIndex()), so that line numbers and line beginnings can be found without rescanning the text.
+ * <P>
  * The CharSequenceReader is an unconventional CharSequence in that its length() is not known; 
  * whether this will cause problems
  * in some uses of the CharSequenceReader is unknown.  The user should not use the value of length()
@@ -53,6 +63,7 @@ public abstract class CharSequenceInfinite implements CharSequence {
 		buf = new char[initialSize];
 		this.amountRead = 0;
 		this.length = Integer.MAX_VALUE;
+		this.offset = 0;
 	}
 
 	/** The amount by which to increase the internal char array when needed */
@@ -66,43 +77,64 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	/** The internal char array that holds characters as they are read */
 	protected char /*@NonNull*/[] buf;
 
-	/** The number of characters read so far (and in the char array) */
+	/** The number of characters in the char array (those read so far, less any discarded) */
 	//@ invariant amountRead >= 0 && amountRead <= buf.length;
 	protected int amountRead;
 
+	/** The position (within the whole input) of the character held in buf[0]; all characters before
+	 * this position have been discarded. */
+	//@ invariant offset >= 0 && offset <= releaseMark;
+	protected int offset;
+	
+	/** Characters before this position may be discarded; it is only ever increased, by release(int) */
+	protected int releaseMark = 0;
+	
+	/** The line beginnings of all characters read so far (less those that have been discarded) */
+	final protected /*@NonNull*/ LineIndex lineIndex = new LineIndex();
+
 	/** The implicit length of the CharSequence; note that this length may change as characters are read */
-	//@ invariant length >= 0 && length >= amountRead;
+	//@ invariant length >= 0 && length >= offset + amountRead;
 	protected int length;
 
 	/** The character to use to mark the end of input */
 	final public static char endChar = (char)25;
 
-	//@ constraint (\forall int i; 0 <= i < \old(amountRead); \old(buf[i]) == buf[i]);
-	//@ constraint amountRead >= \old(amountRead);
+	//@ constraint (\forall int i; \old(releaseMark) <= i < \old(offset+amountRead); \old(buf[i-offset]) == buf[i-offset]);
+	//@ constraint offset + amountRead >= \old(offset + amountRead);
 	
 	/** Returns the char at the given index; this may block while input is read if the char has
 	 * not been read before.  An IOException that occurs while reading input is converted to an
-	 * undeclared RuntimeException. 
+	 * undeclared RuntimeException.  Once the end of input has been read, any index at or beyond
+	 * length() yields endChar.
 	 */
 	//@ requires index >= 0;
-	//@ assigns buf, buf[amountRead..], amountRead, length;
-	//@ ensures index < amountRead;
+	//@ assigns buf, buf[*], amountRead, offset, length, lineIndex.*;
+	//@ ensures index < offset + amountRead || \result == endChar;
 	@Override
 	public char charAt(int index) {
-		if (index >= amountRead) {
-			if (index >= buf.length) {
+		int i = index - offset;
+		if (i >= amountRead) {
+			// The end of input has already been read (and marked); do not read or store any more
+			if (length != Integer.MAX_VALUE) return endChar;
+			if (i >= buf.length) {
+				// Make room by first discarding released characters, and expand only if that is not enough
+				if (releaseMark > offset) {
+					discard(releaseMark - offset);
+					i = index - offset;
+				}
 				// We need +1 because one needs a buffer of at least size 2 to include index=1
 				// We add an additional +1 so that there is room to hold an End-of-input character if necessary
-				expandBuffer(index+2);
+				if (i >= buf.length) expandBuffer(i+2);
 			}
 			try {
-				while (amountRead <= index) {
+				while (amountRead <= i) {
 					if (!readChars()){
 						//SMT.out.println("END OF INPUT READ");
 						buf[amountRead++] = endChar;
-						length = amountRead;
+						length = offset + amountRead;
 						return endChar;
 					}
+					for (int k = lineIndex.scanned() - offset; k < amountRead; k++) lineIndex.add(buf[k]);
 				}
 			} catch (IOException e) {
 				// Note: we catch IOException and turn it into a RuntimeException
@@ -110,8 +142,40 @@ public abstract class CharSequenceInfinite implements CharSequence {
 				// signature for charAt(int) does not declare any thrown exceptions
 				throw new RuntimeException(e);
 			}
+		} else if (i < 0) {
+			throw new IndexOutOfBoundsException("Character " + index + " has been discarded; the input is retained from position " + offset);
 		}
-		return buf[index];
+		return buf[i];
+	}
+	
+	/** Declares that characters before the given position will not be needed again, so that they 
+	 * may be discarded the next time the internal buffer is full.  Positions that are already
+	 * released or beyond what has been read are ignored (the mark is limited to what has been read).
+	 * @param position the position of the first character that must be retained
+	 */
+	public void release(int position) {
+		if (position > offset + amountRead) position = offset + amountRead;
+		if (position > releaseMark) releaseMark = position;
+	}
+	
+	/** The position of the first character that is still retained (and so is readable by charAt) */
+	public int firstRetained() {
+		return offset;
+	}
+	
+	/** The index of line beginnings for all the characters read so far (that is, through
+	 * position lineIndex().scanned()-1) */
+	public /*@NonNull*/ LineIndex lineIndex() {
+		return lineIndex;
+	}
+	
+	/** Discards the first n characters of the buffer, moving the remaining ones to the front */
+	//@ requires 0 < n && n <= amountRead;
+	private void discard(int n) {
+		System.arraycopy(buf,n,buf,0,amountRead-n);
+		amountRead -= n;
+		offset += n;
+		lineIndex.drop(offset);
 	}
 	
 	/** Reads more characters into the buffer; may block until some are read;
@@ -158,17 +222,18 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	}
 
 	/** Returns a subsequence of this CharSequence, of length end-start.
-	 * CAUTION: This method can wrap a portion of the internal char array, but then
-	 * the char array can be expanded, allocating a new char array - so just don't rely on
-	 * changes to the sub-sequence to be reflected in the parent array.
+	 * The characters are copied, since the internal char array is both reallocated when it is
+	 * expanded and overwritten when released characters are discarded; the result therefore stays
+	 * valid after any later call of charAt or release.
 	 * @param start the starting index of the subsequence
 	 * @param end one past the last character included in the subsequence
 	 * 
 	 */
 	@Override
 	public CharSequence subSequence(int start, int end) {
-		charAt(end-1); // Just to be sure it has been read
-		return CharBuffer.wrap(buf,start,end-start);
+		if (end > start) charAt(end-1); // Just to be sure it has been read
+		if (start < offset) throw new IndexOutOfBoundsException("Character " + start + " has been discarded; the input is retained from position " + offset);
+		return new String(buf,start-offset,end-start);
 	}
 	
 }
@@ -0,0 +1,71 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** This class implements a CharSequence whose characters are the bytes of a file, mapped into 
+ * memory with FileChannel.map.  Each byte is one character (that is, the file is read as ASCII, 
+ * with any byte above 127 taken as the ISO-8859-1 character with that code), so no decoding or 
+ * copying into a char array is needed: the operating system pages the file in as the parser reads it.
+ * Only subSequence creates new character data (a String), which is what the lexer uses for the 
+ * text of each token.
+ * <P>
+ * Unlike CharSequenceReader, the length of this CharSequence is known from the start; files of 
+ * 2^31 bytes or more cannot be mapped as a CharSequence and cause an IOException.
+ * @author David R. Cok
+ */
+public class CharSequenceMapped implements CharSequence {
+	
+	/** The bytes of the file */
+	final protected /*@NonNull*/ MappedByteBuffer bytes;
+	
+	/** Maps the given file into memory; the file is closed again before the constructor returns,
+	 * but the mapping remains valid.
+	 * @param file the file to map
+	 * @throws java.io.FileNotFoundException if the file does not exist or cannot be read
+	 * @throws IOException if the file is too large or the mapping fails
+	 */
+	public CharSequenceMapped(/*@NonNull*/ File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file,"r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size >= Integer.MAX_VALUE) throw new IOException("File is too large to be mapped: " + file.getPath() + " (" + size + " bytes)");
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	@Override
+	public int length() {
+		return bytes.limit();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char)(bytes.get(index) & 0xff);
+	}
+
+	/** Returns the given range of characters as a String (the characters are copied) */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > bytes.limit() || start > end) throw new IndexOutOfBoundsException("subSequence(" + start + "," + end + ") of a sequence of length " + bytes.limit());
+		char[] chars = new char[end-start];
+		for (int i=start; i<end; i++) chars[i-start] = (char)(bytes.get(i) & 0xff);
+		return new String(chars);
+	}
+	
+	@Override
+	public String toString() {
+		return subSequence(0,length()).toString();
+	}
+}
@@ -55,10 +55,12 @@ public class CharSequenceReader extends CharSequenceInfinite implements CharSequ
 		if (!rdr.ready() && prompter != null) {
 			prompter.prompt();
 		}
+		int initial = amountRead;
 		do {
 			nread = rdr.read(buf,amountRead,buf.length-amountRead);
 			if (nread == -1) {
-				return false;
+				// Report end of input only if nothing at all was read by this call
+				return amountRead > initial;
 			}
 			amountRead += nread;
 		} while (amountRead < buf.length && rdr.ready());
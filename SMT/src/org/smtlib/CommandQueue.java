@@ -0,0 +1,50 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Executes commands on a solver in a background thread, in the order in which they are submitted;
+ * this implements ISolver.submit for solver adapters. The thread ends when there are no
+ * commands to execute and is started again as needed.
+ */
+public class CommandQueue {
+	
+	/** The solver the commands are executed on */
+	final protected ISolver solver;
+	
+	/** The single thread executing the commands */
+	final protected ThreadPoolExecutor executor;
+	
+	public CommandQueue(ISolver solver) {
+		this.solver = solver;
+		this.executor = new ThreadPoolExecutor(1,1,1,TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r,"CommandQueue");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/** Queues the command for execution, returning the response to come */
+	public Future<IResponse> submit(final ICommand command) {
+		return executor.submit(new Callable<IResponse>() {
+			@Override
+			public IResponse call() {
+				return command.execute(solver);
+			}
+		});
+	}
+}
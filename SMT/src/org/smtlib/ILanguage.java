@@ -16,6 +16,22 @@ public interface ILanguage {
 	/** Checks whether the given expression is permitted in the language, throwing an exception if not */
 	void validExpression(IExpr expression) throws IVisitor.VisitorException;
 	
+	/** Returns a new checker for expressions of the language, or null if there is none (in which
+	 * case validExpression must be used) */
+	/*@Nullable*/ IChecker checker();
+	
+	/** A checker for one or more expressions, which is given the subexpressions of an expression
+	 * during some other traversal of it (e.g. type-checking), so that validExpression need not
+	 * traverse the expression again.
+	 */
+	static public interface IChecker {
+		/** Called for each subexpression, after all of its own subexpressions */
+		void visited(IExpr e);
+		
+		/** Checks, as ILanguage.validExpression does, whether the given expression is permitted in the language */
+		void validExpression(IExpr expression) throws IVisitor.VisitorException;
+	}
+	
 	/** Checks whether the given function declaration is permitted in the language, throwing an exception if not */
 	void checkFcnDeclaration(IExpr.IIdentifier id, List<ISort> argSorts, ISort resultSort, /*@Nullable*/IExpr definition) throws IVisitor.VisitorException;
 	
@@ -5,6 +5,8 @@
  */
 package org.smtlib;
 
+import java.util.concurrent.Future;
+
 import org.smtlib.ICommand.Ideclare_const;
 import org.smtlib.ICommand.Ideclare_fun;
 import org.smtlib.ICommand.Ideclare_sort;
@@ -169,4 +171,11 @@ public interface ISolver {
 	 */
 	IResponse get_info(IKeyword option);
 	
+	/** Executes the command on this solver, without waiting for it to complete; commands
+	 * submitted are executed in order, one at a time. 
+	 * @param command the command to execute
+	 * @return the response the command will give
+	 */
+	Future<IResponse> submit(ICommand command);
+	
 }
@@ -62,6 +62,12 @@ public interface ISort extends IAccept, IPosable {
 	//@ pure
 	boolean equalsNoExpand(ISort sort);
 	
+	/** Returns the canonical sort for this sort: equal sorts (after expansion of all abbreviations)
+	 * have the same canonical sort, so they can be compared by reference; returns null if the
+	 * sort has no canonical form, e.g. because it has not been type-checked */
+	//@ pure
+	/*@Nullable*/ ISort canonical();
+	
 	/** A super-interface for definitions of new sort ids.
 	 */
 	static public interface IDefinition extends IAccept {
@@ -0,0 +1,119 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+/** This class records the character positions at which lines begin, so that the line number and
+ * line beginning of a character position can be found by binary search.  The index is built 
+ * incrementally: characters are added, in order, as they become available.  A line ends with 
+ * \n, \r, or \r\n (counted as one line termination); the line termination belongs to the line it 
+ * ends.  Entries before a given position may be dropped (see drop(int)) when the corresponding 
+ * text is discarded; the dropped lines are still counted in line numbers.
+ * @author David R. Cok
+ */
+public class LineIndex {
+	
+	/** The positions at which lines (other than the first) begin, in increasing order; only 
+	 * the first 'count' entries are used */
+	protected int[] starts = new int[1024];
+	
+	/** The number of entries in use in 'starts' */
+	protected int count = 0;
+	
+	/** The number of entries that have been dropped */
+	protected int dropped = 0;
+	
+	/** The largest line beginning that has been dropped (0 if none) */
+	protected int lastDropped = 0;
+	
+	/** The number of characters added so far, that is, the position of the next character to be added */
+	protected int scanned = 0;
+	
+	/** The last character added, or 0 if none */
+	protected char last = 0;
+	
+	/** The number of characters added so far */
+	public int scanned() {
+		return scanned;
+	}
+	
+	/** Adds the next character of the text */
+	public void add(char c) {
+		if (c == '\n') {
+			// The line after a \r\n begins after the \n
+			if (last == '\r' && count > 0 && starts[count-1] == scanned) starts[count-1] = scanned+1;
+			else push(scanned+1);
+		} else if (c == '\r') {
+			push(scanned+1);
+		}
+		last = c;
+		scanned++;
+	}
+	
+	/** Adds the characters of cs at the positions from scanned() up to (not including) end, which 
+	 * must be no greater than cs.length() */
+	public void scan(CharSequence cs, int end) {
+		while (scanned < end) add(cs.charAt(scanned));
+	}
+	
+	private void push(int start) {
+		if (count == starts.length) {
+			int[] n = new int[2*starts.length];
+			System.arraycopy(starts,0,n,0,count);
+			starts = n;
+		}
+		starts[count++] = start;
+	}
+	
+	/** The number of entries that are less than or equal to pos */
+	//@ ensures 0 <= \result && \result <= count;
+	protected int upperBound(int pos) {
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= pos) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	
+	/** Returns the number (beginning with 1) of the line containing the given position; the 
+	 * character at pos must have been added. */
+	//@ requires pos < scanned;
+	public int lineNumber(int pos) {
+		return 1 + dropped + upperBound(pos);
+	}
+	
+	/** Returns the position of the beginning of the line containing pos; the result is less
+	 * than the first retained entry if that beginning has been dropped.  The character at pos 
+	 * must have been added. */
+	//@ requires pos < scanned;
+	public int lineBeginning(int pos) {
+		int i = upperBound(pos);
+		return i == 0 ? lastDropped : starts[i-1];
+	}
+	
+	/** Returns the position of the beginning of the line after the one containing pos, or -1
+	 * if that is not yet known (that is, no line termination after pos has been added). */
+	public int nextLineBeginning(int pos) {
+		int i = upperBound(pos);
+		if (i == count) return -1;
+		// A \r at the end of what has been added might yet be followed by a \n
+		if (last == '\r' && starts[i] == scanned) return -1;
+		return starts[i];
+	}
+	
+	/** Drops the entries for lines that begin before the given position (the count of lines
+	 * is retained); the index is no longer able to give the beginnings of those lines. */
+	public void drop(int position) {
+		int i = upperBound(position-1);
+		if (i == 0) return;
+		lastDropped = starts[i-1];
+		dropped += i;
+		count -= i;
+		System.arraycopy(starts,i,starts,0,count);
+	}
+}
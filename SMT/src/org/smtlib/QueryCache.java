@@ -0,0 +1,257 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** A persistent store of the results (sat or unsat) of queries, kept in a memory-mapped file of
+ * fixed size; when it is full, the least recently used result is evicted to make room.
+ * A query is identified by the SHA-256 digest (truncated to 128 bits) of its text, so the text
+ * should be a canonical form of the query (see CachingSolver).
+ * <P>
+ * The file is a header followed by a table of fixed-size slots, each holding a digest, the
+ * time of its last use (from a clock kept in the header) and the result. The index from digest
+ * to slot, in order of use, is kept in memory and rebuilt from the slots when the file is
+ * opened. The file is locked while it is open, so only one process uses it at a time.
+ */
+public class QueryCache {
+
+	/** The size of the file if none is given, in bytes */
+	static final public long DEFAULT_CAPACITY = 16L << 20;
+
+	/** Identifies the file format */
+	static final protected int MAGIC = 0x534D5443;
+	/** The version of the file format */
+	static final protected int VERSION = 1;
+	/** The size of the header: magic, version, slot count, unused, clock */
+	static final protected int HEADER = 24;
+	/** The offset of the clock in the header */
+	static final protected int CLOCK = 16;
+	/** The size of a slot: the digest (2 longs), the time of last use, the result and padding */
+	static final protected int SLOT = 32;
+	/** The offset of the time of last use in a slot */
+	static final protected int STAMP = 16;
+	/** The offset of the result in a slot */
+	static final protected int RESULT = 24;
+
+	/** The values of the result byte of a slot */
+	static final protected byte EMPTY = 0, SAT = 1, UNSAT = 2;
+
+	/** The 128-bit digest of a query */
+	static final protected class Key {
+		final long hi, lo;
+		Key(long hi, long lo) { this.hi = hi; this.lo = lo; }
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key)o).hi == hi && ((Key)o).lo == lo;
+		}
+		@Override
+		public int hashCode() {
+			return (int)(lo ^ (lo >>> 32));
+		}
+	}
+
+	/** The file holding the store */
+	final public File file;
+	/** The number of slots, that is, the maximum number of results kept */
+	final protected int slots;
+
+	final protected RandomAccessFile raf;
+	final protected FileLock lock;
+	final protected MappedByteBuffer map;
+
+	/** The slot of each stored digest, least recently used first */
+	final protected LinkedHashMap<Key,Integer> index = new LinkedHashMap<Key,Integer>(16,0.75f,true);
+	/** The slots not in use */
+	final protected LinkedList<Integer> free = new LinkedList<Integer>();
+	/** The time of the last use of any slot */
+	protected long clock;
+
+	// Statistics for this use of the store
+	protected long hits = 0;
+	protected long misses = 0;
+	protected long stores = 0;
+	protected long evictions = 0;
+
+	/** Opens (creating it if need be) the store in the given file, which is to be no larger than
+	 * capacity bytes. If the file holds a store of a different size, the most recently used
+	 * results that fit are kept; if it holds anything else, it is overwritten.
+	 * @throws IOException if the file cannot be opened or is in use by another store
+	 */
+	public QueryCache(File file, long capacity) throws IOException {
+		this.file = file;
+		long n = (capacity - HEADER)/SLOT;
+		if (n < 1) throw new IllegalArgumentException("A query cache of " + capacity + " bytes cannot hold any results");
+		slots = (int)Math.min(n,Integer.MAX_VALUE/SLOT - 1);
+		raf = new RandomAccessFile(file,"rw");
+		FileLock fl;
+		try {
+			fl = raf.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			fl = null;
+		}
+		if (fl == null) {
+			raf.close();
+			throw new IOException("The query cache " + file + " is in use");
+		}
+		lock = fl;
+		long length = HEADER + (long)slots*SLOT;
+		List<long[]> kept = read();
+		if (kept != null && raf.length() == length) {
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,length);
+		} else {
+			// A new file, or one to be rebuilt with the results it holds
+			if (kept == null) kept = new ArrayList<long[]>();
+			else clock = 0;
+			raf.setLength(0);
+			raf.setLength(length);
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,length);
+			map.putInt(0,MAGIC);
+			map.putInt(4,VERSION);
+			map.putInt(8,slots);
+			if (kept.size() > slots) kept = kept.subList(kept.size()-slots,kept.size());
+			for (int i = 0; i < kept.size(); i++) {
+				long[] e = kept.get(i);
+				write(i,e[0],e[1],++clock,(byte)e[3]);
+				e[4] = i;
+			}
+			map.putLong(CLOCK,clock);
+		}
+		for (long[] e: kept) index.put(new Key(e[0],e[1]),(int)e[4]);
+		for (int i = 0; i < slots; i++) if (map.get(i*SLOT + HEADER + RESULT) == EMPTY) free.add(i);
+	}
+
+	/** Reads the results in the file, least recently used first, as arrays of digest (2 longs),
+	 * time of last use, result and slot; returns null if the file does not hold a store. Sets the clock. */
+	protected /*@Nullable*/ List<long[]> read() throws IOException {
+		if (raf.length() < HEADER) return null;
+		FileChannel ch = raf.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		ch.read(header,0);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return null;
+		int n = header.getInt(8);
+		if (n < 0 || raf.length() != HEADER + (long)n*SLOT) return null;
+		clock = header.getLong(CLOCK);
+		List<long[]> entries = new ArrayList<long[]>();
+		ByteBuffer slot = ByteBuffer.allocate(SLOT);
+		for (int i = 0; i < n; i++) {
+			slot.clear();
+			ch.read(slot,HEADER + (long)i*SLOT);
+			byte result = slot.get(RESULT);
+			if (result == EMPTY) continue;
+			entries.add(new long[]{ slot.getLong(0), slot.getLong(8), slot.getLong(STAMP), result, i });
+		}
+		Collections.sort(entries,new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[2] < b[2] ? -1 : a[2] == b[2] ? 0 : 1;
+			}
+		});
+		return entries;
+	}
+
+	/** Writes the contents of a slot */
+	protected void write(int slot, long hi, long lo, long stamp, byte result) {
+		int p = HEADER + slot*SLOT;
+		map.putLong(p,hi);
+		map.putLong(p+8,lo);
+		map.putLong(p+STAMP,stamp);
+		map.put(p+RESULT,result);
+	}
+
+	/** Returns the digest of the text of a query */
+	static protected Key key(CharSequence query) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SMT.InternalException("SHA-256 is not available: " + e);
+		}
+		ByteBuffer d = ByteBuffer.wrap(md.digest(query.toString().getBytes(StandardCharsets.UTF_8)));
+		return new Key(d.getLong(),d.getLong());
+	}
+
+	/** Returns the stored result of the query (true for sat, false for unsat), or null if there
+	 * is none; the result becomes the most recently used. */
+	synchronized public /*@Nullable*/ Boolean get(CharSequence query) {
+		Integer slot = index.get(key(query));
+		if (slot == null) {
+			++misses;
+			return null;
+		}
+		++hits;
+		int p = HEADER + slot*SLOT;
+		map.putLong(p+STAMP,++clock);
+		map.putLong(CLOCK,clock);
+		return map.get(p+RESULT) == SAT;
+	}
+
+	/** Stores the result of the query (true for sat, false for unsat), evicting the least recently
+	 * used result if the store is full */
+	synchronized public void put(CharSequence query, boolean sat) {
+		Key k = key(query);
+		Integer slot = index.get(k);
+		if (slot == null) {
+			if (!free.isEmpty()) {
+				slot = free.removeFirst();
+			} else {
+				Iterator<Map.Entry<Key,Integer>> eldest = index.entrySet().iterator();
+				slot = eldest.next().getValue();
+				eldest.remove();
+				++evictions;
+			}
+			index.put(k,slot);
+		}
+		write(slot,k.hi,k.lo,++clock,sat ? SAT : UNSAT);
+		map.putLong(CLOCK,clock);
+		++stores;
+	}
+
+	/** The number of lookups that found a result */
+	synchronized public long hits() { return hits; }
+
+	/** The number of lookups that found no result */
+	synchronized public long misses() { return misses; }
+
+	/** The number of results stored */
+	synchronized public long stores() { return stores; }
+
+	/** The number of results evicted to make room for others */
+	synchronized public long evictions() { return evictions; }
+
+	/** The number of results held */
+	synchronized public int entries() { return index.size(); }
+
+	/** The maximum number of results held */
+	public int capacity() { return slots; }
+
+	/** The size of the file, in bytes */
+	public long size() { return HEADER + (long)slots*SLOT; }
+
+	/** Writes the store to its file and closes it; the store may not be used afterwards */
+	synchronized public void close() throws IOException {
+		map.force();
+		lock.release();
+		raf.close();
+	}
+}
@@ -81,6 +81,7 @@ public class SMT {
 			//c.commandExtensionPrefixes = Array.copy(commandExtensionPrefixes);
 			c.commands = new HashMap<String,Class<? extends ICommand>>();
 			c.commands.putAll(commands);
+			c.commandRegistry = null;
 			// FIXME - ok to have a reference copy of Log ?
 			c.reservedWords = new HashSet<String>();
 			c.reservedWords.addAll(reservedWords);
@@ -119,7 +120,9 @@ public class SMT {
 		/** The verbosity level of the SMT solver */
 		public int solverVerbosity = 0;
 
-		/** The timeout for a given query, if supported by the solver */
+		/** The timeout for a given query; it is given to solvers that accept one as an option, and
+		 * the adapters for external solvers stop waiting for a check-sat or a get- command a little
+		 * after it, answering unknown (with :reason-unknown timeout) and restarting the solver */
 		public double timeout = -1; // seconds, <=0 means infinity
 		
 		/** This field is set from the command-line and sets the initial state of the :print-success option
@@ -178,6 +181,66 @@ public class SMT {
 		 */
 		public boolean relax = false;
 		
+		/** When true, the s-expression lexer scans tokens with a hand-written, table-driven
+		 * character-class DFA; when false, it uses the combined regular expression in 
+		 * org.smtlib.sexpr.Lexer.  The two produce the same tokens, but the DFA does not backtrack
+		 * and is considerably faster on large inputs.
+		 */
+		public boolean dfaLexer = false;
+		
+		/** When true, the parser releases the text of each command once it is parsed, so that the
+		 * input buffer can reuse that space rather than growing to hold the whole input; error 
+		 * messages then cannot show the text of earlier commands.
+		 */
+		public boolean windowedInput = false;
+		
+		/** When true, input files are mapped into memory and read directly as ASCII bytes, 
+		 * rather than being decoded through a Reader into a growing char array.
+		 */
+		public boolean mappedInput = false;
+		
+		/** The number of threads with which to parse each input file; if greater than 1, the whole
+		 * file is read and its commands parsed in parallel (see org.smtlib.sexpr.ParallelParser)
+		 * before they are executed in order; otherwise parsing and execution alternate.
+		 */
+		public int parseThreads = 0;
+		
+		/** When true, expressions and S-expressions are parsed with an explicit stack rather than by
+		 * recursion, so that deeply nested input does not overflow the thread's stack.
+		 */
+		public boolean iterativeParser = false;
+		
+		/** When true, the solver adapters that send SMT-LIB text to a solver (e.g. Solver_smt and
+		 * Solver_z3_4_3) write each asserted expression with its repeated subterms bound by lets,
+		 * rather than written out at every occurrence (see org.smtlib.sexpr.LetHoister).
+		 */
+		public boolean hoistShared = false;
+		
+		/** When true, each asserted formula is simplified (see org.smtlib.Simplifier) before it is
+		 * given to the solver, and one that simplifies to 'true' is not given to it at all.  Solvers
+		 * that type check formulas themselves (Solver_test and its subclasses) check the original
+		 * formula first; other solvers are given only the simplified one, so they do not report
+		 * errors in subterms that the simplification discards.
+		 */
+		public boolean simplify = false;
+		
+		/** When true, the adapters for external solvers send declarations, definitions and assertions
+		 * without waiting for each one's response; the responses are checked, in order, at the next
+		 * check-sat, get- or exit command. Each error is reported then, against the position of the
+		 * command that caused it, and a check-sat or get- command that follows an error is not run.
+		 */
+		public boolean pipeline = false;
+		
+		/** If not null, the adapters for external solvers take their solver processes from this pool
+		 * and give them back to it on exit, rather than starting a new process for each script.
+		 */
+		public /*@Nullable*/ SolverPool solverPool = null;
+		
+		/** If not null, check-sat is answered from this store of earlier results when it holds
+		 * the result of an equivalent query (see CachingSolver), and sat and unsat results are added to it.
+		 */
+		public /*@Nullable*/ QueryCache queryCache = null;
+		
 		/** An array of fully-qualified class name prefixes; a command name (with hyphen
 		 * replaced by underscore) is appended to the prefix to obtain a fully-qualified class name that
 		 * implements the command.
@@ -196,7 +259,8 @@ public class SMT {
 		public ISort.IFactory sortFactory;
 		/** The factory to use to create IResponse objects */
 		public IResponse.IFactory responseFactory;
-		/** The factory to use to create IExpr objects */
+		/** The factory to use to create IExpr objects; assign an org.smtlib.impl.HashConsFactory here
+		 * to have structurally equal expressions share a single instance */
 		public IExpr.IFactory exprFactory;
 		/** The factory to use to create ICommand objects */
 		public ICommand.IFactory commandFactory;
@@ -239,6 +303,8 @@ public class SMT {
 			}
 		};
 		
+		/** A cache of the results of commandFinder, created by the parser when first needed */
+		public /*@LazyNonNull*/ org.smtlib.sexpr.CommandRegistry commandRegistry = null;
 		
 		// These should not be set by the user - they hold internal state - they are public because
 		// they need to be seen in other packages of this tool
@@ -364,6 +430,14 @@ public class SMT {
 		if (ret == -1) return 0; // help or version
 		if (ret != 0) return ret;
 		ret = exec();
+		if (smtConfig.queryCache != null) {
+			try {
+				smtConfig.queryCache.close();
+			} catch (IOException e) {
+				error("Could not write the query cache " + smtConfig.queryCache.file + ": " + e.getMessage());
+			}
+		}
+		if (smtConfig.solverPool != null) smtConfig.solverPool.close();
 		return ret;
 	}
 	
@@ -426,21 +500,51 @@ public class SMT {
 			smtConfig.interactive = false;
 			for (String file: smtConfig.files) {
 				try {
-					Reader rdr = new BufferedReader(new FileReader(file));
-					CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
-					src = smtConfig.smtFactory.createSource(csr, file);
-					p = smtConfig.smtFactory.createParser(smtConfig,src);
+					if (smtConfig.mappedInput) {
+						src = smtConfig.smtFactory.createSource(smtConfig, new File(file));
+						if (smtConfig.parseThreads > 1 && src.chars() instanceof CharSequenceInfinite) {
+							// The file could not be mapped, and parsing in parallel needs the whole text at once
+							src.close();
+							smtConfig.log.logDiag("Warning: " + file + " could not be memory-mapped for --mapped; it is read into memory instead so that it can be parsed in parallel");
+							src = smtConfig.smtFactory.createSource(readFile(file), file);
+						}
+					} else if (smtConfig.parseThreads > 1) {
+						// Parsing in parallel needs the whole text at once
+						src = smtConfig.smtFactory.createSource(readFile(file), file);
+					} else {
+						Reader rdr = new BufferedReader(new FileReader(file));
+						CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
+						src = smtConfig.smtFactory.createSource(csr, file);
+					}
+					p = smtConfig.parseThreads > 1 ? new org.smtlib.sexpr.ParallelParser(smtConfig,src,smtConfig.parseThreads)
+							: smtConfig.smtFactory.createParser(smtConfig,src);
 					if (smtConfig.verbose != 0) smtConfig.log.logDiag("Starting file " + file);
 					int e = doParser(p);
 					if (e != 0) retcode = e;
 				} catch (FileNotFoundException e) {
 					smtConfig.log.logError("Could not find file: " + file + " Exception: " + e);
+				} catch (IOException e) {
+					smtConfig.log.logError("Could not read file: " + file + " Exception: " + e);
 				}
 			}
 			return retcode;
 		}
 	}
 	
+	/** Reads the whole content of the named file */
+	static protected String readFile(String file) throws IOException {
+		Reader rdr = new BufferedReader(new FileReader(file));
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[65536];
+			int n;
+			while ((n = rdr.read(buf)) > 0) sb.append(buf,0,n);
+			return sb.toString();
+		} finally {
+			rdr.close();
+		}
+	}
+	
 	public int execCommand(String cmd) {
 		ISource src = smtConfig.smtFactory.createSource(cmd,null);
 		IParser p = smtConfig.smtFactory.createParser(smtConfig,src);
@@ -550,6 +654,8 @@ public class SMT {
 	public int processCommandLine(String[] args, SMT.Configuration options) {
 		//smtConfig.log.logDiag("#Start processing command-line");
 		// Handle smtConfig
+		String cacheFile = null;
+		long cacheSize = QueryCache.DEFAULT_CAPACITY;
 		int i = 0;
 		while (i < args.length) {
 			String s = args[i++];
@@ -645,6 +751,69 @@ public class SMT {
 				options.relax = true;
 			} else if ("--noshow".equals(s)) {
 				options.noshow = true;
+			} else if ("--dfalexer".equals(s)) {
+				options.dfaLexer = true;
+			} else if ("--windowed".equals(s)) {
+				options.windowedInput = true;
+			} else if ("--mapped".equals(s)) {
+				options.mappedInput = true;
+			} else if ("--parallel".equals(s)) {
+				if (i >= args.length) {
+					error("The --parallel option expects an argument");
+					usage();
+					return 1;
+				}
+				options.parseThreads = Integer.valueOf(args[i++]).intValue();
+			} else if ("--iterative".equals(s)) {
+				options.iterativeParser = true;
+			} else if ("--hoist".equals(s)) {
+				options.hoistShared = true;
+			} else if ("--simplify".equals(s)) {
+				options.simplify = true;
+			} else if ("--pipeline".equals(s)) {
+				options.pipeline = true;
+			} else if ("--timeout".equals(s)) {
+				if (i >= args.length) {
+					error("The --timeout option expects an argument");
+					usage();
+					return 1;
+				}
+				try {
+					options.timeout = Double.valueOf(args[i++]);
+				} catch (NumberFormatException e) {
+					error("The --timeout option expects a number of seconds");
+					usage();
+					return 1;
+				}
+			} else if ("--pool".equals(s)) {
+				if (i >= args.length) {
+					error("The --pool option expects an argument");
+					usage();
+					return 1;
+				}
+				options.solverPool = new SolverPool(Integer.valueOf(args[i++]).intValue());
+			} else if ("--cache".equals(s)) {
+				if (i >= args.length) {
+					error("The --cache option expects an argument");
+					usage();
+					return 1;
+				}
+				cacheFile = args[i++];
+			} else if ("--cachesize".equals(s)) {
+				if (i >= args.length) {
+					error("The --cachesize option expects an argument");
+					usage();
+					return 1;
+				}
+				try {
+					cacheSize = Long.parseLong(args[i++]) * 1024;
+				} catch (NumberFormatException e) {
+					error("The --cachesize option expects a number of kilobytes");
+					usage();
+					return 1;
+				}
+			} else if ("--share".equals(s)) {
+				options.exprFactory = new org.smtlib.impl.HashConsFactory();
 			} else if (s.startsWith("-")) {
 				error("Unknown option: " + s);
 				usage();
@@ -655,6 +824,19 @@ public class SMT {
 			}
 		}
 		
+		if (cacheFile != null) {
+			try {
+				options.queryCache = new QueryCache(new File(cacheFile),cacheSize);
+			} catch (IOException e) {
+				error("Could not open the query cache " + cacheFile + ": " + e.getMessage());
+				return 1;
+			} catch (IllegalArgumentException e) {
+				error(e.getMessage());
+				usage();
+				return 1;
+			}
+		}
+		
 		props = readProperties();
 
 		if (options.logicPath == null) options.logicPath = props.getProperty(Utils.PROPS_LOGIC_PATH);
@@ -706,11 +888,59 @@ public class SMT {
 	 */
 	/*@Nullable*/
 	public ISolver startSolver(SMT.Configuration smtConfig, /*@NonNull*/String solvername, /*@Nullable*/String executable) {
+		ISolver solver = createSolver(smtConfig,solvername,executable);
+		if (solver == null) return null;
+		if (smtConfig.queryCache != null) solver = new CachingSolver(smtConfig,smtConfig.queryCache,solver);
+		try {
+			IResponse res = solver.start();
+			if (res.isError()) {
+				smtConfig.log.logError((IResponse.IError)res);
+				error(solvername + " failed to start: " + ((IResponse.IError)res).errorMsg());
+				return null;
+			}
+		} catch (SolverProcess.ProverException e) {
+			error("Problem in starting or running " + solvername + ": " + e.getMessage());
+			return null;
+		}
+		return solver;
+	}
+	
+	/** Creates, but does not start, the solver with the given name and executable, as described for
+	 * startSolver. A name of the form portfolio:name1,name2,... designates a Solver_portfolio of the 
+	 * named solvers, whose executables are all found from the properties.
+	 * @return the ISolver object, or null if errors happened
+	 */
+	/*@Nullable*/
+	public ISolver createSolver(SMT.Configuration smtConfig, /*@NonNull*/String solvername, /*@Nullable*/String executable) {
 		/*@NonNull*/ ISolver solver;
 		Class<? extends Object> adapterClass = null;
 		String[] command = null;
 		String adapterClassName = null;
 		
+		if (solvername.startsWith(org.smtlib.solvers.Solver_portfolio.PREFIX)) {
+			if (executable != null) {
+				error("An executable may not be given for a portfolio of solvers: " + executable);
+				usage();
+				return null;
+			}
+			List<String> names = new LinkedList<String>();
+			List<ISolver> backends = new LinkedList<ISolver>();
+			for (String name: solvername.substring(org.smtlib.solvers.Solver_portfolio.PREFIX.length()).split(",")) {
+				name = name.trim();
+				if (name.isEmpty()) continue;
+				ISolver backend = createSolver(smtConfig,name,null);
+				if (backend == null) return null;
+				names.add(name);
+				backends.add(backend);
+			}
+			if (backends.isEmpty()) {
+				error("No solvers are named in " + solvername);
+				usage();
+				return null;
+			}
+			return new org.smtlib.solvers.Solver_portfolio(smtConfig,names,backends);
+		}
+		
 		// Find the adapter, executable, command
 		if (!solvername.equals(Utils.TEST_SOLVER)) {
 			String solvernameNormalized = solvername.replace('-','_').replace('.', '_');
@@ -778,12 +1008,6 @@ public class SMT {
 	            constructor = adapterClass.getConstructor(SMT.Configuration.class,command.getClass());
 				solver = (ISolver)(constructor.newInstance(smtConfig,command));
 			}
-			IResponse res = solver.start();
-			if (res.isError()) {
-				smtConfig.log.logError((IResponse.IError)res);
-				error(solvername + " failed to start: " + ((IResponse.IError)res).errorMsg());
-				return null;
-			}
 		} catch (NoSuchMethodException e) {
 			error("Could not find an appropriate constructor in " + adapterClassName + ": " + e);
 			usage();
@@ -832,6 +1056,19 @@ public class SMT {
 		System.out.println("       --noshow");
 		System.out.println("       --nosuccess   [-q]");
 		System.out.println("       --relax  [-r]");
+		System.out.println("       --dfalexer");
+		System.out.println("       --windowed");
+		System.out.println("       --mapped");
+		System.out.println("       --parallel    <int>");
+		System.out.println("       --iterative");
+		System.out.println("       --share");
+		System.out.println("       --hoist");
+		System.out.println("       --simplify");
+		System.out.println("       --pipeline");
+		System.out.println("       --pool        <int>");
+		System.out.println("       --timeout     <seconds>");
+		System.out.println("       --cache       <path>");
+		System.out.println("       --cachesize   <int>");
 
 	}
 	
@@ -855,6 +1092,8 @@ public class SMT {
 // FIXME-NOW - distinguish verbose for app and verbose for solver?
 		System.out.println("    -s, --solver <name> : indicates the SMT solver to use (or 'test')");
 		System.out.println("        The name of the adaptor class is \"org.smtlib.solvers.Solver_\" + <name>");
+		System.out.println("        portfolio:<name>,<name>,... runs the named solvers together, answering");
+		System.out.println("        each check-sat with the first of them to find sat or unsat");
 		System.out.println("    -e, --exec <path> : indicates the SMT solver executable to use");
 		System.out.println("        The argument is the pathname of the executable for the named solver");
 // FIXME - if not specified, uses the value of...		
@@ -869,6 +1108,19 @@ public class SMT {
 		System.out.println("        --noshow: if enabled, error location information is not shown");
 		System.out.println("    -q, --nosuccess: if enabled, 'success' responses are suppressed");
 		System.out.println("        --relax: if enabled, extensions to strict SMT-LIB are permitted");
+		System.out.println("        --dfalexer: if enabled, input is tokenized by a table-driven scanner instead of a regular expression");
+		System.out.println("        --windowed: if enabled, the text of already-parsed commands is discarded from the input buffer");
+		System.out.println("        --mapped: if enabled, input files are memory-mapped and read as ASCII");
+		System.out.println("        --parallel <number>: the number of threads with which to parse each input file before executing it");
+		System.out.println("        --iterative: if enabled, expressions are parsed without recursion, so that deep nesting does not overflow the stack");
+		System.out.println("        --share: if enabled, structurally equal expressions are represented by one shared object");
+		System.out.println("        --hoist: if enabled, repeated subterms of asserted expressions are sent to the solver once, bound by let");
+		System.out.println("        --simplify: if enabled, asserted formulas are simplified before being given to the solver, and those that simplify to true are not given to it");
+		System.out.println("        --pipeline: if enabled, declarations and assertions are sent to the solver without waiting for each response; errors are reported at the next check-sat, get- or exit command");
+		System.out.println("        --pool <number>: if given, that many started solver processes are kept ready, and processes are reset and reused after exit");
+		System.out.println("        --timeout <seconds>: the time limit for each check-sat; the solver is restarted if it does not respond in time");
+		System.out.println("        --cache <path>: if given, the file in which sat and unsat results are kept, so that check-sat of an equivalent query is answered without the solver");
+		System.out.println("        --cachesize <number>: the size in kilobytes of the --cache file; the least recently used results are evicted when it is full");
 		System.out.println("This software is Copyright 2010 by David R. Cok. The accompanying LICENSE ");
 		System.out.println("    file describes the conditions under which it may be used.");
 	}
@@ -914,7 +1166,7 @@ public class SMT {
 	}
 	
 	/** An instance of a logic finder that looks in the configuration's logicPath, or (if there is no such path) as a file on the system CLASSPATH */
-	public static ILogicFinder logicFinder = new ILogicFinder() {
+	public static final ILogicFinder defaultLogicFinder = new ILogicFinder() {
 		@Override
 		public /*@Mutable*/ InputStream find(Configuration smtConfig, String name, /*@Nullable*/IPos pos) throws IOException, Utils.SMTLIBException {
 			String path = smtConfig.logicPath;
@@ -933,4 +1185,7 @@ public class SMT {
 			}
 		}
 	};
+	
+	/** The logic finder used to find logic and theory files (initially defaultLogicFinder) */
+	public static ILogicFinder logicFinder = defaultLogicFinder;
 }
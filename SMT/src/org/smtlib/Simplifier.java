@@ -0,0 +1,526 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.smtlib.IExpr.*;
+import org.smtlib.impl.HashConsFactory;
+
+/** This class is a visitor that rewrites a formula into a simpler, equivalent one, using only
+ * the fixed meanings of the symbols of the Core, Ints, Reals and FixedSizeBitVectors theories;
+ * it is used (when SMT.Configuration.simplify is set) to simplify asserted formulas before they
+ * are sent to a solver.  It performs
+ * <UL>
+ * <LI> constant folding of arithmetic, comparisons and bit-vector operations whose arguments are
+ * all literals of the same kind (no Int/Real conversions are made)
+ * <LI> flattening of nested 'and' and 'or', removal of 'true' and 'false' arguments of the boolean
+ * connectives, and short-circuiting of 'and', 'or', '=>' and 'ite' with constant arguments
+ * <LI> simplification of '=' and 'distinct' on identical terms or on literals
+ * </UL>
+ * Quantifier and let bodies are simplified unless they bind one of the symbols given a meaning
+ * here.  Named (attributed) expressions are kept, though their contents are simplified.
+ * The result shares all unchanged subterms with the input; new terms are created with the
+ * configuration's expression factory.
+ * <P>
+ * The simplifier does not type-check: an ill-sorted subterm may be discarded (e.g. an argument of
+ * an 'and' that also has a 'false' argument), so a solver that is only given the simplified form
+ * does not report errors in it.  Solvers that type check formulas themselves check the original
+ * formula and give the simplifier its sorts, so that the new subterms are sorted as well.
+ */
+public class Simplifier extends IVisitor.NullVisitor<IExpr> {
+
+	/** The symbols whose meanings the simplifier uses */
+	static public final Set<String> interpreted = new HashSet<String>(Arrays.asList(
+			"true","false","not","and","or","=>","xor","ite","=","distinct",
+			"+","-","*","/","div","mod","abs","<","<=",">",">=",
+			"bvnot","bvneg","bvand","bvor","bvxor","bvadd","bvsub","bvmul",
+			"bvult","bvule","bvugt","bvuge","concat","extract"));
+
+	/** A reference to the current configuration */
+	final protected SMT.Configuration smtConfig;
+
+	/** The factory with which new expressions are created */
+	final protected IExpr.IFactory f;
+
+	/** The simplified form of each expression already simplified */
+	final protected Map<IExpr,IExpr> done = new IdentityHashMap<IExpr,IExpr>();
+
+	/** The sorts of the (type checked) expressions being simplified, to which the sorts of the new
+	 * expressions are added; null if the expressions are not type checked */
+	final protected /*@Nullable*/ Map<IExpr,ISort> sorts;
+
+	/** The 'true' and 'false' symbols, as created by the factory */
+	final protected ISymbol trueSym, falseSym;
+
+	/** Creates a simplifier for the given configuration */
+	public Simplifier(SMT.Configuration smtConfig) {
+		this(smtConfig,null);
+	}
+
+	/** Creates a simplifier for the given configuration that keeps the given map of sorts up to date */
+	public Simplifier(SMT.Configuration smtConfig, /*@Nullable*/ Map<IExpr,ISort> sorts) {
+		this.smtConfig = smtConfig;
+		this.f = smtConfig.exprFactory;
+		this.sorts = sorts;
+		trueSym = f.symbol("true");
+		falseSym = f.symbol("false");
+	}
+
+	/** Returns the form of an asserted formula that is to be given to a solver: the formula itself,
+	 * unless the configuration's simplify option is set, in which case it is the simplified formula,
+	 * or null if that is 'true' and so need not be given to the solver at all.  The sorts, if not
+	 * null, are those of the type checked formula and are kept up to date as for the constructor.
+	 */
+	static public /*@Nullable*/ IExpr asserted(SMT.Configuration smtConfig, IExpr e, /*@Nullable*/ Map<IExpr,ISort> sorts) {
+		if (!smtConfig.simplify) return e;
+		IExpr r = new Simplifier(smtConfig,sorts).simplify(e);
+		return isTrue(r) ? null : r;
+	}
+
+	/** Returns a simplified expression equivalent to the argument */
+	public IExpr simplify(IExpr e) {
+		IExpr r = done.get(e);
+		if (r == null) {
+			try {
+				r = e.accept(this);
+			} catch (IVisitor.VisitorException ex) {
+				r = null;
+			}
+			if (r == null) r = e;
+			if (sorts != null && r != e) {
+				ISort s = sorts.get(e);
+				if (s != null) sorted(r,s);
+			}
+			done.put(e,r);
+		}
+		return r;
+	}
+
+	/** Records the sort of a new expression, which is that of the expression it replaces; a
+	 * negative number is also created with a new literal, which has the same sort */
+	protected void sorted(IExpr r, ISort s) {
+		if (sorts.get(r) == null) sorts.put(r,s);
+		if (r instanceof IFcnExpr && ((IFcnExpr)r).args().size() == 1 && name(r).equals("-")) {
+			IExpr a = ((IFcnExpr)r).args().get(0);
+			if (a instanceof ILiteral) sorted(a,s);
+		}
+	}
+
+	/** Whether the argument is the symbol 'true' */
+	static public boolean isTrue(IExpr e) {
+		return e instanceof ISymbol && ((ISymbol)e).value().equals("true");
+	}
+
+	/** Whether the argument is the symbol 'false' */
+	static public boolean isFalse(IExpr e) {
+		return e instanceof ISymbol && ((ISymbol)e).value().equals("false");
+	}
+
+	/** Whether the two expressions are syntactically the same term */
+	static public boolean same(IExpr a, IExpr b) {
+		if (a == b) return true;
+		if (a instanceof IFcnExpr && b instanceof IFcnExpr) {
+			IFcnExpr fa = (IFcnExpr)a, fb = (IFcnExpr)b;
+			if (fa.args().size() != fb.args().size() || !same(fa.head(),fb.head())) return false;
+			for (int i = 0; i < fa.args().size(); i++) {
+				if (!same(fa.args().get(i),fb.args().get(i))) return false;
+			}
+			return true;
+		}
+		if (a instanceof ISymbol && b instanceof ISymbol) {
+			return ((ISymbol)a).value().equals(((ISymbol)b).value());
+		}
+		if (a instanceof IParameterizedIdentifier || a instanceof IAsIdentifier || a instanceof ILiteral) {
+			return a.kind().equals(b.kind()) && org.smtlib.sexpr.Printer.write(a).equals(org.smtlib.sexpr.Printer.write(b));
+		}
+		return false;
+	}
+
+	/** Returns the boolean constant with the given value */
+	protected ISymbol bool(boolean b) {
+		return b ? trueSym : falseSym;
+	}
+
+	/** Returns the value of a numeral or decimal literal, or of the negation of one, or null */
+	protected /*@Nullable*/ BigDecimal number(IExpr e) {
+		if (e instanceof INumeral) return new BigDecimal(((INumeral)e).value());
+		if (e instanceof IDecimal) return ((IDecimal)e).value();
+		if (e instanceof IFcnExpr && ((IFcnExpr)e).args().size() == 1 && name(e).equals("-")) {
+			BigDecimal d = number(((IFcnExpr)e).args().get(0));
+			return d == null ? null : d.negate();
+		}
+		return null;
+	}
+
+	/** Whether the argument is a decimal literal or the negation of one */
+	protected boolean isDecimal(IExpr e) {
+		return e instanceof IDecimal || (e instanceof IFcnExpr && ((IFcnExpr)e).args().size() == 1 && isDecimal(((IFcnExpr)e).args().get(0)));
+	}
+
+	/** Returns a numeral (if !decimal) or decimal literal with the given value */
+	protected IExpr number(BigDecimal v, boolean decimal) {
+		BigDecimal a = v.abs();
+		IExpr lit = decimal ? f.decimal(a.scale() > 0 ? a.toPlainString() : a.setScale(1).toPlainString())
+				: f.numeral(a.toBigIntegerExact().toString());
+		return v.signum() < 0 ? f.fcn(f.symbol("-"),lit) : lit;
+	}
+
+	/** Returns the width of a binary or hex literal, or -1 if the argument is not one */
+	static protected int width(IExpr e) {
+		if (e instanceof IBinaryLiteral) return ((IBinaryLiteral)e).length();
+		if (e instanceof IHexLiteral) return 4*((IHexLiteral)e).length();
+		return -1;
+	}
+
+	/** Returns the value of a binary or hex literal */
+	static protected BigInteger bits(IExpr e) {
+		return e instanceof IBinaryLiteral ? ((IBinaryLiteral)e).intValue() : ((IHexLiteral)e).intValue();
+	}
+
+	/** Returns a bit-vector literal of the given width and value (modulo 2^width), written in hex
+	 * if hex is true and the width is a multiple of 4 */
+	protected IExpr bits(BigInteger v, int width, boolean hex) {
+		v = v.mod(BigInteger.ONE.shiftLeft(width));
+		boolean h = hex && width % 4 == 0;
+		String s = v.toString(h ? 16 : 2);
+		StringBuilder sb = new StringBuilder();
+		for (int i = s.length(); i < (h ? width/4 : width); i++) sb.append('0');
+		sb.append(s);
+		return h ? f.hex(sb.toString()) : f.binary(sb.toString());
+	}
+
+	/** Returns the name of the head symbol of a function application */
+	static protected String name(IExpr e) {
+		return ((IFcnExpr)e).head().headSymbol().value();
+	}
+
+	@Override
+	public IExpr visit(IFcnExpr e) throws IVisitor.VisitorException {
+		List<IExpr> args = new ArrayList<IExpr>(e.args().size());
+		boolean changed = false;
+		for (IExpr a: e.args()) {
+			IExpr s = simplify(a);
+			changed |= s != a;
+			args.add(s);
+		}
+		IQualifiedIdentifier head = e.head();
+		IExpr r = null;
+		if (head instanceof ISymbol) {
+			String op = ((ISymbol)head).value();
+			if (interpreted.contains(op)) r = apply(op,args);
+		} else if (head instanceof IParameterizedIdentifier) {
+			r = apply((IParameterizedIdentifier)head,args);
+		}
+		if (r != null) return r;
+		if (!changed) return e;
+		return at(f.fcn(head,args),e);
+	}
+
+	/** Gives the new expression r the position of the expression e that it replaces, unless
+	 * expressions are shared (created by a HashConsFactory), since r may then occur elsewhere too */
+	protected <T extends IPos.IPosable> T at(T r, IPos.IPosable e) {
+		if (e.pos() != null && !(f instanceof HashConsFactory)) r.setPos(e.pos());
+		return r;
+	}
+
+	/** Returns the simplified form of the application of the given symbol to the given (simplified)
+	 * arguments, or null if no simplification applies */
+	protected /*@Nullable*/ IExpr apply(String op, List<IExpr> args) {
+		int n = args.size();
+		if (n == 0) return null;
+		IExpr a0 = args.get(0);
+		if (op.equals("not")) {
+			if (n != 1) return null;
+			if (isTrue(a0)) return falseSym;
+			if (isFalse(a0)) return trueSym;
+			if (a0 instanceof IFcnExpr && name(a0).equals("not") && ((IFcnExpr)a0).args().size() == 1) return ((IFcnExpr)a0).args().get(0);
+			return null;
+		}
+		if (op.equals("and") || op.equals("or")) {
+			boolean and = op.equals("and");
+			List<IExpr> list = new ArrayList<IExpr>(n);
+			boolean changed = false;
+			for (IExpr a: args) {
+				if (and ? isFalse(a) : isTrue(a)) return and ? falseSym : trueSym;
+				if (and ? isTrue(a) : isFalse(a)) {
+					changed = true;
+				} else if (a instanceof IFcnExpr && name(a).equals(op)) {
+					list.addAll(((IFcnExpr)a).args()); // already simplified, so contains no constants
+					changed = true;
+				} else {
+					list.add(a);
+				}
+			}
+			if (list.isEmpty()) return and ? trueSym : falseSym;
+			if (list.size() == 1) return list.get(0);
+			return changed ? f.fcn(f.symbol(op),list) : null;
+		}
+		if (op.equals("=>")) {
+			IExpr last = args.get(n-1);
+			if (isTrue(last)) return trueSym;
+			List<IExpr> list = new ArrayList<IExpr>(n);
+			for (int i = 0; i < n-1; i++) {
+				IExpr a = args.get(i);
+				if (isFalse(a)) return trueSym;
+				if (!isTrue(a)) list.add(a);
+			}
+			if (list.isEmpty()) return last;
+			if (list.size() == n-1) return null;
+			list.add(last);
+			return f.fcn(f.symbol(op),list);
+		}
+		if (op.equals("xor")) {
+			boolean v = false;
+			for (IExpr a: args) {
+				if (isTrue(a)) v = !v;
+				else if (!isFalse(a)) return null;
+			}
+			return bool(v);
+		}
+		if (op.equals("ite")) {
+			if (n != 3) return null;
+			if (isTrue(a0)) return args.get(1);
+			if (isFalse(a0)) return args.get(2);
+			if (same(args.get(1),args.get(2))) return args.get(1);
+			return null;
+		}
+		if (op.equals("=")) {
+			if (n < 2) return null;
+			boolean all = true;
+			for (IExpr a: args) all = all && same(a,a0);
+			if (all) return trueSym;
+			Boolean eq = equalLiterals(args);
+			if (eq != null) return bool(eq);
+			if (n == 2) {
+				IExpr a1 = args.get(1);
+				if (isTrue(a1)) return a0;
+				if (isTrue(a0)) return a1;
+			}
+			return null;
+		}
+		if (op.equals("distinct")) {
+			if (n < 2) return null;
+			for (int i = 0; i < n; i++) {
+				for (int j = i+1; j < n; j++) {
+					if (same(args.get(i),args.get(j))) return falseSym;
+				}
+			}
+			Boolean eq = equalLiterals(args);
+			// all literals are pairwise distinct only if no two are equal
+			if (eq != null && n == 2) return bool(!eq);
+			if (eq != null && distinctLiterals(args)) return trueSym;
+			return null;
+		}
+		if (width(a0) >= 0) return bitvector(op,args);
+		return arithmetic(op,args);
+	}
+
+	/** If all the arguments are literals of the same kind (boolean, numeric or bit-vector of the
+	 * same width), returns whether they are all equal; otherwise returns null */
+	protected /*@Nullable*/ Boolean equalLiterals(List<IExpr> args) {
+		IExpr a0 = args.get(0);
+		if (isTrue(a0) || isFalse(a0)) {
+			for (IExpr a: args) if (!isTrue(a) && !isFalse(a)) return null;
+			for (IExpr a: args) if (isTrue(a) != isTrue(a0)) return false;
+			return true;
+		}
+		if (width(a0) >= 0) {
+			int w = width(a0);
+			for (IExpr a: args) if (width(a) != w) return null;
+			for (IExpr a: args) if (!bits(a).equals(bits(a0))) return false;
+			return true;
+		}
+		BigDecimal v0 = number(a0);
+		if (v0 == null) return null;
+		boolean d = isDecimal(a0);
+		for (IExpr a: args) if (number(a) == null || isDecimal(a) != d) return null;
+		for (IExpr a: args) if (number(a).compareTo(v0) != 0) return false;
+		return true;
+	}
+
+	/** Returns whether the literal arguments (all of one kind, as checked by equalLiterals) are
+	 * pairwise distinct */
+	protected boolean distinctLiterals(List<IExpr> args) {
+		for (int i = 0; i < args.size(); i++) {
+			for (int j = i+1; j < args.size(); j++) {
+				List<IExpr> pair = new ArrayList<IExpr>(2);
+				pair.add(args.get(i));
+				pair.add(args.get(j));
+				if (equalLiterals(pair)) return false;
+			}
+		}
+		return true;
+	}
+
+	/** Folds arithmetic operations and comparisons whose arguments are all numerals or all
+	 * decimals; returns null if that is not the case */
+	protected /*@Nullable*/ IExpr arithmetic(String op, List<IExpr> args) {
+		int n = args.size();
+		boolean decimal = isDecimal(args.get(0));
+		BigDecimal[] v = new BigDecimal[n];
+		for (int i = 0; i < n; i++) {
+			IExpr a = args.get(i);
+			if ((v[i] = number(a)) == null || isDecimal(a) != decimal) return null;
+		}
+		BigDecimal r = v[0];
+		if (op.equals("+")) {
+			for (int i = 1; i < n; i++) r = r.add(v[i]);
+		} else if (op.equals("*")) {
+			for (int i = 1; i < n; i++) r = r.multiply(v[i]);
+		} else if (op.equals("-")) {
+			if (n == 1) return null; // already a literal
+			for (int i = 1; i < n; i++) r = r.subtract(v[i]);
+		} else if (op.equals("/")) {
+			if (n < 2) return null;
+			try {
+				for (int i = 1; i < n; i++) {
+					if (v[i].signum() == 0) return null;
+					r = r.divide(v[i]);
+				}
+			} catch (ArithmeticException e) {
+				return null; // not representable as a decimal
+			}
+			return number(r.stripTrailingZeros(),true);
+		} else if (op.equals("div") || op.equals("mod")) {
+			if (decimal || n != 2 || v[1].signum() == 0) return null;
+			BigInteger m = v[0].toBigIntegerExact(), d = v[1].toBigIntegerExact();
+			BigInteger rem = m.mod(d.abs());
+			return number(new BigDecimal(op.equals("mod") ? rem : m.subtract(rem).divide(d)),false);
+		} else if (op.equals("abs")) {
+			if (decimal || n != 1) return null;
+			r = r.abs();
+		} else if (op.equals("<") || op.equals("<=") || op.equals(">") || op.equals(">=")) {
+			if (n < 2) return null;
+			for (int i = 1; i < n; i++) {
+				int c = v[i-1].compareTo(v[i]);
+				boolean ok = op.equals("<") ? c < 0 : op.equals("<=") ? c <= 0 : op.equals(">") ? c > 0 : c >= 0;
+				if (!ok) return falseSym;
+			}
+			return trueSym;
+		} else {
+			return null;
+		}
+		return number(r,decimal);
+	}
+
+	/** Folds bit-vector operations and comparisons whose arguments are all literals of the same
+	 * width; returns null if that is not the case */
+	protected /*@Nullable*/ IExpr bitvector(String op, List<IExpr> args) {
+		int n = args.size();
+		int w = width(args.get(0));
+		boolean hex = true;
+		BigInteger[] v = new BigInteger[n];
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			IExpr a = args.get(i);
+			int wi = width(a);
+			if (wi < 0 || (wi != w && !op.equals("concat"))) return null;
+			hex &= a instanceof IHexLiteral;
+			v[i] = bits(a);
+			total += wi;
+		}
+		BigInteger r = v[0];
+		if (op.equals("bvnot") && n == 1) {
+			r = r.not();
+		} else if (op.equals("bvneg") && n == 1) {
+			r = r.negate();
+		} else if (op.equals("bvsub") && n == 2) {
+			r = r.subtract(v[1]);
+		} else if (op.equals("concat") && n >= 2) {
+			for (int i = 1; i < n; i++) r = r.shiftLeft(width(args.get(i))).or(v[i]);
+			return bits(r,total,hex);
+		} else if (n >= 2 && (op.equals("bvand") || op.equals("bvor") || op.equals("bvxor") || op.equals("bvadd") || op.equals("bvmul"))) {
+			for (int i = 1; i < n; i++) {
+				r = op.equals("bvand") ? r.and(v[i]) : op.equals("bvor") ? r.or(v[i]) : op.equals("bvxor") ? r.xor(v[i])
+						: op.equals("bvadd") ? r.add(v[i]) : r.multiply(v[i]);
+			}
+		} else if (n == 2 && (op.equals("bvult") || op.equals("bvule") || op.equals("bvugt") || op.equals("bvuge"))) {
+			int c = v[0].compareTo(v[1]);
+			return bool(op.equals("bvult") ? c < 0 : op.equals("bvule") ? c <= 0 : op.equals("bvugt") ? c > 0 : c >= 0);
+		} else {
+			return null;
+		}
+		return bits(r,w,hex);
+	}
+
+	/** Folds an application of (_ extract i j) to a bit-vector literal; returns null if no
+	 * simplification applies */
+	protected /*@Nullable*/ IExpr apply(IParameterizedIdentifier head, List<IExpr> args) {
+		if (!head.headSymbol().value().equals("extract") || head.numerals().size() != 2 || args.size() != 1) return null;
+		IExpr a = args.get(0);
+		int w = width(a);
+		int i = head.numerals().get(0).intValue();
+		int j = head.numerals().get(1).intValue();
+		if (w < 0 || j < 0 || i < j || i >= w) return null;
+		BigInteger v = bits(a).shiftRight(j);
+		return bits(v,i-j+1,a instanceof IHexLiteral);
+	}
+
+	/** Returns true if any of the given symbols is one of those interpreted by the simplifier */
+	protected boolean shadows(List<ISymbol> names) {
+		for (ISymbol s: names) if (interpreted.contains(s.value())) return true;
+		return false;
+	}
+
+	@Override
+	public IExpr visit(IForall e) throws IVisitor.VisitorException {
+		List<ISymbol> names = new ArrayList<ISymbol>();
+		for (IDeclaration d: e.parameters()) names.add(d.parameter());
+		if (shadows(names)) return e;
+		IExpr body = simplify(e.expr());
+		if (isTrue(body) || isFalse(body)) return body;
+		if (body == e.expr()) return e;
+		return at(f.forall(e.parameters(),body),e);
+	}
+
+	@Override
+	public IExpr visit(IExists e) throws IVisitor.VisitorException {
+		List<ISymbol> names = new ArrayList<ISymbol>();
+		for (IDeclaration d: e.parameters()) names.add(d.parameter());
+		if (shadows(names)) return e;
+		IExpr body = simplify(e.expr());
+		if (isTrue(body) || isFalse(body)) return body;
+		if (body == e.expr()) return e;
+		return at(f.exists(e.parameters(),body),e);
+	}
+
+	@Override
+	public IExpr visit(ILet e) throws IVisitor.VisitorException {
+		List<ISymbol> names = new ArrayList<ISymbol>();
+		for (IBinding b: e.bindings()) names.add(b.parameter());
+		if (shadows(names)) return e;
+		boolean changed = false;
+		List<IBinding> bindings = new ArrayList<IBinding>(e.bindings().size());
+		for (IBinding b: e.bindings()) {
+			IExpr x = simplify(b.expr());
+			if (x != b.expr()) {
+				changed = true;
+				b = at(f.binding(b.parameter(),x),b);
+			}
+			bindings.add(b);
+		}
+		IExpr body = simplify(e.expr());
+		if (isTrue(body) || isFalse(body)) return body;
+		if (!changed && body == e.expr()) return e;
+		return at(f.let(bindings,body),e);
+	}
+
+	@Override
+	public IExpr visit(IAttributedExpr e) throws IVisitor.VisitorException {
+		IExpr x = simplify(e.expr());
+		if (x == e.expr()) return e;
+		return at(f.attributedExpr(x,e.attributes()),e);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** A pool of running solver processes, so that a solver adapter can start with a process that
+ * is already running instead of waiting for a new one to start. Processes are kept separately 
+ * for each command-line, which determines the solver, its executable and its options.
+ * <P>
+ * A SolverProcess whose pool field is set takes a process from the pool in start(), if
+ * there is one, and gives it back in exit(). A process given back is sent (reset) and is kept
+ * only if it is still running and responds without error in time; the adapter sends its
+ * initial options again when it next starts. Whenever a process is taken, more are started in
+ * the background, so that the given number of processes is ready for each command-line in use.
+ * close() stops all the processes, including those still being started or reset.
+ */
+public class SolverPool {
+	
+	/** The number of idle processes kept for each command-line */
+	final public int size;
+	
+	/** The time in milliseconds to wait for a process given back to respond to (reset) */
+	public long resetTimeout = 2000;
+	
+	/** The processes for one command-line */
+	static protected class Slot {
+		/** Processes ready to be taken */
+		final public LinkedList<SolverProcess> idle = new LinkedList<SolverProcess>();
+		/** The processes being started or reset */
+		final public Set<SolverProcess> busy = new HashSet<SolverProcess>();
+	}
+	
+	/** The processes for each command-line (and end marker) */
+	final protected Map<List<String>,Slot> slots = new HashMap<List<String>,Slot>();
+	
+	/** Set once the pool is closed, after which processes are no longer kept */
+	protected boolean closed = false;
+	
+	/** Starts and resets processes in the background */
+	final protected ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,"SolverPool");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/** Creates a pool keeping the given number of idle processes for each command-line */
+	public SolverPool(int size) {
+		this.size = size;
+	}
+	
+	/** Returns the slot for the command-line of the given process; the caller holds the lock */
+	protected Slot slot(SolverProcess p) {
+		List<String> key = new ArrayList<String>(Arrays.asList(p.app));
+		key.add(p.endMarker);
+		Slot s = slots.get(key);
+		if (s == null) slots.put(key,s = new Slot());
+		return s;
+	}
+	
+	/** Returns a running process with the same command-line as the given one, or null if there is
+	 * none (after waiting for any that are being started or reset); in either case starts
+	 * processes in the background to bring the pool up to its size.  A closed pool has none.
+	 */
+	synchronized public /*@Nullable*/ SolverProcess take(SolverProcess p) {
+		if (closed) return null;
+		Slot s = slot(p);
+		SolverProcess result = null;
+		try {
+			while (result == null) {
+				if (!s.idle.isEmpty()) {
+					SolverProcess q = s.idle.removeFirst();
+					if (q.isRunning(true)) result = q;
+					else q.exit();
+				} else if (!s.busy.isEmpty()) {
+					wait();
+				} else {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		fill(p,s);
+		return result;
+	}
+	
+	/** Starts enough processes in the background to bring the slot up to the pool's size */
+	protected void fill(SolverProcess p, final Slot s) {
+		if (closed) return;
+		for (int n = s.idle.size() + s.busy.size(); n < size; ++n) {
+			final SolverProcess q = new SolverProcess(p.app,p.endMarker,null);
+			s.busy.add(q);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					boolean ok = false;
+					try {
+						q.start(false);
+						ok = true;
+					} catch (RuntimeException e) {
+						// Not kept
+					}
+					ready(s,q,ok);
+				}
+			});
+		}
+	}
+	
+	/** Gives back a running process (whose log is not to be written), which is reset and kept if it responds */
+	synchronized public void give(final SolverProcess p) {
+		if (closed) {
+			p.exit();
+			return;
+		}
+		final Slot s = slot(p);
+		s.busy.add(p);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean ok = false;
+				try {
+					String response = p.sendAsync("(reset)\n").get(resetTimeout,TimeUnit.MILLISECONDS);
+					ok = !response.contains("error") && p.isRunning(true);
+				} catch (Exception e) {
+					// Not kept
+				}
+				ready(s,p,ok);
+			}
+		});
+	}
+	
+	/** Records that a process has been started or reset (if ok), or has failed to, in which case
+	 * it is stopped, as it is if it is not needed */
+	synchronized protected void ready(Slot s, SolverProcess p, boolean ok) {
+		s.busy.remove(p);
+		if (ok && !closed && s.idle.size() < size) s.idle.add(p);
+		else if (p.process != null) p.exit();
+		notifyAll();
+	}
+	
+	/** Stops all the processes: the idle ones at once, and those being started or reset once they
+	 * are done or, if they are not done within the reset timeout, by destroying them */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			for (Slot s: slots.values()) {
+				for (SolverProcess p: s.idle) p.exit();
+				s.idle.clear();
+			}
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(resetTimeout,TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		synchronized (this) {
+			for (Slot s: slots.values()) {
+				for (SolverProcess p: s.busy) {
+					Process process = p.process;
+					if (process != null) process.destroy();
+				}
+			}
+		}
+	}
+}
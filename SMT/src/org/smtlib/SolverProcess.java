@@ -9,15 +9,37 @@ import java.io.BufferedReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /** This class implements launching, writing to, and reading responses from a 
  * launched process (in particular, solver processes).
+ * <P>
+ * The standard output and the standard error of the process are each read continuously by a
+ * background thread, so the process never blocks on a full pipe. The standard output is divided
+ * into responses, each ending with the end marker; each response is paired, in order, with a
+ * request for one (by listen() or sendAsync()), along with the error output read by then.
+ * <P>
+ * Text is sent to the process through a buffered, ASCII-encoding writer. The arguments of the
+ * send methods are Strings or Text objects; a Text writes itself (e.g. a command being
+ * translated) straight into that writer (and the log), without first being made into a String.
+ * If a Text fails partway, the part of the command still in the buffer is dropped; if some of it
+ * has already reached the process, the process is restarted (see restart()) or, if no
+ * transcript is kept, stopped. Anything written to the log is written to the log file by a
+ * background thread, which holds up a writer only if it falls far behind.
  * @author David Cok
  */
 public class SolverProcess {
@@ -41,14 +63,65 @@ public class SolverProcess {
 	protected Process process;
 	
 	/** The Writer object that writes to the spawned process (initialized by start() )*/
-	protected Writer toProcess;
+	protected CommandWriter toProcess;
 	
-	/** The Reader process that reads from the standard output of the spawned process (initialized by start() )*/
+	/** The size of the buffer of the writer to the process */
+	static final public int BUFFER_SIZE = 1 << 16;
+	
+	/** Text that is written to the process by writing itself to the given Writer, rather than
+	 * by first being made into a String; it may be written more than once (see restart()) */
+	public static interface Text {
+		public void write(Writer w) throws IOException;
+	}
+	
+	/** The Reader process that reads from the standard output of the spawned process (initialized by start() );
+	 * it is read only by the background thread */
 	protected Reader fromProcess;
 	
-	/** The Reader process that reads from the standard error stream of the spawned process (initialized by start() )*/
+	/** The Reader process that reads from the standard error stream of the spawned process (initialized by start() );
+	 * it is read only by the background thread */
 	protected Reader errors;
 	
+	/** The responses and requests for responses of the current process (initialized by start() ) */
+	protected Output output;
+	
+	/** True if the current process was started for this object, rather than taken from a pool */
+	protected boolean fresh;
+	
+	/** The pool from which start() takes a running process, and to which exit() gives it back, if any */
+	public /*@Nullable*/ SolverPool pool;
+	
+	/** If true, the text sent to the process (other than queries) is kept, so that restart() can send it again */
+	public boolean keepTranscript = false;
+	
+	/** The text sent to the current process, other than queries, if keepTranscript is set; each 
+	 * element is the arguments of one call of send() or sendAsync(), and whether a response was requested */
+	protected List<Sent> transcript = new LinkedList<Sent>();
+	
+	/** For each push level still open, the size the transcript had before the level was pushed,
+	 * innermost last (see pushing() and popped()) */
+	protected List<Integer> levels = new ArrayList<Integer>();
+	
+	/** The text sent by one call of send() or sendAsync() */
+	static protected class Sent {
+		final public Object[] args;
+		final public boolean listen;
+		
+		public Sent(Object[] args, boolean listen) {
+			this.args = args;
+			this.listen = listen;
+		}
+	}
+	
+	/** The argument of the last call of start() */
+	protected boolean listenOnStart;
+	
+	/** The response to the query being waited for by sendQuery(), if any */
+	protected /*@Nullable*/ Reply query;
+	
+	/** True if interrupt() was called when no query was in progress, so that the next query is interrupted */
+	protected boolean interrupted = false;
+	
 	/** A place (e.g., log file), if non-null, to write all outbound communications for diagnostic purposes */
 	public /*@Nullable*/Writer log;
 	
@@ -62,7 +135,7 @@ public class SolverProcess {
 		this.endMarker = endMarker;
 		try {
 			if (logfile != null) {
-				log = new FileWriter(logfile);
+				log = new AsyncLog(new FileWriter(logfile));
 			}
 		} catch (IOException e) {
 			System.out.println("Failed to create solver log file " + logfile + ": " + e); // FIXME - wwrite to somewhere better
@@ -87,11 +160,24 @@ public class SolverProcess {
 	
 	/** Starts the process; if the argument is true, then also listens to its output until a prompt is read. */
     public void start(boolean listen) throws ProverException {
+    	listenOnStart = listen;
+    	clearTranscript();
     	try {
+    		SolverProcess running = pool == null ? null : pool.take(this);
+    		if (running != null) {
+    			attach(running);
+    			// A process that has been reset has already been read through its prompt
+    			if (listen && running.fresh) listen();
+    			return;
+    		}
     		process = Runtime.getRuntime().exec(app);
-    		toProcess = new OutputStreamWriter(process.getOutputStream());
+    		toProcess = new CommandWriter(new OutputStreamWriter(process.getOutputStream(),StandardCharsets.US_ASCII));
     		fromProcess = new BufferedReader(new InputStreamReader(process.getInputStream()));
     		errors = new InputStreamReader(process.getErrorStream());
+    		output = new Output(this);
+    		fresh = true;
+    		startReader(new OutputReader(output,fromProcess,endMarker),"output");
+    		startReader(new ErrorReader(output,errors),"errors");
     		if (listen) listen();
     	} catch (IOException e) {
     		throw new ProverException(e.getMessage());
@@ -99,19 +185,50 @@ public class SolverProcess {
     		throw new ProverException(e.getMessage());
     	}
     }
+    
+    /** Takes over the running process of the given object, which must have the same command-line */
+    protected void attach(SolverProcess running) {
+    	process = running.process;
+    	toProcess = running.toProcess;
+    	fromProcess = running.fromProcess;
+    	errors = running.errors;
+    	output = running.output;
+    	output.owner = this;
+    	fresh = false;
+    	running.process = null;
+    	running.toProcess = null;
+    }
+    
+    /** Moves the running process to a new object (without a log), leaving this one without a process */
+    protected SolverProcess detach() {
+    	SolverProcess p = new SolverProcess(app,endMarker,null);
+    	p.attach(this);
+    	return p;
+    }
+    
+    /** Starts a background thread that reads from the process */
+    protected void startReader(Runnable reader, String stream) {
+    	Thread t = new Thread(reader,"SolverProcess " + stream + ": " + (app.length == 0 ? "" : app[0]));
+    	t.setDaemon(true);
+    	t.start();
+    }
 
-    /** Listens to the process's standard output until the designated endMarker is read 
-     * and to the error output. If there is error output, it is returned;
-     * otherwise the standard output is returned.
+    /** Waits for the next response from the process, that is, for its standard output through
+     * the designated endMarker and its error output up to then. If there is error output, 
+     * it is returned; otherwise the standard output is returned.
      */
 	public String listen() throws IOException {
-		// FIXME - need to put the two reads in parallel, otherwise one might block on a full buffer, preventing the other from completing
-		String err = listenThru(errors,null);
-		String out = listenThru(fromProcess,endMarker);
-		err = err + listenThru(errors,null);
+		if (output == null) throw new ProverException("The solver has not been started");
+		return await(output.request());
+	}
+	
+	/** Makes the text to return for a response, given the standard output and the error output 
+	 * read for it, and writes both to the log.
+	 */
+	protected String response(String out, String err) throws IOException {
 		if (log != null) {
-			if (!out.isEmpty()) { log.write(";OUT: "); log.write(out); log.write(eol); } // input usually ends with a prompt and no line terminator
-			if (!err.isEmpty()) { log.write(";ERR: "); log.write(err); } // input usually ends with a line terminator, we think
+			if (!out.isEmpty()) { log.write(";OUT: " + out + eol); } // input usually ends with a prompt and no line terminator
+			if (!err.isEmpty()) { log.write(";ERR: " + err); } // input usually ends with a line terminator, we think
 		}
 //		System.out.println("OUT: " + out.replace('\r', '@').replace('\n', '@'));
 //		System.out.println("ERR: " + err.replace('\r', '@').replace('\n', '@'));
@@ -123,6 +240,224 @@ public class SolverProcess {
 		}
 	}
 	
+	/** Waits for the given response, but for no more than the given number of milliseconds if that is
+	 * positive; a response that was interrupted (see interrupt()) throws TimeoutException as well */
+	static protected String await(Future<String> response, long millis) throws IOException, TimeoutException {
+		try {
+			return millis > 0 ? response.get(millis,TimeUnit.MILLISECONDS) : response.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the solver");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) throw (TimeoutException)e.getCause();
+			throw failure(e);
+		}
+	}
+	
+	/** Waits for the given response */
+	static protected String await(Future<String> response) throws IOException {
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the solver");
+		} catch (ExecutionException e) {
+			throw failure(e);
+		}
+	}
+	
+	/** Returns the IOException that caused a response to fail, or throws it if it is a RuntimeException */
+	static private IOException failure(ExecutionException e) {
+		Throwable t = e.getCause();
+		if (t instanceof IOException) return (IOException)t;
+		if (t instanceof RuntimeException) throw (RuntimeException)t;
+		throw new ProverException(String.valueOf(t));
+	}
+	
+	/** A response that has been requested from the process but perhaps not yet read */
+	static protected class Reply extends FutureTask<String> {
+		static final private Callable<String> none = new Callable<String>() {
+			@Override
+			public String call() { return null; }
+		};
+		
+		public Reply() {
+			super(none); // Completed only by set or setException
+		}
+		
+		@Override
+		public void set(String response) {
+			super.set(response);
+		}
+		
+		@Override
+		public void setException(Throwable t) {
+			super.setException(t);
+		}
+	}
+	
+	/** The output of one run of the process: the responses read from its standard output and the
+	 * requests for them, which are paired in order, and the error output read since the last
+	 * pairing. It is shared by the reading threads and the threads requesting responses.
+	 */
+	static protected class Output {
+		/** The object whose response() method makes the text of a response */
+		volatile protected SolverProcess owner;
+		/** Responses read but not yet requested */
+		final private LinkedList<String> responses = new LinkedList<String>();
+		/** Requests not yet given a response */
+		final private LinkedList<Reply> requests = new LinkedList<Reply>();
+		/** The error output not yet given to a request */
+		final private StringBuilder errorText = new StringBuilder();
+		/** True once the standard output has ended */
+		private boolean ended = false;
+		/** Set if reading the standard output failed */
+		private /*@Nullable*/ IOException failure = null;
+		
+		public Output(SolverProcess owner) {
+			this.owner = owner;
+		}
+
+		/** Adds a request for the next response not yet requested */
+		synchronized public Reply request() {
+			Reply r = new Reply();
+			requests.add(r);
+			pair();
+			return r;
+		}
+		
+		/** Withdraws a request that could not be sent */
+		synchronized public void withdraw(Reply r) {
+			requests.remove(r);
+		}
+		
+		/** Returns the number of requests for which no response has yet been read */
+		synchronized public int waiting() {
+			return requests.size() - responses.size();
+		}
+		
+		/** Adds a response read from the standard output */
+		synchronized public void respond(String text) {
+			responses.add(text);
+			pair();
+		}
+		
+		/** Adds text read from the error output */
+		synchronized public void error(char[] buf, int len) {
+			errorText.append(buf,0,len);
+		}
+		
+		/** Records the end of the standard output, because of the given failure if not null */
+		synchronized public void end(/*@Nullable*/ IOException e) {
+			ended = true;
+			failure = e;
+			pair();
+		}
+		
+		/** Gives responses to as many requests as possible; once the output has ended, a request
+		 * without a response gets an empty one (or the failure) */
+		private void pair() {
+			while (!requests.isEmpty() && (!responses.isEmpty() || ended)) {
+				Reply r = requests.removeFirst();
+				if (responses.isEmpty() && failure != null) {
+					r.setException(failure);
+					continue;
+				}
+				String out = responses.isEmpty() ? "" : responses.removeFirst();
+				String err = errorText.toString();
+				errorText.setLength(0);
+				try {
+					r.set(owner.response(out,err));
+				} catch (IOException e) {
+					r.setException(e);
+				} catch (RuntimeException e) {
+					r.setException(e);
+				}
+			}
+		}
+	}
+	
+	/** Reads the standard output of the process, dividing it into responses at the end marker.
+	 * As when reading only on request, a marker that is followed by more text in the same read
+	 * does not end a response, unless more than one response is awaited, since some processes
+	 * write multi-line responses.
+	 */
+	static protected class OutputReader implements Runnable {
+		final private Output output;
+		final private Reader reader;
+		final private String endMarker;
+		
+		public OutputReader(Output output, Reader reader, String endMarker) {
+			this.output = output;
+			this.reader = reader;
+			this.endMarker = endMarker;
+		}
+		
+		@Override
+		public void run() {
+			char[] buf = new char[8192];
+			StringBuilder text = new StringBuilder();
+			int len = endMarker.length();
+			char last = len == 0 ? 0 : endMarker.charAt(len-1);
+			boolean newline = "\n".equals(endMarker);
+			int parens = 0;
+			try {
+				int n;
+				while ((n = reader.read(buf)) != -1) {
+					for (int i = 0; i < n; ++i) {
+						char c = buf[i];
+						text.append(c);
+						if (c == '(') ++parens;
+						else if (c == ')') --parens;
+						if (c == last && (!newline || parens == 0) && endsWith(text,endMarker)
+								&& (i == n-1 || output.waiting() > 1)) {
+							output.respond(text.toString());
+							text.setLength(0);
+							parens = 0;
+						}
+					}
+				}
+				if (text.length() != 0) output.respond(text.toString());
+				output.end(null);
+			} catch (IOException e) {
+				output.end(e);
+			}
+		}
+	}
+	
+	/** Returns true if the text ends with the given string */
+	static private boolean endsWith(StringBuilder text, String end) {
+		int len = end.length();
+		int k = text.length() - len;
+		if (k < 0) return false;
+		for (int j = 0; j < len; j++) {
+			if (end.charAt(j) != text.charAt(k++)) return false;
+		}
+		return true;
+	}
+	
+	/** Reads the error output of the process */
+	static protected class ErrorReader implements Runnable {
+		final private Output output;
+		final private Reader reader;
+		
+		public ErrorReader(Output output, Reader reader) {
+			this.output = output;
+			this.reader = reader;
+		}
+		
+		@Override
+		public void run() {
+			char[] buf = new char[8192];
+			try {
+				int n;
+				while ((n = reader.read(buf)) != -1) output.error(buf,n);
+			} catch (IOException e) {
+				// The process has ended; any failure is reported through the standard output
+			}
+		}
+	}
+	
 	/** Returns true if the process is still running; this relies on exceptions
 	 * for control flow and may be a bit expensive.
 	 */
@@ -144,11 +479,13 @@ public class SolverProcess {
 		}
 	}
 	
-	/** Aborts the process */
+	/** Aborts the process, or, if there is a pool, gives it back to the pool */
 	public void exit() {
-		process.destroy();
+		if (pool != null && isRunning(true)) pool.give(detach());
+		else process.destroy();
 		process = null;
 		toProcess = null;
+		clearTranscript();
 		if (log != null) {
 			try {
 				log.write(";;Exiting solver"); 
@@ -161,28 +498,418 @@ public class SolverProcess {
 		}
 	}
 	
-	/** Sends all the given text arguments, then (if listen is true) listens for the designated end marker text */
-	public /*@Nullable*/ String send(boolean listen, String ... args) throws IOException {
-		if (toProcess == null) throw new ProverException("The solver has not been started");
-		for (String arg: args) {
-//			System.out.print(arg);
-			if (log != null) log.write(arg);
-			toProcess.write(arg);
+	/** Sends all the given text arguments (each a String or a Text), then (if listen is true) listens for the designated end marker text */
+	public /*@Nullable*/ String send(boolean listen, Object ... args) throws IOException {
+		if (listen) return await(sendAsync(args));
+		synchronized (this) {
+			try {
+				write(args);
+			} catch (IOException e) {
+				recover(e);
+				throw e;
+			}
+			if (keepTranscript) transcript.add(new Sent(args,false));
 		}
-//		System.out.println();
-		if (log != null) log.flush();
-		toProcess.flush();
-		if (listen) return listen();
 		return null;
 	}
+	
+	/** Sends all the given text arguments, returning without waiting for the response, which
+	 * is the next one not already requested */
+	public Future<String> sendAsync(Object ... args) throws IOException {
+		return request(keepTranscript,args);
+	}
+	
+	/** Sends a query, which is not kept in the transcript, and waits for its response, for no more
+	 * than the given number of milliseconds if that is positive
+	 * @throws TimeoutException if there is no response in time
+	 */
+	public String sendQuery(long millis, Object ... args) throws IOException, TimeoutException {
+		Reply response;
+		synchronized (this) {
+			if (interrupted) {
+				interrupted = false;
+				throw new TimeoutException("The query was interrupted");
+			}
+			response = request(false,args);
+			query = response;
+		}
+		try {
+			return await(response,millis);
+		} catch (TimeoutException e) {
+			// An interrupted response is done, one that timed out is not
+			String msg = response.isDone() ? ";;Query interrupted" : ";;No response in " + millis + " ms";
+			if (log != null) { log.write(msg); log.write(eol); log.flush(); }
+			throw e;
+		} finally {
+			synchronized (this) {
+				query = null;
+			}
+		}
+	}
+	
+	/** Makes the query in progress in sendQuery() throw TimeoutException at once, as if its time had 
+	 * run out, or, if there is none, the next query sent; the process is not stopped (but see
+	 * AbstractSolver.query).
+	 */
+	synchronized public void interrupt() {
+		if (query != null) query.setException(new TimeoutException("The query was interrupted"));
+		else interrupted = true;
+	}
+	
+	/** Withdraws a call of interrupt() that has not yet interrupted a query */
+	synchronized public void clearInterrupt() {
+		interrupted = false;
+	}
+	
+	/** Returns true if the process has been sent text whose response has not yet been read */
+	public boolean busy() {
+		Output out = output;
+		return out != null && out.waiting() > 0;
+	}
+	
+	/** Sends the text arguments and requests the response, recording them in the transcript if asked */
+	protected Reply request(boolean record, Object ... args) throws IOException {
+		Reply r;
+		synchronized (this) {
+			if (toProcess == null) throw new ProverException(notRunning());
+			// Requested before writing, so that the reader knows a response is coming 
+			r = output.request();
+			try {
+				write(args);
+			} catch (IOException e) {
+				output.withdraw(r);
+				recover(e);
+				throw e;
+			}
+			if (record) transcript.add(new Sent(args,true));
+		}
+		return r;
+	}
+	
+	/** Records that the caller is about to send a push of the given number of levels, so that
+	 * popped() can drop what is sent within those levels from the transcript */
+	synchronized public void pushing(int number) {
+		Integer size = transcript.size();
+		for (int i = 0; i < number; i++) levels.add(size);
+	}
+	
+	/** Records that a pop of the given number of levels has succeeded; the text sent since the
+	 * outermost of them was pushed, including the push and the pop, is dropped from the transcript,
+	 * as the solver no longer holds its effect. A pop of more levels than pushing() was told of
+	 * leaves the transcript as it is.
+	 */
+	synchronized public void popped(int number) {
+		if (number <= 0 || number > levels.size()) return;
+		int mark = levels.get(levels.size() - number);
+		levels.subList(levels.size() - number,levels.size()).clear();
+		transcript.subList(Math.min(mark,transcript.size()),transcript.size()).clear();
+	}
+	
+	/** Empties the transcript, e.g. after the solver has been sent (reset) */
+	synchronized public void clearTranscript() {
+		transcript.clear();
+		levels.clear();
+	}
+	
+	/** Stops the process (without giving it back to any pool) and starts it again, sending it
+	 * the text in the transcript again, so that it is in the same state as before (apart from
+	 * the effect of any queries); it waits for, but ignores, the responses to that text.
+	 */
+	public void restart() throws IOException {
+		List<Sent> sent;
+		List<Integer> open;
+		synchronized (this) {
+			sent = new ArrayList<Sent>(transcript);
+			open = new ArrayList<Integer>(levels);
+			if (process != null) process.destroy();
+			process = null;
+			toProcess = null;
+		}
+		if (log != null) { log.write(";;Restarting solver"); log.write(eol); log.flush(); }
+		start(listenOnStart);
+		Future<String> last = null;
+		for (Sent s: sent) {
+			if (s.listen) last = sendAsync(s.args);
+			else send(false,s.args);
+		}
+		// The transcript is built up again as it was, so the same push levels are open
+		synchronized (this) {
+			levels.addAll(open);
+		}
+		// The responses come in order, so the last is the last to arrive
+		if (last != null) await(last);
+	}
+	
+	/** Writes the text arguments to the process (and the log) */
+	protected void write(Object ... args) throws IOException {
+		if (toProcess == null) throw new ProverException(notRunning());
+		Writer w = log == null ? toProcess : new Tee(toProcess,log);
+		for (Object arg: args) {
+			if (arg instanceof Text) ((Text)arg).write(w);
+			else w.write(arg.toString());
+		}
+		w.flush();
+	}
+	
+	/** The message for a request made when there is no process to send it to */
+	protected String notRunning() {
+		return process == null ? "The solver has not been started" : "The solver was stopped because a command could only be sent in part";
+	}
+	
+	/** Recovers from the failure of write() partway through a command (e.g. because a Text could
+	 * not be translated): the rest of the command is dropped from the buffer; if some of it has
+	 * already been written to the process, which would take it as the start of the next command,
+	 * the process is restarted without it if a transcript is kept, and stopped if not.
+	 * The caller holds the lock.
+	 */
+	protected void recover(IOException e) {
+		if (toProcess == null) return;
+		boolean whole = toProcess.discard();
+		if (log != null) {
+			try {
+				log.write(eol); log.write(";;The command above was not sent: " + e.getMessage()); log.write(eol); log.flush();
+			} catch (IOException ee) {
+				// Ignore
+			}
+		}
+		if (whole) return;
+		if (keepTranscript) {
+			try {
+				restart();
+				return;
+			} catch (IOException ee) {
+				// Stopped below
+			} catch (ProverException ee) {
+				// Stopped below
+			}
+		}
+		if (process != null) process.destroy();
+		toProcess = null;
+	}
+	
+	/** The Writer to the process: it buffers the text of each command, writing it out once the
+	 * buffer is full or the command is flushed, so that a command that fails while it is still
+	 * wholly in the buffer can be dropped (see discard()).
+	 */
+	static protected class CommandWriter extends Writer {
+		final private Writer out;
+		final private char[] buf = new char[BUFFER_SIZE];
+		private int count = 0;
+		/** True if some of the text written since the last flush has been written out */
+		private boolean spilled = false;
+		
+		public CommandWriter(Writer out) {
+			this.out = out;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buf.length) spill();
+				int n = Math.min(len,buf.length - count);
+				System.arraycopy(cbuf,off,buf,count,n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		@Override
+		public void write(String s, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buf.length) spill();
+				int n = Math.min(len,buf.length - count);
+				s.getChars(off,off+n,buf,count);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		/** Writes out the buffered text */
+		private void spill() throws IOException {
+			out.write(buf,0,count);
+			count = 0;
+			spilled = true;
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			spill();
+			spilled = false;
+			out.flush();
+		}
+		
+		/** Drops the text written since the last flush, returning false if some of it had already been written out */
+		public boolean discard() {
+			boolean whole = !spilled;
+			count = 0;
+			spilled = false;
+			return whole;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flush();
+			out.close();
+		}
+	}
+	
+	/** A Writer that writes to two others, e.g. to the process and to the log */
+	static protected class Tee extends Writer {
+		final private Writer first;
+		final private Writer second;
+		
+		public Tee(Writer first, Writer second) {
+			this.first = first;
+			this.second = second;
+		}
+		
+		@Override
+		public void write(char[] buf, int off, int len) throws IOException {
+			first.write(buf,off,len);
+			second.write(buf,off,len);
+		}
+		
+		@Override
+		public void write(String s, int off, int len) throws IOException {
+			first.write(s,off,len);
+			second.write(s,off,len);
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			first.flush();
+			second.flush();
+		}
+		
+		@Override
+		public void close() {
+			// The writers are closed by their owners
+		}
+	}
+	
+	/** A Writer that collects the text written to it and writes it to another Writer (e.g. the 
+	 * log file) on a background thread, so that writing to the log does not hold up the solver; 
+	 * flush() only asks for the text to be flushed, but close() waits until all of it has been written.
+	 * A write waits while more than LIMIT characters are waiting to be taken by the background
+	 * thread, so that a log that cannot keep up does not take up ever more memory.
+	 */
+	static protected class AsyncLog extends Writer implements Runnable {
+		/** The number of characters that may wait to be taken by the background thread */
+		static final public int LIMIT = 1 << 20;
+		final private Writer out;
+		/** Text written but not yet taken by the background thread */
+		private StringBuilder pending = new StringBuilder();
+		/** Text being written by the background thread */
+		private StringBuilder writing = new StringBuilder();
+		private boolean flushWanted = false;
+		private boolean closed = false;
+		private boolean done = false;
+		
+		public AsyncLog(Writer out) {
+			this.out = out;
+			Thread t = new Thread(this,"SolverProcess log");
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		@Override
+		synchronized public void write(char[] buf, int off, int len) throws IOException {
+			if (!room()) return;
+			pending.append(buf,off,len);
+			notifyAll();
+		}
+		
+		@Override
+		synchronized public void write(String s, int off, int len) throws IOException {
+			if (!room()) return;
+			pending.append(s,off,off+len);
+			notifyAll();
+		}
+		
+		/** Waits until the background thread has taken the pending text, if there is too much of it,
+		 * returning false if that thread has stopped (after failing to write), so that text is
+		 * dropped; the caller holds the lock */
+		private boolean room() throws IOException {
+			boolean interrupted = false;
+			while (pending.length() >= LIMIT && !closed && !done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (closed) throw new IOException("The log is closed");
+			return !done;
+		}
+		
+		@Override
+		synchronized public void flush() {
+			flushWanted = true;
+			notifyAll();
+		}
+		
+		@Override
+		synchronized public void close() throws IOException {
+			closed = true;
+			notifyAll();
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					boolean flush;
+					boolean last;
+					synchronized (this) {
+						while (pending.length() == 0 && !flushWanted && !closed) wait();
+						StringBuilder s = writing;
+						writing = pending;
+						pending = s;
+						flush = flushWanted;
+						flushWanted = false;
+						last = closed;
+						notifyAll();
+					}
+					out.append(writing);
+					// A buffer grown by a burst of text is not kept
+					if (writing.length() > LIMIT) writing = new StringBuilder();
+					else writing.setLength(0);
+					if (last) break;
+					if (flush) out.flush();
+				}
+				out.close();
+			} catch (IOException e) {
+				System.out.println("Failed to write to solver log file : " + e); // FIXME - wwrite to somewhere better
+			} catch (InterruptedException e) {
+				// Stop logging
+			} finally {
+				synchronized (this) {
+					done = true;
+					notifyAll();
+				}
+			}
+		}
+	}
 
 	/** Sends all the given text arguments, then listens for the designated end marker text */
-	public /*@Nullable*/ String sendAndListen(String ... args) throws IOException {
+	public /*@Nullable*/ String sendAndListen(Object ... args) throws IOException {
 		return send(true,args);
 	}
 
 	/** Sends all the given text arguments, but does not wait for a response */
-	public void sendNoListen(String ... args) throws IOException {
+	public void sendNoListen(Object ... args) throws IOException {
 		send(false,args);
 	}
 
@@ -5,8 +5,11 @@
  */
 package org.smtlib;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,23 +48,223 @@ public class SymbolTable {
 	/** A reference to the Configuration for this instance of SMT. */
 	public SMT.Configuration smtConfig;
 	
-	/* The tops of the stack are at the beginning of the lists.  The table 
-	 * manages a stack of scopes, each stack element holds a scope.  
+	/* The table manages a stack of scopes, the bottom one being the background scope. 
 	 * Within a scope, a symbol can be defined with various different arities 
 	 * (and multiple mappings for a given arity) and different sort arguments. 
+	 * Rather than a map per scope, which would make each lookup cost one map lookup per scope,
+	 * there is one map from each identifier to its definitions in the scopes in which it is
+	 * defined, top-most first, and a record for each scope of the identifiers it defines, by which
+	 * pop() undoes the definitions of the top scope.
 	 */
 	
-	//@ private invariant sorts = sortStack.get(0);
-	/** The stack of Sort declaration scopes */
-	private List<Map<IIdentifier,ISort.IDefinition>> sortStack;
-	/** The top-most Sort scope */
-	private Map<IIdentifier,ISort.IDefinition> sorts;
+	/** The Sort declaration scopes */
+	private Scopes<ISort.IDefinition> sorts;
 	
-	//@ private invariant names == symStack.get(0);
-	/** The stack of Symbol scopes */
-	private List<Map<IIdentifier,Map<Integer,List<Entry>>>> symStack;
-	/** The top-most Symbol scope */
-	private Map<IIdentifier,Map<Integer,List<Entry>>> names;
+	/** The Symbol scopes */
+	private Scopes<Map<Integer,List<Entry>>> names;
+	
+	/** The overloads already resolved by lookup(name,argSorts,resultSort), by identifier and
+	 * then by signature; those of an identifier are discarded whenever its definitions change */
+	private Map<IIdentifier,Map<Signature,Entry>> resolved;
+	
+	/** The argument sorts and (optional) result sort with which an identifier is applied, in
+	 * canonical form, so that equal signatures resolve to the same definition */
+	private static class Signature {
+		final ISort[] argSorts;
+		final /*@Nullable*/ ISort resultSort;
+		final int hash;
+		
+		Signature(List<ISort> argSorts, /*@Nullable*/ ISort resultSort) {
+			this.argSorts = new ISort[argSorts.size()];
+			int h = 0, i = 0;
+			for (ISort s: argSorts) {
+				ISort e = canonical(s);
+				this.argSorts[i++] = e;
+				h = 31*h + e.hashCode();
+			}
+			this.resultSort = resultSort == null ? null : canonical(resultSort);
+			if (this.resultSort != null) h ^= this.resultSort.hashCode();
+			hash = h;
+		}
+		
+		/** Returns the canonical sort for the sort, or if it has none, the sort expanded (unless
+		 * it has not been resolved to a definition) */
+		static ISort canonical(ISort s) {
+			ISort c = s.canonical();
+			if (c != null) return c;
+			return s instanceof ISort.IApplication && ((ISort.IApplication)s).definition() == null ? s : s.expand();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Signature)) return false;
+			Signature s = (Signature)o;
+			if (hash != s.hash || argSorts.length != s.argSorts.length) return false;
+			if (resultSort != s.resultSort && (resultSort == null || s.resultSort == null 
+					|| !resultSort.equalsNoExpand(s.resultSort))) return false;
+			for (int i = 0; i < argSorts.length; ++i) {
+				if (argSorts[i] != s.argSorts[i] && !argSorts[i].equalsNoExpand(s.argSorts[i])) return false;
+			}
+			return true;
+		}
+	}
+	
+	/** The definition of an identifier in one scope, linked to its definition in the nearest
+	 * enclosing scope that defines it */
+	private static class Binding<T> {
+		/** The scope, counting from 0 for the background scope */
+		int level;
+		/** The definition in that scope */
+		T value;
+		/** The definition in the nearest enclosing scope, or null */
+		/*@Nullable*/ Binding<T> next;
+		
+		Binding(int level, T value, /*@Nullable*/ Binding<T> next) {
+			this.level = level;
+			this.value = value;
+			this.next = next;
+		}
+	}
+	
+	/** A stack of scopes of definitions of identifiers, in which the definitions visible at the
+	 * top of the stack are found with one map lookup. */
+	private static class Scopes<T> {
+		/** Maps each identifier to its definition in the top-most scope that defines it */
+		final Map<IIdentifier,Binding<T>> index;
+		/** For each scope, from the background scope up, the identifiers it defines, in the
+		 * order in which they were defined */
+		final List<List<IIdentifier>> trail;
+		/** Definitions that are part of the background scope but shared with other tables (and
+		 * so never modified), consulted for identifiers that no scope defines; null if none */
+		/*@Nullable*/ Map<IIdentifier,T> base;
+		
+		Scopes() {
+			index = new HashMap<IIdentifier,Binding<T>>();
+			trail = new ArrayList<List<IIdentifier>>();
+		}
+		
+		/** Makes a copy, with the same definitions and scopes */
+		Scopes(Scopes<T> s) {
+			this();
+			base = s.base;
+			for (List<IIdentifier> level: s.trail) trail.add(new ArrayList<IIdentifier>(level));
+			for (Map.Entry<IIdentifier,Binding<T>> e: s.index.entrySet()) {
+				Binding<T> first = null, last = null;
+				for (Binding<T> b = e.getValue(); b != null; b = b.next) {
+					Binding<T> c = new Binding<T>(b.level,b.value,null);
+					if (last == null) first = c; else last.next = c;
+					last = c;
+				}
+				index.put(e.getKey(),first);
+			}
+		}
+		
+		/** The number of the top scope */
+		int top() {
+			return trail.size() - 1;
+		}
+		
+		/** Returns the definition in the top-most scope that defines the identifier, or null */
+		/*@Nullable*/ T get(IIdentifier id) {
+			Binding<T> b = index.get(id);
+			return b != null ? b.value : base != null ? base.get(id) : null;
+		}
+		
+		/** Returns the definition in the top scope, or null if the top scope does not define the identifier */
+		/*@Nullable*/ T getTop(IIdentifier id) {
+			Binding<T> b = index.get(id);
+			return b != null && b.level == top() ? b.value : null;
+		}
+		
+		/** Returns the definition in the given scope, or null if that scope does not define the identifier */
+		/*@Nullable*/ T get(IIdentifier id, int level) {
+			for (Binding<T> b = index.get(id); b != null && b.level >= level; b = b.next) {
+				if (b.level == level) return b.value;
+			}
+			return null;
+		}
+		
+		/** Sets the definition of the identifier in the top scope */
+		void put(IIdentifier id, T value) {
+			Binding<T> b = index.get(id);
+			int top = top();
+			if (b != null && b.level == top) {
+				b.value = value;
+			} else {
+				index.put(id,new Binding<T>(top,value,b));
+				trail.get(top).add(id);
+			}
+		}
+		
+		/** Adds a new empty top scope */
+		void push() {
+			trail.add(new ArrayList<IIdentifier>());
+		}
+		
+		/** Removes the top scope and its definitions */
+		void pop() {
+			for (IIdentifier id: trail.remove(top())) {
+				Binding<T> b = index.get(id).next;
+				if (b == null) index.remove(id); else index.put(id,b);
+			}
+		}
+		
+		/** Returns the definitions made in the given scope, in the order in which they were made */
+		List<T> scope(int level) {
+			if (level == 0) return new ArrayList<T>(background().values());
+			List<T> list = new ArrayList<T>();
+			for (IIdentifier id: trail.get(level)) list.add(get(id,level));
+			return list;
+		}
+		
+		/** Removes the definitions of the background scope, leaving it empty */
+		void clearBackground() {
+			for (IIdentifier id: trail.get(0)) {
+				Binding<T> b = index.get(id);
+				if (b.next == null) { index.remove(id); continue; }
+				while (b.next.next != null) b = b.next;
+				b.next = null;
+			}
+			trail.get(0).clear();
+			base = null;
+		}
+		
+		/** Replaces the definitions of the background scope by the given shared ones */
+		void setBackground(Map<IIdentifier,T> shared) {
+			clearBackground();
+			base = shared;
+		}
+		
+		/** Returns the definitions of the background scope, in the order in which they were made */
+		Map<IIdentifier,T> background() {
+			Map<IIdentifier,T> m = new LinkedHashMap<IIdentifier,T>();
+			if (base != null) m.putAll(base);
+			for (IIdentifier id: trail.get(0)) m.put(id,get(id,0));
+			return m;
+		}
+		
+		/** Removes the background scope, then moves the top scope to the bottom */
+		void moveToBackground() {
+			clearBackground();
+			List<IIdentifier> moved = trail.remove(top());
+			for (IIdentifier id: moved) {
+				Binding<T> b = index.get(id);
+				b.level = 0;
+				if (b.next == null) continue;
+				Binding<T> rest = b.next, last = rest;
+				while (last.next != null) last = last.next;
+				last.next = b;
+				b.next = null;
+				index.put(id,rest);
+			}
+			trail.set(0,moved);
+		}
+	}
 	
 	/** An object that holds all the information about the defined symbol (or aliased definition). */
 	public static class Entry {
@@ -84,19 +287,55 @@ public class SymbolTable {
 		public /*@Nullable*/ IExpr definition;
 	}
 	
+	/** The contents of a background scope, with the logic and theory settings that go with it,
+	 * in a form that is never modified and so can be shared by any number of symbol tables
+	 * (see background() and useBackground()).
+	 */
+	public static class Layer {
+		/** The sort definitions */
+		final public Map<IIdentifier,ISort.IDefinition> sorts;
+		/** The symbol definitions, by identifier and arity */
+		final public Map<IIdentifier,Map<Integer,List<Entry>>> names;
+		/** The logic in use */
+		final public /*@Nullable*/ ILogic logic;
+		/** The values of the corresponding fields of the symbol table */
+		final public boolean arrayTheorySet, bitVectorTheorySet, realsIntsTheorySet;
+		
+		/** Creates a layer; the maps are copied into unmodifiable maps */
+		public Layer(Map<IIdentifier,ISort.IDefinition> sorts, Map<IIdentifier,Map<Integer,List<Entry>>> names,
+				/*@Nullable*/ ILogic logic, boolean arrayTheorySet, boolean bitVectorTheorySet, boolean realsIntsTheorySet) {
+			this.sorts = Collections.unmodifiableMap(new LinkedHashMap<IIdentifier,ISort.IDefinition>(sorts));
+			Map<IIdentifier,Map<Integer,List<Entry>>> m = new LinkedHashMap<IIdentifier,Map<Integer,List<Entry>>>();
+			for (Map.Entry<IIdentifier,Map<Integer,List<Entry>>> e: names.entrySet()) {
+				Map<Integer,List<Entry>> arityMap = new HashMap<Integer,List<Entry>>();
+				for (Map.Entry<Integer,List<Entry>> ee: e.getValue().entrySet()) {
+					arityMap.put(ee.getKey(),Collections.unmodifiableList(new ArrayList<Entry>(ee.getValue())));
+				}
+				m.put(e.getKey(),Collections.unmodifiableMap(arityMap));
+			}
+			this.names = Collections.unmodifiableMap(m);
+			this.logic = logic;
+			this.arrayTheorySet = arrayTheorySet;
+			this.bitVectorTheorySet = bitVectorTheorySet;
+			this.realsIntsTheorySet = realsIntsTheorySet;
+		}
+	}
+	
 	/** An iterator over all of the Symbols in the symbol scope stack from the top-most scope
 	 * on down.
 	 * @author David R. Cok
 	 */
 	public static class Iterator implements java.util.Iterator<Entry> {
-		private java.util.Iterator<Map<IIdentifier,Map<Integer,List<Entry>>>> stackIter;
-		private /*@Nullable*/ java.util.Iterator<Map<Integer,List<Entry>>> arityIter = null;
+		private Scopes<Map<Integer,List<Entry>>> names;
+		private int level;
+		private /*@Nullable*/ java.util.Iterator<Map<Integer,List<Entry>>> scopeIter = null;
 		private /*@Nullable*/ java.util.Iterator<List<Entry>> symIter = null;
 		private /*@Nullable*/ java.util.Iterator<Entry> entryIter = null;
 		
 		/** Constructs a new iterator, initialized at the beginning */
 		public Iterator(SymbolTable sym) {
-			stackIter = sym.symStack.iterator();
+			names = sym.names;
+			level = names.top() + 1;
 		}
 		
 		/*@AssertNonNullIfTrue({"symIter"})*/
@@ -104,11 +343,11 @@ public class SymbolTable {
 		public boolean hasNext() {
 			while (entryIter == null || !entryIter.hasNext()) {
 				while (symIter == null || !symIter.hasNext()) {
-					while (arityIter == null || !arityIter.hasNext()) {
-						if (!stackIter.hasNext()) return false;
-						arityIter = stackIter.next().values().iterator();
+					while (scopeIter == null || !scopeIter.hasNext()) {
+						if (level == 0) return false;
+						scopeIter = names.scope(--level).iterator();
 					}
-					symIter = arityIter.next().values().iterator();
+					symIter = scopeIter.next().values().iterator();
 				}
 				entryIter = symIter.next().iterator();
 			}
@@ -135,14 +374,10 @@ public class SymbolTable {
 	
 	/** Makes a copy of the symbol table */
 	public SymbolTable(SymbolTable s) {
-		clear();
 		this.smtConfig = s.smtConfig;
-		sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-		symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
-		sortStack.addAll(s.sortStack);
-		symStack.addAll(s.symStack);
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		sorts = new Scopes<ISort.IDefinition>(s.sorts);
+		names = new Scopes<Map<Integer,List<Entry>>>(s.names);
+		resolved = new HashMap<IIdentifier,Map<Signature,Entry>>();
 	}
 	
 	/** Returns a fresh iterator over the symbol table's contents */
@@ -152,26 +387,28 @@ public class SymbolTable {
 	
 	/** Initializes the symbol table with an empty background frame and one empty frame. */
 	public void clear() {
-		sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-		symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
+		sorts = new Scopes<ISort.IDefinition>();
+		names = new Scopes<Map<Integer,List<Entry>>>();
+		resolved = new HashMap<IIdentifier,Map<Signature,Entry>>();
 		push(); // an empty background frame
 		push(); // an empty primary frame
 	}
 
 	/** Adds a new empty frame on the top of the symbol table stack. */
 	public void push() {
-		sortStack.add(0,sorts=new HashMap<IIdentifier,ISort.IDefinition>());
-		symStack.add(0,names=new HashMap<IIdentifier,Map<Integer,List<Entry>>>());
+		sorts.push();
+		names.push();
 	}
 	
 	/** Combines the top two symbol scopes, removing the current top scope; presumes that there
 	 * is no shadowing of symbols; the top sort scope is discarded.
 	 */ // TODO - say more about why this is used/needed; also review this
 	public void merge() {
-		Map<IIdentifier,Map<Integer,List<SymbolTable.Entry>>> oldnames = names;
+		List<Map<Integer,List<SymbolTable.Entry>>> oldnames = new ArrayList<Map<Integer,List<SymbolTable.Entry>>>();
+		for (IIdentifier id: names.trail.get(names.top())) oldnames.add(names.getTop(id));
 		pop();
 		// Put everything in oldnames into the current top
-		for (Map<Integer,List<SymbolTable.Entry>> e: oldnames.values()) {
+		for (Map<Integer,List<SymbolTable.Entry>> e: oldnames) {
 			for (List<SymbolTable.Entry> ee: e.values()) {
 				for (SymbolTable.Entry entry: ee) {
 					// We have already checked that there is no shadowing
@@ -187,26 +424,41 @@ public class SymbolTable {
 	 */
 	public void pop() {
 		// The comparison is <= 1 since there is always also the background scope
-		if (symStack.size() <= 1) {
+		if (names.top() < 1) {
 			// We throw an InternalException (that is, a bug), since pop should not be called if
 			// there are no scopes to pop.
 			throw new SMT.InternalException("Invalid pop - no more symbol table scopes to pop");
 		}
-		sortStack.remove(0);
-		symStack.remove(0);
-		sorts = sortStack.get(0);
-		names = symStack.get(0);
+		for (IIdentifier id: names.trail.get(names.top())) resolved.remove(id);
+		sorts.pop();
+		names.pop();
 	}
 	
 	/** Removes the previous background frame, then removes the top frame and 
 	 * inserts it as the bottom (background) frame. */
 	public void moveToBackground() {
-		sortStack.remove(sortStack.size()-1);
-		symStack.remove(symStack.size()-1);
-		sortStack.add(sortStack.remove(0));
-		symStack.add(symStack.remove(0));
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		sorts.moveToBackground();
+		names.moveToBackground();
+		resolved.clear();
+	}
+	
+	/** Returns the contents of the background scope, with the current logic and theory settings */
+	public Layer background() {
+		return new Layer(sorts.background(),names.background(),logicInUse,arrayTheorySet,bitVectorTheorySet,realsIntsTheorySet);
+	}
+	
+	/** Replaces the background scope by the given layer, which is shared rather than copied,
+	 * and sets the logic and theory settings from it; the effect is that of loading again the
+	 * logic from which the layer was made. */
+	public void useBackground(Layer layer) {
+		sorts.setBackground(layer.sorts);
+		names.setBackground(layer.names);
+		resolved.clear();
+		logicInUse = layer.logic;
+		// Loading a logic only ever sets these
+		arrayTheorySet |= layer.arrayTheorySet;
+		bitVectorTheorySet |= layer.bitVectorTheorySet;
+		realsIntsTheorySet |= layer.realsIntsTheorySet;
 	}
 	
 	/** Adds the given symbol as a sort to the top scope of the sort table; 
@@ -216,10 +468,9 @@ public class SymbolTable {
 	 * @return true if successfully added, false if already present
 	 */
 	public boolean addSortParameter(ISymbol symbol) {
-		ISort.IDefinition previous = sorts.put(symbol, smtConfig.sortFactory.createSortParameter(symbol));
-		if (previous == null) return true;
-		sorts.put(symbol, previous);
-		return false;
+		if (sorts.getTop(symbol) != null) return false;
+		sorts.put(symbol, smtConfig.sortFactory.createSortParameter(symbol));
+		return true;
 	}
 	
 	/** Adds a new sort declaration to the top frame
@@ -248,7 +499,7 @@ public class SymbolTable {
 	 * this name in the top scope
 	 */ // FIXME - why is this only the top scope and the previous call is any scope?
 	public boolean addSortDefinition(IIdentifier identifier, List<IParameter> parameters, ISort definition) {
-		ISort.IDefinition s = sorts.get(identifier);
+		ISort.IDefinition s = sorts.getTop(identifier);
 		if (s != null) return false;
 		sorts.put(identifier, smtConfig.sortFactory.createSortAbbreviation(identifier,parameters,definition));
 		return true;
@@ -261,10 +512,8 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public ISort.IDefinition lookupSort(IIdentifier name) {
-		for (Map<IIdentifier,ISort.IDefinition> set: sortStack) {
-			ISort.IDefinition s = set.get(name);
-			if (s != null) return s;
-		}
+		ISort.IDefinition s = sorts.get(name);
+		if (s != null) return s;
 		
 		// FIXME _ improve so this is not hard coded
 		if (name instanceof IParameterizedIdentifier) {
@@ -294,12 +543,14 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public IFcnSort lookup(int arity, IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
-			}
+		for (Binding<Map<Integer,List<Entry>>> b = names.index.get(name); b != null; b = b.next) {
+			List<Entry> entrylist = b.value.get(arity);
+			if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
+		}
+		Map<Integer,List<Entry>> arityMap = names.base == null ? null : names.base.get(name);
+		if (arityMap != null) {
+			List<Entry> entrylist = arityMap.get(arity);
+			if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
 		}
 		return null;
 	}
@@ -310,11 +561,7 @@ public class SymbolTable {
 	 * top-most scope in which the identifier is found
 	 */
 	public /*@Nullable*/ Map<Integer,List<Entry>> lookup(IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) return arityMap;
-		}
-		return null;
+		return names.get(name);
 	}
 	
 	// FIXME - review
@@ -327,91 +574,106 @@ public class SymbolTable {
 	// different arity (but different sort). However, in non-background scopes, no 
 	// overloading is allowed of any arity in any scope.
 	/*@Nullable*/
-	public Entry lookup(IIdentifier name, List<ISort> argSorts, ISort resultSort) {
+	public Entry lookup(IIdentifier name, List<ISort> argSorts, /*@Nullable*/ ISort resultSort) {
+		// A given signature is resolved only once, until the definitions of the name change
+		Signature signature = new Signature(argSorts,resultSort);
+		Map<Signature,Entry> signatures = resolved.get(name);
+		if (signatures != null) {
+			Entry entry = signatures.get(signature);
+			if (entry != null || signatures.containsKey(signature)) return entry;
+		}
+		Map<Integer,List<Entry>> arityMap = names.get(name);
+		if (arityMap == null) return null;
+		// We have a name match
+		if (signatures == null) {
+			signatures = new HashMap<Signature,Entry>();
+			resolved.put(name,signatures);
+		}
+		Entry entry = resolve(arityMap,argSorts,resultSort);
+		signatures.put(signature,entry);
+		return entry;
+	}
+	
+	/** Finds the definition, among the given ones of a name, that matches the given argument
+	 * Sorts and result Sort, or returns null if there is none or the match is ambiguous */
+	private /*@Nullable*/ Entry resolve(Map<Integer,List<Entry>> arityMap, List<ISort> argSorts, /*@Nullable*/ ISort resultSort) {
 		Entry found = null;
 		boolean foundMatchButNotOnResult = false;
 		int arity = argSorts.size();
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				// We have a name match
-				// First check for an exact match on arity
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null) for (Entry entry: entrylist) {
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
-					while (actuals.hasNext() && defs.hasNext()) {
-						if (!defs.next().equals(actuals.next())) { entry = null; break; }
-					}
-					// Cases to consider
-					//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
-					//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
-					//   resultSort == null & and just one argument sort match -> return it
-					//   resultSort == null & multiple argument sort matches -> ambiguous
-						
-					if (entry != null) {
-						// Have a match on the arguments, so check for a match on the result
-						if (resultSort != null) {
-							if (resultSort.equals(entry.sort.resultSort())) {
-								if (found != null) {
-									// FIXME - there appear to be two entries that match on all arguments and the result
-									return null;
-								} else {
-									found = entry;
-								}
-							} else {
-								foundMatchButNotOnResult = true;
-							}
+		// First check for an exact match on arity
+		List<Entry> entrylist = arityMap.get(arity);
+		if (entrylist != null) for (Entry entry: entrylist) {
+			java.util.Iterator<ISort> actuals = argSorts.iterator();
+			java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
+			while (actuals.hasNext() && defs.hasNext()) {
+				if (!defs.next().equals(actuals.next())) { entry = null; break; }
+			}
+			// Cases to consider
+			//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
+			//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
+			//   resultSort == null & and just one argument sort match -> return it
+			//   resultSort == null & multiple argument sort matches -> ambiguous
+				
+			if (entry != null) {
+				// Have a match on the arguments, so check for a match on the result
+				if (resultSort != null) {
+					if (resultSort.equals(entry.sort.resultSort())) {
+						if (found != null) {
+							// FIXME - there appear to be two entries that match on all arguments and the result
+							return null;
 						} else {
-							// No result sort specified - there should not be any overloading
-							if (found != null) {
-								// Found something previously and now have this match - so ambiguous
-								// FIXME - no place to give an error message that the result sort is ambiguous
-								return null;
-							}
 							found = entry;
-							// Otherwise have just one match - keep checking the rest of the list
 						}
+					} else {
+						foundMatchButNotOnResult = true;
+					}
+				} else {
+					// No result sort specified - there should not be any overloading
+					if (found != null) {
+						// Found something previously and now have this match - so ambiguous
+						// FIXME - no place to give an error message that the result sort is ambiguous
+						return null;
 					}
+					found = entry;
+					// Otherwise have just one match - keep checking the rest of the list
 				}
-				if (resultSort != null && found != null && !foundMatchButNotOnResult) {
-					// FIXME - should report unneeded disambiguation
-					return null;
+			}
+		}
+		if (resultSort != null && found != null && !foundMatchButNotOnResult) {
+			// FIXME - should report unneeded disambiguation
+			return null;
+		}
+		if (found != null) return found;
+		
+		// Check for left-assoc etc.
+		if (argSorts.size() <= 2) return null;
+		entrylist = arityMap.get(2);
+		if (entrylist != null) outer: for (Entry entry: entrylist) {
+			ISort left = entry.sort.argSorts()[0];
+			ISort right = entry.sort.argSorts()[1];
+			java.util.Iterator<ISort> actuals = argSorts.iterator();
+			if (hasAttribute(entry,":left-assoc")) {
+				if (!actuals.next().equals(left)) continue;
+				while (actuals.hasNext()) {
+					if (!actuals.next().equals(right)) continue outer;
 				}
-				if (found != null) return found;
-				
-					// Check for left-assoc etc.
-				if (argSorts.size() <= 2) return null;
-				entrylist = arityMap.get(2);
-				if (entrylist != null) outer: for (Entry entry: entrylist) {
-					ISort left = entry.sort.argSorts()[0];
-					ISort right = entry.sort.argSorts()[1];
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					if (hasAttribute(entry,":left-assoc")) {
-						if (!actuals.next().equals(left)) continue;
-						while (actuals.hasNext()) {
-							if (!actuals.next().equals(right)) continue outer;
-						}
-					} else if (hasAttribute(entry,":right-assoc")) {
-						ISort sort = actuals.next();
-						while (actuals.hasNext()) {
-							if (!sort.equals(left)) continue outer;
-							sort = actuals.next();
-						}
-						if (!sort.equals(right)) continue;
-					} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
-						while (actuals.hasNext()) {
-							ISort sort = actuals.next();
-							if (!sort.equals(left)) continue outer;
-						}
-					} else {
-						// None of the attributes apply
-						continue;
-					}
-					return entry;
+			} else if (hasAttribute(entry,":right-assoc")) {
+				ISort sort = actuals.next();
+				while (actuals.hasNext()) {
+					if (!sort.equals(left)) continue outer;
+					sort = actuals.next();
+				}
+				if (!sort.equals(right)) continue;
+			} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
+				while (actuals.hasNext()) {
+					ISort sort = actuals.next();
+					if (!sort.equals(left)) continue outer;
 				}
-				return null;
+			} else {
+				// None of the attributes apply
+				continue;
 			}
+			return entry;
 		}
 		return null;
 	}
@@ -429,7 +691,8 @@ public class SymbolTable {
 	 */
 	public void add(Entry entry) {
 
-		Map<Integer,List<Entry>> arityMap = names.get(entry.name);
+		resolved.remove(entry.name);
+		Map<Integer,List<Entry>> arityMap = names.getTop(entry.name);
 		if (arityMap == null) {
 			arityMap = new HashMap<Integer,List<Entry>>();
 			names.put(entry.name,arityMap);
@@ -454,10 +717,8 @@ public class SymbolTable {
 		// Check if the entry is already present in any scope;
 		// return false if it is.  Allow overloading if the second argument is true.
 		if (!overload) {
-			for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-				if (set.get(entry.name) != null) {
-					return false;
-				}
+			if (names.get(entry.name) != null) {
+				return false;
 			}
 		}
 		// Symbol is not present or overloading is allowed, so add it
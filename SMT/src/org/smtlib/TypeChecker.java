@@ -14,6 +14,7 @@ import java.util.Map;
 
 import org.smtlib.IExpr.*;
 import org.smtlib.ISort.*;
+import org.smtlib.impl.HashConsFactory;
 
 /** This class is a visitor that type-checks a formula */
 public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
@@ -30,7 +31,34 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	/** A reference to the map in which to keep type information */
 	private /*@Nullable*/ Map<IExpr,ISort> typemap;
 	
+	/** The checker of the logic in use, which is given each expression that is assigned a sort,
+	 * or null if expressions are not being checked against the logic */
+	private /*@Nullable*/ ILanguage.IChecker checker;
+	
 	private ISymbol isClosed = null;
+	
+	/** The position of the occurrence of isClosed */
+	private /*@Nullable*/ IPos isClosedPos = null;
+	
+	/** The factory that records the positions of the occurrences of shared expressions, if
+	 * expressions are shared, or null */
+	private /*@Nullable*/ HashConsFactory hashCons;
+	
+	/** The position of the occurrence of the expression being checked (or, if that is not known,
+	 * of the innermost enclosing expression whose position is known), or null */
+	private /*@Nullable*/ IPos within = null;
+	
+	/** Where in the text the next subexpression of the expression being checked may begin */
+	private int cursor = 0;
+	
+	/** The position of the occurrence of the expression most recently checked by checkPart, or null */
+	private /*@Nullable*/ IPos lastPos = null;
+	
+	/** The canonical Bool sort, once it has been checked */
+	private /*@Nullable*/ ISort boolSort = null;
+	
+	/** The canonical BitVec sorts made so far, by length */
+	private /*@Nullable*/ Map<Integer,ISort> bitVecSorts = null;
 
 	/** Constructs a formula typechecker from the current
 	 * symbol table and type map
@@ -39,6 +67,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		this.symTable = symTable;
 		this.smtConfig = symTable.smtConfig;
 		this.typemap = typemap;
+		this.hashCons = smtConfig.exprFactory instanceof HashConsFactory ? (HashConsFactory)smtConfig.exprFactory : null;
 	}
 	
 	/** Constructs a type checker without keeping a type map */
@@ -51,6 +80,64 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		result.add(smtConfig.responseFactory.error(msg,pos));
 	}
 	
+	/** Type-checks the given expression, which is the one given to an entry point or a
+	 * subexpression of the expression being checked, first finding the position of its
+	 * occurrence (which for a shared expression is not held by the expression itself).
+	 * Subexpressions must be checked in the order in which they occur in the text.
+	 */
+	protected /*@Nullable*/ ISort checkPart(IExpr e) throws IVisitor.VisitorException {
+		IPos savedWithin = within;
+		int savedCursor = cursor;
+		IPos p = occurrence(e,cursor);
+		if (p != null) {
+			within = p;
+			cursor = p.charStart();
+		}
+		try {
+			return e.accept(this);
+		} finally {
+			within = savedWithin;
+			cursor = p != null ? p.charEnd() : savedCursor;
+			lastPos = p;
+		}
+	}
+	
+	/** Returns the position of the given part of the expression being checked: its own position,
+	 * if it has one, and otherwise (if it is shared) that of its first occurrence within the
+	 * expression being checked that begins no earlier than 'from'; null if neither is known.
+	 */
+	private /*@Nullable*/ IPos occurrence(IPos.IPosable part, int from) {
+		IPos p = part.pos();
+		if (p == null && hashCons != null && within != null) p = hashCons.occurrence(part,within,from);
+		return p;
+	}
+	
+	/** Returns the position to report for the expression being checked or for a part of it (such
+	 * as its head), using the position of the expression being checked if there is no better one */
+	protected /*@Nullable*/ IPos pos(IPos.IPosable part) {
+		IPos p = occurrence(part,within == null ? 0 : within.charStart());
+		return p != null ? p : within;
+	}
+	
+	/** Returns the position to report for the k'th numeral of the given identifier, which is
+	 * part of the expression being checked */
+	private /*@Nullable*/ IPos numeralPos(IParameterizedIdentifier pid, int k) {
+		IPos saved = within;
+		within = pos(pid);
+		try {
+			IPos p = null;
+			int from = within == null ? 0 : within.charStart();
+			for (int i = 0; i <= k; i++) {
+				p = occurrence(pid.numerals().get(i),from);
+				if (p == null) break;
+				from = p.charEnd();
+			}
+			return p != null ? p : within;
+		} finally {
+			within = saved;
+		}
+	}
+	
 	/** Utility method for printing an expression, using the default printer */
 	protected String pr(IExpr e) {
 		return smtConfig.defaultPrinter.toString(e);
@@ -119,6 +206,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	public static List<IResponse> checkFcn(SymbolTable symTable, Map<IExpr,ISort> typemap, IIdentifier id, List<IDeclaration> params, ISort result, IExpr expr, IPos pos) {
 		TypeChecker f = new TypeChecker(symTable,typemap);
+		f.startLogicCheck();
 		symTable.push();
 		try {
 			for (IDeclaration p : params) {
@@ -131,7 +219,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			if (f.result.isEmpty()) {
 				ISort res = result.accept(f);
 				if (res != null) {
-					res = expr.accept(f);
+					res = f.checkPart(expr);
 				}
 				if (res != null && !res.equals(result)) {
 					f.error("Declared sort of the result does not match the sort of the expression: "
@@ -143,7 +231,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				List<ISort> sorts = new LinkedList<ISort>(); 
 				for (IDeclaration p : params) sorts.add(p.sort());
 				symTable.logicInUse.checkFcnDeclaration(id,sorts,result,expr);
-				symTable.logicInUse.validExpression(expr);
+				f.checkLogic(expr);
 			} catch (IVisitor.VisitorException e) {
 				f.error(e.getMessage(), e.pos());
 			}
@@ -161,13 +249,14 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	/** The main entry point for type-checking an IExpr (expected to be a Bool)*/
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr) {
 		TypeChecker f = new TypeChecker(symTable,null);
+		f.startLogicCheck();
 		try {
-			ISort topsort = expr.accept(f);
+			ISort topsort = f.checkPart(expr);
 			if (topsort != null && !topsort.isBool()) {
 				f.error("Expected an expression with Bool sort, not " + topsort, expr.pos());
 			}
 			try {
-				symTable.logicInUse.validExpression(expr);
+				f.checkLogic(expr);
 			} catch (IVisitor.VisitorException e) {
 				f.error(e.getMessage(), e.pos());
 			}
@@ -182,14 +271,15 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	/** The main entry point for type-checking an IExpr (expected to be a Bool)*/
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr, Map<IExpr,ISort> typemap) {
 		TypeChecker f = new TypeChecker(symTable,typemap);
+		f.startLogicCheck();
 		symTable.push();
 		try {
-			ISort topsort = expr.accept(f);
+			ISort topsort = f.checkPart(expr);
 			if (topsort != null && !topsort.isBool()) {
 				f.error("Expected an expression with Bool sort, not " + topsort, expr.pos());
 			}
 			try {
-				symTable.logicInUse.validExpression(expr);
+				f.checkLogic(expr);
 			} catch (IVisitor.VisitorException e) {
 				f.error(e.getMessage(), e.pos());
 			}
@@ -206,16 +296,17 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr, Map<IExpr,ISort> typemap, List<IExpr.IDeclaration> decls) {
 		TypeChecker f = new TypeChecker(symTable,typemap);
+		f.startLogicCheck();
 		try {
 			for (IExpr.IDeclaration d: decls) {
 				f.currentScope.put(d.parameter(),new Variable(d.parameter(),d.sort(),null));
 			}
-			ISort topsort = expr.accept(f);
+			ISort topsort = f.checkPart(expr);
 			if (topsort != null && !topsort.isBool()) {
 				f.error("Expected an expression with Bool sort, not " + topsort, expr.pos());
 			}
 			try {
-				symTable.logicInUse.validExpression(expr);
+				f.checkLogic(expr);
 			} catch (IVisitor.VisitorException e) {
 				f.error(e.getMessage(), e.pos());
 			}
@@ -229,13 +320,26 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	public /*@Nullable*/ ISort save(/*@NonNull*/IExpr e, /*@Nullable*/ISort s) {
 		if (typemap != null) typemap.put(e,s);
+		if (checker != null && s != null) checker.visited(e);
 		return s;
 	}
 	
+	/** Starts checking the expressions that are given sorts against the logic in use */
+	protected void startLogicCheck() {
+		checker = symTable.logicInUse == null ? null : symTable.logicInUse.checker();
+	}
+	
+	/** Checks that the given expression, which has been type-checked since startLogicCheck(),
+	 * is permitted by the logic in use */
+	protected void checkLogic(IExpr expr) throws IVisitor.VisitorException {
+		if (checker != null) checker.validExpression(expr);
+		else symTable.logicInUse.validExpression(expr);
+	}
+	
 	@Override
 	public /*@Nullable*/ ISort visit(INumeral e) {
 		IFcnSort sort = symTable.lookup(0,smtConfig.exprFactory.symbol("NUMERAL"));
-		if (sort == null) error("No sort specified for numeral",e.pos());
+		if (sort == null) error("No sort specified for numeral",pos(e));
 		return save(e,sort == null ? null : sort.resultSort());
 	}
 
@@ -244,17 +348,20 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		if (e.args().size() == 0) {
 			// Error message already given on parsing
 			// but we'll defensively program
-			error("Unexpected function with no arguments: " + pr(e.head()),e.pos());
+			error("Unexpected function with no arguments: " + pr(e.head()),pos(e));
 			return null; 
 		}
 
 		// Type check all the arguments
 		boolean anyErrors = false;
 		List<ISort> argSorts = new LinkedList<ISort>();
+		IPos[] argPos = new IPos[e.args().size()];
+		int k = 0;
 		java.util.Iterator<IExpr> iter = e.args().iterator();
 		while (iter.hasNext()) {
 			IExpr sx = iter.next();
-			ISort argSort = sx.accept(this);
+			ISort argSort = checkPart(sx);
+			argPos[k++] = lastPos != null ? lastPos : pos(e);
 			anyErrors = anyErrors || (argSort == null);
 			if (argSort != null) argSorts.add(argSort); 
 		}
@@ -290,28 +397,26 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 						String msg = "Mismatched sorts of arguments: " + 
 						smtConfig.defaultPrinter.toString(ss) + " vs. " +
 						smtConfig.defaultPrinter.toString(s);
-						error(msg,e.pos());
+						error(msg,pos(e));
 						return null;
 					}
 				}
 			}
-			ISort b = smtConfig.sortFactory.Bool();
-			b.accept(this);
-			return save(e,b);
+			return save(e,bool());
 		} else if (name.equals("ite")) {
 			// FIXME - this is just here until we get par types implemented
 			if (!argSorts.get(0).isBool()) {
-				error("The first argument of ite must have sort Bool",e.pos());
+				error("The first argument of ite must have sort Bool",pos(e));
 				return null;
 			}
 			if (!argSorts.get(1).equals(argSorts.get(2))) {
-				error("The last two arguments of ite have different sorts",e.pos());
+				error("The last two arguments of ite have different sorts",pos(e));
 				return null;
 			}
 			return save(e,argSorts.get(1));
 		} else if (symTable.arrayTheorySet && name.equals("store")) {
 			if (argSorts.size() != 3) {
-				error(" The store function should have three arguments",head.pos());
+				error(" The store function should have three arguments",pos(head));
 				return null;
 			}
 			// FIXME - this needs to be fully expanded of all definitions
@@ -319,19 +424,19 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			if (sort1 instanceof ISort.IApplication) {
 				ISort.IApplication asort = (ISort.IApplication)sort1;
 				if (!(asort.family().headSymbol().toString().equals("Array"))) {
-					error("The first argument of the store function should be an Array sort, not " + sort1,e.pos());
+					error("The first argument of the store function should be an Array sort, not " + sort1,pos(e));
 					return null;
 				}
 				if (!asort.parameters().get(0).equals(argSorts.get(1))) {
-					error("The second argument of the store function must match the array index sort: " + argSorts.get(1) + " vs. " + asort.parameters().get(0), e.pos() );
+					error("The second argument of the store function must match the array index sort: " + argSorts.get(1) + " vs. " + asort.parameters().get(0), pos(e) );
 					return null;
 				}
 				if (!asort.parameters().get(1).equals(argSorts.get(2))) {
-					error("The third argument of the store function must match the array value sort: " + argSorts.get(2) + " vs. " + asort.parameters().get(1), e.pos() );
+					error("The third argument of the store function must match the array value sort: " + argSorts.get(2) + " vs. " + asort.parameters().get(1), pos(e) );
 					return null;
 				}
 			} else {
-				error("The first argument of the store function should be an Array sort, not " + sort1,e.pos());
+				error("The first argument of the store function should be an Array sort, not " + sort1,pos(e));
 				return null;
 			}
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
@@ -340,7 +445,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		if (symTable.arrayTheorySet && name.equals("select")) {
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
 			if (argSorts.size() != 2) {
-				error(" The select function should have two arguments",head.pos());
+				error(" The select function should have two arguments",pos(head));
 				return null;
 			}
 			// FIXME - this needs to be fully expanded of all definitions
@@ -348,15 +453,15 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			if (sort1 instanceof ISort.IApplication) {
 				ISort.IApplication asort = (ISort.IApplication)sort1;
 				if (!(asort.family().headSymbol().toString().equals("Array"))) {
-					error("The first argument of the select function should be an Array sort, not " + sort1,e.pos());
+					error("The first argument of the select function should be an Array sort, not " + sort1,pos(e));
 					return null;
 				}
 				if (!asort.parameters().get(0).equals(argSorts.get(1))) {
-					error("The second argument of the select function must match the array index sort: " + argSorts.get(1) + " vs. " + asort.parameters().get(0), e.pos() );
+					error("The second argument of the select function must match the array index sort: " + argSorts.get(1) + " vs. " + asort.parameters().get(0), pos(e) );
 					return null;
 				}
 			} else {
-				error("The first argument of the select function should be an Array sort, not " + sort1,e.pos());
+				error("The first argument of the select function should be an Array sort, not " + sort1,pos(e));
 				return null;
 			}
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
@@ -367,12 +472,12 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		if (bvperhaps) {
 			if (name.equals("bvnot") || name.equals("bvneg")) {
 				if (argSorts.size() != 1) {
-					error(" The " + name + " function should have one argument",head.pos());
+					error(" The " + name + " function should have one argument",pos(head));
 					return null;
 				}
 				ISort s = argSorts.get(0);
 				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + smtConfig.defaultPrinter.toString(s),e.args().get(0).pos());
+					error("The argument must have a BitVec sort, not " + smtConfig.defaultPrinter.toString(s),argPos[0]);
 					return null;
 				}
 				return save(e,s);
@@ -387,21 +492,21 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 					))
 					) {
 				if (argSorts.size() != 2) {
-					error(" The " + name + " function should have two arguments",head.pos());
+					error(" The " + name + " function should have two arguments",pos(head));
 					return null;
 				}
 				ISort s = argSorts.get(0);
 				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+					error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 					return null;
 				}
 				ISort ss = argSorts.get(1);
 				if (!isBitVec(ss)) {
-					error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
+					error("The argument must have a BitVec sort, not " + pr(ss),argPos[1]);
 					return null;
 				}
 				if (!s.equals(ss)) {
-					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
+					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),pos(e));
 					return null;
 				}
 				if (name.equals("bvcomp")) {
@@ -414,42 +519,40 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 					)
 					)) {
 				if (argSorts.size() != 2) {
-					error(" The " + name + " function should have two arguments",head.pos());
+					error(" The " + name + " function should have two arguments",pos(head));
 					return null;
 				}
 				ISort s = argSorts.get(0);
 				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+					error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 					return null;
 				}
 				ISort ss = argSorts.get(1);
 				if (!isBitVec(ss)) {
-					error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
+					error("The argument must have a BitVec sort, not " + pr(ss),argPos[1]);
 					return null;
 				}
 				if (!s.equals(ss)) {
-					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
+					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),pos(e));
 					return null;
 				}
-				ISort b = smtConfig.sortFactory.Bool(); // FIXME - get something from the symbol table?
-				b.accept(this);
-				return save(e,b);
+				return save(e,bool());
 			}
 					
 		}
 		if (symTable.bitVectorTheorySet && name.equals("concat")) {
 			if (argSorts.size() != 2) {
-				error(" The " + name + " function should have two arguments",head.pos());
+				error(" The " + name + " function should have two arguments",pos(head));
 				return null;
 			}
 			ISort s = argSorts.get(0);
 			if (!isBitVec(s)) {
-				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 				return null;
 			}
 			ISort ss = argSorts.get(1);
 			if (!isBitVec(ss)) {
-				error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
+				error("The argument must have a BitVec sort, not " + pr(ss),argPos[1]);
 				return null;
 			}
 			s = makeBitVec(bitvecSize(s)+bitvecSize(ss));
@@ -461,28 +564,28 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				head instanceof IParameterizedIdentifier &&
 				pname.equals("extract")) {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + name + " function should have one argument",pos(head));
 				return null;
 			}
 			ISort s = argSorts.get(0);
 			if (!isBitVec(s)) {
-				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 				return null;
 			}
 			IParameterizedIdentifier pid = (IParameterizedIdentifier)head;
 			if (pid.numerals().size() != 2) {
-				error("Expected exactly two numerals in an extract identifier",pid.pos());
+				error("Expected exactly two numerals in an extract identifier",pos(pid));
 				return null;
 			}
 			int end = pid.numerals().get(0).intValue();
 			int start = pid.numerals().get(1).intValue();
 			if (end < start) {
-				error("The end index is less than the starting index",pid.numerals().get(1).pos());
+				error("The end index is less than the starting index",numeralPos(pid,1));
 				return null;
 			}
 			int len = bitvecSize(s);
 			if (end >= len) {
-				error("The end index must be less than the length of the argument sort: " + end + " vs. " + len, pid.numerals().get(1).pos());
+				error("The end index must be less than the length of the argument sort: " + end + " vs. " + len, numeralPos(pid,1));
 				return null;
 			}
 			s = makeBitVec(end-start+1);
@@ -494,22 +597,22 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				(pname.equals("repeat")
 				)) {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + name + " function should have one argument",pos(head));
 				return null;
 			}
 			ISort s = argSorts.get(0);
 			if (!isBitVec(s)) {
-				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 				return null;
 			}
 			IParameterizedIdentifier pid = (IParameterizedIdentifier)head;
 			if (pid.numerals().size() != 1) {
-				error("Expected exactly one numeral in a repeat identifier",pid.pos());
+				error("Expected exactly one numeral in a repeat identifier",pos(pid));
 				return null;
 			}
 			int val = pid.numerals().get(0).intValue();
 			if (val == 0) {
-				error("The numeral may not be 0 in a repeat",pid.numerals().get(0).pos());
+				error("The numeral may not be 0 in a repeat",numeralPos(pid,0));
 				return null;
 			}
 			s = makeBitVec(val*bitvecSize(s));
@@ -522,17 +625,17 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				(pname.equals("zero_extend") || pname.equals("sign_extend")
 				)) {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + name + " function should have one argument",pos(head));
 				return null;
 			}
 			ISort s = argSorts.get(0);
 			if (!isBitVec(s)) {
-				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 				return null;
 			}
 			IParameterizedIdentifier pid = (IParameterizedIdentifier)head;
 			if (pid.numerals().size() != 1) {
-				error("Expected exactly one numeral in a repeat identifier",pid.pos());
+				error("Expected exactly one numeral in a repeat identifier",pos(pid));
 				return null;
 			}
 			int val = pid.numerals().get(0).intValue();
@@ -545,17 +648,17 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				(pname.equals("rotate_left") || pname.equals("rotate_right")
 				)) {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + name + " function should have one argument",pos(head));
 				return null;
 			}
 			ISort s = argSorts.get(0);
 			if (!isBitVec(s)) {
-				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				error("The argument must have a BitVec sort, not " + pr(s),argPos[0]);
 				return null;
 			}
 			IParameterizedIdentifier pid = (IParameterizedIdentifier)head;
 			if (pid.numerals().size() != 1) {
-				error("Expected exactly one numeral in a repeat identifier",pid.pos());
+				error("Expected exactly one numeral in a repeat identifier",pos(pid));
 				return null;
 			}
 			return save(e,s);
@@ -585,7 +688,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			for (ISort s: argSorts) {
 				msg = msg + " " + smtConfig.defaultPrinter.toString(s);
 			}
-			error(msg,e.pos());
+			error(msg,pos(e));
 			return null;
 		} else {
 			return save(e,entry.sort.resultSort());
@@ -609,14 +712,31 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		return pid.numerals().get(0).intValue();
 	}
 	
+	/** Returns the (canonical, if it checks) BitVec sort of the given length */
 	private ISort makeBitVec(int length) throws IVisitor.VisitorException {
+		if (bitVecSorts == null) bitVecSorts = new HashMap<Integer,ISort>();
+		ISort s = bitVecSorts.get(length);
+		if (s != null) return s;
 		List<INumeral> nums = new LinkedList<INumeral>();
 		nums.add(smtConfig.exprFactory.numeral(length));
 		// FIXME - use a pre-constructed symbol for BitVec when it does not have a position?
 		IIdentifier id = smtConfig.exprFactory.id(smtConfig.exprFactory.symbol(Utils.BITVEC),nums);
-		ISort s = smtConfig.sortFactory.createSortExpression(id, new ISort[0]);
-		s.accept(this);
-		return s;
+		s = smtConfig.sortFactory.createSortExpression(id, new ISort[0]);
+		if (s.accept(this) == null) return s;
+		ISort c = s.canonical();
+		if (c == null) return s;
+		bitVecSorts.put(length,c);
+		return c;
+	}
+	
+	/** Returns the (canonical, if it checks) Bool sort */
+	private ISort bool() throws IVisitor.VisitorException {
+		if (boolSort != null) return boolSort;
+		ISort b = smtConfig.sortFactory.Bool(); // FIXME - get something from the symbol table?
+		if (b.accept(this) == null) return b;
+		ISort c = b.canonical();
+		if (c == null) return b;
+		return boolSort = c;
 	}
 
 	@Override
@@ -629,11 +749,11 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} else {
 			Variable v = currentScope.get(e);
 			if (v != null) {
-				if (isClosed == null && v.expression == null) isClosed = e; // FIXME - need to check if v.expression is closed or not
+				if (isClosed == null && v.expression == null) { isClosed = e; isClosedPos = pos(e); } // FIXME - need to check if v.expression is closed or not
 				return save(e,v.sort);
 			}
 			if ((sort=symTable.lookup(0,e))==null) {
-				result.add(smtConfig.responseFactory.error("Unknown constant symbol " + value, e.pos()));
+				result.add(smtConfig.responseFactory.error("Unknown constant symbol " + value, pos(e)));
 				return null;
 			} else {
 				return save(e,sort.resultSort());
@@ -645,40 +765,35 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	@Override
 	public /*@Nullable*/ISort visit(IDecimal e) {
 		IFcnSort sort = symTable.lookup(0,smtConfig.exprFactory.symbol("DECIMAL")); // FIXME - don't recreate this every time it is used
-		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for decimal literal",e.pos()));
+		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for decimal literal",pos(e)));
 		return save(e,sort == null ? null : sort.resultSort());
 	}
 
 	@Override
 	public /*@Nullable*/ISort visit(IBinaryLiteral e) throws IVisitor.VisitorException {
-		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a binary literal",e.pos()));
+		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a binary literal",pos(e)));
 		ISort s = makeBitVec(e.length());
-		s.accept(this);
 		return save(e,s);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IHexLiteral e) throws IVisitor.VisitorException {
-		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a hex literal",e.pos()));
-		List<INumeral> nums = new LinkedList<INumeral>();
-		nums.add(smtConfig.exprFactory.numeral(e.length()*4));
-		IIdentifier id = smtConfig.exprFactory.id(smtConfig.exprFactory.symbol(Utils.BITVEC),nums);
-		ISort s = smtConfig.sortFactory.createSortExpression(id, new ISort[0]);
-		s.accept(this);
+		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a hex literal",pos(e)));
+		ISort s = makeBitVec(e.length()*4);
 		return save(e,s);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IStringLiteral e) {
 		IFcnSort sort = symTable.lookup(0,smtConfig.exprFactory.symbol("STRING")); // FIXME - don't recreate this everytime it is used
-		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for string-literal",e.pos()));
+		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for string-literal",pos(e)));
 		return save(e,sort == null ? null : sort.resultSort());
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IKeyword e) {
 		// Should never be called
-		result.add(smtConfig.responseFactory.error("INTERNAL ERROR: Did not expect to be type-checking a keyword",e.pos()));
+		result.add(smtConfig.responseFactory.error("INTERNAL ERROR: Did not expect to be type-checking a keyword",pos(e)));
 		return null;
 	}
 
@@ -696,13 +811,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				(pname.matches("bv(0|[1-9][0-9]*)") // TODO - allow leading zeros?
 				)) {
 			if (e.numerals().size() != 1) {
-				error("Expected exactly one numeral in a bv identifier",e.pos());
+				error("Expected exactly one numeral in a bv identifier",pos(e));
 				return null;
 			}
 			int size = e.numerals().get(0).intValue();
 			BigInteger value = new BigInteger(pname.substring(2));
 			if (value.bitLength() > size) {
-				error("The value of the bitvector constant is too large for the given size (" + value.bitLength() + " vs. " + size + "bits)",e.pos());
+				error("The value of the bitvector constant is too large for the given size (" + value.bitLength() + " vs. " + size + "bits)",pos(e));
 				return null;
 			}
 			ISort s = makeBitVec(size);
@@ -710,7 +825,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		}
 
 		if ((sort=symTable.lookup(0,e))==null) {
-			result.add(smtConfig.responseFactory.error("No sort known for identifier: " + smtConfig.defaultPrinter.toString(e),e.pos()));
+			result.add(smtConfig.responseFactory.error("No sort known for identifier: " + smtConfig.defaultPrinter.toString(e),pos(e)));
 			return null;
 		} else {
 			return save(e,sort.resultSort());
@@ -728,37 +843,46 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	@Override
 	public /*@Nullable*/ ISort visit(IAttributedExpr e) throws IVisitor.VisitorException {
 		ISymbol savedIsClosed = isClosed;
+		IPos savedIsClosedPos = isClosedPos;
 		isClosed = null;
 		boolean errors = false;
 		ISort resultSort = null;
 		try {
-			resultSort = save(e,e.expr().accept(this));
+			resultSort = save(e,checkPart(e.expr()));
 			for (IAttribute<?> a: e.attributes()) {
 				if (a.keyword().value().equals(":named")) { // FIXME - use a canonical representation
 					IAttributeValue v = a.attrValue();
 					if (!(v instanceof ISymbol)) {
-						result.add(smtConfig.responseFactory.error("Expected a symbol after :named",v==null?a.keyword().pos():v.pos()));
+						result.add(smtConfig.responseFactory.error("Expected a symbol after :named",v==null?after(a.keyword()):after(v)));
 						errors = true;
 					}
 					ISort.IFcnSort fcnSort = smtConfig.sortFactory.createFcnSort(new ISort[0],resultSort);
 					SymbolTable.Entry entry = new SymbolTable.Entry((ISymbol)v,fcnSort,null);
 					if (!symTable.add(entry,false)) { 
-						result.add(smtConfig.responseFactory.error("Symbol " + v.toString() + " is already defined",v.pos())); // FIXME - encode name
+						result.add(smtConfig.responseFactory.error("Symbol " + v.toString() + " is already defined",after(v))); // FIXME - encode name
 						errors = true;
 					}
 					if (isClosed != null) {
-						result.add(smtConfig.responseFactory.error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosed.pos()));
+						result.add(smtConfig.responseFactory.error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosedPos));
 						errors = true;
 					}
 				}
 			}
 		} finally {
+			if (isClosed == null) isClosedPos = savedIsClosedPos;
 			isClosed = isClosed == null ? savedIsClosed : isClosed;
 		}
 		if (errors) return null;
 		return resultSort;
 	}
 
+	/** Returns the position to report for a part of the expression being checked that follows
+	 * the subexpressions checked so far (such as an attribute value) */
+	private /*@Nullable*/ IPos after(IPos.IPosable part) {
+		IPos p = occurrence(part,cursor);
+		return p != null ? p : within;
+	}
+
 	protected Map<ISymbol,Variable> currentScope = new HashMap<ISymbol,Variable>();
 	protected List<Map<ISymbol,Variable>> parameters = new LinkedList<Map<ISymbol,Variable>>();
 
@@ -775,7 +899,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		}
 		try {
 			if (errors) return null;
-			ISort s = e.expr().accept(this);
+			ISort s = checkPart(e.expr());
 			return save(e,s);
 		} finally {
 			currentScope = parameters.remove(0);
@@ -795,7 +919,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		}
 		try {
 			if (errors) return null;
-			ISort s = e.expr().accept(this);
+			ISort s = checkPart(e.expr());
 			return save(e,s);
 		} finally {
 			currentScope = parameters.remove(0);
@@ -812,7 +936,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			boolean anyErrors = false;
 			for (IExpr.IBinding decl : e.bindings()) {
 				IExpr expr = decl.expr();
-				ISort s = expr.accept(this);
+				ISort s = checkPart(expr);
 				if (s == null) anyErrors = true;
 				else {
 					newdecls.put(decl.parameter(),new Variable(decl.parameter(),s,expr));
@@ -820,7 +944,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			}
 			if (anyErrors) return null;
 			currentScope.putAll(newdecls);
-			ISort s = e.expr().accept(this);
+			ISort s = checkPart(e.expr());
 			return save(e,s);
 		} finally {
 			currentScope = parameters.remove(0);
@@ -846,7 +970,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			else newargs.add(result);
 		}
 		if (def == null) {
-			error("No such sort symbol declared: " + pr(f),f.pos());
+			error("No such sort symbol declared: " + pr(f),f.pos() != null ? f.pos() : s.pos());
 			return null;
 		}
 		if (args.size() != def.intArity()) {
@@ -9,10 +9,13 @@ package org.smtlib;
 // FIXME - needs more separation of concrete syntax
 
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.smtlib.IExpr.IAttributeValue;
 import org.smtlib.IExpr.IKeyword;
@@ -152,6 +155,9 @@ public class Utils {
 	/** A REASON_UNKNOWN return value */
 	public static final String INCOMPLETE = "incomplete";
 
+	/** A REASON_UNKNOWN return value */
+	public static final String TIMEOUT = "timeout";
+
 	/** The String for the logic symbol */
 	public static final String LOGIC = "logic";
 
@@ -467,8 +473,31 @@ public class Utils {
 		}
 	}
 
+	/** The background layers of the logics loaded so far in this process, keyed by
+	 * the list of the logic name, the logic path, the logic finder and the class of the Utils
+	 * object that loaded the logic.  A logic whose files change while the process runs must be
+	 * removed by clearLogicCache() to be read again. */
+	static final private Map<List<Object>,SymbolTable.Layer> logicCache = new ConcurrentHashMap<List<Object>,SymbolTable.Layer>();
+	
+	/** Discards all cached logics, so that they are read from their files when next loaded */
+	static public void clearLogicCache() {
+		logicCache.clear();
+	}
+	
+	/** Returns the prebuilt background layer for the given logic, or null if there is none;
+	 * this is used only when the logic would be found on the system CLASSPATH, that is,
+	 * when there is no logicPath and SMT.logicFinder is the default.  This implementation
+	 * always returns null.
+	 */
+	protected /* @Nullable */SymbolTable.Layer precompiledLogic(String logicName) {
+		return null;
+	}
+	
 	/**
-	 * Finds and loads a logic into the given symbol table
+	 * Finds and loads a logic into the given symbol table; a logic that has already been
+	 * loaded successfully (with the same logic path) is not read again, but its cached
+	 * definitions are shared by the symbol table.  Similarly, a precompiled logic is used
+	 * instead of the logic files, if there is one and no logicPath is set.
 	 * 
 	 * @param logicName
 	 *            name of the logic to load
@@ -478,6 +507,30 @@ public class Utils {
 	 */
 	public/* @Nullable */IResponse loadLogic(String logicName,
 			SymbolTable symTable, /* @Nullable */IPos pos) {
+		List<Object> key = Arrays.<Object>asList(logicName, smtConfig.logicPath, SMT.logicFinder, getClass());
+		SymbolTable.Layer layer = logicCache.get(key);
+		if (layer != null) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("#Using the loaded definition of logic " + logicName);
+			symTable.useBackground(layer);
+			return null;
+		}
+		if (smtConfig.logicPath == null && SMT.logicFinder == SMT.defaultLogicFinder) {
+			layer = precompiledLogic(logicName);
+			if (layer != null) {
+				if (smtConfig.verbose != 0) smtConfig.log.logDiag("#Using the precompiled definition of logic " + logicName);
+				symTable.useBackground(layer);
+				logicCache.put(key, layer);
+				return null;
+			}
+		}
+		IResponse res = loadLogicFile(logicName, symTable, pos);
+		if (res == null) logicCache.put(key, symTable.background());
+		return res;
+	}
+	
+	/** Reads the file for the given logic and loads its definitions into the given symbol table */
+	protected/* @Nullable */IResponse loadLogicFile(String logicName,
+			SymbolTable symTable, /* @Nullable */IPos pos) {
 		ILogic sx = null; // = findLogic(logicName, smtConfig.logicPath, pos);
 		{
 			String name = logicName;
@@ -0,0 +1,483 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAsIdentifier;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinaryLiteral;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDecimal;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.IHexLiteral;
+import org.smtlib.IExpr.IIdentifier;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.INumeral;
+import org.smtlib.IExpr.IParameterizedIdentifier;
+import org.smtlib.IExpr.IQualifiedIdentifier;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos;
+import org.smtlib.ISort;
+import org.smtlib.impl.SMTExpr.AsIdentifier;
+import org.smtlib.impl.SMTExpr.Attribute;
+import org.smtlib.impl.SMTExpr.AttributedExpr;
+import org.smtlib.impl.SMTExpr.BinaryLiteral;
+import org.smtlib.impl.SMTExpr.Decimal;
+import org.smtlib.impl.SMTExpr.FcnExpr;
+import org.smtlib.impl.SMTExpr.HexLiteral;
+import org.smtlib.impl.SMTExpr.Keyword;
+import org.smtlib.impl.SMTExpr.Numeral;
+import org.smtlib.impl.SMTExpr.ParameterizedIdentifier;
+import org.smtlib.impl.SMTExpr.StringLiteral;
+import org.smtlib.impl.SMTExpr.Symbol;
+
+/** This factory creates the same IExpr objects as Factory, but returns a single shared
+ * (canonical) instance for all structurally equal expressions, so that repeated subterms
+ * occupy memory only once, the ASTs produced are DAGs, and structural equality of
+ * expressions created by the factory is just reference equality.  Install it by assigning
+ * an instance to SMT.Configuration.exprFactory (the --share command-line option does this).
+ * <P>
+ * Literals, keywords and symbols (including those that are tokens from the lexer) are
+ * canonicalized by their kind and text when they are used as parts of a larger expression
+ * or are created by this factory; a composite expression is canonical when its parts are.
+ * Sorts are not canonicalized, so 'as' identifiers are shared only when their sort objects
+ * are the same object.  Quantifiers, lets, their declarations and bindings, and error
+ * expressions are never shared, though the bodies of quantifiers and lets are.  A variable
+ * bound by a quantifier or let may be given a symbol of its own (see bound), so that the
+ * subterms that refer to it are shared only within the scope of that binder and have one sort.
+ * <P>
+ * A shared expression occurs at many places in the text, so it has no position of its own
+ * (its pos() is null).  Instead the factory keeps, outside the expressions, the positions
+ * of the occurrences that the parser records (see occurs); given the position of an
+ * enclosing expression, the position of an occurrence of a subterm can be found (see
+ * occurrence).  The outermost expression parsed is not shared (see unshared), so that it
+ * holds its position.
+ * Canonical instances are held weakly, so expressions that are no longer used elsewhere may be
+ * garbage collected, along with the positions of their occurrences.  The factory is thread-safe.
+ */
+public class HashConsFactory extends Factory {
+
+	/** The lookup key for a canonical expression: its kind and its (already canonical) parts;
+	 * Strings are compared by value and all other parts by reference.
+	 */
+	static protected final class Key {
+		final private String kind;
+		final private Object[] parts;
+		final private int hash;
+
+		public Key(String kind, Object... parts) {
+			this.kind = kind;
+			this.parts = parts;
+			int h = kind.hashCode();
+			for (Object p: parts) {
+				h = 31*h + (p instanceof String ? p.hashCode() : System.identityHashCode(p));
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			if (hash != k.hash || !kind.equals(k.kind) || parts.length != k.parts.length) return false;
+			for (int i = 0; i < parts.length; i++) {
+				Object p = parts[i];
+				if (p != k.parts[i] && !(p instanceof String && p.equals(k.parts[i]))) return false;
+			}
+			return true;
+		}
+	}
+
+	/** A weak reference to a canonical expression that is compared by the identity of the expression */
+	static private final class Ref extends WeakReference<Object> {
+		final private int hash;
+		Ref(Object node, /*@Nullable*/ ReferenceQueue<Object> queue) {
+			super(node,queue);
+			this.hash = System.identityHashCode(node);
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Ref)) return false;
+			Object node = get();
+			return node != null && node == ((Ref)o).get();
+		}
+	}
+
+	/** The positions of the recorded occurrences of an expression, ordered by their start
+	 * once they are sorted */
+	static private final class Occurrences {
+		final List<IPos> list = new ArrayList<IPos>(2);
+		boolean sorted = true;
+	}
+
+	/** Orders positions by where they start */
+	static private final Comparator<IPos> byStart = new Comparator<IPos>() {
+		@Override
+		public int compare(IPos p, IPos q) {
+			return p.charStart() < q.charStart() ? -1 : p.charStart() == q.charStart() ? 0 : 1;
+		}
+	};
+
+	/** A weak reference to a canonical expression that remembers the key under which it is stored */
+	static private final class Entry extends WeakReference<Object> {
+		final Key key;
+		Entry(Object node, Key key, ReferenceQueue<Object> queue) {
+			super(node,queue);
+			this.key = key;
+		}
+	}
+
+	/** The canonical expressions */
+	final private Map<Key,Entry> table = new HashMap<Key,Entry>();
+
+	/** Entries whose expressions have been garbage collected */
+	final private ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	/** The positions of the occurrences of canonical expressions */
+	final private Map<Ref,Occurrences> occurrences = new HashMap<Ref,Occurrences>();
+
+	/** References to canonical expressions with occurrences that have been garbage collected */
+	final private ReferenceQueue<Object> forgotten = new ReferenceQueue<Object>();
+
+	/** The number of requests that returned an already existing expression */
+	private long hits = 0;
+
+	/** The number of requests that created a new expression */
+	private long misses = 0;
+
+	/** Returns the canonical expression stored under the given key, or null if there is none */
+	protected synchronized /*@Nullable*/ Object find(Key key) {
+		Entry e = table.get(key);
+		Object node = e == null ? null : e.get();
+		if (node != null) hits++;
+		return node;
+	}
+
+	/** Makes the given new expression canonical for the given key, unless some other thread
+	 * has done so for another expression in the meantime; returns the canonical expression */
+	@SuppressWarnings("unchecked")
+	protected synchronized <T> T put(Key key, T node) {
+		Entry e;
+		while ((e = (Entry)collected.poll()) != null) {
+			if (table.get(e.key) == e) table.remove(e.key);
+		}
+		e = table.get(key);
+		Object existing = e == null ? null : e.get();
+		if (existing != null) {
+			hits++;
+			return (T)existing;
+		}
+		misses++;
+		table.put(key, new Entry(node,key,collected));
+		return node;
+	}
+
+	/** Returns the canonical instance of the given expression, if it is a literal, keyword or symbol;
+	 * any other expression is returned unchanged.  If the given expression has a position (as the
+	 * tokens from the lexer do), that is recorded as an occurrence of the canonical instance, which
+	 * itself never has a position.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T share(T e) {
+		String kind;
+		if (e instanceof BoundSymbol) return e;
+		else if (e instanceof ISymbol) kind = "symbol";
+		else if (e instanceof INumeral) kind = "numeral";
+		else if (e instanceof IDecimal) kind = "decimal";
+		else if (e instanceof IStringLiteral) kind = "string";
+		else if (e instanceof IKeyword) kind = "keyword";
+		else if (e instanceof IBinaryLiteral) kind = "binary";
+		else if (e instanceof IHexLiteral) kind = "hex";
+		else return e;
+		Key key = new Key(kind,e.toString());
+		IPos pos = ((IPos.IPosable)e).pos();
+		T c = pos == null ? put(key,e) : (T)find(key);
+		if (c == null) c = put(key,(T)copy(e));
+		occurs(c,pos);
+		return c;
+	}
+
+	/** Returns a copy, without a position, of the given literal, keyword or symbol */
+	static private Object copy(Object e) {
+		if (e instanceof ISymbol) return new Symbol(e.toString());
+		if (e instanceof INumeral) return new Numeral(((INumeral)e).value());
+		if (e instanceof IDecimal) return new Decimal(((IDecimal)e).value());
+		if (e instanceof IStringLiteral) return new StringLiteral(((IStringLiteral)e).value(),false);
+		if (e instanceof IKeyword) return new Keyword(((IKeyword)e).value());
+		if (e instanceof IBinaryLiteral) return new BinaryLiteral(((IBinaryLiteral)e).value());
+		return new HexLiteral(((IHexLiteral)e).value());
+	}
+
+	/** The class of the symbols returned by bound, which are already canonical */
+	static private final class BoundSymbol extends Symbol {
+		BoundSymbol(String v) { super(v); }
+	}
+
+	/** Returns the canonical symbol for the variable with the name of the given symbol that is
+	 * bound by the binder identified by 'scope' (any object, compared by reference); the symbol
+	 * is equal to, but not the same object as, the canonical symbol with that name, so the
+	 * expressions containing it are shared only with those that refer to the same binder.
+	 * The position of the given symbol, if any, is recorded as an occurrence.
+	 */
+	public ISymbol bound(ISymbol symbol, Object scope) {
+		Key key = new Key("bound",symbol.value(),scope);
+		ISymbol c = (ISymbol)find(key);
+		if (c == null) c = put(key,(ISymbol)new BoundSymbol(symbol.toString()));
+		occurs(c,symbol.pos());
+		return c;
+	}
+
+	/** Returns an expression that is not shared, with the same parts as the given (possibly
+	 * canonical) function application, attributed expression or identifier; any other
+	 * expression is returned unchanged.
+	 */
+	public IExpr unshared(IExpr e) {
+		if (e instanceof FcnExpr) return new FcnExpr(((FcnExpr)e).head(),((FcnExpr)e).args());
+		if (e instanceof AttributedExpr) return new AttributedExpr(((AttributedExpr)e).expr(),((AttributedExpr)e).attributes());
+		if (e instanceof ParameterizedIdentifier) return new ParameterizedIdentifier(((ParameterizedIdentifier)e).headSymbol(),((ParameterizedIdentifier)e).numerals());
+		if (e instanceof AsIdentifier) return new AsIdentifier(((AsIdentifier)e).head(),((AsIdentifier)e).qualifier());
+		return e;
+	}
+
+	/** Records that the given canonical expression occurs at the given position; nothing is
+	 * recorded if the position is null.
+	 */
+	public synchronized void occurs(Object e, /*@Nullable*/ IPos pos) {
+		if (pos == null) return;
+		Ref r;
+		while ((r = (Ref)forgotten.poll()) != null) occurrences.remove(r);
+		r = new Ref(e,null);
+		Occurrences occ = occurrences.get(r);
+		if (occ == null) occurrences.put(new Ref(e,forgotten), occ = new Occurrences());
+		List<IPos> list = occ.list;
+		if (!list.isEmpty() && list.get(list.size()-1).charStart() > pos.charStart()) occ.sorted = false;
+		list.add(pos);
+	}
+
+	/** Returns the position of the first recorded occurrence of the given expression that lies
+	 * within (and in the same source as) the given position and begins no earlier than 'from',
+	 * or null if there is none.
+	 */
+	public synchronized /*@Nullable*/ IPos occurrence(Object e, IPos within, int from) {
+		Occurrences occ = occurrences.get(new Ref(e,null));
+		if (occ == null) return null;
+		List<IPos> list = occ.list;
+		if (!occ.sorted) {
+			Collections.sort(list,byStart);
+			occ.sorted = true;
+		}
+		int lo = 0, hi = list.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (list.get(mid).charStart() < from) lo = mid + 1; else hi = mid;
+		}
+		for (int i = lo; i < list.size(); i++) {
+			IPos p = list.get(i);
+			if (p.charStart() >= within.charEnd()) break;
+			if (p.charEnd() <= within.charEnd() && p.source() == within.source()) return p;
+		}
+		return null;
+	}
+
+	/** Returns canonical instances of the elements of the list */
+	protected <T> List<T> shareAll(List<T> list) {
+		List<T> result = new ArrayList<T>(list.size());
+		for (T t: list) result.add(share(t));
+		return result;
+	}
+
+	/** Returns the parts of a key: the given objects followed by the elements of the list */
+	static private Object[] parts(List<?> list, Object... first) {
+		Object[] parts = new Object[first.length + list.size()];
+		System.arraycopy(first,0,parts,0,first.length);
+		int i = first.length;
+		for (Object o: list) parts[i++] = o;
+		return parts;
+	}
+
+	/** The number of distinct expressions currently held by the factory */
+	public synchronized int size() {
+		return table.size();
+	}
+
+	/** The number of requests for an expression that were satisfied by an already existing one */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/** The number of requests for an expression that created a new one */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/** Forgets all canonical expressions; expressions created afterwards are not shared with
+	 * those created before. */
+	public synchronized void clear() {
+		table.clear();
+		occurrences.clear();
+		while (collected.poll() != null) {}
+		while (forgotten.poll() != null) {}
+		hits = 0;
+		misses = 0;
+	}
+
+	@Override
+	public INumeral numeral(String v) {
+		return share(super.numeral(v));
+	}
+
+	@Override
+	public Numeral numeral(long v) {
+		Numeral n = super.numeral(v);
+		INumeral c = share((INumeral)n);
+		return c instanceof Numeral ? (Numeral)c : n;
+	}
+
+	@Override
+	public IDecimal decimal(String v) {
+		return share(super.decimal(v));
+	}
+
+	@Override
+	public IStringLiteral unquotedString(String v) {
+		return share(super.unquotedString(v));
+	}
+
+	@Override
+	public IStringLiteral quotedString(String v) {
+		return share(super.quotedString(v));
+	}
+
+	@Override
+	public IKeyword keyword(String v) {
+		return share(super.keyword(v));
+	}
+
+	@Override
+	public IBinaryLiteral binary(String v) {
+		return share(super.binary(v));
+	}
+
+	@Override
+	public IHexLiteral hex(String v) {
+		return share(super.hex(v));
+	}
+
+	@Override
+	public ISymbol symbol(String v) {
+		return share(super.symbol(v));
+	}
+
+	@Override
+	public IAttribute<?> attribute(IKeyword k) {
+		k = share(k);
+		Key key = new Key("attribute",k);
+		IAttribute<?> a = (IAttribute<?>)find(key);
+		return a != null ? a : put(key, new Attribute<IExpr.ILiteral>(k,null));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends IAttributeValue> IAttribute<T> attribute(IKeyword k, T value) {
+		k = share(k);
+		value = share(value);
+		Key key = new Key("attribute",k,value);
+		IAttribute<T> a = (IAttribute<T>)find(key);
+		return a != null ? a : put(key, new Attribute<T>(k,value));
+	}
+
+	@Override
+	public IAttributedExpr attributedExpr(IExpr e, List<IAttribute<?>> attributes) {
+		e = share(e);
+		Key key = new Key("!",parts(attributes,e));
+		IAttributedExpr a = (IAttributedExpr)find(key);
+		return a != null ? a : put(key, new AttributedExpr(e,new ArrayList<IAttribute<?>>(attributes)));
+	}
+
+	@Override
+	public <T extends IAttributeValue> IAttributedExpr attributedExpr(IExpr e, IKeyword key, T value) {
+		List<IAttribute<?>> list = new ArrayList<IAttribute<?>>(1);
+		list.add(attribute(key,value));
+		return attributedExpr(e,list);
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, List<IExpr> args) {
+		id = share(id);
+		args = shareAll(args);
+		Key key = new Key("fcn",parts(args,id));
+		IFcnExpr f = (IFcnExpr)find(key);
+		return f != null ? f : put(key, new FcnExpr(id,args));
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, IExpr... args) {
+		List<IExpr> arglist = new ArrayList<IExpr>(args.length);
+		for (IExpr a: args) arglist.add(a);
+		return fcn(id,arglist);
+	}
+
+	@Override
+	public IParameterizedIdentifier id(ISymbol symbol, List<INumeral> num) {
+		symbol = share(symbol);
+		num = shareAll(num);
+		Key key = new Key("_",parts(num,symbol));
+		IParameterizedIdentifier p = (IParameterizedIdentifier)find(key);
+		return p != null ? p : put(key, new ParameterizedIdentifier(symbol,num));
+	}
+
+	@Override
+	public IAsIdentifier id(IIdentifier identifier, ISort qualifier) {
+		identifier = share(identifier);
+		Key key = new Key("as",identifier,qualifier);
+		IAsIdentifier a = (IAsIdentifier)find(key);
+		return a != null ? a : put(key, new AsIdentifier(identifier,qualifier));
+	}
+
+	@Override
+	public ILet let(List<IBinding> bindings, IExpr e) {
+		return super.let(bindings,share(e));
+	}
+
+	@Override
+	public IBinding binding(ISymbol symbol, IExpr expr) {
+		return super.binding(symbol,share(expr));
+	}
+
+	@Override
+	public IForall forall(List<IDeclaration> params, IExpr e) {
+		return super.forall(params,share(e));
+	}
+
+	@Override
+	public IExists exists(List<IDeclaration> params, IExpr e) {
+		return super.exists(params,share(e));
+	}
+}
@@ -107,7 +107,7 @@ public class Pos implements IPos {
 		@Override
 		public void close() {
 			try {
-				rdr.close();
+				if (rdr != null) rdr.close();
 			} catch (IOException e) {}
 		}
 		
@@ -116,20 +116,61 @@ public class Pos implements IPos {
 			return this.chars.charAt(pos);
 		}
 		
+		/** The first character position that is still available, that is, has not been released and
+		 * discarded */
+		protected int firstRetained() {
+			return chars instanceof CharSequenceInfinite ? ((CharSequenceInfinite)chars).firstRetained() : 0;
+		}
+		
+		/** Declares that the characters before the given position will not be needed again, so that
+		 * they may be discarded; after the call, charAt need not succeed for such positions, and
+		 * lineBeginning, textLine and lineNumber give what information they can about them.  Only a
+		 * CharSequenceInfinite discards anything; for other character sequences (and in derived
+		 * classes that do not override it) this does nothing.  Any CharSequence previously obtained
+		 * from chars().subSequence remains valid. */
+		//@ requires pos >= 0;
+		public void release(int pos) {
+			if (chars instanceof CharSequenceInfinite) ((CharSequenceInfinite)chars).release(pos);
+		}
+		
+		/** The index of line beginnings, for character sequences that do not keep their own */
+		private /*@Nullable*/ LineIndex lineIndex = null;
+		
+		/** Returns an index of line beginnings that includes all the characters through the given
+		 * position (or through the end of the input, if it is shorter); a CharSequenceInfinite
+		 * maintains its own index as it reads characters, for other character sequences an index
+		 * is built here, as far as it is needed.
+		 */
+		//@ requires pos >= firstRetained() && pos < chars().length();
+		protected LineIndex lineIndex(int pos) {
+			if (chars instanceof CharSequenceInfinite) {
+				CharSequenceInfinite csi = (CharSequenceInfinite)chars;
+				if (pos >= csi.lineIndex().scanned()) charAt(pos); // Makes sure the characters through pos are read
+				return csi.lineIndex();
+			}
+			if (lineIndex == null) lineIndex = new LineIndex();
+			lineIndex.scan(chars, pos+1);
+			return lineIndex;
+		}
+		
+		// Note: if the beginning of the line has been discarded, this returns the first retained
+		// position (or pos itself, if that too has been discarded)
 		@Override
 		public int lineBeginning(int pos) {
+			int first = firstRetained();
+			if (pos < first) return pos;
 			int p = pos;
 			if (p >= chars().length()) p = chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
-			if (p > 0 && charAt(p) == '\n' && charAt(p-1) == '\r') --p;
-			char c;
-			while (p >= 0 && (c=charAt(p)) != '\n' && c != '\r') --p;
-			return p+1;
+			if (p < first) return p+1;
+			int b = lineIndex(p).lineBeginning(p);
+			return b < first ? first : b;
 		}
 		
 		private final static String eol = System.getProperty("line.separator");
 		
 		@Override
 		public String textLine(int pos) {
+			if (pos < firstRetained()) return "<discarded input>" + eol;
 			int b = lineBeginning(pos);
 			int e = nextLineTermination(pos);
 			String s = chars.subSequence(b,e+1).toString();
@@ -144,28 +185,27 @@ public class Pos implements IPos {
 		protected int nextLineTermination(int pos) {
 			char c;
 			if (pos >= chars().length()) return chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
-			while ((c=charAt(pos)) != '\n' && c != '\r' && c != CharSequenceInfinite.endChar) ++pos;
-			if (c == '\r' && charAt(pos+1) == '\n') ++pos;
+			int next = lineIndex(pos).nextLineBeginning(pos);
+			if (next >= 0) return next-1;
+			int len = chars().length();
+			while ((c=charAt(pos)) != '\n' && c != '\r' && c != CharSequenceInfinite.endChar) {
+				if (++pos == len) return len-1;
+			}
+			if (c == '\r' && pos+1 < len && charAt(pos+1) == '\n') ++pos;
 			else if (c == CharSequenceInfinite.endChar) --pos;
 			return pos;
 		}
 		
-		// Note: this counts lines from the beginning of the character sequence, calling charAt at each
-		// character position; this is not very efficient; the presumption is that this method is called
-		// just for the occasional error message.
+		// Note: the line number is found by binary search in the index of line beginnings.
+		// The line number of a position within discarded text is not known, so the number of
+		// the first retained line is returned.
 		@Override
 		public int lineNumber(int pos) {
-			int line = 1;
-			char c;
-			for (int i=0; i<pos; i++) {
-				c = charAt(i);
-				if (c == '\n') line++;
-				else if (c == '\r') {
-					line++;
-					if (charAt(i+1) == '\n') i++;
-				}
-			}
-			return line;
+			int first = firstRetained();
+			if (pos < first) pos = first;
+			if (pos >= chars().length()) pos = chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
+			if (pos < first) return 1;
+			return lineIndex(pos).lineNumber(pos);
 		}
 	}
 }
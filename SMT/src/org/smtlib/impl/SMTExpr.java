@@ -660,6 +660,9 @@ public abstract class SMTExpr implements IExpr {
 		@Override
 		public void validExpression(IExpr expr)  throws IVisitor.VisitorException {}
 
+		@Override
+		public /*@Nullable*/ILanguage.IChecker checker() { return null; }
+
 		@Override
 		public void checkFcnDeclaration(IExpr.IIdentifier id, List<ISort> argSorts, ISort resultSort, /*@Nullable*/IExpr definition) throws IVisitor.VisitorException {}
 
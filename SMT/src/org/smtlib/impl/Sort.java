@@ -5,6 +5,8 @@
  */
 package org.smtlib.impl;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 import org.smtlib.IExpr.IIdentifier;
@@ -37,6 +39,69 @@ public abstract class Sort extends Pos.Posable implements ISort {
 	
 	/** A cached instance of the pre-defined Bool sort */
 	static final private Sort.Application Bool = new Sort.Application(new Symbol(BOOL), new LinkedList<ISort>());
+	
+	/** The lookup key for a canonical sort: its family identifier, compared by value, and its 
+	 * (canonical) parameters, compared by reference */
+	static private final class Key {
+		final private IIdentifier family;
+		final private ISort[] params;
+		final private int hash;
+		
+		Key(IIdentifier family, ISort[] params) {
+			this.family = family;
+			this.params = params;
+			int h = family.hashCode();
+			for (ISort p: params) h = 31*h + System.identityHashCode(p);
+			this.hash = h;
+		}
+		
+		@Override
+		public int hashCode() { return hash; }
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			if (hash != k.hash || params.length != k.params.length || !family.equals(k.family)) return false;
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] != k.params[i]) return false;
+			}
+			return true;
+		}
+	}
+	
+	/** A weak reference to a canonical sort that remembers the key under which it is stored */
+	static private final class Ref extends WeakReference<Application> {
+		final Key key;
+		Ref(Application sort, Key key) {
+			super(sort,collected);
+			this.key = key;
+		}
+	}
+	
+	/** The canonical sorts, shared by all symbol tables (and threads); a canonical sort is held 
+	 * weakly, so it is kept only as long as it is used elsewhere */
+	static final private Map<Key,Ref> canonicalSorts = new HashMap<Key,Ref>();
+	
+	/** Entries of canonicalSorts whose sorts have been garbage collected */
+	static final private ReferenceQueue<Application> collected = new ReferenceQueue<Application>();
+	
+	/** Returns the canonical application of the given family to the given canonical parameters,
+	 * creating it if there is none yet */
+	static synchronized private Application intern(IIdentifier family, IFamily definition, ISort[] params) {
+		Ref r;
+		while ((r = (Ref)collected.poll()) != null) {
+			if (canonicalSorts.get(r.key) == r) canonicalSorts.remove(r.key);
+		}
+		Key key = new Key(family,params);
+		r = canonicalSorts.get(key);
+		Application sort = r == null ? null : r.get();
+		if (sort == null) {
+			sort = new Application(family,definition,params);
+			canonicalSorts.put(key,new Ref(sort,key));
+		}
+		return sort;
+	}
 
 	/** Represents a new sort symbol, with a given identifier and arity */
 	static public class Family implements IFamily {
@@ -179,14 +244,36 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		/** Cached value for expanded() */
 		private ISort expanded = null;
 		
+		/** Cached value for canonical(); sorts shared among threads may compute it concurrently */
+		private volatile /*@Nullable*/ ISort canonical = null;
+		
+		/** True if this is a canonical sort, in which case it is never modified */
+		final private boolean isCanonical;
+		
+		/** The hash code of a canonical sort */
+		private int hash;
+		
 		public Application(IIdentifier sortID, List<ISort> sortParameters) {
 			this.sortID = sortID;
 			this.sortParameters = sortParameters;
+			this.isCanonical = false;
 		}
 		
 		public Application(IIdentifier sortID, ISort... sortParameters) {
 			this.sortID = sortID;
 			this.sortParameters = Arrays.asList(sortParameters);
+			this.isCanonical = false;
+		}
+		
+		/** Creates a canonical sort */
+		private Application(IIdentifier sortID, IFamily definition, ISort[] sortParameters) {
+			this.sortID = sortID;
+			this.sortParameters = Collections.unmodifiableList(Arrays.asList(sortParameters));
+			this.definition = definition;
+			this.expanded = this;
+			this.canonical = this;
+			this.isCanonical = true;
+			this.hash = hashCode();
 		}
 		
 		@Override
@@ -203,10 +290,36 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		
 		@Override
 		public IDefinition definition(IDefinition definition) {
+			// The definition of a canonical sort does not change
+			if (isCanonical) return definition;
+			if (definition != this.definition) canonical = null;
 			this.definition = definition;
 			return definition;
 		}
 		
+		@Override
+		public /*@Nullable*/ ISort canonical() {
+			ISort c = canonical;
+			if (c == null) canonical = c = makeCanonical();
+			return c;
+		}
+		
+		/** Computes the canonical sort for this sort, expanding any abbreviations */
+		private /*@Nullable*/ ISort makeCanonical() {
+			IDefinition def = definition;
+			if (def instanceof IFamily) {
+				ISort[] params = new ISort[sortParameters.size()];
+				int i = 0;
+				for (ISort p: sortParameters) {
+					if ((params[i++] = p.canonical()) == null) return null;
+				}
+				return intern(sortID,(IFamily)def,params);
+			}
+			// An abbreviation, or a parameter of one; null if not yet type-checked
+			ISort s = def == null ? null : def.eval(sortParameters);
+			return s == null ? null : s.canonical();
+		}
+		
 		@Override
 		public ISort expand() {
 			// Note we could call definition().eval(sortParameters) always, but that 
@@ -233,6 +346,11 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		public boolean equals(Object sort) {
 			if (this == sort) return true;
 			if (!(sort instanceof ISort)) return false;
+			ISort c = canonical();
+			if (c != null) {
+				ISort cc = ((ISort)sort).canonical();
+				if (cc != null) return c == cc;
+			}
 			return expand().equalsNoExpand( ((ISort)sort).expand());
 //			Object esort = sort;
 //			if (sort instanceof IApplication) {
@@ -324,6 +442,7 @@ public abstract class Sort extends Pos.Posable implements ISort {
 
 		@Override
 		public int hashCode() {
+			if (isCanonical && hash != 0) return hash;
 			int hash = sortID.hashCode();
 			for (ISort s: sortParameters) {
 				hash += s.hashCode();
@@ -389,6 +508,9 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		@Override
 		public ISort expand() { return this; } // TODO: Fix this?
 		
+		@Override
+		public /*@Nullable*/ ISort canonical() { return null; } // Function sorts are compared structurally
+		
 		@Override
 		public ISort resultSort() { return resultSort; }
 		
@@ -488,6 +610,9 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		@Override
 		public ISort expand() { return this; } // TODO: Fix this?
 		
+		@Override
+		public ISort canonical() { return this; }
+		
 		@Override
 		public boolean equals(Object o) {
 			// Parameters are equal only under object equality
@@ -24,7 +24,7 @@ public class ALL extends Logic {
 	}
 
 	@Override
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
 	}
 	
 	@Override
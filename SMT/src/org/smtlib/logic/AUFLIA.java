@@ -21,8 +21,8 @@ public class AUFLIA extends Logic {
 	}
 
 	@Override
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		if (!isLinearInteger(expression)) {
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		if (!isLinearInteger(expression,checker)) {
 			throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
 		}
 	}
@@ -21,8 +21,8 @@ public class AUFLIRA extends Logic {
 	}
 
 	@Override
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		//if (!isLinearInteger(expression)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		//if (!isLinearInteger(expression,checker)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
 	}
 	
 	@Override
@@ -21,7 +21,7 @@ public class AUFNIRA extends Logic {
 	}
 
 	@Override
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
 	}
 	
 	@Override
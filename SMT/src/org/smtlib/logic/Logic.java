@@ -1,7 +1,11 @@
 package org.smtlib.logic;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.smtlib.*;
 import org.smtlib.IExpr.*;
@@ -15,18 +19,177 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 		super(name,attributes);
 	}
 	
-	public void noQuantifiers(IExpr expression) throws IVisitor.VisitorException {
-		IVisitor<Void> visitor = new IVisitor.TreeVisitor<Void>() {
-			@Override
-			public Void visit(IForall e) throws IVisitor.VisitorException {
-				throw new IVisitor.VisitorException("A quantified expression is not allowed in the " + logicName + " logic",e.pos());
+	/** The properties of an expression that the logics restrict; each is computed from the
+	 * properties of the immediate subexpressions (cf. Checker).
+	 */
+	static public class Facts {
+		/** The facts of an expression that has nothing that any logic restricts */
+		static final public Facts NONE = new Facts(null,true,null);
+		
+		/** The facts of an expression whose only restricted property is that it is not linear integer */
+		static final public Facts NOT_LINEAR_INTEGER = new Facts(null,false,null);
+		
+		/** The first quantified subexpression (in a pre-order traversal), or null if there is none */
+		final public /*@Nullable*/ IExpr quantified;
+		/** Whether the expression is linear, as isLinearInteger determines it */
+		final public boolean linearInteger;
+		/** The first multiplication or division (in a pre-order traversal) that is not linear, as
+		 * noNonlinear determines it, or null if there is none */
+		final public /*@Nullable*/ IFcnExpr nonlinear;
+		
+		/** Returns the facts with the given values, sharing the common ones */
+		static public Facts make(/*@Nullable*/ IExpr quantified, boolean linearInteger, /*@Nullable*/ IFcnExpr nonlinear) {
+			if (quantified == null && nonlinear == null) return linearInteger ? NONE : NOT_LINEAR_INTEGER;
+			return new Facts(quantified,linearInteger,nonlinear);
+		}
+		
+		private Facts(/*@Nullable*/ IExpr quantified, boolean linearInteger, /*@Nullable*/ IFcnExpr nonlinear) {
+			this.quantified = quantified;
+			this.linearInteger = linearInteger;
+			this.nonlinear = nonlinear;
+		}
+	}
+	
+	/** Checks expressions against this logic, computing and caching the Facts of each subexpression
+	 * from those of its immediate subexpressions; so each subexpression is looked at only once, and
+	 * an expression whose subexpressions have all been given to visited() (as the type checker does,
+	 * children before parents) is not traversed again by validExpression.
+	 */
+	public class Checker extends IVisitor.NullVisitor<Facts> implements ILanguage.IChecker {
+		/** The facts of each compound expression seen so far (those of atoms are not kept) */
+		final protected Map<IExpr,Facts> cache = new IdentityHashMap<IExpr,Facts>();
+		
+		@Override
+		public void visited(IExpr e) {
+			facts(e);
+		}
+		
+		@Override
+		public void validExpression(IExpr expression) throws IVisitor.VisitorException {
+			Logic.this.validExpression(expression,this);
+		}
+		
+		/** Returns the facts of the given expression, computing them if they are not yet known */
+		public Facts facts(IExpr e) {
+			Facts f = cache.get(e);
+			if (f == null) {
+				try {
+					f = e.accept(this);
+				} catch (IVisitor.VisitorException ex) {
+					f = null; // not thrown
+				}
+				if (f == null) f = Facts.NONE; // an atom
+				else cache.put(e,f);
 			}
-			@Override
-			public Void visit(IExists e) throws IVisitor.VisitorException {
-				throw new IVisitor.VisitorException("A quantified expression is not allowed in the " + logicName + " logic",e.pos());
+			return f;
+		}
+		
+		/** Combines the facts of the given subexpressions; the result is linear integer, whatever they are */
+		protected Facts combine(/*@Nullable*/ IExpr quantified, List<IExpr> subs) {
+			IFcnExpr nonlinear = null;
+			for (IExpr sub: subs) {
+				Facts f = facts(sub);
+				if (quantified == null) quantified = f.quantified;
+				if (nonlinear == null) nonlinear = f.nonlinear;
+			}
+			return Facts.make(quantified,true,nonlinear);
+		}
+		
+		@Override
+		public Facts visit(IFcnExpr e) {
+			IExpr quantified = null;
+			boolean linearInteger = true;
+			IFcnExpr nonlinear = null;
+			List<IExpr> args = e.args();
+			for (IExpr arg: args) {
+				Facts sub = facts(arg);
+				if (quantified == null) quantified = sub.quantified;
+				if (nonlinear == null) nonlinear = sub.nonlinear;
+				linearInteger = linearInteger && sub.linearInteger;
+			}
+			if (args.size() == 2) {
+				String fcn = e.head().toString();
+				IExpr lhs = args.get(0);
+				IExpr rhs = args.get(1);
+				if (fcn.equals("*")) {
+					linearInteger = (isInteger(lhs) && isFreeConstant(rhs)) ||
+							(isFreeConstant(lhs) && isInteger(rhs));
+					nonlinear = isConst(lhs) || isConst(rhs) ? null : e;
+				} else if (fcn.equals("/")) {
+					nonlinear = isConst(lhs) && isConst(rhs) ? null : e;
+				} else if (fcn.equals("div") || fcn.equals("mod") || fcn.equals("abs")) {
+					linearInteger = false;
+				}
 			}
-		};
-		expression.accept(visitor);
+			return Facts.make(quantified,linearInteger,nonlinear);
+		}
+		
+		@Override
+		public Facts visit(IForall e) {
+			return combine(e,Collections.singletonList(e.expr()));
+		}
+		
+		@Override
+		public Facts visit(IExists e) {
+			return combine(e,Collections.singletonList(e.expr()));
+		}
+		
+		@Override
+		public Facts visit(ILet e) {
+			List<IExpr> subs = new ArrayList<IExpr>();
+			for (IBinding b: e.bindings()) subs.add(b.expr());
+			subs.add(e.expr());
+			return combine(null,subs);
+		}
+		
+		@Override
+		public Facts visit(IAttributedExpr e) {
+			List<IExpr> subs = new ArrayList<IExpr>();
+			subs.add(e.expr());
+			for (IAttribute<?> a: e.attributes()) {
+				if (a.attrValue() instanceof IExpr) subs.add((IExpr)a.attrValue());
+			}
+			return combine(null,subs);
+		}
+	}
+	
+	/** Returns a new checker for this logic */
+	@Override
+	public Checker checker() {
+		return new Checker();
+	}
+	
+	/** Checks whether the given expression is permitted in the logic, throwing an exception if not */
+	@Override
+	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
+		validExpression(expression,new Checker());
+	}
+	
+	/** Checks whether the given expression is permitted in the logic, throwing an exception if not;
+	 * the checker holds what is known of the expression and its subexpressions. This implementation
+	 * permits any expression.
+	 */
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+	}
+	
+	public void noQuantifiers(IExpr expression) throws IVisitor.VisitorException {
+		noQuantifiers(expression,new Checker());
+	}
+	
+	public void noQuantifiers(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		IExpr e = checker.facts(expression).quantified;
+		if (e != null) {
+			throw new IVisitor.VisitorException("A quantified expression is not allowed in the " + logicName + " logic",e.pos());
+		}
+	}
+	
+	/** Checks that each multiplication has a constant argument and each division has two, outside of
+	 * the arguments of any multiplication or division that is so checked (cf. isConst) */
+	public void noNonlinear(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		IFcnExpr e = checker.facts(expression).nonlinear;
+		if (e != null) {
+			throw new IVisitor.VisitorException("The expression must be linear: ", e.pos()); // FIXME + smt.defaultPrinter.toString(e),e.pos());
+		}
 	}
 	
 	public void noFunctions(IExpr.IIdentifier id, List<ISort> argSorts, ISort resultSort, /*@Nullable*/IExpr definition) throws IVisitor.VisitorException {
@@ -53,6 +216,30 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 		return false;
 	}
 	
+	public boolean isConst(IExpr expr) {
+		if (expr instanceof IExpr.INumeral) return true;
+		if (expr instanceof IExpr.IDecimal) return true;
+		if (!(expr instanceof IExpr.IFcnExpr)) return false;
+		IExpr.IFcnExpr f = (IExpr.IFcnExpr)expr;
+		if (f.head().toString().equals("-") && f.args().size() == 1) {
+			expr = f.args().get(0);
+			if (expr instanceof IExpr.INumeral) return true;
+			if (expr instanceof IExpr.IDecimal) return true;
+			return false;
+		}
+		if (f.head().toString().equals("/") && f.args().size() == 2) {
+			expr = f.args().get(0);
+			if (!isInteger(expr)) return false;
+			expr = f.args().get(1);
+			if (expr instanceof IExpr.INumeral) {
+				if (((IExpr.INumeral)expr).intValue() == 0) return false;
+				return true;
+			}
+			return false;
+		}
+		return false;
+	}
+	
 	public boolean isFreeConstant(IExpr expr) {
 		return (expr instanceof ISymbol);
 //		if (!(expr instanceof IExpr.IFcnExpr)) return false;
@@ -61,32 +248,11 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 	}
 	
 	public boolean isLinearInteger(IExpr expr) {
-		// FIXME - should use a visitor; does not check inside quantified expressions
-		if (expr instanceof IExpr.IFcnExpr) {
-			IExpr.IFcnExpr f = (IExpr.IFcnExpr)expr;
-			if (f.args().size() == 2) {
-				String fcn = f.head().toString();
-				IExpr lhs = f.args().get(0);
-				IExpr rhs = f.args().get(1);
-				if (fcn.equals("+") || fcn.equals("-")) {
-					return isLinearInteger(lhs) && isLinearInteger(rhs);
-				} else if (fcn.equals("*")) {
-					return (isInteger(lhs) && isFreeConstant(rhs)) ||
-							(isFreeConstant(lhs) && isInteger(rhs));
-				} else if (fcn.equals("div") || fcn.equals("mod") || fcn.equals("abs")) {
-					return false;
-				} else { // Core functions
-					return isLinearInteger(lhs) && isLinearInteger(rhs);
-				}
-			} else {
-				int n = f.args().size();
-				for (IExpr e: f.args()) {
-					if (!isLinearInteger(e)) return false;
-				}
-				return true;
-			}
-		} else {
-			return true;
-		}
+		// FIXME - does not check inside quantified expressions
+		return isLinearInteger(expr,new Checker());
+	}
+	
+	public boolean isLinearInteger(IExpr expr, Checker checker) {
+		return checker.facts(expr).linearInteger;
 	}
 }
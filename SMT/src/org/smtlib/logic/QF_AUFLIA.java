@@ -19,9 +19,9 @@ public class QF_AUFLIA extends Logic {
 	public void checkFcnDeclaration(IExpr.IIdentifier id, List<ISort> argSorts, ISort resultSort, /*@Nullable*/IExpr definition) throws IVisitor.VisitorException {
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
-		if (!isLinearInteger(expression)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
+		if (!isLinearInteger(expression,checker)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
 	}
 	
 	public void checkSortDeclaration(IIdentifier id, List<ISort.IParameter> params, ISort expr) throws IVisitor.VisitorException {
@@ -19,8 +19,8 @@ public class QF_AX extends Logic {
 		noFunctions(id,argSorts,resultSort,definition);
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
 	}
 	
 	public void checkSortDeclaration(IIdentifier id, List<ISort.IParameter> params, ISort expr) throws IVisitor.VisitorException {
@@ -17,8 +17,8 @@ public class QF_IDL extends Logic {
 		super(name,attributes);
 	}
 	
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
 		IVisitor<Void> visitor = new IVisitor.TreeVisitor<Void>() {
 			public Void visit(IExpr.IFcnExpr e) throws IVisitor.VisitorException {
 				String fcn = e.head().toString();
@@ -21,9 +21,9 @@ public class QF_LIA extends Logic {
 		noFunctions(id,argSorts,resultSort,definition);
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
-		if (!isLinearInteger(expression)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
+		if (!isLinearInteger(expression,checker)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
 	}
 	
 	public void checkSortDeclaration(IIdentifier id, List<ISort.IParameter> params, ISort expr) throws IVisitor.VisitorException {
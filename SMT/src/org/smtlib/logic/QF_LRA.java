@@ -16,9 +16,9 @@ public class QF_LRA extends LRA {
 		super(name,attributes);
 	}
 	
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
-		super.validExpression(expression);
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
+		super.validExpression(expression,checker);
 	}
 	
 }
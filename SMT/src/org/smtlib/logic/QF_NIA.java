@@ -21,9 +21,9 @@ public class QF_NIA extends Logic {
 		noFunctions(id,argSorts,resultSort,definition);
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
-		super.validExpression(expression);
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
+		super.validExpression(expression,checker);
 	}
 	
 	public void checkSortDeclaration(IIdentifier id, List<ISort.IParameter> params, ISort expr) throws IVisitor.VisitorException {
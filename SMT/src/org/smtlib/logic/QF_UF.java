@@ -16,8 +16,8 @@ public class QF_UF extends Logic implements ILanguage {
 	}
 	
 	@Override
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
 	}
 	
 	@Override
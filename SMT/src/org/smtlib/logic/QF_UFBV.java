@@ -16,7 +16,7 @@ public class QF_UFBV extends Logic {
 		super(name,attributes);
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
 	}
 	
 
@@ -20,9 +20,9 @@ public class QF_UFLIA extends Logic {
 		// May declare constants or functions
 	}
 
-	public void validExpression(IExpr expression) throws IVisitor.VisitorException {
-		noQuantifiers(expression);
-		if (!isLinearInteger(expression)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
+	public void validExpression(IExpr expression, Checker checker) throws IVisitor.VisitorException {
+		noQuantifiers(expression,checker);
+		if (!isLinearInteger(expression,checker)) throw new IVisitor.VisitorException("Integer expressions must be linear in this logic",expression.pos());
 	}
 	
 	public void checkSortDeclaration(IIdentifier id, List<ISort.IParameter> params, ISort expr) throws IVisitor.VisitorException {
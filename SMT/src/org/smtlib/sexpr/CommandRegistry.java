@@ -0,0 +1,119 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.smtlib.ICommand;
+import org.smtlib.SMT;
+import org.smtlib.impl.Command;
+
+/** This class caches, for one SMT.Configuration, the mapping from a command name to the static
+ * parse(Parser) method of the class that implements the command.  Each name is resolved only
+ * once, through the configuration's commandFinder, and the parse method is held as a MethodHandle,
+ * so that parsing a command needs neither Class.forName nor reflective lookup and invocation.
+ * Names for which no command class is found are cached as well.
+ * <P>
+ * The cache is discarded whenever the configuration's commandFinder, relax flag,
+ * commandExtensionPrefixes or commands map is replaced, or an entry is added to or removed
+ * from the commands map; a client that changes the configuration in some other way that affects
+ * command lookup (e.g. replacing an entry of the commands map or an element of the prefix array)
+ * should call clear().
+ * @author David R. Cok
+ */
+public class CommandRegistry {
+
+	/** The type to which each parse method is adapted */
+	final static private MethodType parseType = MethodType.methodType(Command.class, Parser.class);
+
+	/** The maximum number of unknown names that are remembered (to bound the memory used by
+	 * input containing many different erroneous command names) */
+	final static public int maxUnknown = 1000;
+
+	/** The configuration whose command lookup is cached */
+	final protected SMT.Configuration smtConfig;
+
+	/** Maps command names to the parse method for the command, or to null if there is no such command */
+	final protected Map<String,/*@Nullable*/MethodHandle> handles = new HashMap<String,MethodHandle>();
+
+	/** Parse methods by command class, since several names may map to the same class */
+	final protected Map<Class<? extends ICommand>,MethodHandle> handlesByClass = new HashMap<Class<? extends ICommand>,MethodHandle>();
+
+	/** The number of names cached as unknown */
+	protected int unknown = 0;
+
+	// The configuration state for which the cache is valid
+	private /*@Nullable*/ ICommand.IFinder finder;
+	private boolean relax;
+	private String[] prefixes;
+	private Map<String,Class<? extends ICommand>> commands;
+	private int commandsSize;
+
+	/** Creates an empty registry for the given configuration */
+	public CommandRegistry(SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+		clear();
+	}
+
+	/** Discards all cached lookups */
+	public void clear() {
+		handles.clear();
+		handlesByClass.clear();
+		unknown = 0;
+		finder = smtConfig.commandFinder;
+		relax = smtConfig.relax;
+		prefixes = smtConfig.commandExtensionPrefixes;
+		commands = smtConfig.commands;
+		commandsSize = commands.size();
+	}
+
+	/** Returns the parse method (adapted to the type Command(Parser)) for the command with the
+	 * given name, or null if there is no such command.
+	 * @throws NoSuchMethodException if the command class has no public static parse(Parser) method
+	 * @throws IllegalAccessException if the parse method is not accessible
+	 */
+	public /*@Nullable*/ MethodHandle find(String name) throws NoSuchMethodException, IllegalAccessException {
+		if (finder != smtConfig.commandFinder || relax != smtConfig.relax || prefixes != smtConfig.commandExtensionPrefixes
+				|| commands != smtConfig.commands || commandsSize != commands.size()) {
+			clear();
+		}
+		MethodHandle mh = handles.get(name);
+		if (mh != null || handles.containsKey(name)) return mh;
+		Class<? extends ICommand> clazz = finder == null ? null : finder.findCommand(name);
+		if (clazz == null) {
+			if (unknown < maxUnknown) {
+				handles.put(name,null);
+				unknown++;
+			}
+			return null;
+		}
+		mh = handlesByClass.get(clazz);
+		if (mh == null) {
+			Method m = clazz.getMethod("parse",Parser.class);
+			mh = MethodHandles.publicLookup().unreflect(m).asType(parseType);
+			handlesByClass.put(clazz,mh);
+		}
+		handles.put(name,mh);
+		return mh;
+	}
+
+	/** Calls the given parse method (obtained from find) on the given parser; any exception or
+	 * error thrown by the method is wrapped in an InvocationTargetException, as Method.invoke does.
+	 */
+	static public /*@Nullable*/ Command parse(MethodHandle mh, Parser parser) throws InvocationTargetException {
+		try {
+			return (Command)mh.invokeExact(parser);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+}
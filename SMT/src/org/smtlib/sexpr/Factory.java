@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 
+import org.smtlib.CharSequenceMapped;
 import org.smtlib.IParser;
 import org.smtlib.IPrinter;
 import org.smtlib.ISource;
@@ -31,8 +32,21 @@ public class Factory implements IParser.IFactory {
 		return new Pos.Source(cs, location);
 	}
 
+	/** Creates a source for the given file; if smtConfig.mappedInput is set, the file is mapped
+	 * into memory (see CharSequenceMapped), unless that fails, in which case it is read
+	 * through a Reader in the usual way.
+	 */
 	@Override 
 	public Pos.Source createSource(SMT.Configuration smtConfig, java.io.File file) throws java.io.FileNotFoundException {
+		if (smtConfig.mappedInput) {
+			try {
+				return new Pos.Source(new CharSequenceMapped(file), file.getPath());
+			} catch (java.io.FileNotFoundException e) {
+				throw e;
+			} catch (java.io.IOException e) {
+				if (smtConfig.verbose != 0) smtConfig.log.logDiag("Could not map file " + file.getPath() + " into memory: " + e);
+			}
+		}
 		return new Pos.Source(smtConfig, file);
 	}
 	
@@ -0,0 +1,236 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos;
+import org.smtlib.impl.HashConsFactory;
+
+/** This class rewrites an expression so that each subterm that occurs more than once is written
+ * only once: it is bound to a new name by a 'let' that encloses the whole expression, and each
+ * occurrence is replaced by that name.  The result denotes the same value as the original, but
+ * its printed form is proportional to the number of distinct subterms rather than to the size of
+ * the expression as a tree, which matters for expressions with much sharing (e.g. those created
+ * by org.smtlib.impl.HashConsFactory).
+ * <P>
+ * Subterms are identified structurally: function applications with the same head and the same
+ * arguments are the same subterm, whether or not they are the same object.  The bodies of
+ * quantifiers and lets are not examined, since a subterm there may refer to bound variables;
+ * a quantifier or let that itself occurs more than once (as the same object) is bound as a whole.
+ * The new names begin with an underscore and differ from every symbol in the expression.
+ * The bindings are grouped into nested lets by depth, so that each binding refers only to names
+ * bound by enclosing lets.
+ */
+public class LetHoister {
+
+	/** The prefix of the names of the let-bound variables */
+	static public final String prefix = "_h";
+
+	/** The factory used to create the rewritten expressions */
+	final protected IExpr.IFactory factory;
+
+	/** Maps each expression visited to the number of its equivalence class of subterms */
+	final private Map<IExpr,Integer> ids = new IdentityHashMap<IExpr,Integer>();
+
+	/** Maps a structural key to the number of its equivalence class */
+	final private Map<Object,Integer> classes = new HashMap<Object,Integer>();
+
+	/** The first expression found in each class */
+	final private List<IExpr> reps = new ArrayList<IExpr>();
+
+	/** The classes of the arguments of a class of function applications, or null */
+	final private List<int[]> args = new ArrayList<int[]>();
+
+	/** The number of occurrences of each class as the argument of another class */
+	final private List<Integer> refs = new ArrayList<Integer>();
+
+	/** All symbols occurring in the expression */
+	final private Set<String> symbols = new HashSet<String>();
+
+	/** Creates a hoister that builds its results with the given factory */
+	public LetHoister(IExpr.IFactory factory) {
+		this.factory = factory;
+	}
+
+	/** Returns an expression equivalent to the argument in which every repeated subterm is bound
+	 * by a let; returns the argument itself if it has no repeated subterms.
+	 */
+	public IExpr hoist(IExpr e) {
+		ids.clear(); classes.clear(); reps.clear(); args.clear(); refs.clear(); symbols.clear();
+		int root = id(e);
+		int n = reps.size();
+		boolean any = false;
+		boolean[] hoisted = new boolean[n];
+		for (int c = 0; c < n; c++) {
+			IExpr r = reps.get(c);
+			hoisted[c] = refs.get(c) > 1 && (r instanceof IFcnExpr || r instanceof IForall || r instanceof IExists || r instanceof ILet);
+			any |= hoisted[c];
+		}
+		if (!any) return e;
+
+		Rebuilder b = new Rebuilder(hoisted);
+		IExpr body = b.build(root);
+		for (int level = b.bindings.size()-1; level >= 0; level--) {
+			body = factory.let(b.bindings.get(level), body);
+		}
+		return at(body,e.pos());
+	}
+
+	/** Gives the new expression the given position, unless expressions are shared (created by
+	 * a HashConsFactory), since the expression may then occur elsewhere too */
+	protected IExpr at(IExpr e, /*@Nullable*/ IPos pos) {
+		if (pos != null && !(factory instanceof HashConsFactory)) e.setPos(pos);
+		return e;
+	}
+
+	/** Returns the class number of the given expression, assigning numbers to it and to
+	 * all its subterms if they do not have them yet */
+	protected int id(IExpr e) {
+		Integer i = ids.get(e);
+		if (i != null) return i;
+		Object key;
+		int[] children = null;
+		if (e instanceof IFcnExpr) {
+			IFcnExpr f = (IFcnExpr)e;
+			List<IExpr> list = f.args();
+			children = new int[list.size()];
+			int k = 0;
+			for (IExpr a: list) children[k++] = id(a);
+			List<Object> keylist = new ArrayList<Object>(children.length + 1);
+			keylist.add(Printer.write(f.head()));
+			for (int c: children) keylist.add(c);
+			key = keylist;
+			collect(f.head());
+		} else if (e instanceof IForall || e instanceof IExists || e instanceof ILet || e instanceof IAttributedExpr) {
+			key = e; // compared by identity
+			collect(e);
+		} else {
+			key = e.kind() + " " + Printer.write(e);
+			collect(e);
+		}
+		Integer c = classes.get(key);
+		if (c == null) {
+			c = reps.size();
+			classes.put(key,c);
+			reps.add(e);
+			args.add(children);
+			refs.add(0);
+			if (children != null) for (int a: children) refs.set(a,refs.get(a)+1);
+		}
+		ids.put(e,c);
+		return c;
+	}
+
+	/** Records the symbols occurring in the given expression (other than within arguments of
+	 * function applications, which are visited by id) */
+	protected void collect(IExpr e) {
+		if (e instanceof ISymbol) {
+			symbols.add(((ISymbol)e).value());
+		} else if (e instanceof IExpr.IIdentifier) {
+			symbols.add(((IExpr.IIdentifier)e).headSymbol().value());
+		} else if (e instanceof IExpr.IAsIdentifier) {
+			collect(((IExpr.IAsIdentifier)e).head());
+		} else if (e instanceof IFcnExpr) {
+			collect(((IFcnExpr)e).head());
+			for (IExpr a: ((IFcnExpr)e).args()) collect(a);
+		} else if (e instanceof IForall) {
+			for (IDeclaration d: ((IForall)e).parameters()) collect(d.parameter());
+			collect(((IForall)e).expr());
+		} else if (e instanceof IExists) {
+			for (IDeclaration d: ((IExists)e).parameters()) collect(d.parameter());
+			collect(((IExists)e).expr());
+		} else if (e instanceof ILet) {
+			for (IBinding d: ((ILet)e).bindings()) {
+				collect(d.parameter());
+				collect(d.expr());
+			}
+			collect(((ILet)e).expr());
+		} else if (e instanceof IAttributedExpr) {
+			collect(((IAttributedExpr)e).expr());
+		}
+	}
+
+	/** Builds the rewritten expression and its bindings from the computed classes */
+	private class Rebuilder {
+		/** Whether each class is to be let-bound */
+		final boolean[] hoisted;
+		/** The rewritten expression for each class, once built */
+		final IExpr[] built;
+		/** The name bound to each hoisted class */
+		final ISymbol[] names;
+		/** For a hoisted class, its let nesting level (0 is outermost); for others, one more
+		 * than the highest level of the names in it, or 0 if it has none */
+		final int[] level;
+		/** The bindings for each let nesting level */
+		final List<List<IBinding>> bindings = new ArrayList<List<IBinding>>();
+		/** The number used in the next name */
+		int next = 0;
+
+		Rebuilder(boolean[] hoisted) {
+			this.hoisted = hoisted;
+			int n = hoisted.length;
+			built = new IExpr[n];
+			names = new ISymbol[n];
+			level = new int[n];
+		}
+
+		/** Returns the expression to use for an occurrence of the given class */
+		IExpr ref(int c) {
+			IExpr e = build(c);
+			return hoisted[c] ? names[c] : e;
+		}
+
+		/** Returns the rewritten expression for the given class, creating the binding for it
+		 * if it is hoisted */
+		IExpr build(int c) {
+			if (built[c] != null) return built[c];
+			IExpr rep = reps.get(c);
+			int[] children = args.get(c);
+			IExpr e = rep;
+			int height = 0;
+			if (children != null) {
+				List<IExpr> list = new ArrayList<IExpr>(children.length);
+				boolean changed = false;
+				for (int k = 0; k < children.length; k++) {
+					int a = children[k];
+					IExpr r = ref(a);
+					changed |= r != ((IFcnExpr)rep).args().get(k);
+					list.add(r);
+					height = Math.max(height, hoisted[a] ? level[a] + 1 : level[a]);
+				}
+				if (changed) {
+					e = at(factory.fcn(((IFcnExpr)rep).head(),list),rep.pos());
+				}
+			}
+			built[c] = e;
+			level[c] = height;
+			if (hoisted[c]) {
+				String name;
+				do { name = prefix + (next++); } while (symbols.contains(name));
+				names[c] = factory.symbol(name);
+				while (bindings.size() <= height) bindings.add(new ArrayList<IBinding>());
+				bindings.get(height).add(factory.binding(names[c],e));
+			}
+			return e;
+		}
+	}
+}
@@ -37,12 +37,12 @@ public class Lexer {
 		@Override String kind();
 	}
 	
-	/** Skips the rest of the current line, resetting the matcher to point to the line termination character */
+	/** Skips the rest of the current line, resetting the scanner to point to the line termination character */
 	public void abortLine() {
-		int i = matcher.regionStart();
+		int i = currentPos();
 		char c;
 		while ((c=csr.charAt(i))!= '\r' && c != '\n') ++i;
-		matcher.region(i,csr.length());
+		setCurrentPos(i);
 	}
 	
 	/** Creates a Lexer using an SMT configuration object and a source for
@@ -51,9 +51,10 @@ public class Lexer {
 	public Lexer(SMT.Configuration smtConfig, ISource src) {
 		this.smtConfig = smtConfig;
 		this.source = src;
+		this.dfa = smtConfig.dfaLexer;
 		if (src != null) {
 			this.csr = src.chars();
-			this.matcher = combined.matcher(this.csr);
+			this.matcher = dfa ? null : combined.matcher(this.csr);
 		} else {
 			this.csr = null;
 			this.matcher = null;
@@ -106,8 +107,15 @@ public class Lexer {
 	 * etc. that are fields of smtConfig */
 	final private SMT.Configuration smtConfig;
 
-	/** The Matcher used to do lexical scanning */
-	final protected Matcher matcher;
+	/** The Matcher used to do lexical scanning; null if the table-driven scanner is used instead */
+	final protected /*@Nullable*/ Matcher matcher;
+	
+	/** True if tokens are produced by the table-driven scanner (scanToken) rather than by
+	 * the combined regular expression; set from SMT.Configuration.dfaLexer when the lexer is created. */
+	final protected boolean dfa;
+	
+	/** The position of the next character to be scanned, when the table-driven scanner is in use */
+	protected int cursor = 0;
 	
 	/** Any comment text found before the current token */
 	public String prefixCommentText;
@@ -140,7 +148,7 @@ public class Lexer {
 	/** Pattern regular expression for SMT-LIB whitespace */
 	private final static String rgxWhiteSpace = "[\\p{Space}]+"; // includes line termination
 	/** Pattern regular expression for SMT-LIB comment */
-	private final static String rgxComment = ";.*";              // be sure dot does not include line termination
+	private final static String rgxComment = ";[^\\n\\r\\u0085\\u2028\\u2029\\031]*"; // up to a line termination or the end of input
 	/** Pattern regular expression for SMT-LIB numeral */
 	private final static String rgxNumeral = "0|[1-9][0-9]*";
 	/** Pattern regular expression for an invalid SMT-LIB numeral or decimal (that has leading zeros) */
@@ -274,7 +282,25 @@ public class Lexer {
 
 	/** A static helper method that sets the position of an AST node, but returns the same type */
 	protected static <T extends IPosable> T setPos(T t, IPos pos) { t.setPos(pos); return t; }
-	
+
+	/** Creates (without a position) the token the lexer creates for a symbol ('S'), keyword ('K'),
+	 * numeral ('N'), decimal ('D'), string literal ('Q', unquoted), binary literal ('B', digits only)
+	 * or hex literal ('X', digits only) with the given text; returns null for any other kind.
+	 * This is used to re-create S-expressions that have been stored in some other form.
+	 */
+	static /*@Nullable*/ ISexpr token(char kind, String text) {
+		switch (kind) {
+			case 'S': return new LexSymbol(text);
+			case 'K': return new LexKeyword(text);
+			case 'N': return new LexNumeral(new BigInteger(text));
+			case 'D': return new LexDecimal(new BigDecimal(text));
+			case 'Q': return new LexStringLiteral(text,false);
+			case 'B': return new LexBinaryLiteral(text);
+			case 'X': return new LexHexLiteral(text);
+			default: return null;
+		}
+	}
+
 	/** Holds the lookahead token - should only be read and written by peekToken/getToken;
 	 * value is null if we have not gotten the next lexical token yet. */
 	private /*@Nullable*/ ILexToken nextToken = null;
@@ -303,7 +329,50 @@ public class Lexer {
 	
 	/** Returns the position of the next character to be read */
 	public int currentPos() {
-		return matcher.regionStart();
+		return dfa ? cursor : matcher.regionStart();
+	}
+	
+	/** Tells the source that the text before the next unconsumed token (including any lookahead
+	 * token) is no longer needed, so that it may be discarded; only a Pos.Source can discard
+	 * text, other sources are left as they are. */
+	public void releaseConsumed() {
+		if (!(source instanceof Pos.Source)) return;
+		((Pos.Source)source).release(unconsumedPos());
+	}
+	
+	/** Returns the position of the first character not yet consumed: the beginning of the lookahead
+	 * token, if there is one, or else the position of the next character to be read */
+	protected int unconsumedPos() {
+		IPos pos = nextToken == null ? null : nextToken.pos();
+		return pos != null ? pos.charStart() : currentPos();
+	}
+	
+	/** Sets the position of the next character to be read; any lookahead token is not affected */
+	protected void setCurrentPos(int pos) {
+		if (dfa) cursor = pos;
+		else matcher.region(pos,csr.length());
+	}
+	
+	/** Discards any lookahead token and sets the position of the next character to be read */
+	protected void resetPos(int pos) {
+		nextToken = null;
+		setCurrentPos(pos);
+	}
+	
+	/** Advances the scanner through the end of the current line (not including the line
+	 * termination characters); used to recover after a syntax error. */
+	public void skipRestOfLine() {
+		if (!dfa) {
+			Matcher m = skipThroughEndOfLine.matcher(csr);
+			m.region(matcher.regionStart(),matcher.regionEnd());
+			if (m.lookingAt()) matcher.region(m.end(),matcher.regionEnd());
+			// If the match fails, there was nothing left before the end of the line
+			return;
+		}
+		int p = cursor;
+		char c;
+		while (p < csr.length() && !isLineEnd(c = csr.charAt(p)) && c != CharSequenceInfinite.endChar) ++p;
+		cursor = p;
 	}
 	
 	/** Returns true if the next token is the end-of-data */
@@ -350,6 +419,7 @@ public class Lexer {
 		if (!text.isEmpty() && text.charAt(0) == '"') {
 			return new LexStringLiteral(text,true);
 		}
+		if (dfa) return scanToken(text,0);
 		Matcher matcher = combined.matcher(text);
 		return getToken(matcher);
 	}
@@ -364,6 +434,13 @@ public class Lexer {
 			nextToken = null;
 			return token;
 		}
+		if (dfa) {
+			try {
+				return scanToken(csr,cursor);
+			} finally {
+				cursor = scanEnd;
+			}
+		}
 		return getToken(matcher);
 	}
 	
@@ -406,86 +483,8 @@ public class Lexer {
 				token = setPos(new LexSymbol(matched),pos);
 			} else if ((matched = matcher.group(k=7)) != null) { // string 
 				// The match is just to the initial quote
-				int begin = matcher.start(k); // position of the initial quote
-				int p = begin;
-				try {
-					if (smtConfig.isVersion(SMT.Configuration.SMTLIB.V25)) { // Version 2.5ff
-						while (true) {
-							p++;
-							int c = csr.charAt(p);
-							if (c == '"') {
-								if (p+1 < csr.length() && csr.charAt(p+1) == '"') {
-									p++;
-								} else {
-									end = p+1;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									token = setPos(new LexStringLiteral(matched,true),pos);
-									break;
-								}
-							} else {
-								if (c >= ' ' && c <= '~') continue;
-								if (c == '\t' || c == '\r' || c == '\n') continue;
-								if (c == 25) {
-									end = p;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
-									token = setPos(new LexError(matched),pos);
-									break; // End of data - no closing right paren
-								}
-								smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
-										pos(p,p+1)));
-								continue;
-							}
-						}
-					} else if (SMT.Configuration.SMTLIB.V20.toString().equals(smtConfig.smtlib)) { // Version 2.0
-						while (true) {
-							p++;
-							int c = csr.charAt(p);
-							if (c == '\\') {
-								c = csr.charAt(++p);
-								// \\ is translated to \ and \" to "
-								// \x for anything else is just \x
-								//								if (c == '\\' || c == '"') {
-								//									continue;
-								//								} else {
-								//									smtConfig.log.logError(smtConfig.responseFactory.error("Invalid escape sequence " + (char)c + " (decimal ASCII = " + (int)c + ")",
-								//											pos(p,p+1)));
-								//								}
-							} else if (c == '"') {
-								end = p+1;
-								matched = csr.subSequence(begin,end).toString();
-								pos = pos(begin,end);
-								token = setPos(new LexStringLiteral(matched,true),pos);
-								break;
-							} else {
-								if (c >= ' ' && c <= '~') continue;
-								if (c == '\t' || c == '\r' || c == '\n') continue;
-								if (c == 25) {
-									end = p;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
-									token = setPos(new LexError(matched),pos);
-									break; // End of data - no closing right paren
-								}
-								smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
-										pos(p,p+1)));
-								continue;
-							}
-						}
-					}
-				} catch (IndexOutOfBoundsException e) {
-					// If the CharSequence does not expand itself and does not terminate 
-					// itself with an end of data character, and does not end with a
-					// quote character, we get this exception
-					end = p;
-					matched = csr.subSequence(begin,end).toString();
-					pos = pos(begin,end);
-					token = setPos(new LexError(matched),pos);
-					smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
-				}
+				token = stringLiteral(csr,matcher.start(k));
+				end = scanEnd;
 			} else if ((matched = matcher.group(k=9)) != null) { // colon-initiated keyword
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.keyword(matched,pos);
@@ -585,6 +584,364 @@ public class Lexer {
 		}
 		return token;
 	}
+
+	/** One past the last character of the token most recently produced by scanToken or stringLiteral */
+	protected int scanEnd;
+	
+	/** Scans a string literal whose opening quote is at position 'begin' of 'cs', returning the 
+	 * string literal token (or an error token if the literal is not terminated) and setting scanEnd to
+	 * the position just after the literal. Errors for invalid characters are logged, but do not end the literal.
+	 */
+	protected /*@Nullable*/ ILexToken stringLiteral(CharSequence cs, int begin) {
+		ILexToken token = null;
+		String matched;
+		IPos pos;
+		int p = begin;
+		scanEnd = begin+1;
+		try {
+			if (smtConfig.isVersion(SMT.Configuration.SMTLIB.V25)) { // Version 2.5ff
+				while (true) {
+					p++;
+					int c = cs.charAt(p);
+					if (c == '"') {
+						if (p+1 < cs.length() && cs.charAt(p+1) == '"') {
+							p++;
+						} else {
+							scanEnd = p+1;
+							matched = cs.subSequence(begin,scanEnd).toString();
+							pos = pos(begin,scanEnd);
+							token = setPos(new LexStringLiteral(matched,true),pos);
+							break;
+						}
+					} else {
+						if (c >= ' ' && c <= '~') continue;
+						if (c == '\t' || c == '\r' || c == '\n') continue;
+						if (c == 25) {
+							scanEnd = p;
+							matched = cs.subSequence(begin,scanEnd).toString();
+							pos = pos(begin,scanEnd);
+							smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
+							token = setPos(new LexError(matched),pos);
+							break; // End of data - no closing right paren
+						}
+						smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
+								pos(p,p+1)));
+						continue;
+					}
+				}
+			} else if (SMT.Configuration.SMTLIB.V20.toString().equals(smtConfig.smtlib)) { // Version 2.0
+				while (true) {
+					p++;
+					int c = cs.charAt(p);
+					if (c == '\\') {
+						c = cs.charAt(++p);
+						// \\ is translated to \ and \" to "
+						// \x for anything else is just \x
+					} else if (c == '"') {
+						scanEnd = p+1;
+						matched = cs.subSequence(begin,scanEnd).toString();
+						pos = pos(begin,scanEnd);
+						token = setPos(new LexStringLiteral(matched,true),pos);
+						break;
+					} else {
+						if (c >= ' ' && c <= '~') continue;
+						if (c == '\t' || c == '\r' || c == '\n') continue;
+						if (c == 25) {
+							scanEnd = p;
+							matched = cs.subSequence(begin,scanEnd).toString();
+							pos = pos(begin,scanEnd);
+							smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
+							token = setPos(new LexError(matched),pos);
+							break; // End of data - no closing right paren
+						}
+						smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
+								pos(p,p+1)));
+						continue;
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// If the CharSequence does not expand itself and does not terminate 
+			// itself with an end of data character, and does not end with a
+			// quote character, we get this exception
+			scanEnd = p;
+			matched = cs.subSequence(begin,scanEnd).toString();
+			pos = pos(begin,scanEnd);
+			token = setPos(new LexError(matched),pos);
+			smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
+		}
+		return token;
+	}
+	
+	// The table-driven scanner below recognizes the same tokens as the 'combined' regular expression,
+	// but in a single left-to-right pass over the characters, without backtracking and without
+	// a Matcher.  Whitespace and comments are skipped by hand; singleton tokens (parentheses,
+	// the opening quote of a string, end-of-data and control-X) are dispatched on the first
+	// character; all other tokens are recognized by running the DFA in 'delta', whose states are
+	// listed below, until it reports STOP.  The kind of token is then given by 'accept' for the
+	// state in which the DFA stopped.  Numerals, decimals, and binary and hex literals must be
+	// followed by whitespace, a parenthesis, a semicolon or the end of input (as with 'trailer'); 
+	// otherwise the whole run of non-delimiter characters is reported as an invalid token, just 
+	// as group 20 of the regular expression does.  Two deliberate differences: the end-of-data
+	// characters (\031 and \004) also end a token, so that an error token never swallows the end of input;
+	// and a non-ASCII line terminator (\u0085, \u2028, \u2029) is not a delimiter, even as the very
+	// last character of a String source, where the regex's $ would accept it.
+	
+	/** DFA state: no characters consumed yet */
+	private static final int S_START = 0;
+	/** DFA state: within a simple symbol */
+	private static final int S_SYMBOL = 1;
+	/** DFA state: just read the colon that begins a keyword */
+	private static final int S_COLON = 2;
+	/** DFA state: within a keyword */
+	private static final int S_KEYWORD = 3;
+	/** DFA state: read a single 0 */
+	private static final int S_ZERO = 4;
+	/** DFA state: within a numeral without leading zeros */
+	private static final int S_NUMERAL = 5;
+	/** DFA state: read a numeral and a decimal point */
+	private static final int S_DOT = 6;
+	/** DFA state: within the fractional digits of a decimal */
+	private static final int S_FRACTION = 7;
+	/** DFA state: within a run of digits that has a leading zero */
+	private static final int S_LZ = 8;
+	/** DFA state: read a number with a leading zero and a decimal point */
+	private static final int S_LZ_DOT = 9;
+	/** DFA state: within the fractional digits of a number with a leading zero */
+	private static final int S_LZ_FRACTION = 10;
+	/** DFA state: read a # */
+	private static final int S_HASH = 11;
+	/** DFA state: read #b */
+	private static final int S_HASH_B = 12;
+	/** DFA state: within the digits of a binary literal */
+	private static final int S_BINARY = 13;
+	/** DFA state: read #x */
+	private static final int S_HASH_X = 14;
+	/** DFA state: within the digits of a hex literal */
+	private static final int S_HEX = 15;
+	/** DFA state: within an invalid token */
+	private static final int S_ERROR = 16;
+	/** DFA state: within a bar-enclosed symbol */
+	private static final int S_BAR = 17;
+	/** DFA state: read the closing bar of a bar-enclosed symbol */
+	private static final int S_BAR_CLOSED = 18;
+	/** The number of DFA states */
+	private static final int NSTATES = 19;
 	
+	/** DFA transition value meaning that the current character is not part of the token */
+	private static final byte STOP = -1;
+	
+	/** Token kind: a simple or bar-enclosed symbol */
+	private static final byte T_SYMBOL = 0;
+	/** Token kind: a keyword */
+	private static final byte T_KEYWORD = 1;
+	/** Token kind: a numeral */
+	private static final byte T_NUMERAL = 2;
+	/** Token kind: a decimal */
+	private static final byte T_DECIMAL = 3;
+	/** Token kind: a binary literal */
+	private static final byte T_BINARY = 4;
+	/** Token kind: a hex literal */
+	private static final byte T_HEX = 5;
+	/** Token kind: a number with leading zeros (an error) */
+	private static final byte T_LEADING_ZERO = 6;
+	/** Token kind: a bar-enclosed symbol without a closing bar (an error) */
+	private static final byte T_UNTERMINATED_BAR = 7;
+	/** Token kind: any other invalid token */
+	private static final byte T_INVALID = 8;
+	
+	/** The DFA transition table, indexed by state and then by character; all non-ASCII characters
+	 * use the last column. */
+	private static final byte[][] delta = new byte[NSTATES][129];
+	
+	/** The kind of token recognized when the DFA stops in a given state */
+	private static final byte[] accept = new byte[NSTATES];
+	
+	/** Characters that may begin a simple symbol */
+	private static final String symbolStartChars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_~!@$%^&*+=<>.?/-";
+	/** Characters that may continue a simple symbol or keyword */
+	private static final String symbolChars = symbolStartChars + "0123456789";
+	/** Characters allowed within a bar-enclosed symbol */
+	private static final String barSymbolChars = symbolChars + "\"'(),:;{}#`[] \t\r\n";
+	/** Hexadecimal digits */
+	private static final String hexChars = "0123456789abcdefABCDEF";
+	
+	static {
+		for (int st = 0; st < NSTATES; st++) {
+			java.util.Arrays.fill(delta[st],STOP);
+		}
+		// By default, every state except the start state and the states of symbols and keywords
+		// continues an invalid token on any character that is not a delimiter
+		for (int st: new int[]{S_COLON,S_ZERO,S_NUMERAL,S_DOT,S_FRACTION,S_LZ,S_LZ_DOT,S_LZ_FRACTION,
+				S_HASH,S_HASH_B,S_BINARY,S_HASH_X,S_HEX,S_ERROR}) {
+			for (int c = 0; c <= 128; c++) {
+				if (!isDelimiter(c)) delta[st][c] = S_ERROR;
+			}
+		}
+		for (int c = 0; c <= 128; c++) {
+			if (!isDelimiter(c)) delta[S_START][c] = S_ERROR;
+		}
+		for (char c: symbolStartChars.toCharArray()) delta[S_START][c] = S_SYMBOL;
+		for (char c: symbolChars.toCharArray()) {
+			delta[S_SYMBOL][c] = S_SYMBOL;
+			delta[S_COLON][c] = S_KEYWORD;
+			delta[S_KEYWORD][c] = S_KEYWORD;
+		}
+		delta[S_START][':'] = S_COLON;
+		delta[S_START]['0'] = S_ZERO;
+		delta[S_START]['#'] = S_HASH;
+		delta[S_START]['|'] = S_BAR;
+		for (char c = '0'; c <= '9'; c++) {
+			if (c != '0') delta[S_START][c] = S_NUMERAL;
+			delta[S_ZERO][c] = S_LZ;
+			delta[S_NUMERAL][c] = S_NUMERAL;
+			delta[S_DOT][c] = S_FRACTION;
+			delta[S_FRACTION][c] = S_FRACTION;
+			delta[S_LZ][c] = S_LZ;
+			delta[S_LZ_DOT][c] = S_LZ_FRACTION;
+			delta[S_LZ_FRACTION][c] = S_LZ_FRACTION;
+		}
+		delta[S_ZERO]['.'] = S_DOT;
+		delta[S_NUMERAL]['.'] = S_DOT;
+		delta[S_LZ]['.'] = S_LZ_DOT;
+		delta[S_HASH]['b'] = S_HASH_B;
+		delta[S_HASH]['x'] = S_HASH_X;
+		delta[S_HASH_B]['0'] = delta[S_HASH_B]['1'] = S_BINARY;
+		delta[S_BINARY]['0'] = delta[S_BINARY]['1'] = S_BINARY;
+		for (char c: hexChars.toCharArray()) {
+			delta[S_HASH_X][c] = S_HEX;
+			delta[S_HEX][c] = S_HEX;
+		}
+		for (char c: barSymbolChars.toCharArray()) delta[S_BAR][c] = S_BAR;
+		delta[S_BAR]['|'] = S_BAR_CLOSED;
+		
+		java.util.Arrays.fill(accept,T_INVALID);
+		accept[S_SYMBOL] = T_SYMBOL;
+		accept[S_BAR_CLOSED] = T_SYMBOL;
+		accept[S_KEYWORD] = T_KEYWORD;
+		accept[S_ZERO] = T_NUMERAL;
+		accept[S_NUMERAL] = T_NUMERAL;
+		accept[S_FRACTION] = T_DECIMAL;
+		accept[S_LZ] = T_LEADING_ZERO;
+		accept[S_LZ_FRACTION] = T_LEADING_ZERO;
+		accept[S_BINARY] = T_BINARY;
+		accept[S_HEX] = T_HEX;
+		accept[S_BAR] = T_UNTERMINATED_BAR;
+	}
+	
+	/** True if the character ends a numeral, decimal, binary or hex literal or invalid token:
+	 * whitespace, parentheses, semicolon, or an end-of-data character. */
+	private static boolean isDelimiter(int c) {
+		switch (c) {
+			case ' ': case '\t': case '\n': case '\u000B': case '\f': case '\r':
+			case '(': case ')': case ';': case CharSequenceInfinite.endChar: case '\u0004':
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/** True if the character terminates a line (and hence a comment) */
+	private static boolean isLineEnd(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	/** Cached one-character strings, so that the common single-space prefix does not allocate */
+	private static final String[] singleChars = new String[128];
+	static {
+		for (char c = 0; c < 128; c++) singleChars[c] = String.valueOf(c).intern();
+	}
+
+	/** Scans the next token in 'cs' beginning at position 'start', using the table-driven DFA;
+	 * sets prefixCommentText to any whitespace and comments that precede the token and sets 
+	 * scanEnd to the position after the token. The tokens (and the errors logged) are the same
+	 * as those produced by getToken(Matcher).
+	 * @throws ParserException if a control-X character is read, aborting the current input
+	 */
+	protected ILexToken scanToken(CharSequence cs, int start) throws ParserException {
+		// Skip whitespace and comments
+		int p = start;
+		char c = 0;
+		while (p < cs.length()) {
+			c = cs.charAt(p);
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == '\u000B') {
+				p++;
+			} else if (c == ';') {
+				while (++p < cs.length() && !isLineEnd(c = cs.charAt(p)) && c != CharSequenceInfinite.endChar) {}
+			} else {
+				break;
+			}
+		}
+		if (p == start) {
+			prefixCommentText = null;
+		} else if (p == start + 1) {
+			char pc = cs.charAt(start);
+			prefixCommentText = pc == '\n' ? IPLexToken.EMPTY : pc < 128 ? singleChars[pc] : String.valueOf(pc);
+		} else {
+			prefixCommentText = cs.subSequence(start,p).toString();
+			if (prefixCommentText.startsWith("\n")) prefixCommentText = prefixCommentText.substring(1);
+			else if (prefixCommentText.startsWith("\r\n")) prefixCommentText = prefixCommentText.substring(2);
+		}
+		int begin = p;
+		scanEnd = p+1;
+		if (p >= cs.length()) {
+			scanEnd = p;
+			return EOD(p);
+		}
+		c = cs.charAt(p);
+		switch (c) {
+			case '(': return LP(p);
+			case ')': return RP(p);
+			case '"': return stringLiteral(cs,p);
+			case CharSequenceInfinite.endChar:
+			case '\u0004': return EOD(p);
+			case '\u0018': throw new AbortParseException(); // control-X kills the current input
+			default: break;
+		}
+		
+		// Run the DFA
+		int state = S_START;
+		while (true) {
+			int next = delta[state][c < 128 ? c : 128];
+			if (next == STOP) break;
+			state = next;
+			if (++p >= cs.length()) break;
+			c = cs.charAt(p);
+		}
+		scanEnd = p;
+		IPos pos = pos(begin,p);
+		String matched = cs.subSequence(begin,p).toString();
+		ILexToken token;
+		switch (accept[state]) {
+			case T_SYMBOL:
+				return setPos(new LexSymbol(matched),pos);
+			case T_KEYWORD:
+				return setPos(new LexKeyword(matched),pos);
+			case T_NUMERAL:
+				return setPos(new LexNumeral(new BigInteger(matched)),pos);
+			case T_DECIMAL:
+				return setPos(new LexDecimal(new BigDecimal(matched)),pos);
+			case T_BINARY:
+				return setPos(new LexBinaryLiteral(matched.substring(2)),pos);
+			case T_HEX:
+				return setPos(new LexHexLiteral(matched.substring(2)),pos);
+			case T_LEADING_ZERO: {
+				String msg = "Incorrect format for a number - no leading zeros allowed: ";
+				token = setPos(new LexError(msg + matched),pos);
+				smtConfig.log.logError(smtConfig.responseFactory.error(msg + matched,token.pos()));
+				return token;
+			}
+			case T_UNTERMINATED_BAR:
+				token = setPos(new LexError("Bar(|)-enclosed symbol is not terminated: " + matched),pos);
+				smtConfig.log.logError(smtConfig.responseFactory.error("Bar(|)-enclosed symbol is not terminated: " + matched,token.pos()));
+				return token;
+			default:
+				if (matched.charAt(0) < ' ') matched = "(ASCII char " + (int)matched.charAt(0) + " (decimal))";
+				token = setPos(new LexError("Invalid token: " + matched),pos);
+				smtConfig.log.logError(smtConfig.responseFactory.error("Invalid token: " + matched,
+						pos));
+				return token;
+		}
+	}
 
 }
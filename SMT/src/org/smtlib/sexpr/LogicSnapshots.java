@@ -0,0 +1,393 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.sexpr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IIdentifier;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.ILogic;
+import org.smtlib.ISort;
+import org.smtlib.SMT;
+import org.smtlib.SymbolTable;
+
+/** Writes and reads snapshots of fully loaded logics: the background layer of the symbol table
+ * (sorts, function signatures and their attributes) and the logic object itself.  The release
+ * build stores a snapshot of the logics in the jar (as RESOURCE), so that a logic that is found
+ * there need not be read and interpreted from its text files.
+ * <P>
+ * A snapshot holds only what loading the S-expression logic and theory files produces: sort
+ * symbols with an arity, function signatures over arity-0 sorts, and attribute values that are
+ * S-expressions; textual positions are not kept.  Each logic is stored as a separate block,
+ * so that reading a logic from a snapshot does not require decoding any of the others.
+ */
+public class LogicSnapshots {
+
+	/** The name of the resource holding the snapshot of the bundled logics */
+	static final public String RESOURCE = "/org/smtlib/resources/logics.snapshot";
+
+	/** The string that begins every snapshot */
+	static final private String MAGIC = "jSMTLIB logic snapshot";
+
+	/** The version of the snapshot format; snapshots with a different version are not read */
+	static final private int FORMAT = 1;
+
+	/** The configuration whose factories create the objects that are read */
+	protected SMT.Configuration smtConfig;
+
+	/** Creates an object that writes and reads snapshots using the given configuration */
+	public LogicSnapshots(SMT.Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+	}
+
+	/** Writes the given layers, keyed by logic name, to the stream, which is not closed;
+	 * an IOException is thrown if a layer holds something that a snapshot cannot represent. */
+	public void write(Map<String,SymbolTable.Layer> layers, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeUTF(MAGIC);
+		out.writeInt(FORMAT);
+		out.writeInt(layers.size());
+		for (Map.Entry<String,SymbolTable.Layer> e: layers.entrySet()) {
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			writeLayer(new DataOutputStream(block),e.getKey(),e.getValue());
+			out.writeUTF(e.getKey());
+			out.writeInt(block.size());
+			block.writeTo(out);
+		}
+		out.flush();
+	}
+
+	/** Writes the block for one logic */
+	protected void writeLayer(DataOutputStream out, String logicName, SymbolTable.Layer layer) throws IOException {
+		out.writeBoolean(layer.arrayTheorySet);
+		out.writeBoolean(layer.bitVectorTheorySet);
+		out.writeBoolean(layer.realsIntsTheorySet);
+
+		ILogic logic = layer.logic;
+		if (logic == null) throw new IOException("No logic is recorded for " + logicName);
+		out.writeUTF(logic.getClass().getName());
+		out.writeUTF(logic.logicName().toString());
+		out.writeInt(logic.attributes().size());
+		for (IAttribute<?> attr: logic.attributes().values()) {
+			writeAttribute(out,attr);
+		}
+
+		out.writeInt(layer.sorts.size());
+		for (Map.Entry<IIdentifier,ISort.IDefinition> s: layer.sorts.entrySet()) {
+			if (!(s.getKey() instanceof ISymbol) || !(s.getValue() instanceof ISort.IFamily)) {
+				throw new IOException("Cannot store the definition of sort " + s.getKey());
+			}
+			out.writeUTF(s.getKey().toString());
+			out.writeInt(s.getValue().intArity());
+		}
+
+		out.writeInt(layer.names.size());
+		for (Map.Entry<IIdentifier,Map<Integer,List<SymbolTable.Entry>>> n: layer.names.entrySet()) {
+			if (!(n.getKey() instanceof ISymbol)) throw new IOException("Cannot store the definition of " + n.getKey());
+			out.writeUTF(n.getKey().toString());
+			out.writeInt(n.getValue().size());
+			for (Map.Entry<Integer,List<SymbolTable.Entry>> a: n.getValue().entrySet()) {
+				out.writeInt(a.getKey());
+				out.writeInt(a.getValue().size());
+				for (SymbolTable.Entry entry: a.getValue()) {
+					writeEntry(out,entry);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/** Writes the signature and attributes of one symbol table entry */
+	protected void writeEntry(DataOutputStream out, SymbolTable.Entry entry) throws IOException {
+		if (entry.definition != null) throw new IOException("Cannot store the definition of " + entry.name);
+		ISort[] args = entry.sort.argSorts();
+		out.writeInt(args.length);
+		for (ISort s: args) writeSort(out,s);
+		ISort result = entry.sort.resultSort();
+		out.writeBoolean(result != null);
+		if (result != null) writeSort(out,result);
+		if (entry.attributes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(entry.attributes.size());
+			for (IAttribute<?> attr: entry.attributes) writeAttribute(out,attr);
+		}
+	}
+
+	/** Writes a sort, which must be an arity-0 sort symbol */
+	protected void writeSort(DataOutputStream out, ISort sort) throws IOException {
+		if (!(sort instanceof ISort.IApplication) || !((ISort.IApplication)sort).parameters().isEmpty()
+				|| !(((ISort.IApplication)sort).family() instanceof ISymbol)) {
+			throw new IOException("Cannot store the sort " + sort);
+		}
+		out.writeUTF(((ISort.IApplication)sort).family().toString());
+	}
+
+	/** Writes an attribute, whose value (if any) must be an S-expression */
+	protected void writeAttribute(DataOutputStream out, IAttribute<?> attr) throws IOException {
+		out.writeUTF(attr.keyword().value());
+		IAttributeValue value = attr.attrValue();
+		out.writeBoolean(value != null);
+		if (value == null) return;
+		if (!(value instanceof ISexpr)) throw new IOException("Cannot store the value of attribute " + attr.keyword());
+		writeSexpr(out,(ISexpr)value);
+	}
+
+	/** Writes an S-expression as a tag (that of Lexer.token, or '(' for a sequence) and its text */
+	protected void writeSexpr(DataOutputStream out, ISexpr sexpr) throws IOException {
+		if (sexpr instanceof ISexpr.ISeq) {
+			List<ISexpr> list = ((ISexpr.ISeq)sexpr).sexprs();
+			out.writeByte('(');
+			out.writeInt(list.size());
+			for (ISexpr s: list) writeSexpr(out,s);
+			return;
+		}
+		char kind;
+		String text;
+		if (sexpr instanceof ISymbol) {
+			kind = 'S'; text = sexpr.toString(); // the original text, with any bars
+		} else if (sexpr instanceof IKeyword) {
+			kind = 'K'; text = ((IKeyword)sexpr).value();
+		} else if (sexpr instanceof IExpr.INumeral) {
+			kind = 'N'; text = ((IExpr.INumeral)sexpr).value().toString();
+		} else if (sexpr instanceof IExpr.IDecimal) {
+			kind = 'D'; text = ((IExpr.IDecimal)sexpr).value().toPlainString();
+		} else if (sexpr instanceof IExpr.IStringLiteral) {
+			kind = 'Q'; text = ((IExpr.IStringLiteral)sexpr).value();
+		} else if (sexpr instanceof IExpr.IBinaryLiteral) {
+			kind = 'B'; text = ((IExpr.IBinaryLiteral)sexpr).value();
+		} else if (sexpr instanceof IExpr.IHexLiteral) {
+			kind = 'X'; text = ((IExpr.IHexLiteral)sexpr).value();
+		} else {
+			throw new IOException("Cannot store a " + sexpr.kind() + ": " + sexpr);
+		}
+		out.writeByte(kind);
+		out.writeUTF(text);
+	}
+
+	/** Reads a snapshot written by write(), returning the (still encoded) block of each logic,
+	 * keyed by logic name; the stream is not closed.  An IOException is thrown if the snapshot is
+	 * malformed or has a different format version.
+	 */
+	static public Map<String,byte[]> readBlocks(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		if (!MAGIC.equals(in.readUTF())) throw new IOException("Not a logic snapshot");
+		int format = in.readInt();
+		if (format != FORMAT) throw new IOException("Logic snapshot has format " + format + " rather than " + FORMAT);
+		Map<String,byte[]> blocks = new LinkedHashMap<String,byte[]>();
+		for (int n = in.readInt(); n > 0; --n) {
+			String logicName = in.readUTF();
+			byte[] block = new byte[in.readInt()];
+			in.readFully(block);
+			blocks.put(logicName,block);
+		}
+		return blocks;
+	}
+
+	/** Reads all of the logics in a snapshot written by write(), returning the layers keyed by
+	 * logic name; the stream is not closed. */
+	public Map<String,SymbolTable.Layer> read(InputStream stream) throws IOException {
+		Map<String,SymbolTable.Layer> layers = new LinkedHashMap<String,SymbolTable.Layer>();
+		for (Map.Entry<String,byte[]> e: readBlocks(stream).entrySet()) {
+			layers.put(e.getKey(),readLayer(e.getValue()));
+		}
+		return layers;
+	}
+
+	/** Decodes the block of one logic, as returned by readBlocks() */
+	public SymbolTable.Layer readLayer(byte[] block) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+		boolean arrays = in.readBoolean();
+		boolean bitVectors = in.readBoolean();
+		boolean realsInts = in.readBoolean();
+
+		String clazzName = in.readUTF();
+		ISymbol name = symbol(in.readUTF());
+		List<IAttribute<?>> logicAttributes = new ArrayList<IAttribute<?>>();
+		for (int i = in.readInt(); i > 0; --i) logicAttributes.add(readAttribute(in));
+		ILogic logic = createLogic(clazzName,name,logicAttributes);
+
+		Map<IIdentifier,ISort.IDefinition> sorts = new LinkedHashMap<IIdentifier,ISort.IDefinition>();
+		for (int i = in.readInt(); i > 0; --i) {
+			ISymbol sym = symbol(in.readUTF());
+			sorts.put(sym,smtConfig.sortFactory.createSortFamily(sym,smtConfig.exprFactory.numeral(in.readInt())));
+		}
+
+		Map<IIdentifier,Map<Integer,List<SymbolTable.Entry>>> names = new LinkedHashMap<IIdentifier,Map<Integer,List<SymbolTable.Entry>>>();
+		for (int i = in.readInt(); i > 0; --i) {
+			ISymbol sym = symbol(in.readUTF());
+			Map<Integer,List<SymbolTable.Entry>> arityMap = new HashMap<Integer,List<SymbolTable.Entry>>();
+			for (int j = in.readInt(); j > 0; --j) {
+				int arity = in.readInt();
+				List<SymbolTable.Entry> entries = new ArrayList<SymbolTable.Entry>();
+				for (int k = in.readInt(); k > 0; --k) entries.add(readEntry(in,sym,sorts));
+				arityMap.put(arity,entries);
+			}
+			names.put(sym,arityMap);
+		}
+		return new SymbolTable.Layer(sorts,names,logic,arrays,bitVectors,realsInts);
+	}
+
+	/** Reads a symbol table entry for the given name, whose sorts are defined in the given map */
+	protected SymbolTable.Entry readEntry(DataInputStream in, ISymbol name, Map<IIdentifier,ISort.IDefinition> sorts) throws IOException {
+		ISort[] args = new ISort[in.readInt()];
+		for (int i = 0; i < args.length; ++i) args[i] = readSort(in,sorts);
+		ISort result = in.readBoolean() ? readSort(in,sorts) : null;
+		List<IAttribute<?>> attrs = null;
+		int n = in.readInt();
+		if (n >= 0) {
+			attrs = new ArrayList<IAttribute<?>>(n);
+			while (n-- > 0) attrs.add(readAttribute(in));
+		}
+		return new SymbolTable.Entry(name,smtConfig.sortFactory.createFcnSort(args,result),attrs);
+	}
+
+	/** Reads a sort symbol, creating a sort expression as sexpr.Utils.asSort does */
+	protected ISort readSort(DataInputStream in, Map<IIdentifier,ISort.IDefinition> sorts) throws IOException {
+		String name = in.readUTF();
+		ISort.IDefinition def = sorts.get(symbol(name));
+		if (def == null) throw new IOException("Undefined sort in logic snapshot: " + name);
+		ISort.IApplication sort = smtConfig.sortFactory.createSortExpression(def.identifier());
+		sort.definition(def);
+		return sort;
+	}
+
+	/** Reads an attribute */
+	protected IAttribute<?> readAttribute(DataInputStream in) throws IOException {
+		IKeyword keyword = (IKeyword)token('K',in.readUTF());
+		ISexpr value = in.readBoolean() ? readSexpr(in) : null;
+		return smtConfig.exprFactory.attribute(keyword,value);
+	}
+
+	/** Reads an S-expression */
+	protected ISexpr readSexpr(DataInputStream in) throws IOException {
+		char kind = (char)in.readByte();
+		if (kind != '(') return token(kind,in.readUTF());
+		int n = in.readInt();
+		List<ISexpr> list = new ArrayList<ISexpr>(n);
+		while (n-- > 0) list.add(readSexpr(in));
+		return new Sexpr.Seq(list);
+	}
+
+	/** Creates a symbol as the parser would */
+	protected ISymbol symbol(String text) throws IOException {
+		return (ISymbol)token('S',text);
+	}
+
+	/** Creates a token as the lexer would, throwing an IOException if the kind or text is invalid */
+	protected ISexpr token(char kind, String text) throws IOException {
+		ISexpr t;
+		try {
+			t = Lexer.token(kind,text);
+		} catch (NumberFormatException e) {
+			t = null;
+		}
+		if (t == null) throw new IOException("Malformed token in logic snapshot: " + kind + " " + text);
+		return t;
+	}
+
+	/** Creates a logic object of the given class, as the parser does */
+	protected ILogic createLogic(String clazzName, ISymbol name, Collection<IAttribute<?>> attributes) throws IOException {
+		try {
+			Class<? extends ILogic> clazz = Class.forName(clazzName).asSubclass(ILogic.class);
+			Constructor<? extends ILogic> con = clazz.getConstructor(ISymbol.class,Collection.class);
+			return con.newInstance(name,attributes);
+		} catch (Exception e) {
+			throw new IOException("Failed to create the logic " + name + " as an instance of " + clazzName + ": " + e);
+		}
+	}
+
+	/** The blocks of the bundled snapshot, or null if it has not been read yet */
+	static private /*@Nullable*/ Map<String,byte[]> bundled = null;
+
+	/** Returns the layer for the given logic from the snapshot bundled as RESOURCE, or null if
+	 * there is no such logic, no such resource or the resource cannot be read; the snapshot
+	 * is read once, when first needed, but only the requested logic is decoded.
+	 */
+	static synchronized public /*@Nullable*/ SymbolTable.Layer bundled(SMT.Configuration smtConfig, String logicName) {
+		if (bundled == null) {
+			bundled = Collections.<String,byte[]>emptyMap();
+			InputStream in = LogicSnapshots.class.getResourceAsStream(RESOURCE);
+			if (in != null) {
+				try {
+					bundled = readBlocks(in);
+				} catch (IOException e) {
+					if (smtConfig.verbose != 0) smtConfig.log.logDiag("#Ignoring the bundled logic snapshot: " + e);
+				} finally {
+					try { in.close(); } catch (IOException e) { /* ignore */ }
+				}
+			}
+		}
+		byte[] block = bundled.get(logicName);
+		if (block == null) return null;
+		try {
+			return new LogicSnapshots(smtConfig).readLayer(block);
+		} catch (IOException e) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("#Ignoring the bundled snapshot of logic " + logicName + ": " + e);
+			return null;
+		}
+	}
+
+	/** Writes a snapshot of the logics in the directory given as the first argument to the
+	 * file given as the second argument; files that do not define a logic (e.g. theories)
+	 * are skipped.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: java " + LogicSnapshots.class.getName() + " <logics-directory> <output-file>");
+			System.exit(2);
+		}
+		SMT smt = new SMT();
+		smt.smtConfig.logicPath = args[0];
+		smt.smtConfig.log.clearListeners(); // theory files are reported as malformed logics
+		String[] files = new File(args[0]).list();
+		if (files == null) {
+			System.err.println("Not a directory: " + args[0]);
+			System.exit(1);
+		}
+		Arrays.sort(files);
+		Map<String,SymbolTable.Layer> layers = new LinkedHashMap<String,SymbolTable.Layer>();
+		for (String f: files) {
+			if (!f.endsWith(org.smtlib.Utils.SUFFIX)) continue;
+			String name = f.substring(0,f.length() - org.smtlib.Utils.SUFFIX.length());
+			SymbolTable symTable = new SymbolTable(smt.smtConfig);
+			if (smt.smtConfig.utils.loadLogic(name,symTable,null) == null) layers.put(name,symTable.background());
+		}
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(args[1]);
+			new LogicSnapshots(smt.smtConfig).write(layers,out);
+		} catch (IOException e) {
+			System.err.println("Failed to write the logic snapshot " + args[1] + ": " + e);
+			System.exit(1);
+		} finally {
+			try { if (out != null) out.close(); } catch (IOException e) { /* ignore */ }
+		}
+		System.out.println("Wrote " + layers.size() + " logics to " + args[1]);
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.smtlib.CharSequenceInfinite;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.Log;
+import org.smtlib.SMT;
+import org.smtlib.impl.Command;
+
+/** This parser parses all the commands of a script in parallel, before any of them are requested,
+ * and then returns them one by one from parseCommand, in their original order, as if they were
+ * being parsed sequentially.  It is intended for the read-execute loop in SMT.doParser, for scripts
+ * whose text is completely available (that is, not a CharSequenceInfinite).
+ * <P>
+ * Executing a set-info or set-option command may change the configuration with which later commands
+ * are parsed (e.g. :smt-lib-version), so the commands through the last top-level set-info or
+ * set-option are parsed sequentially, as they are requested, each after its predecessors have been
+ * executed; only the remainder of the script is parsed in parallel.
+ * <P>
+ * That remainder is first scanned for the right parentheses that end top-level commands (skipping
+ * comments, string literals and quoted symbols) and split there into chunks of roughly equal size.
+ * Each chunk is parsed on a ForkJoinPool by its own Parser over the same source (so all positions
+ * are positions in the original text), using a clone of the configuration (as it is once the
+ * sequentially parsed commands have been executed) whose Log records
+ * messages rather than writing them; the recorded messages are sent to the real Log when
+ * the command during whose parsing they were produced is returned.  If the chunks do not fit
+ * together exactly (for example because error recovery in one chunk consumed some of the next),
+ * or anything else goes wrong, the parallel results are discarded and the script is parsed
+ * sequentially, as by Parser.
+ * @author David R. Cok
+ */
+public class ParallelParser extends Parser {
+
+	/** Scripts shorter than this (in characters) are not split; nor is any chunk made shorter than this */
+	static public int minChunkSize = 65536;
+
+	/** The number of chunks to create per thread, to balance the load */
+	static public int chunksPerThread = 4;
+
+	/** The number of threads with which to parse */
+	final protected int threads;
+
+	/** The parsed commands, in order, or null if parallel parsing has not been done or was abandoned */
+	protected /*@Nullable*/ List<Parsed> parsed = null;
+
+	/** Messages logged after the last command, while looking for the end of input */
+	protected /*@Nullable*/ List<Logged> trailing = null;
+
+	/** The index in 'parsed' of the next command to return */
+	protected int next = 0;
+
+	/** Whether parallel parsing has been attempted */
+	protected boolean prepared = false;
+
+	/** The position just after the last top-level set-info or set-option command (0 if there is none),
+	 * or -1 if not yet computed; commands before this position are parsed sequentially */
+	protected int sequentialEnd = -1;
+
+	/** Creates a parser for the given source that will use the given number of threads */
+	public ParallelParser(SMT.Configuration smtConfig, ISource src, int threads) {
+		super(smtConfig, src);
+		this.threads = threads;
+	}
+
+	/** A message logged while parsing a chunk, to be replayed later */
+	static protected class Logged {
+		final static int OUT = 0, OUT_RESPONSE = 1, ERROR = 2, ERROR_RESPONSE = 3, DIAG = 4, INDENT = 5;
+		final int kind;
+		final Object msg;
+		Logged(int kind, Object msg) { this.kind = kind; this.msg = msg; }
+
+		/** Sends the message to the given log */
+		void replay(Log log) {
+			switch (kind) {
+				case OUT: log.logOut((String)msg); break;
+				case OUT_RESPONSE: log.logOut((IResponse)msg); break;
+				case ERROR: log.logError((String)msg); break;
+				case ERROR_RESPONSE: log.logError((IResponse.IError)msg); break;
+				case DIAG: log.logDiag((String)msg); break;
+				case INDENT: log.indent((String)msg); break;
+			}
+		}
+	}
+
+	/** A Log listener that records the messages sent to it */
+	static protected class Recorder implements Log.IListener {
+		protected List<Logged> msgs = new ArrayList<Logged>();
+
+		/** Returns the messages recorded since the last call, and starts a new list */
+		public List<Logged> take() {
+			List<Logged> m = msgs;
+			msgs = new ArrayList<Logged>();
+			return m;
+		}
+
+		@Override public void logOut(String msg) { msgs.add(new Logged(Logged.OUT,msg)); }
+		@Override public void logOut(IResponse result) { msgs.add(new Logged(Logged.OUT_RESPONSE,result)); }
+		@Override public void logError(String msg) { msgs.add(new Logged(Logged.ERROR,msg)); }
+		@Override public void logError(IResponse.IError result) { msgs.add(new Logged(Logged.ERROR_RESPONSE,result)); }
+		@Override public void logDiag(String msg) { msgs.add(new Logged(Logged.DIAG,msg)); }
+		@Override public void indent(String chars) { msgs.add(new Logged(Logged.INDENT,chars)); }
+	}
+
+	/** The result of parsing one command: the command (null if parsing failed), the parser's
+	 * lastError value and the messages logged while parsing it */
+	static protected class Parsed {
+		final /*@Nullable*/ Command command;
+		final /*@Nullable*/ IResponse.IError lastError;
+		final List<Logged> messages;
+		Parsed(/*@Nullable*/ Command command, /*@Nullable*/ IResponse.IError lastError, List<Logged> messages) {
+			this.command = command;
+			this.lastError = lastError;
+			this.messages = messages;
+		}
+	}
+
+	/** The result of parsing one chunk */
+	static protected class Chunk {
+		/** The position of the first token in the chunk */
+		int first;
+		/** The position of the token following the last command parsed */
+		int stop;
+		/** Whether the end of input was reached */
+		boolean atEnd;
+		List<Parsed> commands = new ArrayList<Parsed>();
+		List<Logged> trailing;
+	}
+
+	@Override
+	public boolean isEOD() throws ParserException {
+		if (!prepare()) return super.isEOD();
+		if (next < parsed.size()) return false;
+		if (trailing != null) {
+			for (Logged m: trailing) m.replay(smt().log);
+			trailing = null;
+		}
+		return true;
+	}
+
+	@Override
+	public Command parseCommand() {
+		if (!prepare()) return super.parseCommand();
+		if (next == parsed.size()) return super.parseCommand(); // The lexer is at the end of input
+		Parsed p = parsed.get(next++);
+		for (Logged m: p.messages) m.replay(smt().log);
+		lastError = p.lastError;
+		return p.command;
+	}
+
+	/** Parses the rest of the script in parallel, once any set-info and set-option commands have
+	 * been parsed sequentially, if that has not already been attempted and is possible;
+	 * returns true if the commands are to be taken from the list of parsed commands */
+	protected boolean prepare() {
+		if (!prepared) {
+			if (threads <= 1 || source().chars() instanceof CharSequenceInfinite) {
+				prepared = true;
+			} else {
+				if (sequentialEnd < 0) sequentialEnd = sequentialEnd(source().chars());
+				int start = unconsumedPos();
+				if (start >= sequentialEnd) {
+					prepared = true;
+					parsed = parseAll(start);
+				}
+			}
+		}
+		return parsed != null;
+	}
+
+	/** Returns the position just after the last top-level set-info or set-option command in the
+	 * given text, or 0 if there is none */
+	static protected int sequentialEnd(CharSequence cs) {
+		int len = cs.length();
+		int depth = 0;
+		int end = 0;
+		boolean inSet = false;
+		for (int i = 0; i < len; i++) {
+			char c = cs.charAt(i);
+			if (c == '(') {
+				if (depth++ == 0) inSet = isSetCommand(cs, i+1);
+			} else if (c == ')') {
+				if (depth > 0) depth--;
+				if (depth == 0 && inSet) {
+					end = i + 1;
+					inSet = false;
+				}
+			} else if (c == ';') {
+				while (++i < len && (c = cs.charAt(i)) != '\n' && c != '\r') {}
+			} else if (c == '"' || c == '|') {
+				char term = c;
+				while (++i < len && cs.charAt(i) != term) {}
+			}
+		}
+		return end;
+	}
+
+	/** Whether the text at the given position (after any whitespace) is the name of the set-info or
+	 * set-option command */
+	static private boolean isSetCommand(CharSequence cs, int i) {
+		int len = cs.length();
+		while (i < len && Character.isWhitespace(cs.charAt(i))) i++;
+		for (String name: new String[]{"set-info","set-option"}) {
+			int e = i + name.length();
+			if (e >= len) continue;
+			int k = 0;
+			while (k < name.length() && cs.charAt(i+k) == name.charAt(k)) k++;
+			if (k < name.length()) continue;
+			char c = cs.charAt(e);
+			if (Character.isWhitespace(c) || c == ')') return true;
+		}
+		return false;
+	}
+
+	/** Returns the positions at which to split the given text, from the given position on: the first 
+	 * is 'from' and each other is just after the right parenthesis that ends a top-level command */
+	static protected List<Integer> split(CharSequence cs, int from, int chunkSize) {
+		List<Integer> starts = new ArrayList<Integer>();
+		starts.add(from);
+		int len = cs.length();
+		int depth = 0;
+		int last = from;
+		for (int i = from; i < len; i++) {
+			char c = cs.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				if (depth > 0) depth--;
+				if (depth == 0 && i + 1 - last >= chunkSize && len - (i + 1) >= minChunkSize) {
+					last = i + 1;
+					starts.add(last);
+				}
+			} else if (c == ';') {
+				while (++i < len && (c = cs.charAt(i)) != '\n' && c != '\r') {}
+			} else if (c == '"' || c == '|') {
+				char term = c;
+				while (++i < len && cs.charAt(i) != term) {}
+			}
+		}
+		return starts;
+	}
+
+	/** Parses the script in parallel from the given position on, returning the commands in order, 
+	 * or null if that is not possible. */
+	protected /*@Nullable*/ List<Parsed> parseAll(int from) {
+		CharSequence cs = source().chars();
+		int len = cs.length();
+		if (len - from < 2*minChunkSize) return null;
+		final List<Integer> starts = split(cs, from, Math.max(minChunkSize, (len-from)/(threads*chunksPerThread)));
+		if (starts.size() < 2) return null;
+		starts.add(len);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<Chunk>> tasks = new ArrayList<ForkJoinTask<Chunk>>();
+			for (int i = 0; i < starts.size()-1; i++) {
+				final int start = starts.get(i);
+				final int end = starts.get(i+1);
+				tasks.add(pool.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() throws Exception {
+						return parseChunk(start,end);
+					}
+				}));
+			}
+			List<Parsed> all = new ArrayList<Parsed>();
+			Chunk previous = null;
+			for (ForkJoinTask<Chunk> task: tasks) {
+				Chunk chunk = task.join();
+				if (previous != null && (previous.stop != chunk.first || previous.atEnd || !previous.trailing.isEmpty())) {
+					if (smt().verbose != 0) smt().log.logDiag("Parallel parsing abandoned at position " + chunk.first);
+					return null;
+				}
+				all.addAll(chunk.commands);
+				previous = chunk;
+			}
+			trailing = previous.trailing;
+			resetPos(previous.stop);
+			return all;
+		} catch (RuntimeException e) {
+			if (smt().verbose != 0) smt().log.logDiag("Parallel parsing abandoned: " + e);
+			return null;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Parses the commands that begin in the given range of positions */
+	protected Chunk parseChunk(int start, int end) throws Exception {
+		SMT.Configuration config = smt().clone();
+		config.log = new Log(config);
+		config.log.clearListeners();
+		Recorder recorder = new Recorder();
+		config.log.addListener(recorder);
+
+		Parser p = new Parser(config, source());
+		p.setCurrentPos(start);
+		Chunk chunk = new Chunk();
+		chunk.first = p.peekToken().pos().charStart();
+		while (!(chunk.atEnd = p.isEOD()) && p.peekToken().pos().charStart() < end) {
+			Command command = p.parseCommand();
+			chunk.commands.add(new Parsed(command, p.lastError(), recorder.take()));
+		}
+		chunk.stop = p.peekToken().pos().charStart();
+		chunk.trailing = recorder.take();
+		return chunk;
+	}
+}
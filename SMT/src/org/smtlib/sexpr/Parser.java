@@ -5,11 +5,10 @@
  */
 package org.smtlib.sexpr;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
-import java.util.regex.Matcher;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.IScript;
@@ -150,6 +149,9 @@ public class Parser extends Lexer implements IParser {
 	public Command parseCommand() {
 		boolean savedTopLevel = smtConfig.topLevel;
 		Command command = null;
+		// Previous commands have been parsed (and, in the usual read-execute loop, executed),
+		// so their text is no longer needed
+		if (smtConfig.windowedInput) releaseConsumed();
 		try {
 			while (true) { // The while loop is just so that AbortParseException can cause a retry
 				try {
@@ -181,19 +183,19 @@ public class Parser extends Lexer implements IParser {
 						// If an error occurs in parsing the command, an error message should be logged and
 						// null returned (if null is returned, an error message is expected to have been logged).
 						
-						// This call translates a name to the class that implements the command with that name.
-						// The user can change the lookup behavior by assigning a new command finder object in
-						// the configuration
-						Class<? extends ICommand> clazz = smt().commandFinder.findCommand(name);
-						if (clazz == null) {
+						// This call translates a name to the parse method of the class that implements the 
+						// command with that name. The user can change the lookup behavior by assigning a new
+						// command finder object in the configuration; the result of the lookup is cached.
+						if (smtConfig.commandRegistry == null) smtConfig.commandRegistry = new CommandRegistry(smtConfig);
+						MethodHandle parseMethod = smtConfig.commandRegistry.find(name);
+						if (parseMethod == null) {
 							lastError = error("Unknown command: " + name,sym.pos());
 							command = null;
 						} else {
 							// Call the static parser method of the command class; that will create an
 							// instance of the appropriate command, initialized according to the parsed data.
 							// If the parse fails, null is returned and an error will have been logged.
-							Method m = clazz.getMethod("parse",Parser.class);
-							command = (Command)m.invoke(null,this);
+							command = CommandRegistry.parse(parseMethod,this);
 							rp = null;
 							if (command != null) {
 								if (!isRP()) {
@@ -231,15 +233,8 @@ public class Parser extends Lexer implements IParser {
 					smtConfig.topLevel = true;
 					continue;
 				} catch (ParserException e) {
-					Matcher m = skipThroughEndOfLine.matcher(csr);
-					m.region(matcher.regionStart(),matcher.regionEnd());
 					if (e.getMessage() != null) lastError = smtConfig.log.logError(smtConfig.responseFactory.error(e.getMessage(),e.pos()));
-					if (m.lookingAt()) {
-						//smtConfig.log.logOut("SKIPPED " + m.start() + " " + m.end());
-						matcher.region(m.end(),matcher.regionEnd());
-					} else {
-						//smtConfig.log.logOut("NOTHING TO SKIP");
-					} // If the match fails, there was nothing left before the end of the line
+					skipRestOfLine();
 				}
 				break;
 			}
@@ -313,6 +308,7 @@ public class Parser extends Lexer implements IParser {
 	 * @throws ParserException FIXME - no more of these?
 	 */
 	public Sexpr.Seq parseSeq(ILexToken lp) throws ParserException {
+		if (smtConfig.iterativeParser) return parseSeqIterative(lp);
 		Sexpr.Seq seq = new Sexpr.Seq(); // FIXME - use factory
 		
 		while (true) {
@@ -333,6 +329,35 @@ public class Parser extends Lexer implements IParser {
 		}
 	}
 
+	/** Does the same as parseSeq, but keeps the enclosing sequences on an explicit stack
+	 * rather than recursing, so that the depth of nesting is limited only by heap space.
+	 */
+	protected Sexpr.Seq parseSeqIterative(ILexToken lp) throws ParserException {
+		List<Sexpr.Seq> seqs = new ArrayList<Sexpr.Seq>();
+		List<ILexToken> lps = new ArrayList<ILexToken>();
+		seqs.add(new Sexpr.Seq()); // FIXME - use factory
+		lps.add(lp);
+		while (true) {
+			ILexToken token = getToken();
+			int top = seqs.size()-1;
+			if (token.toString() == IPLexToken.RP) {
+				Sexpr.Seq seq = seqs.remove(top);
+				seq.setPos(pos(lps.remove(top).pos(),token.pos()));
+				if (top == 0) return seq;
+				seqs.get(top-1).sexprs().add(seq);
+			} else if (token.toString() == IPLexToken.EMPTY) {
+				throw new IParser.ParserException("Unbalanced parentheses at end of input",pos(lps.get(top).pos(),lps.get(top).pos()));
+			} else if (token.toString() == IPLexToken.LP) {
+				seqs.add(new Sexpr.Seq());
+				lps.add(token);
+			} else if (token instanceof ISexpr) {
+				seqs.get(top).sexprs().add((ISexpr)token);
+			} else {
+				// FIXME - invalid token
+			}
+		}
+	}
+
 	/** Parses a qualified identifier (either a symbol, a parameterized identifier, or an as identifier)
 	 * from the token stream, returning null (with logged error messages) if there is not one.
 	 */
@@ -348,7 +373,7 @@ public class Parser extends Lexer implements IParser {
 			} else if (head.toString().equals("as")) {
 				return parseAsIdentifierRest(lp);
 			} else if (head.toString().equals("_")) {
-				return parseIdentifierRest(lp);
+				return parseIdentifierRest(lp,false);
 			} else {
 				error("Invalid beginning of an identifer: expected either 'as' or '_' here",head.pos());
 			}
@@ -359,6 +384,54 @@ public class Parser extends Lexer implements IParser {
 	
 //	private <T extends IPos.IPosable> T setPos(T p, IPos pos) { p.setPos(pos); return p; }
 	
+	/** Gives the expression the position of its occurrence; if expressions are shared (they are
+	 * created by a HashConsFactory), the expression may occur elsewhere too, so the position is
+	 * recorded by the factory rather than set in the expression.
+	 */
+	protected <T extends IPos.IPosable> T position(T e, IPos pos) {
+		if (smtConfig.exprFactory instanceof HashConsFactory) {
+			((HashConsFactory)smtConfig.exprFactory).occurs(e,pos);
+			lastPos = pos;
+		} else {
+			e.setPos(pos);
+		}
+		return e;
+	}
+	
+	/** The position most recently recorded by position(), when expressions are shared */
+	private /*@Nullable*/ IPos lastPos = null;
+	
+	/** The number of invocations of parseExpr in progress */
+	private int exprDepth = 0;
+	
+	/** When expressions are shared, the binders of the variables bound by the enclosing quantifiers
+	 * and lets (any objects, one for each quantifier or let), by the names of the variables;
+	 * null if there are none.
+	 */
+	private /*@Nullable*/ Map<String,Object> bound = null;
+	
+	/** When expressions are shared, makes the parameters of the given declarations or bindings the
+	 * variables bound in the expression parsed next (until bound is restored), so that the
+	 * subterms referring to them are shared only within this scope.
+	 */
+	protected void beginScope(List<?> params) {
+		if (!(smtConfig.exprFactory instanceof HashConsFactory)) return;
+		Object binder = new Object();
+		bound = bound == null ? new HashMap<String,Object>() : new HashMap<String,Object>(bound);
+		for (Object p: params) {
+			ISymbol s = p instanceof IDeclaration ? ((IDeclaration)p).parameter() : ((IBinding)p).parameter();
+			bound.put(s.value(),binder);
+		}
+	}
+	
+	/** Returns the expression for a symbol or literal token: the symbol of the bound variable
+	 * it names, if it is one, and otherwise the token itself */
+	private IExpr variable(IExpr token) {
+		if (bound == null || !(token instanceof ISymbol)) return token;
+		Object binder = bound.get(((ISymbol)token).value());
+		return binder == null ? token : ((HashConsFactory)smtConfig.exprFactory).bound((ISymbol)token,binder);
+	}
+	
 	/** Parses an 'as' identifier, presuming the left-paren and the 'as' are already parsed,
 	 * from the token stream, returning null (with logged error messages) if there is not one.
 	 */
@@ -370,13 +443,19 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp == null) { skipThruRP(); return null; }
 		IPos pos = pos(lp.pos(),rp.pos());
-		return setPos(smtConfig.exprFactory.id(name,sort),pos);
+		return position(smtConfig.exprFactory.id(name,sort),pos);
 	}
 	
 	/** Parses an identifier (either symbol or parameterized identifier) from the token
 	 * stream, returning null with logged error messages if there is not one.
 	 */
 	public /*@Nullable*/IIdentifier parseIdentifier() throws ParserException {
+		return parseIdentifier(false);
+	}
+	
+	/** Parses an identifier, as parseIdentifier() does; if the identifier is part of a sort,
+	 * it is not shared, since sorts are not */
+	private /*@Nullable*/IIdentifier parseIdentifier(boolean inSort) throws ParserException {
 		if (!isLP()) {
 			return parseSymbol();
 		} else {
@@ -385,7 +464,7 @@ public class Parser extends Lexer implements IParser {
 			if (head == null) { 
 				// continue 
 			} else if (head.toString().equals("_")) {
-				return parseIdentifierRest(lp);
+				return parseIdentifierRest(lp,inSort);
 			} else {
 				error("Invalid beginning of an identifer: expected a '_' here",head.pos());
 			}
@@ -398,10 +477,11 @@ public class Parser extends Lexer implements IParser {
 	 * parenthesis and the underscore character are already read, return null with 
 	 * logged error messages if there is not one.
 	 * @param lp the token for the left parenthesis that starts the identifier
+	 * @param inSort whether the identifier is part of a sort, in which case it is not shared
 	 * @return the token or null
 	 * @throws ParserException if unrecoverable error occurs
 	 */
-	private IIdentifier parseIdentifierRest(ILexToken lp) throws ParserException {
+	private IIdentifier parseIdentifierRest(ILexToken lp, boolean inSort) throws ParserException {
 		ISymbol name = parseSymbol();
 		if (name == null) { skipThruRP();  return null; }
 		List<INumeral> numerals = new LinkedList<INumeral>();
@@ -417,14 +497,36 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp == null)  { skipThruRP();  return null; }
 		IPos pos = pos(lp.pos(),rp.pos());
-		return setPos(smtConfig.exprFactory.id(name,numerals),pos);
+		if (inSort && smtConfig.exprFactory instanceof HashConsFactory) {
+			return setPos(new SMTExpr.ParameterizedIdentifier(name,numerals),pos);
+		}
+		return position(smtConfig.exprFactory.id(name,numerals),pos);
 	}
 	
 	/** Parses an expression, returning null with error messages if there is not a valid
-	 * expression in the token stream.
+	 * expression in the token stream.  If expressions are shared, the outermost expression
+	 * is not (so that it holds its position).
 	 */
 	@Override
 	public /*@Nullable*/IExpr parseExpr() throws ParserException {
+		Map<String,Object> saved = bound;
+		exprDepth++;
+		try {
+			IExpr e = smtConfig.iterativeParser ? parseExprIterative() : parseExprRecursive();
+			if (e != null && exprDepth == 1 && smtConfig.exprFactory instanceof HashConsFactory) {
+				IExpr r = ((HashConsFactory)smtConfig.exprFactory).unshared(e);
+				if (r != e) r.setPos(lastPos);
+				e = r;
+			}
+			return e;
+		} finally {
+			exprDepth--;
+			bound = saved;
+		}
+	}
+	
+	/** Does the work of parseExpr, calling parseExpr for the subexpressions */
+	protected /*@Nullable*/IExpr parseExprRecursive() throws ParserException {
 		// Here we suffer a bit for using a hand-written top-down parser.
 		// An IExpr can be
 		//		literal
@@ -441,7 +543,7 @@ public class Parser extends Lexer implements IParser {
 		if (!isLP()) {
 			ILexToken token = getToken();
 			if (token instanceof SMTExpr.Error) return null;
-			if (token instanceof IExpr) return (IExpr)token; // FIXME - do we need to check that this is just a literal or symbol
+			if (token instanceof IExpr) return variable((IExpr)token); // FIXME - do we need to check that this is just a literal or symbol
 			if (!(token instanceof SMTExpr.Error)) error("Expected an expression here",token.pos());
 			return null;
 		}
@@ -457,26 +559,35 @@ public class Parser extends Lexer implements IParser {
 			String s = ((ISymbol)head).value();
 			if (Utils.FORALL.equals(s)) {
 				List<IDeclaration> decls = parseDeclarations();
+				Map<String,Object> saved = bound;
+				if (decls != null) beginScope(decls);
 				IExpr expr = decls == null ? null : parseExpr();
+				bound = saved;
 				ILexToken rp = expr == null ? null : parseRP();
 				if (rp == null) { skipThruRP(); return null ; }
 				return setPos(smtConfig.exprFactory.forall(decls, expr), pos(lp.pos(), rp.pos()));
 			} else if (Utils.EXISTS.equals(s)) {
 				List<IDeclaration> decls = parseDeclarations();
+				Map<String,Object> saved = bound;
+				if (decls != null) beginScope(decls);
 				IExpr expr = decls == null ? null : parseExpr();
+				bound = saved;
 				ILexToken rp = expr == null ? null : parseRP();
 				if (rp == null) { skipThruRP(); return null ; }
 				return setPos(smtConfig.exprFactory.exists(decls, expr), pos(lp.pos(), rp.pos()));
 			} else if (Utils.LET.equals(s)) {
 				List<IBinding> decls = parseBindings();
+				Map<String,Object> saved = bound;
+				if (decls != null) beginScope(decls);
 				IExpr expr = decls == null ? null : parseExpr();
+				bound = saved;
 				ILexToken rp = expr == null ? null : parseRP();
 				if (rp == null) { skipThruRP(); return null ; }
 				return setPos(smtConfig.exprFactory.let(decls, expr), pos(lp.pos(), rp.pos()));
 			} else if (Utils.AS.equals(s)) {
 				return parseAsIdentifierRest(lp);
 			} else if (Utils.UNDERSCORE.equals(s)) {
-				return parseIdentifierRest(lp);
+				return parseIdentifierRest(lp,false);
 			} else if (Utils.NAMED_EXPR.equals(s)) {
 				IExpr expr = parseExpr();
 				if (expr instanceof IExpr.IError) expr = null;
@@ -484,7 +595,7 @@ public class Parser extends Lexer implements IParser {
 				if (list == null) { skipThruRP(); return null; }
 				ILexToken rp = parseRP();
 				if (rp == null) { skipThruRP(); return null; }
-				return setPos(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
+				return position(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
 			}
 		}
 		List<IExpr> list = new LinkedList<IExpr>();
@@ -505,7 +616,243 @@ public class Parser extends Lexer implements IParser {
 			error("A function expression must have at least one argument",pos(lp.pos(),rp.pos()));
 			return null;
 		}
-		return setPos(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
+		return position(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
+	}
+	
+	// The kinds of partially parsed expression held on the stack in parseExprIterative
+	private static final int APPLICATION = 0, QUANTIFIER = 1, LET = 2, NAMED = 3;
+	// The states of a LET frame: within the bindings, within the expression of a binding, within the body
+	private static final int BINDINGS = 0, BINDING_EXPR = 1, BODY = 2;
+	
+	/** A partially parsed expression, for parseExprIterative; it holds the local state of the
+	 * corresponding invocation of parseExpr (and, for a let expression, of parseBindings and parseBinding) */
+	private static class ExprFrame {
+		final int kind;
+		final ILexToken lp;
+		final IQualifiedIdentifier head;
+		int state = BINDINGS;
+		// for APPLICATION
+		List<IExpr> args;
+		boolean anyErrors;
+		// for QUANTIFIER
+		List<IDeclaration> decls;
+		// for LET
+		ILexToken bindingsLp;
+		List<IBinding> bindings;
+		Set<ISymbol> names;
+		ILexToken bindingLp;
+		ISymbol bindingSym;
+		// for QUANTIFIER and LET, once the scope of the variables has begun
+		boolean scoped;
+		Map<String,Object> saved;
+		
+		ExprFrame(int kind, ILexToken lp, IQualifiedIdentifier head) {
+			this.kind = kind;
+			this.lp = lp;
+			this.head = head;
+		}
+	}
+	
+	/** Does the same as parseExpr (producing the same expressions, positions and error messages), 
+	 * but keeps the partially parsed enclosing expressions on an explicit stack rather than recursing,
+	 * so that the depth of nesting is limited only by heap space.  This is used instead of parseExpr
+	 * if smtConfig.iterativeParser is set.
+	 */
+	protected /*@Nullable*/IExpr parseExprIterative() throws ParserException {
+		List<ExprFrame> stack = new ArrayList<ExprFrame>();
+		IExpr result = null; // the most recently completed expression, or null if it had errors
+		boolean descend = true; // true if the next step is to begin a new expression
+		boolean fresh = false; // true if the top frame has just been pushed and there is no result for it
+		while (true) {
+			if (descend) {
+				descend = false;
+				result = null;
+				if (!isLP()) {
+					ILexToken token = getToken();
+					if (token instanceof IExpr && !(token instanceof SMTExpr.Error)) result = variable((IExpr)token);
+					else if (!(token instanceof SMTExpr.Error)) error("Expected an expression here",token.pos());
+				} else {
+					ILexToken lp = getToken();
+					IQualifiedIdentifier head;
+					if (!isLP()) {
+						head = parseSymbolOrReservedWord("Expected an identifier or reserved word here, not a #");
+					} else {
+						head = parseQualifiedIdentifier();
+					}
+					String s = head instanceof ISymbol ? ((ISymbol)head).value() : null; // in particular we want reserved words here
+					if (head == null) {
+						skipThruRP();
+					} else if (Utils.FORALL.equals(s) || Utils.EXISTS.equals(s)) {
+						List<IDeclaration> decls = parseDeclarations();
+						if (decls == null) {
+							skipThruRP();
+						} else {
+							ExprFrame f = new ExprFrame(QUANTIFIER,lp,head);
+							f.decls = decls;
+							f.scoped = true;
+							f.saved = bound;
+							beginScope(decls);
+							stack.add(f);
+							descend = true;
+						}
+					} else if (Utils.LET.equals(s)) {
+						ExprFrame f = new ExprFrame(LET,lp,head);
+						f.bindingsLp = parseLP();
+						if (f.bindingsLp == null) {
+							skipThruRP();
+						} else {
+							f.bindings = new LinkedList<IBinding>();
+							f.names = new HashSet<ISymbol>();
+							stack.add(f);
+							fresh = true;
+						}
+					} else if (Utils.AS.equals(s)) {
+						result = parseAsIdentifierRest(lp);
+					} else if (Utils.UNDERSCORE.equals(s)) {
+						result = parseIdentifierRest(lp,false);
+					} else if (Utils.NAMED_EXPR.equals(s)) {
+						stack.add(new ExprFrame(NAMED,lp,head));
+						descend = true;
+					} else {
+						ExprFrame f = new ExprFrame(APPLICATION,lp,head);
+						f.args = new LinkedList<IExpr>();
+						stack.add(f);
+						fresh = true;
+					}
+				}
+				if (descend) continue;
+			}
+			if (stack.isEmpty()) return result;
+			
+			// Give the result to the top frame (unless it is fresh) and continue parsing it, until
+			// either it needs a subexpression (descend is set) or it is complete (done is set, with
+			// its value in result)
+			ExprFrame f = stack.get(stack.size()-1);
+			boolean done = false;
+			ILexToken rp;
+			switch (f.kind) {
+				case APPLICATION:
+					if (!fresh) {
+						if (result != null) f.args.add(result);
+						else f.anyErrors = true;
+					}
+					result = null;
+					if (!isRP()) {
+						if (isEOD()) {
+							error("Unexpected end of data while parsing a sequence of expressions",pos(f.lp.pos().charStart(),currentPos()));
+							done = true;
+						} else {
+							descend = true;
+						}
+					} else {
+						done = true;
+						if (f.anyErrors) { skipThruRP(); break; }
+						rp = parseRP();
+						if (rp == null) { skipThruRP(); break; }
+						if (f.args.size() == 0) {
+							error("A function expression must have at least one argument",pos(f.lp.pos(),rp.pos()));
+							break;
+						}
+						result = position(smtConfig.exprFactory.fcn(f.head,f.args), pos(f.lp.pos(), rp.pos()));
+					}
+					break;
+					
+				case QUANTIFIER:
+					done = true;
+					rp = result == null ? null : parseRP();
+					if (rp == null) { skipThruRP(); result = null; break; }
+					if (Utils.FORALL.equals(((ISymbol)f.head).value())) {
+						result = setPos(smtConfig.exprFactory.forall(f.decls, result), pos(f.lp.pos(), rp.pos()));
+					} else {
+						result = setPos(smtConfig.exprFactory.exists(f.decls, result), pos(f.lp.pos(), rp.pos()));
+					}
+					break;
+					
+				case NAMED: {
+					done = true;
+					IExpr expr = result instanceof IExpr.IError ? null : result;
+					result = null;
+					List<IAttribute<?>> list = parseAttributeSequence();
+					if (list == null) { skipThruRP(); break; }
+					rp = parseRP();
+					if (rp == null) { skipThruRP(); break; }
+					result = position(smtConfig.exprFactory.attributedExpr(expr,list),pos(f.lp.pos(), rp.pos()));
+					break;
+				}
+					
+				case LET:
+					// In the comments, 'fails' means that the corresponding recursive method returns null
+					if (f.state == BODY) {
+						done = true;
+						rp = result == null ? null : parseRP();
+						if (rp == null) { skipThruRP(); result = null; break; }
+						result = setPos(smtConfig.exprFactory.let(f.bindings, result), pos(f.lp.pos(), rp.pos()));
+						break;
+					}
+					if (f.state == BINDING_EXPR) {
+						rp = result == null ? null : parseRP();
+						if (rp == null) {
+							// parseBinding fails, so parseBindings and then parseExpr skip and fail
+							skipThruRP();
+							skipThruRP();
+							result = null;
+							done = true;
+							break;
+						}
+						IBinding binding = setPos(smtConfig.exprFactory.binding(f.bindingSym,result), pos(f.bindingLp.pos(), rp.pos()));
+						result = null;
+						f.bindings.add(binding);
+						if (!f.names.add(binding.parameter())) {
+							// parseBindings fails
+							error("Parameter list has a duplicate name: " + smtConfig.defaultPrinter.toString(binding.parameter()),binding.parameter().pos());
+							skipThruRP();
+							done = true;
+							break;
+						}
+						f.state = BINDINGS;
+					}
+					// The loop in parseBindings
+					if (!isRP()) {
+						if (isEOD()) {
+							// parseBindings fails
+							error("Unexpected end of data while parsing a sequence of parameter bindings",pos(f.bindingsLp.pos().charStart(),currentPos()));
+							skipThruRP();
+							done = true;
+						} else {
+							// The beginning of parseBinding
+							f.bindingLp = parseLP();
+							f.bindingSym = f.bindingLp == null ?  null : parseSymbol();
+							if (f.bindingSym == null) {
+								skipThruRP();
+								skipThruRP();
+								done = true;
+							} else {
+								f.state = BINDING_EXPR;
+								descend = true;
+							}
+						}
+					} else {
+						rp = parseRP();
+						if (rp == null) {
+							skipThruRP();
+							skipThruRP();
+							done = true;
+						} else {
+							f.state = BODY;
+							f.scoped = true;
+							f.saved = bound;
+							beginScope(f.bindings);
+							descend = true;
+						}
+					}
+					break;
+			}
+			fresh = false;
+			if (done) {
+				stack.remove(stack.size()-1);
+				if (f.scoped) bound = f.saved;
+			}
+		}
 	}
 	
 	/** Parses a parenthesized sequence of IDeclaration items, returning null with error messages if an error occurs */
@@ -741,7 +1088,7 @@ public class Parser extends Lexer implements IParser {
 				if (head == null) { 
 					return null; 
 				} else if (head.toString().equals("_")) {
-					IIdentifier id = parseIdentifierRest(lp);
+					IIdentifier id = parseIdentifierRest(lp,true);
 					if (id == null) { return null; }
 					return setPos(new Sort.Application(id),id.pos());
 				}
@@ -753,7 +1100,7 @@ public class Parser extends Lexer implements IParser {
 				if (rp == null) { skipThruRP(); return null; }
 				return setPos(new Sort.Application(head,list),pos(lp.pos(),rp.pos()));
 			} else {
-				IIdentifier id = parseIdentifier();
+				IIdentifier id = parseIdentifier(true);
 				if (id == null) { skipThruRP(); return null; }
 				List<ISort> list = parseSortList(parameters);
 				if (list == null) { skipThruRP(); return null; }
@@ -824,17 +1171,17 @@ public class Parser extends Lexer implements IParser {
 		Keyword keyword = parseKeyword();
 		if (keyword == null) return null;
 		if (isRP() || isEOD()) {
-			return setPos(smtConfig.exprFactory.attribute(keyword),keyword.pos());
+			return position(smtConfig.exprFactory.attribute(keyword),keyword.pos());
 		}
 		ILexToken n = peekToken();
 		if (n instanceof IKeyword) {
-			return setPos(smtConfig.exprFactory.attribute(keyword),keyword.pos());
+			return position(smtConfig.exprFactory.attribute(keyword),keyword.pos());
 		} else {
 			if (!isLP()) {
 				ILexToken t = getToken();
 				if (t instanceof IAttributeValue) {
 					IAttributeValue v = (IAttributeValue)t;
-					return setPos(smtConfig.exprFactory.attribute(keyword,v),pos(keyword.pos(),v.pos()));
+					return position(smtConfig.exprFactory.attribute(keyword,v),pos(keyword.pos(),v.pos()));
 				} else {
 					smtConfig.log.logError(smtConfig.responseFactory.error("The value for the keyword " + 
 							smtConfig.defaultPrinter.toString(keyword) + " is not a legal attribute value"));
@@ -843,7 +1190,7 @@ public class Parser extends Lexer implements IParser {
 			} else {
 				ISexpr value = parseSexpr();
 				if (value == null) return null;
-				return setPos(smtConfig.exprFactory.attribute(keyword,value),pos(keyword.pos(),value.pos()));
+				return position(smtConfig.exprFactory.attribute(keyword,value),pos(keyword.pos(),value.pos()));
 			}
 		}
 	}
@@ -113,6 +113,12 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 		}
 	}
 
+	/** Writes the given expression to the given writer, with each repeated subterm written
+	 * only once, bound by a let (see LetHoister); the factory is used to create the lets */
+	static public void writeHoisted(Writer w, IExpr e, IExpr.IFactory factory) throws IVisitor.VisitorException {
+		write(w, new LetHoister(factory).hoist(e));
+	}
+
 	/*@Nullable*/
 	@Override
 	public Void visit(INumeral e) throws IVisitor.VisitorException {
@@ -0,0 +1,199 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.sexpr;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.smtlib.CharSequenceInfinite;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+
+/** Parses the text of one response from a solver into an IResponse in a single left-to-right
+ * pass over the characters, using the table-driven scanner of the Lexer for the tokens.
+ * Sequences are built on an explicit stack, so that deeply nested values (e.g. in large models)
+ * do not exhaust the Java stack.
+ * <P>
+ * Solvers that do not quite use the standard concrete syntax override the dialect hooks:
+ * dialectToken to recognize non-standard tokens and errorMessage to adjust the text of errors.
+ * A response consisting of one or more (error "...") S-expressions is reported as a single
+ * error whose message joins the individual messages with "; ".
+ * <P>
+ * An adapter keeps one parser and gives it each response in turn (parse(CharSequence)); the
+ * parser scans the text as it is, and no lexer or regular-expression Matcher is created per response.
+ */
+public class ResponseParser extends Lexer {
+
+	/** The configuration whose factories create the responses */
+	final protected SMT.Configuration smtConfig;
+
+	/** The characters of the response being parsed */
+	protected CharSequence cs = "";
+
+	/** The source given to the positions of the response being parsed */
+	protected ISource src = new Pos.Source(cs,null);
+
+	/** Creates a parser to which responses are given by parse(CharSequence) */
+	public ResponseParser(SMT.Configuration smtConfig) {
+		super(smtConfig,null);
+		this.smtConfig = smtConfig;
+	}
+
+	/** Creates a parser for the given response text; the text is not copied */
+	public ResponseParser(SMT.Configuration smtConfig, CharSequence response) {
+		this(smtConfig);
+		this.cs = response;
+		this.src = new Pos.Source(response,null);
+	}
+
+	/** Creates a position within the response being parsed */
+	@Override
+	public IPos pos(int start, int end) {
+		return new Pos(start,end,src);
+	}
+
+	/** Dialect hook: returns a token for non-standard syntax beginning at position p of cs,
+	 * setting scanEnd to the position after it, or returns null if the standard tokens apply.
+	 * The default recognizes nothing. */
+	protected /*@Nullable*/ ISexpr dialectToken(CharSequence cs, int p) {
+		return null;
+	}
+
+	/** Dialect hook: returns the message to report for an (error "msg") response; the default
+	 * returns the message unchanged. */
+	protected String errorMessage(String msg) {
+		return msg;
+	}
+
+	/** Recognizes an old-style bit-vector literal, such as bv5[4], beginning at position p,
+	 * returning the equivalent binary literal (#b0101), or null if there is none at p; for use by
+	 * dialects whose solvers still produce such literals. */
+	protected /*@Nullable*/ ISexpr oldBitVector(CharSequence cs, int p) {
+		int n = cs.length();
+		if (p+2 >= n || cs.charAt(p) != 'b' || cs.charAt(p+1) != 'v') return null;
+		int v = p+2;
+		int q = v;
+		while (q < n && Character.isDigit(cs.charAt(q))) ++q;
+		if (q == v || q >= n || cs.charAt(q) != '[') return null;
+		int w = q+1;
+		int e = w;
+		while (e < n && Character.isDigit(cs.charAt(e))) ++e;
+		if (e == w || e >= n || cs.charAt(e) != ']') return null;
+		BigInteger value = new BigInteger(cs.subSequence(v,q).toString());
+		int width = Integer.parseInt(cs.subSequence(w,e).toString());
+		StringBuilder bits = new StringBuilder(width);
+		for (int i = width-1; i >= 0; --i) bits.append(value.testBit(i) ? '1' : '0');
+		scanEnd = e+1;
+		ISexpr token = token('B',bits.toString());
+		token.setPos(pos(p,scanEnd));
+		return token;
+	}
+
+	/** Parses the given response text (which is not copied), in place of the previous one
+	 * @throws ParserException if the parentheses are not balanced
+	 */
+	synchronized public IResponse parse(CharSequence response) throws ParserException {
+		cs = response;
+		src = new Pos.Source(response,null);
+		return parse();
+	}
+
+	/** Parses the whole response; a response with no S-expressions is the empty response.
+	 * @throws ParserException if the parentheses are not balanced
+	 */
+	public IResponse parse() throws ParserException {
+		List<ISexpr> items = new ArrayList<ISexpr>();
+		List<Sexpr.Seq> seqs = new ArrayList<Sexpr.Seq>();
+		List<Integer> lps = new ArrayList<Integer>();
+		int n = cs.length();
+		int p = 0;
+		while (true) {
+			// Whitespace and comments
+			char c = 0;
+			while (p < n) {
+				c = cs.charAt(p);
+				if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == '\u000B') {
+					++p;
+				} else if (c == ';') {
+					while (++p < n && (c = cs.charAt(p)) != '\n' && c != '\r') {}
+				} else {
+					break;
+				}
+			}
+			if (p >= n || c == CharSequenceInfinite.endChar || c == '\u0004') break;
+			int top = seqs.size()-1;
+			ISexpr sexpr;
+			if (c == '(') {
+				seqs.add(new Sexpr.Seq());
+				lps.add(p++);
+				continue;
+			} else if (c == ')') {
+				if (top < 0) throw new ParserException("Unexpected right parenthesis",pos(p,p+1));
+				sexpr = seqs.remove(top);
+				sexpr.setPos(pos(lps.remove(top),++p));
+				--top;
+			} else {
+				sexpr = dialectToken(cs,p);
+				if (sexpr == null) sexpr = (ISexpr)scanToken(cs,p);
+				p = scanEnd;
+			}
+			if (top >= 0) seqs.get(top).sexprs().add(sexpr);
+			else items.add(sexpr);
+		}
+		if (!seqs.isEmpty()) {
+			int lp = lps.get(0);
+			throw new ParserException("Unbalanced parentheses at end of input",pos(lp,lp+1));
+		}
+		return response(items);
+	}
+
+	/** Converts the top-level S-expressions of a response into the response itself */
+	protected IResponse response(List<ISexpr> items) {
+		IResponse.IFactory f = smtConfig.responseFactory;
+		if (items.isEmpty()) return f.empty();
+		StringBuilder errors = null;
+		for (ISexpr item: items) {
+			String msg = errorText(item);
+			if (msg == null) continue;
+			if (errors == null) errors = new StringBuilder();
+			else errors.append("; ");
+			errors.append(errorMessage(msg));
+		}
+		if (errors != null) return f.error(errors.toString());
+		ISexpr sexpr = items.get(0);
+		if (sexpr instanceof ISexpr.ISeq) {
+			List<ISexpr> list = ((ISexpr.ISeq)sexpr).sexprs();
+			if (list.size() >= 2 && list.get(0) instanceof IKeyword) {
+				return f.get_info_response(smtConfig.exprFactory.attribute((IKeyword)list.get(0),list.get(1)));
+			}
+		} else if (items.size() == 1 && sexpr instanceof ISexpr.IToken<?>) {
+			String s = sexpr.toString();
+			if ("success".equals(s)) return f.success();
+			if ("sat".equals(s)) return f.sat();
+			if ("unsat".equals(s)) return f.unsat();
+			if ("unknown".equals(s)) return f.unknown();
+			if ("unsupported".equals(s)) return f.unsupported();
+			if ("true".equals(s)) return smtConfig.exprFactory.symbol("true");
+			if ("false".equals(s)) return smtConfig.exprFactory.symbol("false");
+		}
+		return sexpr;
+	}
+
+	/** Returns the message of an (error "msg") S-expression, or null if the argument is not one */
+	protected /*@Nullable*/ String errorText(ISexpr sexpr) {
+		if (!(sexpr instanceof ISexpr.ISeq)) return null;
+		List<ISexpr> list = ((ISexpr.ISeq)sexpr).sexprs();
+		if (list.size() != 2 || !(list.get(1) instanceof IStringLiteral)) return null;
+		if (!"error".equals(list.get(0).toString())) return null;
+		return ((IStringLiteral)list.get(1)).value();
+	}
+}
@@ -100,6 +100,12 @@ public class Utils extends org.smtlib.Utils {
 		smtConfig.defaultPrinter = new Printer(new StringWriter());
 	}
 	
+	/** Returns the logic from the snapshot bundled in the jar (cf. LogicSnapshots), if it is there */
+	@Override
+	protected /*@Nullable*/SymbolTable.Layer precompiledLogic(String logicName) {
+		return LogicSnapshots.bundled(smtConfig, logicName);
+	}
+	
 	/** This version of loadLogic loads a logic as defined in the logicExpr expression, if it is a valid definition
 	 * of a logic.
 	 * @param logicExpr the ILogic object to check and load
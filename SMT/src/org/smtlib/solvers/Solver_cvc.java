@@ -91,9 +91,9 @@ public class Solver_cvc extends Solver_test implements ISolver {
 
 
 	@Override
-	public IResponse assertExpr(IExpr sexpr) {
+	protected IResponse assertChecked(IExpr sexpr) {
 		try {
-			IResponse status = super.assertExpr(sexpr);
+			IResponse status = super.assertChecked(sexpr);
 			if (!status.isOK()) return status;
 			String translated = translate(sexpr);
 			String response = solverProcess.sendAndListen("ASSERT " + translated + " ;\n");
@@ -14,11 +14,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -32,6 +34,7 @@ import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
 import org.smtlib.impl.Pos;
 import org.smtlib.impl.Response;
+import org.smtlib.sexpr.ResponseParser;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into SMT commands */
 public class Solver_cvc4 extends AbstractSolver implements ISolver {
@@ -43,6 +46,9 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	@Override
 	public SMT.Configuration smt() { return smtConfig; }
 	
+	@Override
+	public SolverProcess process() { return solverProcess; }
+	
 	/** The command-line arguments for launching the solver */
 	protected String cmds[];
 	protected String cmds_win[] = new String[]{ "", "--smtlib-strict","--interactive","--no-full-saturate-quant"}; 
@@ -55,6 +61,9 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	/** The parser that parses responses from the solver */
 	protected org.smtlib.sexpr.Parser responseParser;
 	
+	/** The parser that parses the S-expression responses from the solver, given each one in turn */
+	protected ResponseParser responses;
+	
 	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
 	private /*@Nullable*/ IResponse checkSatStatus = null;
 	
@@ -90,11 +99,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		solverProcess = new SolverProcess(cmds,prompt,smtConfig.logfile) {
 			
 			@Override
-			public String listen() throws IOException {
-				// FIXME - need to put the two reads in parallel, otherwise one might block on a full buffer, preventing the other from completing
-				String err = listenThru(errors,null);
-				String out = listenThru(fromProcess,endMarker);
-				err = err + listenThru(errors,null);
+			protected String response(String out, String err) throws IOException {
 				if (out.endsWith(endMarker)) out = out.substring(0,out.length()-endMarker.length());
 				if (log != null) {
 					if (!out.isEmpty()) { log.write(";OUT: "); log.write(out); log.write(eol); log.flush(); } // input usually ends with a prompt and no line terminator
@@ -102,8 +107,11 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 				}
 				return err.isEmpty() ? out : err;
 			}};
+		solverProcess.pool = smtConfig.solverPool;
+		solverProcess.keepTranscript = smtConfig.timeout > 0;
 
 		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responses = new ResponseParser(smtConfig);
 	}
 	
 //	public Solver_cvc4(SMT.Configuration smtConfig, /*@NonNull*/ String[] executable) {
@@ -140,15 +148,25 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		return sw.toString();
 	}
 	
+	/** Returns the SMT translation of the argument as text that is written straight to the solver */
+	protected SolverProcess.Text text(final IAccept sexpr) {
+		return new SolverProcess.Text() {
+			@Override
+			public void write(Writer w) throws IOException {
+				try {
+					sexpr.accept(new org.smtlib.solvers.Printer(w));
+				} catch (IVisitor.VisitorException e) {
+					throw new IOException(e.getMessage(),e);
+				}
+			}
+		};
+	}
+	
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			return parseResponse(solverProcess.sendAndListen(text(cmd),"\n"));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + smtConfig.defaultPrinter.toString(cmd) + " " + e);
 		}
 	}
 	
@@ -160,6 +178,26 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		}
 	}
 	
+	/** Sends a query, waiting for the response no longer than the deadline (see AbstractSolver.query) */
+	public IResponse sendQuery(String cmd) {
+		try {
+			return parseResponse(query(solverProcess,cmd,"\n"));
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The CVC4 solver did not respond to " + cmd + " in time");
+		}
+	}
+	
+	/** Sends a command that responds with success; in pipelined mode, without waiting for the response */
+	protected IResponse sendChecked(ICommand cmd, String name) {
+		try {
+			return sendChecked(solverProcess,name,pos(cmd),text(cmd),"\n");
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Error writing to solver: " + smtConfig.defaultPrinter.toString(cmd) + " " + e);
+		}
+	}
+	
 	protected IResponse parseResponse(String response) {
 		try {
 		    int k = response.indexOf('\n');
@@ -173,8 +211,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 				// arithmetic. We will not pass this along.
 				return smtConfig.responseFactory.success();
 			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
-			return responseParser.parseResponse(response);
+			return responses.parse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
 		}
@@ -182,7 +219,10 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse exit() {
-			IResponse response = sendCommand("(exit)");
+			IResponse err = flush();
+			// A process from a pool is given back to it, not stopped
+			IResponse response = solverProcess.pool == null ? sendCommand("(exit)") : successOrEmpty(smtConfig);
+			if (err.isError()) response = err;
 			solverProcess.exit();
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended SMT ");
 			solverProcess = null;
@@ -192,9 +232,10 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
 		try {
-			return sendCommand("(assert " + translate(sexpr) + ")");
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
+			IPos pos = sexpr.pos();
+			sexpr = Simplifier.asserted(smtConfig,sexpr,null);
+			if (sexpr == null) return smtConfig.responseFactory.success();
+			return sendChecked(solverProcess,"assert",pos,"(assert ",text(sexpr),")\n");
 		} catch (Exception e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		}
@@ -205,6 +246,8 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		// FIXME - do we really want to call get-option here? it involves going to the solver?
 		
 		// FIXME - try sendCOmmand
+		IResponse err = flush("get-assertions");
+		if (err.isError()) return err;
 		try {
 			StringBuilder sb = new StringBuilder();
 			String s;
@@ -245,10 +288,19 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse check_sat() {
-		IResponse res;
+		IResponse res = flush("check-sat");
+		if (res.isError()) return res;
 		try {
 			// Try sendCommand
-			String s = solverProcess.sendAndListen("(check-sat)\n");
+			timedOut = false;
+			String s;
+			try {
+				s = query(solverProcess,"(check-sat)\n");
+			} catch (TimeoutException e) {
+				timedOut = true;
+				checkSatStatus = smtConfig.responseFactory.unknown();
+				return checkSatStatus;
+			}
 			//smtConfig.log.logDiag("HEARD: " + s);  // FIXME - detect errors - parseResponse?
 			
 //			if (s.contains("unsat")) res = smtConfig.responseFactory.unsat();
@@ -266,12 +318,18 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse pop(int number) {
-	    return sendCommand("(pop " + number + ")");
+		IResponse r = sendCommand("(pop " + number + ")");
+		if (!r.isError()) solverProcess.popped(number);
+		return r;
 	}
 
 	@Override
 	public IResponse push(int number) {
-		return sendCommand("(push " + number + ")");
+		solverProcess.pushing(number);
+		IResponse r = sendCommand("(push " + number + ")");
+		// A push that failed had no effect
+		if (r.isError()) solverProcess.popped(number);
+		return r;
 	}
 
 	@Override
@@ -347,7 +405,9 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse get_option(IKeyword key) {
 		if (printSuccess.equals(key)) return smtConfig.nosuccess ? Utils.FALSE : Utils.TRUE;
-		IResponse resp = sendCommand(new org.smtlib.command.C_get_option(key));
+		IResponse resp = flush("get-option");
+		if (resp.isError()) return resp;
+		resp = sendCommand(new org.smtlib.command.C_get_option(key));
 		if (resp instanceof Response.Seq) {
 			// FIXME - this is an adjustment for CVC4's non-standard behavior
 			IAttributeValue v = ((Response.Seq)resp).attributes().get(0).attrValue();
@@ -385,6 +445,9 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse get_info(IKeyword key) {
+		if (timedOut && Utils.REASON_UNKNOWN.equals(key)) return timeoutReason(key);
+		IResponse err = flush("get-info");
+		if (err.isError()) return err;
 		return sendCommand(new org.smtlib.command.C_get_info(key));
 	}
 	
@@ -400,55 +463,66 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse declare_fun(Ideclare_fun cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"declare-fun");
 	}
 
 	@Override
 	public IResponse define_fun(Idefine_fun cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"define-fun");
 	}
 
 	@Override
 	public IResponse declare_sort(Ideclare_sort cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"declare-sort");
 	}
 
 	@Override
 	public IResponse define_sort(Idefine_sort cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"define-sort");
 	}
 	
 	@Override 
 	public IResponse get_proof() {
-		return sendCommand("(get-proof)");
+		IResponse err = flush("get-proof");
+		if (err.isError()) return err;
+		return sendQuery("(get-proof)");
 	}
 
 	@Override 
 	public IResponse get_unsat_core() {
-		return sendCommand("(get-unsat-core)");
+		IResponse err = flush("get-unsat-core");
+		if (err.isError()) return err;
+		return sendQuery("(get-unsat-core)");
 	}
 
 	@Override 
 	public IResponse get_assignment() {
-		return sendCommand("(get-assignment)");
+		IResponse err = flush("get-assignment");
+		if (err.isError()) return err;
+		return sendQuery("(get-assignment)");
 	}
 
 	@Override 
 	public IResponse get_value(IExpr... terms) {
 		// Try passing in command FIXME
 		//return sendCommand(new org.smtlib.command.C_get_value(terms));
+		IResponse err = flush("get-value");
+		if (err.isError()) return err;
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			StringBuilder sb = new StringBuilder("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
+				sb.append(" ").append(translate(e));
 			}
-			String r = solverProcess.sendAndListen("))\n");
+			sb.append("))\n");
+			String r = query(solverProcess,sb.toString());
 			IResponse response = parseResponse(r);
 			return response;
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to solver: " + e);
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Error writing to solver: " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The CVC4 solver did not respond to get-value in time");
 		}
 	}
 
@@ -0,0 +1,337 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ */
+package org.smtlib.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.smtlib.AbstractSolver;
+import org.smtlib.ICommand;
+import org.smtlib.ICommand.Ideclare_const;
+import org.smtlib.ICommand.Ideclare_fun;
+import org.smtlib.ICommand.Ideclare_sort;
+import org.smtlib.ICommand.Idefine_fun;
+import org.smtlib.ICommand.Idefine_sort;
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAttributeValue;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.SMT;
+import org.smtlib.SolverProcess;
+import org.smtlib.command.C_assert;
+import org.smtlib.command.C_check_sat;
+import org.smtlib.command.C_echo;
+import org.smtlib.command.C_exit;
+import org.smtlib.command.C_get_assertions;
+import org.smtlib.command.C_get_assignment;
+import org.smtlib.command.C_get_info;
+import org.smtlib.command.C_get_model;
+import org.smtlib.command.C_get_option;
+import org.smtlib.command.C_get_proof;
+import org.smtlib.command.C_get_unsat_core;
+import org.smtlib.command.C_get_value;
+import org.smtlib.command.C_pop;
+import org.smtlib.command.C_push;
+import org.smtlib.command.C_reset;
+import org.smtlib.command.C_reset_assertions;
+import org.smtlib.command.C_set_info;
+import org.smtlib.command.C_set_logic;
+import org.smtlib.command.C_set_option;
+
+/** This class runs several solvers (the backends) as a portfolio. Every command that changes the
+ * state of a solver is given to all of them; a check-sat is run on all of them at once and is
+ * answered by the first to respond sat or unsat (the winner), and the commands that ask about the
+ * result (get-value, get-model, etc.) are answered by the winner. The other backends are left to
+ * finish their check-sat while the winner answers such commands; only when a command for all of
+ * them arrives is a check-sat still running interrupted (see AbstractSolver.interrupt), which
+ * restarts that backend's process and sends it its declarations and assertions again. Each
+ * backend executes its commands in order on its own thread (see ISolver.submit).
+ * <P>
+ * A portfolio is selected with a solver name such as portfolio:z3_4_3,cvc4,yices2.
+ */
+public class Solver_portfolio extends AbstractSolver implements ISolver {
+
+	/** The prefix of a solver name that designates a portfolio of the solvers listed after it */
+	static final public String PREFIX = "portfolio:";
+
+	/** A reference to the SMT configuration */
+	protected SMT.Configuration smtConfig;
+
+	/** The names of the backends, for error messages */
+	final protected List<String> names;
+
+	/** The solvers in the portfolio */
+	final protected List<ISolver> backends;
+
+	/** For each backend, the number of check-sats given to it that have not finished (and so may be interrupted) */
+	final protected int[] checking;
+
+	/** The index of the backend whose response to the last check-sat was returned; it answers the
+	 * commands that ask about the result */
+	protected int lead = 0;
+
+	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
+	protected /*@Nullable*/ IResponse checkSatStatus = null;
+
+	/** Creates a portfolio of the given solvers, which have not been started */
+	public Solver_portfolio(SMT.Configuration smtConfig, List<String> names, List<ISolver> backends) {
+		this.smtConfig = smtConfig;
+		this.names = names;
+		this.backends = backends;
+		this.checking = new int[backends.size()];
+	}
+
+	/** A reference to the SMT configuration */
+	@Override
+	public SMT.Configuration smt() { return smtConfig; }
+
+	@Override
+	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
+
+	/** Waits for the response of the backend with the given index */
+	protected IResponse get(Future<IResponse> response, int i) {
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return smtConfig.responseFactory.error("Interrupted while waiting for " + names.get(i));
+		} catch (ExecutionException e) {
+			return smtConfig.responseFactory.error(names.get(i) + " failed: " + e.getCause());
+		}
+	}
+
+	/** Interrupts the check-sat of each backend that is still running one, so that it goes on to
+	 * the next command; if replay is false, the backend's process is not brought back to its state,
+	 * as it is only to exit */
+	protected void settle(boolean replay) {
+		synchronized (checking) {
+			for (int i = 0; i < checking.length; i++) {
+				if (checking[i] == 0 || !(backends.get(i) instanceof AbstractSolver)) continue;
+				AbstractSolver s = (AbstractSolver)backends.get(i);
+				SolverProcess p = s.process();
+				if (!replay && p != null) p.clearTranscript();
+				s.interrupt();
+			}
+		}
+	}
+
+	/** Gives the command to every backend and waits for all of them to execute it; returns the
+	 * first error, if any, and otherwise the response of the first backend */
+	protected IResponse all(ICommand command) {
+		settle(!(command instanceof C_exit));
+		List<Future<IResponse>> responses = new ArrayList<Future<IResponse>>(backends.size());
+		for (ISolver s: backends) responses.add(s.submit(command));
+		IResponse result = null;
+		for (int i = 0; i < responses.size(); i++) {
+			IResponse r = get(responses.get(i),i);
+			if (result == null || (r.isError() && !result.isError())) result = r;
+		}
+		return result;
+	}
+
+	/** Gives the command to the lead backend only */
+	protected IResponse lead(ICommand command) {
+		return get(backends.get(lead).submit(command),lead);
+	}
+
+	@Override
+	public IResponse start() {
+		for (int i = 0; i < backends.size(); i++) {
+			ISolver s = backends.get(i);
+			// An interrupted check-sat restarts the solver process, which must then be brought back to its state
+			SolverProcess p = s instanceof AbstractSolver ? ((AbstractSolver)s).process() : null;
+			if (p != null) p.keepTranscript = true;
+			IResponse r = s.start();
+			if (r.isError()) return smtConfig.responseFactory.error(names.get(i) + ": " + ((IResponse.IError)r).errorMsg());
+		}
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Started portfolio " + names);
+		return smtConfig.responseFactory.success();
+	}
+
+	@Override
+	public IResponse exit() {
+		IResponse r = all(new C_exit());
+		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended portfolio ");
+		return r;
+	}
+
+	@Override
+	public IResponse echo(IStringLiteral arg) {
+		return lead(new C_echo(arg));
+	}
+
+	@Override
+	public IResponse set_logic(String logicName, /*@Nullable*/ IPos pos) {
+		ISymbol logic = smtConfig.exprFactory.symbol(logicName);
+		logic.setPos(pos);
+		return all(new C_set_logic(logic));
+	}
+
+	@Override
+	public IResponse reset() {
+		checkSatStatus = null;
+		lead = 0;
+		return all(new C_reset());
+	}
+
+	@Override
+	public IResponse reset_assertions() {
+		checkSatStatus = null;
+		return all(new C_reset_assertions());
+	}
+
+	@Override
+	public IResponse push(int number) {
+		return all(new C_push(smtConfig.exprFactory.numeral(number)));
+	}
+
+	@Override
+	public IResponse pop(int number) {
+		checkSatStatus = null;
+		return all(new C_pop(smtConfig.exprFactory.numeral(number)));
+	}
+
+	@Override
+	public IResponse assertExpr(IExpr expr) {
+		checkSatStatus = null;
+		return all(new C_assert(expr));
+	}
+
+	/** Runs check-sat on all the backends at once, returning the first sat or unsat response; if
+	 * there is none, returns an unknown response if there is one, and otherwise an error. */
+	@Override
+	public IResponse check_sat() {
+		settle(true);
+		int n = backends.size();
+		final BlockingQueue<Integer> finished = new LinkedBlockingQueue<Integer>();
+		List<Future<IResponse>> responses = new ArrayList<Future<IResponse>>(n);
+		for (int i = 0; i < n; i++) {
+			final int k = i;
+			synchronized (checking) {
+				checking[k]++;
+			}
+			responses.add(backends.get(k).submit(new C_check_sat() {
+				@Override
+				public IResponse execute(ISolver solver) {
+					try {
+						return super.execute(solver);
+					} finally {
+						synchronized (checking) {
+							checking[k]--;
+							// An interrupt that came too late has nothing to interrupt
+							if (solver instanceof AbstractSolver) ((AbstractSolver)solver).clearInterrupt();
+						}
+						finished.add(k);
+					}
+				}
+			}));
+		}
+		IResponse result = null;
+		boolean definite = false;
+		for (int j = 0; j < n && !definite; j++) {
+			int k;
+			try {
+				k = finished.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			IResponse r = get(responses.get(k),k);
+			definite = smtConfig.responseFactory.sat().equals(r) || smtConfig.responseFactory.unsat().equals(r);
+			if (definite || result == null || (result.isError() && !r.isError())) {
+				result = r;
+				lead = k;
+			}
+		}
+		// The other backends are left to finish their check-sat (see settle())
+		if (result == null) result = smtConfig.responseFactory.error("The check-sat command was interrupted");
+		checkSatStatus = result;
+		return result;
+	}
+
+	@Override
+	public IResponse declare_const(Ideclare_const cmd) {
+		return all(cmd);
+	}
+
+	@Override
+	public IResponse declare_fun(Ideclare_fun cmd) {
+		return all(cmd);
+	}
+
+	@Override
+	public IResponse declare_sort(Ideclare_sort cmd) {
+		return all(cmd);
+	}
+
+	@Override
+	public IResponse define_fun(Idefine_fun cmd) {
+		return all(cmd);
+	}
+
+	@Override
+	public IResponse define_sort(Idefine_sort cmd) {
+		return all(cmd);
+	}
+
+	@Override
+	public IResponse set_option(IKeyword option, IAttributeValue value) {
+		return all(new C_set_option(option,value));
+	}
+
+	@Override
+	public IResponse set_info(IKeyword key, IAttributeValue value) {
+		return all(new C_set_info(key,value));
+	}
+
+	@Override
+	public IResponse get_assertions() {
+		return lead(new C_get_assertions());
+	}
+
+	@Override
+	public IResponse get_proof() {
+		return lead(new C_get_proof());
+	}
+
+	@Override
+	public IResponse get_model() {
+		return lead(new C_get_model());
+	}
+
+	@Override
+	public IResponse get_unsat_core() {
+		return lead(new C_get_unsat_core());
+	}
+
+	@Override
+	public IResponse get_value(IExpr... terms) {
+		return lead(new C_get_value(Arrays.asList(terms)));
+	}
+
+	@Override
+	public IResponse get_assignment() {
+		return lead(new C_get_assignment());
+	}
+
+	@Override
+	public IResponse get_option(IKeyword option) {
+		return lead(new C_get_option(option));
+	}
+
+	@Override
+	public IResponse get_info(IKeyword option) {
+		return lead(new C_get_info(option));
+	}
+}
@@ -101,8 +101,8 @@ public class Solver_simplify extends Solver_test implements ISolver {
 	}
 
 	@Override
-	public IResponse assertExpr(IExpr sexpr) {
-		IResponse res = super.assertExpr(sexpr);
+	protected IResponse assertChecked(IExpr sexpr) {
+		IResponse res = super.assertChecked(sexpr);
 		if (!res.isOK()) return res;
 		try {
 			String translatedSexpr = translate(sexpr);
@@ -14,12 +14,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeoutException;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -31,7 +31,9 @@ import org.smtlib.IExpr.IKeyword;
 import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ISexpr;
+import org.smtlib.sexpr.LetHoister;
+import org.smtlib.sexpr.ResponseParser;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into SMT commands */
 public class Solver_smt extends AbstractSolver implements ISolver {
@@ -43,14 +45,17 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override
 	public SMT.Configuration smt() { return smtConfig; }
 	
+	@Override
+	public SolverProcess process() { return solverProcess; }
+	
 	/** The command-line arguments for launching the solver */
 	String cmds[]; 
 
 	/** The object that interacts with external processes */
 	protected SolverProcess solverProcess;
 	
-	/** The parser that parses responses from the solver */
-	protected org.smtlib.sexpr.Parser responseParser;
+	/** The parser that parses responses from the solver, given each response in turn */
+	protected ResponseParser responses;
 	
 	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
 	protected /*@Nullable*/ IResponse checkSatStatus = null;
@@ -69,13 +74,30 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	public Solver_smt(SMT.Configuration smtConfig, /*@NonNull*/ String executable) {
 		this.smtConfig = smtConfig;
 		solverProcess = new SolverProcess(cmd(executable),prompt(),smtConfig.logfile); // FIXME - what prompt?
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		solverProcess.pool = smtConfig.solverPool;
+		solverProcess.keepTranscript = smtConfig.timeout > 0;
+		responses = new Responses(smtConfig);
 	}
 	
 	public Solver_smt(SMT.Configuration smtConfig, /*@NonNull*/ String[] args) {
 		this.smtConfig = smtConfig;
 		solverProcess = new SolverProcess(args,prompt(),smtConfig.logfile); // FIXME - what prompt?
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		solverProcess.pool = smtConfig.solverPool;
+		solverProcess.keepTranscript = smtConfig.timeout > 0;
+		responses = new Responses(smtConfig);
+	}
+	
+	/** Parses the responses of the solver */
+	protected class Responses extends ResponseParser {
+		public Responses(SMT.Configuration smtConfig) {
+			super(smtConfig);
+		}
+		
+		// Some solvers still produce old-style bit-vector literals, e.g. bv5[4]
+		@Override
+		protected ISexpr dialectToken(CharSequence cs, int p) {
+			return oldBitVector(cs,p);
+		}
 	}
 	
 	public String[] cmd(String exec) {
@@ -114,15 +136,25 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		return sw.toString();
 	}
 	
+	/** Returns the SMT translation of the argument as text that is written straight to the solver */
+	protected SolverProcess.Text text(final IAccept sexpr) {
+		return new SolverProcess.Text() {
+			@Override
+			public void write(Writer w) throws IOException {
+				try {
+					sexpr.accept(new org.smtlib.solvers.Printer(w));
+				} catch (IVisitor.VisitorException e) {
+					throw new IOException(e.getMessage(),e);
+				}
+			}
+		};
+	}
+	
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			return parseResponse(solverProcess.sendAndListen(text(cmd),"\n"));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + smtConfig.defaultPrinter.toString(cmd) + " " + e);
 		}
 	}
 	
@@ -134,45 +166,41 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		}
 	}
 	
+	/** Sends a query, waiting for the response no longer than the deadline (see AbstractSolver.query) */
+	public IResponse sendQuery(String cmd) {
+		try {
+			return parseResponse(query(solverProcess,cmd,"\n"));
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The solver did not respond to " + cmd + " in time");
+		}
+	}
+	
+	/** Sends a command that responds with success; in pipelined mode, without waiting for the response */
+	protected IResponse sendChecked(ICommand cmd, String name) {
+		try {
+			return sendChecked(solverProcess,name,pos(cmd),text(cmd),"\n");
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Error writing to solver: " + smtConfig.defaultPrinter.toString(cmd) + " " + e);
+		}
+	}
+	
 	protected IResponse parseResponse(String response) {
 		try {
-			//FIXME
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
-			if (response.contains("error")) {
-				// returns an s-expr (always?)
-				// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
-				//Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Space}\\p{Print}^[\\\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)\\p{Space}*");
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
-				return smtConfig.responseFactory.error(response);
-			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
-			return responseParser.parseResponse(response);
+			return responses.parse(response);
 		} catch (ParserException e) {
+			if (response.contains("error")) return smtConfig.responseFactory.error(response);
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
 		}
 	}
 
 	@Override
 	public IResponse exit() {
-			IResponse response = sendCommand("(exit)");
+			IResponse err = flush();
+			// A process from a pool is given back to it, not stopped
+			IResponse response = solverProcess.pool == null ? sendCommand("(exit)") : successOrEmpty(smtConfig);
+			if (err.isError()) response = err;
 			solverProcess.exit();
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended SMT ");
 			solverProcess = null;
@@ -182,9 +210,11 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
 		try {
-			return sendCommand("(assert " + translate(sexpr) + ")");
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
+			IPos pos = sexpr.pos();
+			sexpr = Simplifier.asserted(smtConfig,sexpr,null);
+			if (sexpr == null) return smtConfig.responseFactory.success();
+			if (smtConfig.hoistShared) sexpr = new LetHoister(smtConfig.exprFactory).hoist(sexpr);
+			return sendChecked(solverProcess,"assert",pos,"(assert ",text(sexpr),")\n");
 		} catch (Exception e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		}
@@ -195,6 +225,8 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		// FIXME - do we really want to call get-option here? it involves going to the solver?
 		
 		// FIXME - try sendCOmmand
+		IResponse err = flush("get-assertions");
+		if (err.isError()) return err;
 		try {
 			StringBuilder sb = new StringBuilder();
 			String s;
@@ -235,10 +267,19 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse check_sat() {
-		IResponse res;
+		IResponse res = flush("check-sat");
+		if (res.isError()) return res;
 		try {
 			// Try sendCommand
-			String s = solverProcess.sendAndListen("(check-sat)\n");
+			timedOut = false;
+			String s;
+			try {
+				s = query(solverProcess,"(check-sat)\n");
+			} catch (TimeoutException e) {
+				timedOut = true;
+				checkSatStatus = smtConfig.responseFactory.unknown();
+				return checkSatStatus;
+			}
 			//smtConfig.log.logDiag("HEARD: " + s);  // FIXME - detect errors - parseResponse?
 			
 			if (s.contains("unsat")) res = smtConfig.responseFactory.unsat();
@@ -253,12 +294,18 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse pop(int number) {
-	    return sendCommand("(pop " + number + ")");
+		IResponse r = sendCommand("(pop " + number + ")");
+		if (!r.isError()) solverProcess.popped(number);
+		return r;
 	}
 
 	@Override
 	public IResponse push(int number) {
-		return sendCommand("(push " + number + ")");
+		solverProcess.pushing(number);
+		IResponse r = sendCommand("(push " + number + ")");
+		// A push that failed had no effect
+		if (r.isError()) solverProcess.popped(number);
+		return r;
 	}
 
 	@Override
@@ -325,11 +372,16 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse get_option(IKeyword key) {
+		IResponse err = flush("get-option");
+		if (err.isError()) return err;
 		return sendCommand(new org.smtlib.command.C_get_option(key));
 	}
 
 	@Override
 	public IResponse get_info(IKeyword key) {
+		if (timedOut && Utils.REASON_UNKNOWN.equals(key)) return timeoutReason(key);
+		IResponse err = flush("get-info");
+		if (err.isError()) return err;
 		return sendCommand(new org.smtlib.command.C_get_info(key));
 	}
 	
@@ -341,53 +393,64 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse declare_fun(Ideclare_fun cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"declare-fun");
 	}
 
 	@Override
 	public IResponse define_fun(Idefine_fun cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"define-fun");
 	}
 
 	@Override
 	public IResponse declare_sort(Ideclare_sort cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"declare-sort");
 	}
 
 	@Override
 	public IResponse define_sort(Idefine_sort cmd) {
-		return sendCommand(cmd);
+		return sendChecked(cmd,"define-sort");
 	}
 	
 	@Override 
 	public IResponse get_proof() {
-		return sendCommand("(get-proof)");
+		IResponse err = flush("get-proof");
+		if (err.isError()) return err;
+		return sendQuery("(get-proof)");
 	}
 
 	@Override 
 	public IResponse get_unsat_core() {
-		return sendCommand("(get-unsat-core)");
+		IResponse err = flush("get-unsat-core");
+		if (err.isError()) return err;
+		return sendQuery("(get-unsat-core)");
 	}
 
 	@Override 
 	public IResponse get_assignment() {
-		return sendCommand("(get-assignment)");
+		IResponse err = flush("get-assignment");
+		if (err.isError()) return err;
+		return sendQuery("(get-assignment)");
 	}
 
 	@Override 
 	public IResponse get_value(IExpr... terms) {
+		IResponse err = flush("get-value");
+		if (err.isError()) return err;
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			StringBuilder sb = new StringBuilder("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
+				sb.append(" ").append(translate(e));
 			}
-			String r = solverProcess.sendAndListen("))\n");
+			sb.append("))\n");
+			String r = query(solverProcess,sb.toString());
 			IResponse response = parseResponse(r);
 			return response;
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to solver: " + e);
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Error writing to solver: " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The solver did not respond to get-value in time");
 		}
 	}
 
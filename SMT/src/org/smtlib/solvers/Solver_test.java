@@ -8,6 +8,7 @@ package org.smtlib.solvers;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import org.smtlib.ICommand.Ideclare_const;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -59,9 +60,73 @@ public class Solver_test implements ISolver {
 	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
 
 	/** A map holding the sorts of subexpressions, used for distinguishing formulas and terms
-	 * for solvers for which that needs to be done.
+	 * for solvers for which that needs to be done.  It has one scope for each assertion set,
+	 * so that the sorts recorded while checking the assertions and definitions of an assertion
+	 * set are discarded when the assertion set is popped.
 	 */
-	protected Map<IExpr,ISort> typemap = new HashMap<IExpr,ISort>();
+	protected TypeMap typemap = new TypeMap();
+	
+	/** A map from expressions to their sorts, with a stack of scopes: each change made by put
+	 * is recorded in the top scope and undone when that scope is popped.
+	 */
+	static public class TypeMap extends HashMap<IExpr,ISort> {
+		private static final long serialVersionUID = 1L;
+		
+		/** Recorded as the previous value of a key that was not in the map */
+		static final private Object ABSENT = new Object();
+		
+		/** For each scope, from the bottom up, the keys changed in it, each followed by its previous
+		 * value; changes in the bottom scope are never undone, so its list stays empty */
+		final private List<List<Object>> trail = new ArrayList<List<Object>>();
+		
+		/** Creates an empty map with one scope */
+		public TypeMap() {
+			trail.add(new ArrayList<Object>());
+		}
+		
+		@Override
+		public /*@Nullable*/ ISort put(IExpr e, /*@Nullable*/ ISort s) {
+			boolean present = containsKey(e);
+			ISort previous = super.put(e,s);
+			if (trail.size() > 1 && (!present || previous != s)) {
+				List<Object> top = trail.get(trail.size()-1);
+				top.add(e);
+				top.add(present ? previous : ABSENT);
+			}
+			return previous;
+		}
+		
+		/** Adds a new empty scope */
+		public void push() {
+			trail.add(new ArrayList<Object>());
+		}
+		
+		/** Undoes the changes made in the top scope and removes it; the bottom scope is kept, with its changes */
+		public void pop() {
+			if (trail.size() == 1) return;
+			List<Object> top = trail.remove(trail.size()-1);
+			for (int i = top.size() - 2; i >= 0; i -= 2) {
+				IExpr e = (IExpr)top.get(i);
+				Object previous = top.get(i+1);
+				if (previous == ABSENT) super.remove(e);
+				else super.put(e,(ISort)previous);
+			}
+		}
+		
+		/** Removes the top scope, keeping its changes as part of the scope below */
+		public void merge() {
+			List<Object> top = trail.remove(trail.size()-1);
+			if (trail.size() > 1) trail.get(trail.size()-1).addAll(top);
+		}
+		
+		/** Removes all entries and all scopes but one */
+		@Override
+		public void clear() {
+			super.clear();
+			trail.clear();
+			trail.add(new ArrayList<Object>());
+		}
+	}
 	
 	/** The data structure that maintains the current values of options and info items for this solver. */
 	protected Map<String,IAttributeValue> options = new HashMap<String,IAttributeValue>();
@@ -121,6 +186,7 @@ public class Solver_test implements ISolver {
 		IResponse r = pop(assertionSetStack.size()-1);
 		// Remove assertions, but necessarily global declarations
 		assertionSetStack.get(0).clear();
+		typemap.clear();
 		if (!globalDeclarations) {
 			symTable.clear();
 			r = smtConfig.utils.loadLogic(logicSet,symTable,null);
@@ -145,15 +211,29 @@ public class Solver_test implements ISolver {
 		if (logicSet == null) {
 			return smtConfig.responseFactory.error("The logic must be set before an assert command is issued");
 		}
+		typemap.push();
 		List<IResponse> errs = TypeChecker.check(this.symTable,expr,typemap);
 		if (errs != null && !errs.isEmpty()) {
+			typemap.pop();
 			return errs.get(0); // FIXME - return all errors, not just the first
 		}
 		if (assertionSetStack.isEmpty()) {
+			typemap.pop();
 			return smtConfig.responseFactory.error("All assertion sets have been popped from the stack");
 		}
+		IExpr simplified = Simplifier.asserted(smtConfig,expr,typemap);
+		typemap.merge();
 		assertionSetStack.get(0).add(expr);
 		checkSatStatus = null;
+		if (simplified == null) return smtConfig.responseFactory.success();
+		return assertChecked(simplified);
+	}
+	
+	/** Gives an asserted formula, which has been type checked and recorded and, if the configuration
+	 * says so, simplified, to the underlying solver; subclasses that drive a solver override this
+	 * rather than assertExpr.  The formula is not called for if it simplified to 'true'.
+	 */
+	protected IResponse assertChecked(IExpr expr) {
 		return smtConfig.responseFactory.success();
 	}
 	
@@ -306,6 +386,7 @@ public class Solver_test implements ISolver {
 			while (--number >= 0) {
 				assertionSetStack.remove(0); 
 				symTable.pop(); 
+				typemap.pop();
 			}
 		}
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("###stack size " + assertionSetStack.size());
@@ -323,6 +404,7 @@ public class Solver_test implements ISolver {
 		while (--number >= 0) { 
 			assertionSetStack.add(0,new LinkedList<IExpr>()); 
 			symTable.push(); 
+			typemap.push();
 		}
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("###stack size " + assertionSetStack.size());
 		checkSatStatus = null;
@@ -335,6 +417,7 @@ public class Solver_test implements ISolver {
 		if (logicSet != null) {
 			if (!smtConfig.relax) return smtConfig.responseFactory.error("Logic is already set");
 			symTable.clear();
+			typemap.clear();
 			assertionSetStack.clear();
 			assertionSetStack.add(0,new LinkedList<IExpr>());
 		}
@@ -501,6 +584,7 @@ public class Solver_test implements ISolver {
 			return smtConfig.responseFactory.error("The logic must be set before a define-fun command is issued");
 		}
 		String encodedName = encode(cmd.symbol());
+		typemap.push();
 		List<IResponse> list = TypeChecker.checkFcn(symTable, typemap, cmd.symbol(), cmd.parameters(),cmd.resultSort(),cmd.expression(),cmd instanceof IPosable ? ((IPosable)cmd).pos(): null);
 		if (list.isEmpty()) {
 			ISort args[] = new ISort[cmd.parameters().size()];
@@ -513,12 +597,15 @@ public class Solver_test implements ISolver {
 			SymbolTable.Entry entry = new SymbolTable.Entry(cmd.symbol(),fcnSort,null);
 			entry.definition = cmd.expression();
 			if (symTable.add(entry,false)) { 
+				typemap.merge();
 				checkSatStatus = null;
 				return smtConfig.responseFactory.success();
 			} else {
+				typemap.pop();
 				return smtConfig.responseFactory.error("Symbol " + encodedName + " is already defined",cmd.symbol().pos());
 			}
 		} else {
+			typemap.pop();
 			return list.get(0); // FIXME - return all?
 		}
 	}
@@ -562,4 +649,13 @@ public class Solver_test implements ISolver {
 		}
 	}
 	
+	/** Executes submitted commands in the background (created when first needed) */
+	private /*@Nullable*/ CommandQueue commandQueue;
+	
+	@Override
+	synchronized public Future<IResponse> submit(ICommand command) {
+		if (commandQueue == null) commandQueue = new CommandQueue(this);
+		return commandQueue.submit(command);
+	}
+	
 }
@@ -118,9 +118,9 @@ public class Solver_yices extends Solver_test implements ISolver {
 	}
 
 	@Override
-	public IResponse assertExpr(IExpr sexpr) {
+	protected IResponse assertChecked(IExpr sexpr) {
 		try {
-			IResponse status = super.assertExpr(sexpr);
+			IResponse status = super.assertChecked(sexpr);
 			if (!status.isOK()) return status;
 
 			IResponse response = send(sexpr.pos(),"(assert+ ",translate(sexpr)," )");
@@ -1,7 +1,6 @@
 package org.smtlib.solvers;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -81,14 +80,10 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 		}
 	}
 
-	/** Translates an S-expression into Z3 syntax */
+	/** Returns the translator that writes Z3 2.11 syntax to the given Writer */
 	@Override
-	protected String translate(IAccept sexpr) throws IVisitor.VisitorException {
-		// The z3 solver uses the standard S-expression concrete syntax, but not quite
-		// so we have to use our own translator
-		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
-		return sw.toString();
+	protected Translator translator(Writer w) {
+		return new Translator(w);
 	}
 	
 	public class Translator extends Solver_z3_4_3.Translator {
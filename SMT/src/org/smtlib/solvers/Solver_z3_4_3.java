@@ -21,8 +21,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeoutException;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -38,8 +37,10 @@ import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IQualifiedIdentifier;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ISexpr;
+import org.smtlib.sexpr.LetHoister;
 import org.smtlib.sexpr.Printer;
+import org.smtlib.sexpr.ResponseParser;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into Z3 commands */
 public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
@@ -57,6 +58,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	/** A reference to the SMT configuration */
 	public SMT.Configuration smt() { return smtConfig; }
 	
+	@Override
+	public SolverProcess process() { return solverProcess; }
+	
 	/** The command-line arguments for launching the Z3 solver */
 	protected String cmds[];
 	protected String cmds_win[] = new String[]{ "", "/smt2","/in","SMTLIB2_COMPLIANT=true"}; 
@@ -66,8 +70,8 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	/** The object that interacts with external processes */
 	protected SolverProcess solverProcess;
 	
-	/** The parser that parses responses from the solver */
-	protected org.smtlib.sexpr.Parser responseParser;
+	/** The parser that parses responses from the solver, given each response in turn */
+	protected ResponseParser responses;
 	
 	/** Set to true once a set-logic command has been executed */
 	protected boolean logicSet = false;
@@ -107,18 +111,48 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			cmds = args.toArray(new String[args.size()]);
 		}
 		solverProcess = new SolverProcess(cmds,"\n",smtConfig.logfile);
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		solverProcess.pool = smtConfig.solverPool;
+		solverProcess.keepTranscript = smtConfig.timeout > 0;
+		responses = new Responses(smtConfig);
+	}
+	
+	/** Parses the responses of Z3, which does not quite use the standard concrete syntax */
+	protected class Responses extends ResponseParser {
+		public Responses(SMT.Configuration smtConfig) {
+			super(smtConfig);
+		}
+		
+		// Z3 may still produce old-style bit-vector literals, e.g. bv5[4]
+		@Override
+		protected ISexpr dialectToken(CharSequence cs, int p) {
+			return oldBitVector(cs,p);
+		}
+		
+		// Line numbers in Z3 error messages count the lines of the preamble we sent
+		@Override
+		protected String errorMessage(String matched) {
+			String prefix = "line ";
+			int offset = prefix.length();
+			if (matched.startsWith(prefix)) {
+				int k = matched.indexOf(' ',offset);
+				if (k < 0) return matched;
+				String number = matched.substring(offset, k);
+				try {
+					int n = Integer.parseInt(number);
+					matched = prefix + (n-linesOffset) + matched.substring(k);
+				} catch (NumberFormatException e) {
+					// Just continue
+				}
+			}
+			return matched;
+		}
 	}
 
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			return parseResponse(solverProcess.sendAndListen(text(cmd),"\n"));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + smtConfig.defaultPrinter.toString(cmd) + " " + e);
 		}
 	}
 	
@@ -130,6 +164,17 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 	}
 	
+	/** Sends a query, waiting for the response no longer than the deadline (see AbstractSolver.query) */
+	public IResponse sendQuery(String cmd) {
+		try {
+			return parseResponse(query(solverProcess,cmd,"\n"));
+		} catch (IOException e) {
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The Z3 solver did not respond to " + cmd + " in time");
+		}
+	}
+	
 
 	@Override
 	public IResponse start() {
@@ -152,9 +197,11 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse exit() {
 		try {
-			solverProcess.sendAndListen("(exit)\n");
+			IResponse r = flush();
+			if (solverProcess.pool == null) solverProcess.sendAndListen("(exit)\n");
 			solverProcess.exit();
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ended Z3 ");
+			if (r.isError()) return r;
 			return successOrEmpty(smtConfig);
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -175,10 +222,29 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
 		// so we have to use our own translator
 		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
+		sexpr.accept(translator(sw));
 		return sw.toString();
 	}
 	
+	/** Returns the translator that writes Z3 syntax to the given Writer */
+	protected Translator translator(Writer w) {
+		return new Translator(w);
+	}
+	
+	/** Returns the Z3 translation of the argument as text that is written straight to the solver */
+	protected SolverProcess.Text text(final IAccept sexpr) {
+		return new SolverProcess.Text() {
+			@Override
+			public void write(Writer w) throws IOException {
+				try {
+					sexpr.accept(translator(w));
+				} catch (IVisitor.VisitorException e) {
+					throw new IOException(e.getMessage(),e);
+				}
+			}
+		};
+	}
+	
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
@@ -188,49 +254,11 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	}
 	
 	protected IResponse parseResponse(String response) {
+		if (isMac && response.startsWith("success")) return smtConfig.responseFactory.success(); // IFXME - this is just to avoid a problem with the Mac Z3 implementation
 		try {
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
-			if (isMac && response.startsWith("success")) return smtConfig.responseFactory.success(); // IFXME - this is just to avoid a problem with the Mac Z3 implementation
-			if (response.contains("error")) {
-				// Z3 returns an s-expr (always?)
-				// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
-				//Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Space}\\p{Print}^[\\\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)\\p{Space}*");
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					String prefix = "line ";
-					int offset = prefix.length();
-					if (matched.startsWith(prefix)) {
-						int k = matched.indexOf(' ',offset);
-						String number = matched.substring(offset, k);
-						try {
-							int n = Integer.parseInt(number);
-							matched = prefix + (n-linesOffset) + matched.substring(k);
-						} catch (NumberFormatException e) {
-							// Just continue
-						}
-					}
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
-				return smtConfig.responseFactory.error(response);
-			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
-			return responseParser.parseResponse(response);
+			return responses.parse(response);
 		} catch (ParserException e) {
+			if (response.contains("error")) return smtConfig.responseFactory.error(response);
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
 		}
 	}
@@ -245,11 +273,12 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The logic must be set before an assert command is issued");
 		}
 		try {
-			String s = solverProcess.sendAndListen("(assert ",translate(sexpr),")\n");
-			response = parseResponse(s);
+			IPos pos = sexpr.pos();
+			sexpr = Simplifier.asserted(smtConfig,sexpr,null);
+			if (sexpr == null) return smtConfig.responseFactory.success();
+			if (smtConfig.hoistShared) sexpr = new LetHoister(smtConfig.exprFactory).hoist(sexpr);
+			response = sendChecked(solverProcess,"assert",pos,"(assert ",text(sexpr),")\n");
 			checkSatStatus = null;
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		} catch (Exception e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		}
@@ -265,6 +294,8 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (!smtConfig.relax && !Utils.TRUE.equals(get_option(smtConfig.exprFactory.keyword(Utils.INTERACTIVE_MODE)))) {
 			return smtConfig.responseFactory.error("The get-assertions command is only valid if :interactive-mode has been enabled");
 		}
+		IResponse err = flush("get-assertions");
+		if (err.isError()) return err;
 		try {
 			StringBuilder sb = new StringBuilder();
 			String s;
@@ -310,7 +341,17 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			if (!logicSet) {
 				return smtConfig.responseFactory.error("The logic must be set before a check-sat command is issued");
 			}
-			String s = solverProcess.sendAndListen("(check-sat)\n");
+			res = flush("check-sat");
+			if (res.isError()) return res;
+			timedOut = false;
+			String s;
+			try {
+				s = query(solverProcess,"(check-sat)\n");
+			} catch (TimeoutException e) {
+				timedOut = true;
+				checkSatStatus = smtConfig.responseFactory.unknown();
+				return checkSatStatus;
+			}
 			//smtConfig.log.logDiag("HEARD: " + s);  // FIXME - detect errors - parseResponse?
 			
 			if (solverProcess.isRunning(false)) {
@@ -339,7 +380,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		try {
 			checkSatStatus = null;
 			pushesDepth -= number;
-			return parseResponse(solverProcess.sendAndListen("(pop ",Integer.toString(number),")\n"));
+			IResponse r = parseResponse(solverProcess.sendAndListen("(pop ",Integer.toString(number),")\n"));
+			if (!r.isError()) solverProcess.popped(number);
+			return r;
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
@@ -355,6 +398,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (number == 0) return smtConfig.responseFactory.success();
 		try {
 			pushesDepth += number;
+			solverProcess.pushing(number);
 			IResponse r = parseResponse(solverProcess.sendAndListen("(push ",Integer.toString(number),")\n"));
 			// FIXME - actually only see this problem on Linux
 			if (r.isError() && !isWindows) return successOrEmpty(smtConfig);
@@ -462,6 +506,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 
 	@Override
 	public IResponse get_info(IKeyword key) {
+		if (timedOut && Utils.REASON_UNKNOWN.equals(key)) return timeoutReason(key);
+		IResponse err = flush("get-info");
+		if (err.isError()) return err;
 		return sendCommand("(get-info " + key + ")");
 	}
 	
@@ -482,12 +529,10 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return sendChecked(solverProcess,"declare-fun",pos(cmd),text(cmd),"\n");
 			
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
 	}
 
@@ -498,11 +543,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return sendChecked(solverProcess,"define-fun",pos(cmd),text(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
 	}
 
@@ -513,11 +556,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return sendChecked(solverProcess,"declare-sort",pos(cmd),text(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
 	}
 
@@ -528,11 +569,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return sendChecked(solverProcess,"define-sort",pos(cmd),text(cmd),"\n");
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		}
 	}
 	
@@ -544,11 +583,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (checkSatStatus != smtConfig.responseFactory.unsat()) {
 			return smtConfig.responseFactory.error("The get-proof command is only valid immediately after check-sat returned unsat");
 		}
-		try {
-			return parseResponse(solverProcess.sendAndListen("(get-proof)\n"));
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		}
+		IResponse err = flush("get-proof");
+		if (err.isError()) return err;
+		return sendQuery("(get-proof)");
 	}
 
 	@Override 
@@ -559,11 +596,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (checkSatStatus != smtConfig.responseFactory.unsat()) {
 			return smtConfig.responseFactory.error("The get-unsat-core command is only valid immediately after check-sat returned unsat");
 		}
-		try {
-			return parseResponse(solverProcess.sendAndListen("(get-unsat-core)\n"));
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		}
+		IResponse err = flush("get-unsat-core");
+		if (err.isError()) return err;
+		return sendQuery("(get-unsat-core)");
 	}
 
 	@Override 
@@ -575,11 +610,9 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (checkSatStatus != smtConfig.responseFactory.sat() && checkSatStatus != smtConfig.responseFactory.unknown()) {
 			return smtConfig.responseFactory.error("The get-assignment command is only valid immediately after check-sat returned sat or unknown");
 		}
-		try {
-			return parseResponse(solverProcess.sendAndListen("(get-assignment)\n"));
-		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
-		}
+		IResponse err = flush("get-assignment");
+		if (err.isError()) return err;
+		return sendQuery("(get-assignment)");
 	}
 
 	@Override 
@@ -591,12 +624,15 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		if (!smtConfig.responseFactory.sat().equals(checkSatStatus) && !smtConfig.responseFactory.unknown().equals(checkSatStatus)) {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
+		IResponse err = flush("get-value");
+		if (err.isError()) return err;
 		try {
-			solverProcess.sendNoListen("(get-value (");
+			StringBuilder sb = new StringBuilder("(get-value (");
 			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
+				sb.append(" ").append(translate(e));
 			}
-			String r = solverProcess.sendAndListen("))\n");
+			sb.append("))\n");
+			String r = query(solverProcess,sb.toString());
 			IResponse response = parseResponse(r);
 //			if (response instanceof ISeq) {
 //				List<ISexpr> valueslist = new LinkedList<ISexpr>();
@@ -615,6 +651,8 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
+		} catch (TimeoutException e) {
+			return smtConfig.responseFactory.error("The Z3 solver did not respond to get-value in time");
 		}
 	}
 
@@ -34,6 +34,7 @@ public class Solver_z3_4_3_2 extends Solver_z3_4_3 {
 		if (number == 0) return smtConfig.responseFactory.success();
 		try {
 			pushesDepth += number;
+			solverProcess.pushing(number);
 			// This odd invocation is to correct a bug in Z3 4.3.2, where (push) can print out more than one success message.
 			solverProcess.sendNoListen("(push ",Integer.toString(number),")\n");
 			solverProcess.sendNoListen("(echo \"<<DONE>>\")\n");
@@ -0,0 +1,140 @@
+package org.smtlib.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smtlib.IExpr;
+import org.smtlib.ISort;
+import org.smtlib.SymbolTable;
+import org.smtlib.Utils;
+import org.smtlib.sexpr.LogicSnapshots;
+import org.smtlib.solvers.Solver_test;
+
+public class LogicCache extends TypeCheckRoot {
+
+	/** Returns the definitions of the given symbol in the given solver's symbol table */
+	Map<Integer,List<SymbolTable.Entry>> lookup(Solver_test s, String name) {
+		IExpr.ISymbol sym = smt.smtConfig.exprFactory.symbol(name);
+		return s.symTable.lookup(sym);
+	}
+
+	@Test
+	public void checkShared() {
+		Utils.clearLogicCache();
+		checkResponse(solver.set_logic("QF_LIA",null));
+		Solver_test other = new Solver_test(smt.smtConfig,null);
+		other.start();
+		checkResponse(other.set_logic("QF_LIA",null));
+		// The second load uses the definitions made by the first
+		Assert.assertSame(lookup(solver,"+").get(2).get(0),lookup(other,"+").get(2).get(0));
+		Assert.assertNotNull(other.symTable.logicInUse);
+		doCommand("(declare-fun x () Int)");
+		doCommand("(assert (< (+ x 1) 2))");
+		doCommand("(assert (< x 1.0))","No sort specified for decimal literal");
+
+		// Definitions in one table do not appear in the other
+		Assert.assertNull(lookup(other,"x"));
+		checkResponse(other.reset_assertions());
+		Assert.assertNull(lookup(other,"x"));
+		Assert.assertNotNull(lookup(other,"+"));
+
+		// Once the cache is cleared, the logic is read again
+		Utils.clearLogicCache();
+		checkResponse(other.reset());
+		checkResponse(other.set_logic("QF_LIA",null));
+		Assert.assertNotSame(lookup(solver,"+").get(2).get(0),lookup(other,"+").get(2).get(0));
+		other.exit();
+	}
+
+	@Test
+	public void checkFailures() {
+		Utils.clearLogicCache();
+		smt.smtConfig.logicPath = "../SMT/nologics";
+		checkResponse(solver.set_logic("QF_LIA",null),"No logic file found for QF_LIA on path \"../SMT/nologics\"");
+		smt.smtConfig.logicPath = "../SMT/logics";
+		checkResponse(solver.set_logic("QF_LIA",null));
+	}
+
+	/** Prints the signature and attributes of a symbol table entry */
+	String print(SymbolTable.Entry e) {
+		StringBuilder sb = new StringBuilder();
+		for (ISort s: e.sort.argSorts()) sb.append(smt.smtConfig.defaultPrinter.toString(s)).append(' ');
+		sb.append(e.sort.resultSort() == null ? "-" : smt.smtConfig.defaultPrinter.toString(e.sort.resultSort()));
+		if (e.attributes != null) {
+			for (IExpr.IAttribute<?> a: e.attributes) sb.append(' ').append(smt.smtConfig.defaultPrinter.toString(a));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void checkSnapshot() throws IOException {
+		Map<String,SymbolTable.Layer> layers = new LinkedHashMap<String,SymbolTable.Layer>();
+		for (String logic: new String[]{"QF_UF","QF_AUFBV","AUFNIRA"}) {
+			SymbolTable s = new SymbolTable(smt.smtConfig);
+			checkResponse(smt.smtConfig.utils.loadLogic(logic,s,null));
+			layers.put(logic,s.background());
+		}
+		LogicSnapshots snapshots = new LogicSnapshots(smt.smtConfig);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshots.write(layers,out);
+		final Map<String,SymbolTable.Layer> read = snapshots.read(new ByteArrayInputStream(out.toByteArray()));
+
+		// The layers read back have the same contents as those read from the logic files
+		Assert.assertEquals(layers.keySet(),read.keySet());
+		for (String logic: layers.keySet()) {
+			SymbolTable.Layer a = layers.get(logic);
+			SymbolTable.Layer b = read.get(logic);
+			Assert.assertEquals(a.logic.getClass(),b.logic.getClass());
+			Assert.assertEquals(a.logic.logicName(),b.logic.logicName());
+			for (IExpr.IAttribute<?> attr: a.logic.attributes().values()) {
+				Assert.assertEquals(smt.smtConfig.defaultPrinter.toString(attr),smt.smtConfig.defaultPrinter.toString(b.logic.attributes().get(attr.keyword())));
+			}
+			Assert.assertEquals(a.arrayTheorySet,b.arrayTheorySet);
+			Assert.assertEquals(a.bitVectorTheorySet,b.bitVectorTheorySet);
+			Assert.assertEquals(a.realsIntsTheorySet,b.realsIntsTheorySet);
+			Assert.assertEquals(a.sorts.keySet(),b.sorts.keySet());
+			Assert.assertEquals(a.names.keySet(),b.names.keySet());
+			for (IExpr.IIdentifier id: a.names.keySet()) {
+				Assert.assertEquals(a.names.get(id).keySet(),b.names.get(id).keySet());
+				for (Integer arity: a.names.get(id).keySet()) {
+					List<SymbolTable.Entry> ea = a.names.get(id).get(arity);
+					List<SymbolTable.Entry> eb = b.names.get(id).get(arity);
+					Assert.assertEquals(ea.size(),eb.size());
+					for (int i = 0; i < ea.size(); ++i) Assert.assertEquals(print(ea.get(i)),print(eb.get(i)));
+				}
+			}
+		}
+
+		// A precompiled logic is used only when there is no logic path
+		Utils.clearLogicCache();
+		smt.smtConfig.utils = new org.smtlib.sexpr.Utils(smt.smtConfig) {
+			@Override
+			protected SymbolTable.Layer precompiledLogic(String logicName) {
+				return read.get(logicName);
+			}
+		};
+		checkResponse(solver.set_logic("AUFNIRA",null));
+		Assert.assertNotSame(read.get("AUFNIRA").names,solver.symTable.background().names);
+		Assert.assertNotSame(read.get("AUFNIRA").logic,solver.symTable.logicInUse);
+		smt.smtConfig.logicPath = null;
+		Solver_test other = new Solver_test(smt.smtConfig,null);
+		other.start();
+		checkResponse(other.set_logic("AUFNIRA",null));
+		Assert.assertSame(read.get("AUFNIRA").logic,other.symTable.logicInUse);
+		Assert.assertSame(read.get("AUFNIRA").names.get(smt.smtConfig.exprFactory.symbol("+")).get(2).get(0),lookup(other,"+").get(2).get(0));
+		other.exit();
+		solver.exit();
+		solver = new Solver_test(smt.smtConfig,null);
+		solver.start();
+		checkResponse(solver.set_logic("AUFNIRA",null));
+		doCommand("(declare-fun x () Int)");
+		doCommand("(assert (forall ((y Real)) (< (* x x) (+ (to_real x) y))))");
+		Utils.clearLogicCache();
+	}
+}
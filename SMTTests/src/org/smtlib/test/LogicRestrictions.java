@@ -0,0 +1,68 @@
+package org.smtlib.test;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smtlib.IExpr;
+import org.smtlib.IResponse;
+import org.smtlib.TypeChecker;
+import org.smtlib.logic.Logic;
+
+public class LogicRestrictions extends TypeCheckRoot {
+
+	/** Checks the expression, expecting the given error at the given character position */
+	public void checkAt(String input, String error, int pos) {
+		IExpr e = parseExpr(input);
+		List<IResponse> errors = TypeChecker.check(solver.symTable,e,null);
+		Assert.assertEquals(1,errors.size());
+		Assert.assertEquals(error,((IResponse.IError)errors.get(0)).errorMsg());
+		Assert.assertEquals(pos,((IResponse.IError)errors.get(0)).pos().charStart());
+	}
+
+	@Test
+	public void checkQuantifiers() {
+		checkResponse(solver.set_logic("QF_LIA",null));
+		doCommand("(declare-fun x () Int)");
+		check("(and (< x 2) (let ((b (> x 0))) b))");
+		// The first quantified expression is reported
+		checkAt("(and (< x 2) (forall ((y Int)) (exists ((z Int)) (< y z))))",
+				"A quantified expression is not allowed in the QF_LIA logic",13);
+		checkAt("(let ((b (exists ((z Int)) (< x z)))) b)",
+				"A quantified expression is not allowed in the QF_LIA logic",9);
+	}
+
+	@Test
+	public void checkLinearInteger() {
+		checkResponse(solver.set_logic("QF_LIA",null));
+		doCommand("(declare-fun x () Int)");
+		doCommand("(declare-fun y () Int)");
+		check("(< (+ (* 2 x) (* y (- 3))) (- x y))");
+		check("(< (* x y) 0)","Integer expressions must be linear in this logic");
+		check("(< (+ 1 (div x 2)) 0)","Integer expressions must be linear in this logic");
+	}
+
+	@Test
+	public void checkLinearReal() {
+		checkResponse(solver.set_logic("LRA",null));
+		doCommand("(declare-fun x () Real)");
+		doCommand("(declare-fun y () Real)");
+		check("(forall ((z Real)) (< (* 2.0 x) (/ 1 2) (* z (- 1.5))))");
+		checkAt("(< (+ x (* x (* y 2.0))) 0.0)","The expression must be linear: ",8);
+		checkAt("(< (/ x 2.0) 0.0)","The expression must be linear: ",3);
+	}
+
+	@Test
+	public void checkFactsReused() {
+		checkResponse(solver.set_logic("QF_LIA",null));
+		Logic logic = (Logic)solver.symTable.logicInUse;
+		IExpr.IFcnExpr e = (IExpr.IFcnExpr)parseExpr("(and (< x 1) (forall ((y Int)) (> y 0)))");
+		Logic.Checker checker = logic.checker();
+		Logic.Facts facts = checker.facts(e);
+		Assert.assertSame(e.args().get(1),facts.quantified);
+		Assert.assertTrue(facts.linearInteger);
+		// Subexpressions are not computed again
+		Assert.assertSame(checker.facts(e.args().get(1)),checker.facts(e.args().get(1)));
+		Assert.assertSame(Logic.Facts.NONE,checker.facts(e.args().get(0)));
+	}
+}
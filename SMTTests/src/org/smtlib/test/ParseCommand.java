@@ -1,6 +1,7 @@
 package org.smtlib.test;
 
 import java.io.StringWriter;
+import java.util.List;
 
 import org.junit.*;
 import org.smtlib.ICommand;
@@ -253,4 +254,174 @@ public class ParseCommand {
 		testCommand("(what a b)");
 	}
 
+	@Test
+	public void finder() throws Exception {
+		testCommand("(check-sat)");
+		testCommand("(sat-check)","Unknown command: sat-check");
+		listener.msgs.clear();
+		final ICommand.IFinder defaultFinder = config.commandFinder;
+		config.commandFinder = new ICommand.IFinder() {
+			@Override
+			public Class<? extends ICommand> findCommand(String name) {
+				return defaultFinder.findCommand(name.equals("sat-check") ? "check-sat" : name);
+			}
+		};
+		ISource source = config.smtFactory.createSource("(sat-check)",null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		ICommand e = p.parseCommand();
+		Assert.assertTrue(listener.msgs.isEmpty());
+		Assert.assertTrue(e instanceof org.smtlib.command.C_check_sat);
+	}
+
+	@Test
+	public void lines() throws Exception {
+		String text = "(assert true)\n(check-sat)\r\n\r(exit)";
+		ISource[] sources = { config.smtFactory.createSource(text,null),
+				config.smtFactory.createSource(new org.smtlib.CharSequenceReader(new java.io.StringReader(text),4,0,2),null) };
+		for (ISource source: sources) {
+			int p = text.indexOf("check");
+			Assert.assertEquals(2,source.lineNumber(p));
+			Assert.assertEquals(p-1,source.lineBeginning(p));
+			Assert.assertEquals("(check-sat)\r\n",source.textLine(p));
+			p = text.indexOf("exit");
+			Assert.assertEquals(4,source.lineNumber(p));
+			Assert.assertEquals(p-1,source.lineBeginning(p));
+			Assert.assertEquals(1,source.lineNumber(0));
+		}
+	}
+
+	@Test
+	public void parallel() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<100; i++) {
+			sb.append("(declare-fun x").append(i).append(" () Bool) ; comment )\n(assert (or x").append(i).append(" \"(\"))\n");
+			if (i % 17 == 0) sb.append("(check-sat zzz)\n(unknown-command x)\n");
+		}
+		String text = sb.toString();
+		int saved = org.smtlib.sexpr.ParallelParser.minChunkSize;
+		org.smtlib.sexpr.ParallelParser.minChunkSize = 64;
+		try {
+			IParser[] parsers = { new org.smtlib.sexpr.Parser(config,config.smtFactory.createSource(text,null)),
+					new org.smtlib.sexpr.ParallelParser(config,config.smtFactory.createSource(text,null),4) };
+			List<String> results = new java.util.ArrayList<String>();
+			for (IParser p: parsers) {
+				StringBuilder out = new StringBuilder();
+				listener.msgs.clear();
+				while (!p.isEOD()) {
+					ICommand e = p.parseCommand();
+					out.append(e == null ? "null" : org.smtlib.sexpr.Printer.write(e) + ((org.smtlib.IPos.IPosable)e).pos().charStart());
+					for (IResponse r: listener.msgs) out.append(r.toString()).append(((IResponse.IError)r).pos().charStart());
+					listener.msgs.clear();
+				}
+				results.add(out.toString());
+			}
+			Assert.assertEquals(results.get(0),results.get(1));
+		} finally {
+			org.smtlib.sexpr.ParallelParser.minChunkSize = saved;
+		}
+	}
+
+	/** Commands through the last set-option are parsed sequentially, after the preceding ones have
+	 * been executed; here executing the set-option is simulated by setting 'relax', which allows
+	 * the reserved word 'assert' to be declared */
+	@Test
+	public void parallelAfterOptions() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("(set-option :print-success false)\n");
+		for (int i=0; i<100; i++) {
+			sb.append("(declare-fun assert (Int) Bool)\n(assert (or x").append(i).append(" \"(\"))\n");
+		}
+		String text = sb.toString();
+		int saved = org.smtlib.sexpr.ParallelParser.minChunkSize;
+		org.smtlib.sexpr.ParallelParser.minChunkSize = 64;
+		try {
+			List<String> results = new java.util.ArrayList<String>();
+			for (int k=0; k<2; k++) {
+				SMT.Configuration c = config.clone();
+				c.relax = false;
+				ISource source = c.smtFactory.createSource(text,null);
+				IParser p = k == 0 ? new org.smtlib.sexpr.Parser(c,source) : new org.smtlib.sexpr.ParallelParser(c,source,4);
+				StringBuilder out = new StringBuilder();
+				listener.msgs.clear();
+				while (!p.isEOD()) {
+					ICommand e = p.parseCommand();
+					if (e instanceof org.smtlib.command.C_set_option) c.relax = true;
+					out.append(e == null ? "null" : org.smtlib.sexpr.Printer.write(e));
+					for (IResponse r: listener.msgs) out.append(r.toString());
+					listener.msgs.clear();
+				}
+				results.add(out.toString());
+			}
+			Assert.assertFalse(results.get(0).contains("null"));
+			Assert.assertEquals(results.get(0),results.get(1));
+		} finally {
+			org.smtlib.sexpr.ParallelParser.minChunkSize = saved;
+		}
+	}
+
+	@Test
+	public void windowed() throws Exception {
+		config.windowedInput = true;
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<200; i++) sb.append("(assert true)\r\n");
+		sb.append("(check-sat)\n");
+		org.smtlib.CharSequenceReader csr = new org.smtlib.CharSequenceReader(new java.io.StringReader(sb.toString()),64,0,2);
+		ISource source = config.smtFactory.createSource(csr,null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		ICommand e = null;
+		for (int i=0; i<=200; i++) {
+			e = p.parseCommand();
+			Assert.assertTrue(e != null);
+		}
+		Assert.assertTrue(listener.msgs.isEmpty());
+		Assert.assertTrue(csr.firstRetained() > 0);
+		Assert.assertEquals(201,source.lineNumber(((org.smtlib.IPos.IPosable)e).pos().charStart()));
+		Assert.assertEquals("(check-sat)" + eol,source.textLine(((org.smtlib.IPos.IPosable)e).pos().charStart()));
+	}
+
+	@Test
+	public void windowedViews() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<100; i++) sb.append("(assert true)\n");
+		org.smtlib.CharSequenceReader csr = new org.smtlib.CharSequenceReader(new java.io.StringReader(sb.toString()),64,0,2);
+		csr.charAt(63);
+		CharSequence first = csr.subSequence(0,13);
+		csr.release(7);
+		csr.charAt(64); // fills the buffer, so the released characters are discarded
+		Assert.assertEquals(7,csr.firstRetained());
+		Assert.assertEquals("(assert true)",first.toString());
+	}
+
+	@Test
+	public void commentAtEnd() throws Exception {
+		ISource source = config.smtFactory.createSource(new org.smtlib.CharSequenceReader(new java.io.StringReader("(check-sat) ; no newline")),null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		Assert.assertTrue(p.parseCommand() != null);
+		Assert.assertTrue(p.isEOD());
+		Assert.assertTrue(listener.msgs.isEmpty());
+	}
+
+	@Test
+	public void mapped() throws Exception {
+		config.mappedInput = true;
+		java.io.File f = java.io.File.createTempFile("mapped",".smt2");
+		try {
+			java.io.Writer w = new java.io.FileWriter(f);
+			w.write("(assert true) ; comment\n(check-sat)");
+			w.close();
+			ISource source = config.smtFactory.createSource(config,f);
+			Assert.assertTrue(source.chars() instanceof org.smtlib.CharSequenceMapped);
+			IParser p = new org.smtlib.sexpr.Parser(config,source);
+			StringWriter sw = new StringWriter();
+			org.smtlib.sexpr.Printer.write(sw,p.parseCommand());
+			org.smtlib.sexpr.Printer.write(sw,p.parseCommand());
+			Assert.assertTrue(p.isEOD());
+			Assert.assertTrue(listener.msgs.isEmpty());
+			Assert.assertEquals("(assert true)(check-sat)",sw.toString());
+			Assert.assertEquals(2,source.lineNumber(source.chars().length()-1));
+		} finally {
+			f.delete();
+		}
+	}
+
 }
@@ -17,6 +17,8 @@ public class ParseExpressionErrors {
 	
 	static JUnitListener listener;
 	String version;
+	boolean dfaLexer = false;
+	boolean iterativeParser = false;
 	
 	@Before
 	public void init() {
@@ -26,6 +28,8 @@ public class ParseExpressionErrors {
 	public void testExpr(String input, String msg, int start, int end) throws Exception {
 		SMT.Configuration config = new SMT.Configuration();
 		config.smtlib = version;
+		config.dfaLexer = dfaLexer;
+		config.iterativeParser = iterativeParser;
 		config.log.clearListeners();
 		config.log.addListener(listener);
 		ISource source = config.smtFactory.createSource(input,null);
@@ -43,6 +47,8 @@ public class ParseExpressionErrors {
 		try {
 			SMT.Configuration config = new SMT.Configuration();
 			config.smtlib = version;
+			config.dfaLexer = dfaLexer;
+			config.iterativeParser = iterativeParser;
 			config.log.clearListeners();
 			config.log.addListener(listener);
 			ISource source = config.smtFactory.createSource(input,null);
@@ -0,0 +1,14 @@
+package org.smtlib.test;
+
+import org.junit.Before;
+
+/** Repeats the ParseExpressionErrors tests using the table-driven (DFA) lexer */
+public class ParseExpressionErrorsDFA extends ParseExpressionErrors {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		dfaLexer = true;
+	}
+}
@@ -0,0 +1,28 @@
+package org.smtlib.test;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Repeats the ParseExpressionErrors tests using the non-recursive (explicit-stack) expression parser */
+public class ParseExpressionErrorsIterative extends ParseExpressionErrors {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		iterativeParser = true;
+	}
+	
+	/** An error at the bottom of a nesting too deep for the recursive parser is reported once, 
+	 * at its own position */
+	@Test
+	public void deep() throws Exception {
+		int depth = 200000;
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<depth; i++) sb.append("(and p ");
+		int pos = sb.length();
+		sb.append("00");
+		for (int i=0; i<depth; i++) sb.append(")");
+		testExpr(sb.toString(),"Incorrect format for a number - no leading zeros allowed: 00",pos,pos+2);
+	}
+}
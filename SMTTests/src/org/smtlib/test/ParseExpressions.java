@@ -15,6 +15,9 @@ public class ParseExpressions {
 
 	static JUnitListener listener;
 	String version;
+	boolean dfaLexer = false;
+	boolean iterativeParser = false;
+	boolean shareExprs = false;
 	
 	@Before
 	public void init() {
@@ -35,6 +38,9 @@ public class ParseExpressions {
 	public void testExpr(String input, String output) throws Exception {
 		SMT.Configuration config = new SMT.Configuration();
 		config.smtlib = version;
+		config.dfaLexer = dfaLexer;
+		config.iterativeParser = iterativeParser;
+		if (shareExprs) config.exprFactory = new org.smtlib.impl.HashConsFactory();
 		ISource source = config.smtFactory.createSource(input,null);
 		IParser p = new org.smtlib.sexpr.Parser(config,source);
 		IExpr e = p.parseExpr();
@@ -52,6 +58,9 @@ public class ParseExpressions {
 		try {
 			SMT.Configuration config = new SMT.Configuration();
 			config.smtlib = version;
+			config.dfaLexer = dfaLexer;
+			config.iterativeParser = iterativeParser;
+			if (shareExprs) config.exprFactory = new org.smtlib.impl.HashConsFactory();
 			ISource source = config.smtFactory.createSource(input,null);
 			IParser p = new org.smtlib.sexpr.Parser(config,source);
 			IAttributeValue e = p.parseAttributeValue();
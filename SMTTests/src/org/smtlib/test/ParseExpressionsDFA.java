@@ -0,0 +1,14 @@
+package org.smtlib.test;
+
+import org.junit.Before;
+
+/** Repeats the ParseExpressions tests using the table-driven (DFA) lexer */
+public class ParseExpressionsDFA extends ParseExpressions {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		dfaLexer = true;
+	}
+}
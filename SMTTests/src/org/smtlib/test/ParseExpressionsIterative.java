@@ -0,0 +1,44 @@
+package org.smtlib.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.SMT;
+
+/** Repeats the ParseExpressions tests using the non-recursive (explicit-stack) expression parser */
+public class ParseExpressionsIterative extends ParseExpressions {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		iterativeParser = true;
+	}
+	
+	/** Nesting this deep would overflow the stack of the recursive parser */
+	@Test
+	public void deep() throws Exception {
+		int depth = 200000;
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<depth; i++) sb.append(i % 2 == 0 ? "(and p " : "(let ((q p)) ");
+		sb.append("q");
+		for (int i=0; i<depth; i++) sb.append(")");
+		SMT.Configuration config = new SMT.Configuration();
+		config.iterativeParser = true;
+		config.log.clearListeners();
+		config.log.addListener(listener);
+		IParser p = new org.smtlib.sexpr.Parser(config,config.smtFactory.createSource(sb.toString(),null));
+		IExpr e = p.parseExpr();
+		Assert.assertTrue(listener.msgs.isEmpty());
+		int pos = 0;
+		for (int i=0; i<depth; i++) {
+			Assert.assertEquals(pos, e.pos().charStart());
+			Assert.assertEquals(sb.length() - i, e.pos().charEnd());
+			e = i % 2 == 0 ? ((IExpr.IFcnExpr)e).args().get(1) : ((IExpr.ILet)e).expr();
+			pos += i % 2 == 0 ? "(and p ".length() : "(let ((q p)) ".length();
+		}
+		Assert.assertEquals("q",e.toString());
+	}
+}
@@ -0,0 +1,200 @@
+package org.smtlib.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.ISort;
+import org.smtlib.SMT;
+import org.smtlib.TypeChecker;
+import org.smtlib.impl.HashConsFactory;
+import org.smtlib.impl.Pos;
+import org.smtlib.solvers.Solver_test;
+
+/** Repeats the ParseExpressions tests using the hash-consing expression factory */
+public class ParseExpressionsShared extends ParseExpressions {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		shareExprs = true;
+	}
+
+	/** Returns the arguments of the function expression parsed from the input */
+	List<IExpr> args(SMT.Configuration config, String input) throws Exception {
+		return ((IExpr.IFcnExpr)parse(config,input)).args();
+	}
+
+	/** Returns the expression parsed from the input */
+	IExpr parse(SMT.Configuration config, String input) throws Exception {
+		IParser p = new org.smtlib.sexpr.Parser(config,config.smtFactory.createSource(input,null));
+		IExpr e = p.parseExpr();
+		Assert.assertTrue(listener.msgs.isEmpty());
+		return e;
+	}
+
+	/** Executes a script with the test solver, with or without shared expressions and parsing
+	 * the given file in parallel if it is not null, returning the output */
+	String doScript(String input, /*@Nullable*/ File file, boolean share) {
+		ByteArrayOutputStream ba = new ByteArrayOutputStream();
+		PrintStream savedOut = System.out;
+		System.setOut(new PrintStream(ba));
+		int saved = org.smtlib.sexpr.ParallelParser.minChunkSize;
+		try {
+			SMT smt = new SMT();
+			smt.props = smt.readProperties();
+			if (file == null) {
+				smt.smtConfig.text = input;
+			} else {
+				smt.smtConfig.files = Arrays.asList(file.getPath());
+				smt.smtConfig.parseThreads = 4;
+				org.smtlib.sexpr.ParallelParser.minChunkSize = 64;
+			}
+			smt.smtConfig.log.out = new PrintStream(ba);
+			smt.smtConfig.log.diag = smt.smtConfig.log.out;
+			smt.smtConfig.solvername = "test";
+			if (share) smt.smtConfig.exprFactory = new HashConsFactory();
+			smt.exec();
+			return ba.toString();
+		} finally {
+			System.setOut(savedOut);
+			org.smtlib.sexpr.ParallelParser.minChunkSize = saved;
+		}
+	}
+
+	/** Structurally equal subterms are the same object, and different subterms are not */
+	@Test
+	public void sharing() throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		HashConsFactory factory = new HashConsFactory();
+		config.exprFactory = factory;
+		IExpr e = parse(config,"(f (g a 1) (g a 1) (g a 2) (g b 1) #b01 #b1 ((_ extract 1 0) x) ((_ extract 1 0) x))");
+		List<IExpr> args = ((IExpr.IFcnExpr)e).args();
+		Assert.assertSame(args.get(0),args.get(1));
+		Assert.assertNotSame(args.get(0),args.get(2));
+		Assert.assertNotSame(args.get(0),args.get(3));
+		Assert.assertNotSame(args.get(4),args.get(5));
+		Assert.assertSame(args.get(6),args.get(7));
+		Assert.assertSame(((IExpr.IFcnExpr)args.get(0)).head(),((IExpr.IFcnExpr)args.get(3)).head());
+		// The shared node has no position; those of its occurrences are kept by the factory
+		Assert.assertNull(args.get(0).pos());
+		// but the outermost expression is not shared and has its own position
+		IPos whole = e.pos();
+		Assert.assertEquals(0,whole.charStart());
+		IPos first = factory.occurrence(args.get(0),whole,0);
+		Assert.assertEquals(3,first.charStart());
+		Assert.assertEquals(10,first.charEnd());
+		Assert.assertEquals(11,factory.occurrence(args.get(0),whole,first.charEnd()).charStart());
+		Assert.assertNull(factory.occurrence(args.get(0),new Pos(0,10,whole.source()),4));
+
+		// Expressions from a later parse with the same factory are shared as well
+		List<IExpr> more = args(config,"(h (g a 1))");
+		Assert.assertSame(args.get(0),more.get(0));
+		Assert.assertSame(more.get(0),factory.fcn(factory.symbol("g"),factory.symbol("a"),factory.numeral("1")));
+		Assert.assertTrue(factory.hits() > 0);
+	}
+
+	/** Repeated subterms are printed once, bound by a let, innermost first */
+	@Test
+	public void hoisting() throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		config.exprFactory = new HashConsFactory();
+		IParser p = new org.smtlib.sexpr.Parser(config,config.smtFactory.createSource(
+				"(and (= (f (g _h0 1)) (f (g _h0 1))) (forall ((x Int)) (> (g _h0 1) x)) (g _h0 1))",null));
+		IExpr e = p.parseExpr();
+		StringWriter sw = new StringWriter();
+		org.smtlib.sexpr.Printer.writeHoisted(sw,e,config.exprFactory);
+		Assert.assertEquals("(let ((_h1 (g _h0 1)) ) (let ((_h2 (f _h1)) ) (and (= _h2 _h2) (forall ((x Int) ) (> (g _h0 1) x)) _h1)))",sw.toString());
+	}
+
+	/** An error in a shared subterm is reported at the position of the occurrence being checked */
+	@Test
+	public void errorPositions() throws Exception {
+		String script = "(set-logic QF_UF)(declare-sort U 0)(declare-fun q () U)(declare-fun p (Bool) Bool)\n" +
+				"(assert (and (p q) (p q) (p q)))\n" +
+				"(declare-fun r () Bool)(assert (or (! r :named n1) (! r :named n1)))\n";
+		String out = doScript(script,null,true);
+		Assert.assertEquals(doScript(script,null,false),out);
+		// The first of the identical subterms, not the last parsed
+		Assert.assertTrue(out, out.contains("\n             ^^^^^\n"));
+		// The second name, not the first
+		Assert.assertTrue(out, out.contains("\n" + String.format("%63s","") + "^^\n"));
+	}
+
+	/** The positions recorded while parsing in parallel are those of each occurrence */
+	@Test
+	public void errorPositionsParallel() throws Exception {
+		StringBuilder sb = new StringBuilder("(set-logic QF_UF)(declare-sort U 0)(declare-fun q () U)(declare-fun p (Bool) Bool)\n");
+		for (int i = 0; i < 40; i++) {
+			sb.append("(assert (and (p q) ").append(i % 3 == 0 ? "(p q)" : "true").append("))\n");
+		}
+		File file = File.createTempFile("shared",".smt2");
+		try {
+			Writer w = new FileWriter(file);
+			w.write(sb.toString());
+			w.close();
+			Assert.assertEquals(doScript(null,file,false),doScript(null,file,true));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/** Subterms that refer to variables bound by different binders are not shared, since they may
+	 * have different sorts; within the scope of one binder they are */
+	@Test
+	public void boundVariables() throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		config.exprFactory = new HashConsFactory();
+		for (boolean iterative: new boolean[]{false,true}) {
+			config.iterativeParser = iterative;
+			List<IExpr> args = args(config,"(and (forall ((x Int)) (= (ite b x x) (ite b x x))) (let ((x true)) (ite b x x)) (ite b x x))");
+			IExpr.IFcnExpr eq = (IExpr.IFcnExpr)((IExpr.IForall)args.get(0)).expr();
+			IExpr inLet = ((IExpr.ILet)args.get(1)).expr();
+			Assert.assertSame(eq.args().get(0),eq.args().get(1));
+			Assert.assertNotSame(eq.args().get(0),inLet);
+			Assert.assertNotSame(eq.args().get(0),args.get(2));
+			Assert.assertNotSame(inLet,args.get(2));
+			// The free symbol b is shared by all of them
+			Assert.assertSame(((IExpr.IFcnExpr)inLet).args().get(0),((IExpr.IFcnExpr)args.get(2)).args().get(0));
+		}
+	}
+
+	/** Subterms that refer to bound variables of different sorts are given their own sorts */
+	@Test
+	public void boundVariableSorts() throws Exception {
+		SMT smt = new SMT();
+		smt.smtConfig.logicPath = "../SMT/logics";
+		smt.smtConfig.exprFactory = new HashConsFactory();
+		Solver_test solver = new Solver_test(smt.smtConfig,null);
+		solver.start();
+		try {
+			Assert.assertTrue(solver.set_logic("QF_LIA",null).isOK());
+			IParser p = new org.smtlib.sexpr.Parser(smt.smtConfig,smt.smtConfig.smtFactory.createSource("(declare-fun b () Bool)",null));
+			Assert.assertTrue(p.parseCommand().execute(solver).isOK());
+			List<IExpr> args = args(smt.smtConfig,"(and (let ((x true)) (ite b x x)) (let ((x 1)) (= (ite b x x) 0)))");
+			Map<IExpr,ISort> typemap = new IdentityHashMap<IExpr,ISort>();
+			Assert.assertTrue(TypeChecker.check(solver.symTable,args.get(0),typemap).isEmpty());
+			Assert.assertTrue(TypeChecker.check(solver.symTable,args.get(1),typemap).isEmpty());
+			IExpr boolIte = ((IExpr.ILet)args.get(0)).expr();
+			IExpr intIte = ((IExpr.IFcnExpr)((IExpr.ILet)args.get(1)).expr()).args().get(0);
+			Assert.assertEquals("Bool",typemap.get(boolIte).toString());
+			Assert.assertEquals("Int",typemap.get(intIte).toString());
+		} finally {
+			solver.exit();
+		}
+	}
+}
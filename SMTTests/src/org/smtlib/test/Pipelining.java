@@ -0,0 +1,142 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.ICommand;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.solvers.Solver_z3_4_3;
+
+public class Pipelining extends TypeCheckRoot {
+
+	/** A stand-in for z3 that answers check-sat with sat, any line containing 'bad' with an error,
+	 * and everything else with success */
+	static final String script = "#!/bin/sh\n" +
+			"while IFS= read -r x; do\n" +
+			"  case \"$x\" in\n" +
+			"    *check-sat*) echo sat ;;\n" +
+			"    *bad*) echo '(error \"unknown constant bad\")' ;;\n" +
+			"    *exit*) echo success; exit 0 ;;\n" +
+			"    *) echo success ;;\n" +
+			"  esac\n" +
+			"done\n";
+
+	File exe;
+	Solver_z3_4_3 z3;
+
+	@Override
+	@Before
+	public void setup() {
+		super.setup();
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		try {
+			exe = File.createTempFile("fakez3",".sh");
+			Writer w = new FileWriter(exe);
+			w.write(script);
+			w.close();
+			exe.setExecutable(true);
+		} catch (IOException e) {
+			Assert.fail(e.toString());
+		}
+		// The errors are checked through the listener, not printed
+		smt.smtConfig.log.clearListeners();
+		smt.smtConfig.log.addListener(listener);
+		smt.smtConfig.pipeline = true;
+		z3 = new Solver_z3_4_3(smt.smtConfig,exe.getPath());
+		checkResponse(z3.start());
+		checkResponse(z3.set_logic("QF_UF",null));
+	}
+
+	@Override
+	@After
+	public void teardown() {
+		if (exe != null) exe.delete();
+		super.teardown();
+	}
+
+	/** Executes the command with the z3 stand-in, returning the response */
+	IResponse exec(String input) {
+		ICommand command = parseCommand(input);
+		Assert.assertNotNull(command);
+		return command.execute(z3);
+	}
+
+	/** Checks that the error logged at the given index is the failure of the given command, with
+	 * the position of the asserted expression */
+	void checkLogged(int index, String input, int start, int end) {
+		IResponse.IError error = (IResponse.IError)listener.msgs.get(index);
+		Assert.assertEquals("The assert command failed: unknown constant bad",error.errorMsg());
+		IPos pos = error.pos();
+		Assert.assertNotNull(pos);
+		Assert.assertEquals(input,pos.source().chars().subSequence(0,input.length()).toString());
+		Assert.assertEquals(start,pos.charStart());
+		Assert.assertEquals(end,pos.charEnd());
+	}
+
+	@Test
+	public void checkNoErrors() {
+		checkResponse(exec("(declare-fun p () Bool)"));
+		checkResponse(exec("(assert p)"));
+		Assert.assertEquals("sat",z3.check_sat().toString());
+		checkResponse(z3.exit());
+		Assert.assertTrue(listener.msgs.isEmpty());
+	}
+
+	@Test
+	public void checkErrors() {
+		checkResponse(exec("(declare-fun p () Bool)"));
+		checkResponse(exec("(assert p)"));
+		// The errors are not known until the next check-sat
+		checkResponse(exec("(assert bad1)"));
+		checkResponse(exec("(assert (and p bad2))"));
+		Assert.assertTrue(listener.msgs.isEmpty());
+		checkResponse(z3.check_sat(),"The check-sat command was not run because 2 earlier pipelined commands failed");
+		Assert.assertEquals(2,listener.msgs.size());
+		checkLogged(0,"(assert bad1)",8,12);
+		checkLogged(1,"(assert (and p bad2))",8,20);
+		// The next check-sat is run
+		Assert.assertEquals("sat",z3.check_sat().toString());
+		Assert.assertEquals(2,listener.msgs.size());
+		checkResponse(z3.exit());
+	}
+
+	@Test
+	public void checkOneError() {
+		checkResponse(exec("(declare-fun p () Bool)"));
+		checkResponse(exec("(assert bad)"));
+		checkResponse(exec("(assert p)"));
+		checkResponse(z3.check_sat(),"The check-sat command was not run because an earlier pipelined command failed");
+		Assert.assertEquals(1,listener.msgs.size());
+		checkLogged(0,"(assert bad)",8,11);
+		checkResponse(z3.exit());
+	}
+
+	@Test
+	public void checkExit() {
+		checkResponse(exec("(assert bad)"));
+		checkResponse(exec("(assert bad)"));
+		// The solver still exits
+		checkResponse(z3.exit(),"2 pipelined commands failed");
+		Assert.assertEquals(2,listener.msgs.size());
+	}
+
+	@Test
+	public void checkFlush() {
+		checkResponse(z3.flush());
+		checkResponse(exec("(assert bad)"));
+		checkResponse(z3.flush(),"1 pipelined command failed");
+		Assert.assertEquals(1,listener.msgs.size());
+		// Each error is reported once
+		checkResponse(z3.flush());
+		Assert.assertEquals(1,listener.msgs.size());
+		checkResponse(z3.exit());
+	}
+}
@@ -0,0 +1,303 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.SMT;
+import org.smtlib.impl.Command;
+import org.smtlib.solvers.Solver_portfolio;
+import org.smtlib.solvers.Solver_test;
+import org.smtlib.solvers.Solver_z3_4_3;
+
+public class Portfolios extends TypeCheckRoot {
+
+	/** A test solver that records the names of the commands given to it, and answers check-sat,
+	 * after the given delay, with the given answer (or as Solver_test does if it is null) */
+	static class Backend extends Solver_test {
+		final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+		final /*@Nullable*/ String answer;
+		final long delay;
+		/** If true, assert and check-sat throw an exception */
+		boolean fail = false;
+
+		Backend(SMT.Configuration smtConfig, /*@Nullable*/ String answer, long delay) {
+			super(smtConfig,null);
+			this.answer = answer;
+			this.delay = delay;
+		}
+
+		@Override
+		public Future<IResponse> submit(ICommand command) {
+			commands.add(((Command)command).commandName());
+			return super.submit(command);
+		}
+
+		@Override
+		public IResponse assertExpr(IExpr expr) {
+			if (fail) throw new RuntimeException("backend failed");
+			return super.assertExpr(expr);
+		}
+
+		@Override
+		public IResponse check_sat() {
+			if (fail) throw new RuntimeException("backend failed");
+			IResponse r = super.check_sat();
+			if (r.isError()) return r;
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if ("sat".equals(answer)) checkSatStatus = smtConfig.responseFactory.sat();
+			else if ("unsat".equals(answer)) checkSatStatus = smtConfig.responseFactory.unsat();
+			return checkSatStatus;
+		}
+	}
+
+	Solver_portfolio portfolio;
+
+	@Override
+	@Before
+	public void setup() {
+		super.setup();
+		// The echo command is not valid in V2.0, which an earlier test may have left selected
+		SMT.Configuration.smtlib = null;
+	}
+
+	/** Creates and starts a portfolio of the given backends, named a, b, ..., with the logic set */
+	Solver_portfolio portfolio(ISolver... backends) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < backends.length; i++) names.add(String.valueOf((char)('a' + i)));
+		portfolio = new Solver_portfolio(smt.smtConfig,names,Arrays.asList(backends));
+		checkResponse(portfolio.start());
+		checkResponse(portfolio.set_logic("QF_UF",null));
+		checkResponse(exec("(declare-fun p () Bool)"));
+		return portfolio;
+	}
+
+	@Override
+	@After
+	public void teardown() {
+		if (portfolio != null) portfolio.exit();
+		super.teardown();
+	}
+
+	/** Executes the command with the portfolio, returning the response */
+	IResponse exec(String input) {
+		ICommand command = parseCommand(input);
+		Assert.assertNotNull(command);
+		return command.execute(portfolio);
+	}
+
+	@Test
+	public void checkMirroring() {
+		Backend a = new Backend(smt.smtConfig,"sat",0);
+		Backend b = new Backend(smt.smtConfig,"sat",0);
+		portfolio(a,b);
+		checkResponse(exec("(push 1)"));
+		checkResponse(exec("(assert p)"));
+		checkResponse(exec("(pop 1)"));
+		checkResponse(exec("(set-info :source |test|)"));
+		List<String> expected = Arrays.asList("set-logic","declare-fun","push","assert","pop","set-info");
+		Assert.assertEquals(expected,a.commands);
+		Assert.assertEquals(expected,b.commands);
+		// A command asking about the state goes to the lead backend only
+		checkResponse(exec("(echo \"x\")"));
+		Assert.assertEquals("echo",a.commands.get(a.commands.size()-1));
+		Assert.assertEquals(expected,b.commands);
+	}
+
+	@Test
+	public void checkRace() {
+		Backend a = new Backend(smt.smtConfig,"sat",1000);
+		Backend b = new Backend(smt.smtConfig,"sat",0);
+		portfolio(a,b);
+		checkResponse(exec("(assert p)"));
+		long start = System.currentTimeMillis();
+		Assert.assertEquals("sat",portfolio.check_sat().toString());
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertEquals("sat",portfolio.checkSatStatus().toString());
+		// Both were given check-sat; the faster one leads
+		Assert.assertTrue(a.commands.contains("check-sat"));
+		Assert.assertTrue(b.commands.contains("check-sat"));
+		checkResponse(exec("(echo \"x\")"));
+		Assert.assertEquals("echo",b.commands.get(b.commands.size()-1));
+		Assert.assertFalse(a.commands.contains("echo"));
+	}
+
+	@Test
+	public void checkDefinitePreferred() {
+		// A definite answer is waited for, even if an unknown one comes first
+		Backend a = new Backend(smt.smtConfig,null,0);
+		Backend b = new Backend(smt.smtConfig,"unsat",300);
+		portfolio(a,b);
+		Assert.assertEquals("unsat",portfolio.check_sat().toString());
+		checkResponse(exec("(echo \"x\")"));
+		Assert.assertTrue(b.commands.contains("echo"));
+		Assert.assertFalse(a.commands.contains("echo"));
+	}
+
+	@Test
+	public void checkNoDefiniteAnswer() {
+		Backend a = new Backend(smt.smtConfig,null,0);
+		Backend b = new Backend(smt.smtConfig,null,100);
+		portfolio(a,b);
+		Assert.assertEquals("unknown",portfolio.check_sat().toString());
+	}
+
+	@Test
+	public void checkDisagreement() {
+		// The first definite answer is taken; the backends are not checked against each other
+		Backend a = new Backend(smt.smtConfig,"unsat",300);
+		Backend b = new Backend(smt.smtConfig,"sat",0);
+		portfolio(a,b);
+		Assert.assertEquals("sat",portfolio.check_sat().toString());
+		checkResponse(exec("(echo \"x\")"));
+		Assert.assertTrue(b.commands.contains("echo"));
+		// The lead is chosen again at each check-sat
+		Backend c = new Backend(smt.smtConfig,"sat",300);
+		Backend d = new Backend(smt.smtConfig,"unsat",0);
+		portfolio.exit();
+		portfolio(c,d);
+		Assert.assertEquals("unsat",portfolio.check_sat().toString());
+	}
+
+	@Test
+	public void checkFailingBackend() {
+		Backend a = new Backend(smt.smtConfig,"sat",100);
+		Backend b = new Backend(smt.smtConfig,"sat",0);
+		portfolio(a,b);
+		b.fail = true;
+		// The failure of any backend is reported
+		checkResponse(exec("(assert p)"),"b failed: java.lang.RuntimeException: backend failed");
+		// A check-sat is answered by the backends that do not fail
+		Assert.assertEquals("sat",portfolio.check_sat().toString());
+		checkResponse(exec("(echo \"x\")"));
+		Assert.assertTrue(a.commands.contains("echo"));
+		// If all fail, the error is returned
+		a.fail = true;
+		IResponse r = portfolio.check_sat();
+		Assert.assertTrue(r.isError());
+		Assert.assertTrue(((IResponse.IError)r).errorMsg(),((IResponse.IError)r).errorMsg().endsWith("failed: java.lang.RuntimeException: backend failed"));
+	}
+
+	/** A stand-in for z3 that writes each line it reads to the given log, after a START line for
+	 * each process, and answers check-sat as the given shell command does (which may never answer) */
+	static String script(File log, String checkSat) {
+		return "#!/bin/sh\n" +
+				"echo START >> '" + log.getPath() + "'\n" +
+				"while IFS= read -r x; do\n" +
+				"  echo \"$x\" >> '" + log.getPath() + "'\n" +
+				"  case \"$x\" in\n" +
+				"    *check-sat*) " + checkSat + " ;;\n" +
+				"    *exit*) echo success; exit 0 ;;\n" +
+				"    *) echo success ;;\n" +
+				"  esac\n" +
+				"done\n";
+	}
+
+	/** A stand-in for z3, as for script(), that does not answer check-sat */
+	static String hangingScript(File log) {
+		return script(log,"read -r y");
+	}
+
+	/** Returns the text sent to each process the stand-in with the given log has run */
+	static String[] runs(File log) throws IOException {
+		String[] runs = new String(Files.readAllBytes(log.toPath()),StandardCharsets.US_ASCII).split("START\n",-1);
+		return Arrays.copyOfRange(runs,1,runs.length);
+	}
+
+	/** Creates an executable file with the given contents */
+	static File executable(String contents) throws IOException {
+		File exe = File.createTempFile("fakez3",".sh");
+		Writer w = new FileWriter(exe);
+		w.write(contents);
+		w.close();
+		exe.setExecutable(true);
+		return exe;
+	}
+
+	@Test
+	public void checkLoserKept() throws Exception {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		File log = File.createTempFile("portfolio",".log");
+		File exe = executable(script(log,"sleep 1; echo sat"));
+		try {
+			Solver_z3_4_3 z3 = new Solver_z3_4_3(smt.smtConfig,exe.getPath());
+			Backend fast = new Backend(smt.smtConfig,"sat",0);
+			portfolio(z3,fast);
+			checkResponse(exec("(assert p)"));
+			Assert.assertEquals("sat",portfolio.check_sat().toString());
+			// A command for the winner does not interrupt the stand-in, which finishes its check-sat
+			checkResponse(exec("(echo \"x\")"));
+			Thread.sleep(1500);
+			checkResponse(exec("(assert (not p))"));
+			String[] runs = runs(log);
+			Assert.assertEquals(1,runs.length);
+			Assert.assertTrue(runs[0],runs[0].endsWith("(check-sat)\n(assert (not p))\n"));
+		} finally {
+			exe.delete();
+			log.delete();
+		}
+	}
+
+	@Test
+	public void checkReplay() throws IOException {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		final File log = File.createTempFile("portfolio",".log");
+		File exe = executable(hangingScript(log));
+		try {
+			Solver_z3_4_3 z3 = new Solver_z3_4_3(smt.smtConfig,exe.getPath());
+			// Answers once the stand-in has been sent check-sat, so that it is interrupted while busy
+			Backend fast = new Backend(smt.smtConfig,"sat",0) {
+				@Override
+				public IResponse check_sat() {
+					try {
+						while (!new String(Files.readAllBytes(log.toPath()),StandardCharsets.US_ASCII).contains("check-sat")) {
+							Thread.sleep(10);
+						}
+					} catch (Exception e) {
+						Assert.fail(e.toString());
+					}
+					return super.check_sat();
+				}
+			};
+			portfolio(z3,fast);
+			checkResponse(exec("(assert p)"));
+			Assert.assertEquals("sat",portfolio.check_sat().toString());
+			// The stand-in is still checking when the next command comes, so it is interrupted and
+			// given the command once it has been restarted
+			checkResponse(exec("(assert (not p))"));
+			String[] runs = runs(log);
+			Assert.assertEquals(2,runs.length);
+			// The losing backend's new process is sent everything but the check-sat again
+			String first = runs[0];
+			Assert.assertTrue(first,first.endsWith("(check-sat)\n"));
+			String replayed = first.substring(0,first.length() - "(check-sat)\n".length());
+			Assert.assertTrue(replayed,replayed.contains("(assert p)\n"));
+			Assert.assertTrue(runs[1],runs[1].startsWith(replayed));
+			Assert.assertTrue(runs[1],runs[1].endsWith("(assert (not p))\n"));
+		} finally {
+			exe.delete();
+			log.delete();
+		}
+	}
+}
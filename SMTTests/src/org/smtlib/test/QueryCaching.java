@@ -0,0 +1,136 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.CachingSolver;
+import org.smtlib.IResponse;
+import org.smtlib.QueryCache;
+import org.smtlib.solvers.Solver_test;
+
+public class QueryCaching extends TypeCheckRoot {
+
+	File file;
+	QueryCache cache;
+
+	@Before
+	public void open() throws IOException {
+		file = File.createTempFile("queries",".cache");
+		file.deleteOnExit();
+		cache = new QueryCache(file,QueryCache.DEFAULT_CAPACITY);
+	}
+
+	@After
+	public void close() throws IOException {
+		cache.close();
+	}
+
+	/** A store of the given number of results */
+	QueryCache store(int entries) throws IOException {
+		return new QueryCache(file,24 + 32*entries);
+	}
+
+	@Test
+	public void checkEviction() throws IOException {
+		cache.close();
+		cache = store(3);
+		cache.put("a",true);
+		cache.put("b",false);
+		cache.put("c",true);
+		Assert.assertEquals(Boolean.TRUE,cache.get("a"));
+		cache.put("d",false);
+		// b was the least recently used
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(Boolean.FALSE,cache.get("d"));
+		Assert.assertEquals(1,cache.evictions());
+		Assert.assertEquals(3,cache.entries());
+		Assert.assertEquals(2,cache.hits());
+		Assert.assertEquals(1,cache.misses());
+	}
+
+	@Test
+	public void checkPersistence() throws IOException {
+		cache.put("a",true);
+		cache.put("b",false);
+		cache.put("c",true);
+		cache.close();
+		cache = new QueryCache(file,QueryCache.DEFAULT_CAPACITY);
+		Assert.assertEquals(Boolean.TRUE,cache.get("a"));
+		Assert.assertEquals(Boolean.FALSE,cache.get("b"));
+		Assert.assertNull(cache.get("d"));
+		cache.close();
+		// A smaller store keeps the most recently used results
+		cache = store(2);
+		Assert.assertEquals(2,cache.entries());
+		Assert.assertNull(cache.get("c"));
+		Assert.assertEquals(Boolean.TRUE,cache.get("a"));
+		Assert.assertEquals(Boolean.FALSE,cache.get("b"));
+	}
+
+	@Test
+	public void checkInUse() throws IOException {
+		try {
+			new QueryCache(file,QueryCache.DEFAULT_CAPACITY);
+			Assert.fail("Expected the file to be locked");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/** Executes the commands with the caching solver, returning the canonical form of the query */
+	String query(CachingSolver s, String... commands) {
+		s.reset();
+		for (String c: commands) checkResponse(parseCommand(c).execute(s));
+		return s.canonicalForm();
+	}
+
+	@Test
+	public void checkCanonicalForm() {
+		CachingSolver s = new CachingSolver(smt.smtConfig,cache,solver);
+		String q = query(s,"(set-logic LIA)","(declare-fun x () Int)","(declare-fun y () Int)",
+				"(assert (< x y))","(assert (forall ((k Int)) (> (+ x k) y)))");
+		// Renamed, reordered and with an unused declaration
+		Assert.assertEquals(q,query(s,"(set-logic LIA)","(declare-fun b () Int)","(declare-fun a () Int)","(declare-fun z () Bool)",
+				"(assert (forall ((j Int)) (> (+ a j) b)))","(assert (< a b))"));
+		Assert.assertFalse(q.equals(query(s,"(set-logic LIA)","(declare-fun x () Int)","(declare-fun y () Int)",
+				"(assert (< x y))","(assert (forall ((k Int)) (> (+ y k) x)))")));
+		// Assertion sets that have been popped do not count
+		Assert.assertEquals(q,query(s,"(set-logic LIA)","(declare-fun x () Int)","(declare-fun y () Int)",
+				"(assert (< x y))","(push 1)","(assert (< y x))","(pop 1)","(assert (forall ((k Int)) (> (+ x k) y)))"));
+		// Definitions are part of the query
+		String d = query(s,"(set-logic QF_LIA)","(declare-fun x () Int)","(define-fun f ((n Int)) Int (+ n 1))",
+				"(assert (< (f x) 0))");
+		Assert.assertFalse(d.equals(query(s,"(set-logic QF_LIA)","(declare-fun x () Int)","(define-fun f ((n Int)) Int (+ n 2))",
+				"(assert (< (f x) 0))")));
+	}
+
+	@Test
+	public void checkHits() {
+		final int[] checks = { 0 };
+		Solver_test backend = new Solver_test(smt.smtConfig,null) {
+			@Override
+			public IResponse check_sat() {
+				++checks[0];
+				IResponse r = super.check_sat();
+				return r.isError() ? r : smt.smtConfig.responseFactory.sat();
+			}
+		};
+		CachingSolver s = new CachingSolver(smt.smtConfig,cache,backend);
+		checkResponse(s.start());
+		query(s,"(set-logic QF_LIA)","(declare-fun x () Int)","(assert (< x 0))");
+		Assert.assertEquals(smt.smtConfig.responseFactory.sat(),s.check_sat());
+		query(s,"(set-logic QF_LIA)","(declare-fun y () Int)","(assert (< y 0))");
+		Assert.assertEquals(smt.smtConfig.responseFactory.sat(),s.check_sat());
+		Assert.assertEquals(1,checks[0]);
+		Assert.assertEquals("(:cache-hits 1 :cache-misses 1 :cache-hit-rate 0.500 :cache-entries 1 :cache-capacity 524287 :cache-size 16777208 :cache-evictions 0 )",
+				smt.smtConfig.defaultPrinter.toString(s.get_info(smt.smtConfig.exprFactory.keyword(":all-statistics"))));
+		// The backend checks the assertions before answering questions about them
+		s.get_assignment();
+		Assert.assertEquals(2,checks[0]);
+		s.exit();
+	}
+}
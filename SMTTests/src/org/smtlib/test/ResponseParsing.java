@@ -0,0 +1,99 @@
+package org.smtlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.IResponse;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ISexpr;
+import org.smtlib.sexpr.Parser;
+import org.smtlib.sexpr.ResponseParser;
+
+public class ResponseParsing extends TypeCheckRoot {
+
+	/** Parses the given response text, returning the printed form of the result */
+	String parse(ResponseParser p) throws ParserException {
+		IResponse r = p.parse();
+		return smt.smtConfig.defaultPrinter.toString(r);
+	}
+
+	/** Parses the given response text with no dialect hooks */
+	String parse(String response) throws ParserException {
+		return parse(new ResponseParser(smt.smtConfig,response));
+	}
+
+	/** Checks that the response is parsed as the general S-expression parser parses it */
+	void check(String response) throws ParserException {
+		Parser p = new Parser(smt.smtConfig,new Pos.Source(response,null));
+		Assert.assertEquals(smt.smtConfig.defaultPrinter.toString(p.parseResponse(response)),parse(response));
+	}
+
+	@Test
+	public void checkSimple() throws ParserException {
+		check("sat\n");
+		check("  success");
+		check("unknown");
+		check(" \n");
+		check("(:name \"z3\")\n");
+		check("((x 1)\n (y (- 2.5))) ; a comment\n");
+		check("((|a b| #x1F) (:c))");
+	}
+
+	@Test
+	public void checkErrors() throws ParserException {
+		Assert.assertEquals("(error \"a; b\")",parse("(error \"a\")\n(error \"b\")"));
+		Assert.assertEquals("(error \"c\")",parse("((x 1))\n(error \"c\")"));
+		ResponseParser p = new ResponseParser(smt.smtConfig,"(error \"d\")") {
+			@Override
+			protected String errorMessage(String msg) {
+				return "line 1: " + msg;
+			}
+		};
+		Assert.assertEquals("(error \"line 1: d\")",parse(p));
+		try {
+			parse("((x 1)");
+			Assert.fail();
+		} catch (ParserException e) {
+			Assert.assertEquals("Unbalanced parentheses at end of input",e.getMessage());
+		}
+	}
+
+	@Test
+	public void checkDialect() throws ParserException {
+		ResponseParser p = new ResponseParser(smt.smtConfig,"((x bv5[4]) (y bv300[8]))") {
+			@Override
+			protected ISexpr dialectToken(CharSequence cs, int p) {
+				return oldBitVector(cs,p);
+			}
+		};
+		Assert.assertEquals("( ( x #b0101 ) ( y #b00101100 ) )",parse(p));
+		check("((x #b0101) (y #b00101100))");
+	}
+
+	@Test
+	public void checkDeep() throws ParserException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) sb.append("(f ");
+		sb.append("x");
+		for (int i = 0; i < 100000; i++) sb.append(')');
+		ISexpr s = (ISexpr)new ResponseParser(smt.smtConfig,sb).parse();
+		Assert.assertTrue(s instanceof ISexpr.ISeq);
+	}
+
+	@Test
+	public void checkReuse() throws ParserException {
+		// One parser is given each response in turn
+		ResponseParser p = new ResponseParser(smt.smtConfig);
+		Assert.assertEquals("sat",smt.smtConfig.defaultPrinter.toString(p.parse("sat\n")));
+		Assert.assertEquals("( ( x 1 ) )",smt.smtConfig.defaultPrinter.toString(p.parse("((x 1))\n")));
+		try {
+			p.parse("((y 2)");
+			Assert.fail();
+		} catch (ParserException e) {
+			// The position is within the response being parsed
+			Assert.assertEquals("((y 2)",e.pos().source().chars().toString());
+			Assert.assertEquals(0,e.pos().charStart());
+		}
+		Assert.assertEquals("unsat",smt.smtConfig.defaultPrinter.toString(p.parse("unsat")));
+	}
+}
@@ -0,0 +1,127 @@
+package org.smtlib.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.IExpr;
+import org.smtlib.IResponse;
+import org.smtlib.Simplifier;
+import org.smtlib.sexpr.Printer;
+import org.smtlib.solvers.Solver_test;
+
+public class Simplify extends TypeCheckRoot {
+
+	@Override
+	@Before
+	public void setup() {
+		super.setup();
+		checkResponse(solver.set_logic("AUFNIRA",null));
+	}
+
+	/** Checks that the input expression simplifies to the expected one */
+	public void simp(String input, String expected) {
+		IExpr e = parseExpr(input);
+		Assert.assertTrue(listener.msgs.isEmpty());
+		Assert.assertEquals(expected,Printer.write(new Simplifier(smt.smtConfig).simplify(e)));
+	}
+
+	@Test
+	public void checkCore() {
+		simp("(not (not p))","p");
+		simp("(and p true (and q (or false r)) true)","(and p q r)");
+		simp("(and p false q)","false");
+		simp("(or p (not true))","p");
+		simp("(=> true false p)","true");
+		simp("(=> true p q)","(=> p q)");
+		simp("(=> p true)","true");
+		simp("(xor true false true)","false");
+		simp("(ite (not false) a b)","a");
+		simp("(ite c (f a) (f a))","(f a)");
+		simp("(= (f a b) (f a b))","true");
+		simp("(= p true)","p");
+		simp("(distinct (g x) (g x))","false");
+		simp("(forall ((x Int)) (or (> x 0) true))","true");
+		simp("(! (and p true) :named n)","(! p :named n)");
+		simp("(let ((and or)) (and p true))","(let ((and or) ) (and p true))");
+		simp("(f p q)","(f p q)");
+	}
+
+	@Test
+	public void checkArithmetic() {
+		simp("(+ 1 2 (* 3 4))","15");
+		simp("(- 2 5)","(- 3)");
+		simp("(+ (- 3) 3)","0");
+		simp("(div (- 7) 2)","(- 4)");
+		simp("(mod (- 7) 2)","1");
+		simp("(div 7 0)","(div 7 0)");
+		simp("(abs (- 3))","3");
+		simp("(/ 1.0 4.0)","0.25");
+		simp("(/ 1.0 3.0)","(/ 1.0 3.0)");
+		simp("(< 1 2 3)","true");
+		simp("(>= 1.5 2.0)","false");
+		simp("(= 1 2)","false");
+		simp("(= 2.0 2.00)","true");
+		simp("(distinct 1 2 3)","true");
+		simp("(+ 1 2.0)","(+ 1 2.0)");
+		simp("(+ x 1 2)","(+ x 1 2)");
+	}
+
+	@Test
+	public void checkBitVectors() {
+		simp("(bvadd #b1111 #b0001)","#b0000");
+		simp("(bvnot #x0f)","#xf0");
+		simp("(bvneg #b001)","#b111");
+		simp("(concat #b1 #x1)","#b10001");
+		simp("(concat #xa #x1)","#xa1");
+		simp("((_ extract 4 1) #b110110)","#b1011");
+		simp("(bvult #b01 #b10)","true");
+		simp("(= #b01 #x1)","(= #b01 #x1)");
+		simp("(bvand #b01 #b011)","(bvand #b01 #b011)");
+	}
+
+	@Test
+	public void checkAssert() {
+		smt.smtConfig.simplify = true;
+		doCommand("(declare-fun p () Bool)");
+		doCommand("(assert (and p (> 2 1)))");
+		// The formula is type checked before it is simplified, so the discarded subterm is checked
+		doCommand("(assert (or (= 1 1) (undeclared 1)))","Unknown predicate symbol undeclared with argument types Int");
+		doCommand("(assert (ite true 1 true))","The last two arguments of ite have different sorts");
+		smt.smtConfig.simplify = false;
+		doCommand("(assert (or (= 1 1) (undeclared 1)))","Unknown predicate symbol undeclared with argument types Int");
+	}
+
+	@Test
+	public void checkGiven() {
+		// Records the formulas given to the underlying solver, and whether they are sorted
+		final List<String> given = new ArrayList<String>();
+		solver = new Solver_test(smt.smtConfig,null) {
+			@Override
+			protected IResponse assertChecked(IExpr expr) {
+				given.add(Printer.write(expr) + (typemap.get(expr) == null ? " unsorted" : ""));
+				return super.assertChecked(expr);
+			}
+		};
+		checkResponse(solver.start());
+		doCommand("(set-option :interactive-mode true)");
+		checkResponse(solver.set_logic("AUFNIRA",null));
+		smt.smtConfig.simplify = true;
+		doCommand("(declare-fun p () Bool)");
+		doCommand("(declare-fun x () Int)");
+		doCommand("(assert (and p (> 2 1)))");
+		doCommand("(assert (or p (= 1 1)))");
+		doCommand("(assert (= x (+ 1 2)))");
+		// A formula that simplifies to true is not given to the solver, but is still an assertion
+		Assert.assertEquals(Arrays.asList("p","(= x 3)"),given);
+		List<IExpr> assertions = ((IResponse.IAssertionsResponse)solver.get_assertions()).assertions();
+		Assert.assertEquals(3,assertions.size());
+		Assert.assertEquals("(or p (= 1 1))",Printer.write(assertions.get(1)));
+		smt.smtConfig.simplify = false;
+		doCommand("(assert (or p (= 1 1)))");
+		Assert.assertEquals("(or p (= 1 1))",given.get(2));
+	}
+}
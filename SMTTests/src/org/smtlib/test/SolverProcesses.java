@@ -0,0 +1,343 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.smtlib.IResponse;
+import org.smtlib.SolverPool;
+import org.smtlib.SolverProcess;
+
+public class SolverProcesses extends TypeCheckRoot {
+
+	/** Starts a shell running the given script, with responses ending with a newline */
+	SolverProcess shell(String script) {
+		return shell(script,null);
+	}
+
+	/** Starts a shell running the given script, taking it from the given pool if possible */
+	SolverProcess shell(String script, SolverPool pool) {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		SolverProcess p = new SolverProcess(new String[]{"sh","-c",script},"\n",null);
+		p.pool = pool;
+		p.start(false);
+		return p;
+	}
+
+	@Test
+	public void checkOrder() throws Exception {
+		SolverProcess p = shell("cat");
+		Future<String> a = p.sendAsync("(a\n b)\n");
+		Future<String> b = p.sendAsync("c\n");
+		Assert.assertEquals("(a\n b)\n",a.get());
+		Assert.assertEquals("c\n",b.get());
+		Assert.assertEquals("d\n",p.sendAndListen("d\n"));
+		p.exit();
+	}
+
+	@Test
+	public void checkErrorsDoNotBlock() throws IOException {
+		// More error output than a pipe holds, written before the response
+		SolverProcess p = shell("read x; head -c 500000 /dev/zero | tr '\\0' x >&2; echo done");
+		Assert.assertEquals("done\n",p.sendAndListen("go\n"));
+		p.exit();
+	}
+
+	@Test
+	public void checkEnd() throws IOException {
+		SolverProcess p = shell("echo one");
+		Assert.assertEquals("one\n",p.listen());
+		// Once the output has ended, the response is empty
+		Assert.assertEquals("",p.listen());
+		p.exit();
+	}
+
+	@Test
+	public void checkPool() throws IOException {
+		SolverPool pool = new SolverPool(1);
+		String script = "while read x; do echo \"$$ $x\"; done";
+		SolverProcess p = shell(script,pool);
+		Assert.assertTrue(p.sendAndListen("a\n").endsWith(" a\n"));
+		p.exit();
+		// The response to (reset) has been read before the process is reused
+		SolverProcess q = shell(script,pool);
+		Assert.assertTrue(q.sendAndListen("b\n").endsWith(" b\n"));
+		q.exit();
+		SolverProcess r = shell(script,pool);
+		Assert.assertTrue(r.sendAndListen("c\n").endsWith(" c\n"));
+		r.exit();
+		pool.close();
+	}
+
+	@Test
+	public void checkPoolClose() throws Exception {
+		SolverPool pool = new SolverPool(1);
+		pool.resetTimeout = 300;
+		// Answers each line with its process id, except that it does not answer (reset)
+		SolverProcess p = shell("while read x; do case \"$x\" in *reset*) sleep 60 ;; *) echo $$ ;; esac; done",pool);
+		String pid = p.sendAndListen("a\n").trim();
+		p.exit();
+		// The process being reset is stopped, once the reset times out, before close returns
+		long start = System.currentTimeMillis();
+		pool.close();
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		if (new File("/proc/self").exists()) {
+			File proc = new File("/proc/" + pid);
+			for (int i = 0; i < 10 && proc.exists(); i++) Thread.sleep(10);
+			Assert.assertFalse(proc.exists());
+		}
+		// A process given to a closed pool is not kept
+		SolverProcess q = shell("cat",pool);
+		Assert.assertEquals("b\n",q.sendAndListen("b\n"));
+		q.exit();
+	}
+
+	@Test
+	public void checkRestart() throws IOException, TimeoutException {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		// Responds with the number of lines read, except to 'hang'
+		SolverProcess p = new SolverProcess(new String[]{"sh","-c",
+				"n=0; while read x; do n=$((n+1)); if [ $x = hang ]; then sleep 5; else echo $n; fi; done"},"\n",null);
+		p.keepTranscript = true;
+		p.start(false);
+		Assert.assertEquals("1\n",p.sendAndListen("a\n"));
+		try {
+			p.sendQuery(200,"hang\n");
+			Assert.fail("Expected a timeout");
+		} catch (TimeoutException e) {
+			// expected
+		}
+		// The new process is sent the line 'a' again, but not the query
+		p.restart();
+		Assert.assertEquals("2\n",p.sendAndListen("b\n"));
+		Assert.assertEquals("3\n",p.sendQuery(1000,"c\n"));
+		p.exit();
+	}
+
+	@Test
+	public void checkRestartAfterPop() throws IOException {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		// Responds with the number of lines read
+		SolverProcess p = new SolverProcess(new String[]{"sh","-c",
+				"n=0; while read x; do n=$((n+1)); echo $n; done"},"\n",null);
+		p.keepTranscript = true;
+		p.start(false);
+		Assert.assertEquals("1\n",p.sendAndListen("a\n"));
+		p.pushing(2);
+		Assert.assertEquals("2\n",p.sendAndListen("push 2\n"));
+		Assert.assertEquals("3\n",p.sendAndListen("b\n"));
+		p.pushing(1);
+		Assert.assertEquals("4\n",p.sendAndListen("push 1\n"));
+		Assert.assertEquals("5\n",p.sendAndListen("c\n"));
+		Assert.assertEquals("6\n",p.sendAndListen("pop 1\n"));
+		p.popped(1);
+		// The new process is sent 'a', 'push 2' and 'b' again
+		p.restart();
+		Assert.assertEquals("4\n",p.sendAndListen("pop 2\n"));
+		p.popped(2);
+		// Back at the base level, only 'a' is sent again
+		p.restart();
+		Assert.assertEquals("2\n",p.sendAndListen("d\n"));
+		// A pop of more levels than were pushed leaves the transcript as it is
+		p.popped(1);
+		p.restart();
+		Assert.assertEquals("3\n",p.sendAndListen("e\n"));
+		p.exit();
+	}
+
+	@Test
+	public void checkInterrupt() throws Exception {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		final SolverProcess p = new SolverProcess(new String[]{"sh","-c",
+				"n=0; while read x; do n=$((n+1)); if [ $x = hang ]; then sleep 5; else echo $n; fi; done"},"\n",null);
+		p.keepTranscript = true;
+		p.start(false);
+		Assert.assertEquals("1\n",p.sendAndListen("a\n"));
+		// An interrupt before the query stops it from being sent
+		p.interrupt();
+		try {
+			p.sendQuery(0,"b\n");
+			Assert.fail("Expected an interrupted query");
+		} catch (TimeoutException e) {
+			Assert.assertFalse(p.busy());
+		}
+		// A withdrawn interrupt has no effect
+		p.interrupt();
+		p.clearInterrupt();
+		Assert.assertEquals("2\n",p.sendQuery(0,"c\n"));
+		// An interrupt while waiting for the response
+		new Thread() {
+			@Override
+			public void run() {
+				try { Thread.sleep(200); } catch (InterruptedException e) { return; }
+				p.interrupt();
+			}
+		}.start();
+		try {
+			p.sendQuery(0,"hang\n");
+			Assert.fail("Expected an interrupted query");
+		} catch (TimeoutException e) {
+			Assert.assertTrue(p.busy());
+		}
+		p.restart();
+		// The new process is sent only the line 'a' again
+		Assert.assertEquals("2\n",p.sendQuery(1000,"d\n"));
+		p.exit();
+	}
+
+	@Test
+	public void checkText() throws IOException {
+		Assume.assumeTrue(!System.getProperty("os.name").contains("Wind"));
+		File log = File.createTempFile("solver",".log");
+		log.deleteOnExit();
+		SolverProcess p = new SolverProcess(new String[]{"cat"},"\n",log.getPath());
+		p.start(false);
+		SolverProcess.Text text = new SolverProcess.Text() {
+			@Override
+			public void write(Writer w) throws IOException {
+				w.write("(a");
+				w.append(' ').append("b)");
+			}
+		};
+		Assert.assertEquals("(a b)\n",p.sendAndListen(text,"\n"));
+		p.exit();
+		// The log is complete once the process has exited
+		String logged = new String(Files.readAllBytes(log.toPath()),StandardCharsets.US_ASCII);
+		Assert.assertTrue(logged,logged.contains("(a b)\n;OUT: (a b)\n"));
+		Assert.assertTrue(logged,logged.endsWith(";;Exiting solver" + System.getProperty("line.separator")));
+	}
+
+	@Test
+	public void checkFailedText() throws IOException {
+		SolverProcess p = shell("cat");
+		SolverProcess.Text bad = new SolverProcess.Text() {
+			@Override
+			public void write(Writer w) throws IOException {
+				w.write("(a");
+				throw new IOException("cannot translate");
+			}
+		};
+		try {
+			p.sendAndListen("(assert ",bad,")\n");
+			Assert.fail("Expected an IOException");
+		} catch (IOException e) {
+			Assert.assertEquals("cannot translate",e.getMessage());
+		}
+		// Nothing of the failed command was sent, and its response is not expected
+		Assert.assertEquals("b\n",p.sendAndListen("b\n"));
+		Assert.assertFalse(p.busy());
+		p.exit();
+	}
+
+	/** A Text that writes more than the buffer of the writer to the process holds, then fails */
+	static final SolverProcess.Text longBad = new SolverProcess.Text() {
+		@Override
+		public void write(Writer w) throws IOException {
+			for (int i = 0; i <= SolverProcess.BUFFER_SIZE; i++) w.write('x');
+			throw new IOException("cannot translate");
+		}
+	};
+
+	@Test
+	public void checkFailedLongText() throws IOException {
+		// Answers each line with the process id and the line
+		SolverProcess p = shell("while IFS= read -r x; do echo \"$$ $x\"; done");
+		p.keepTranscript = true;
+		String first = p.sendAndListen("a\n");
+		String pid = first.substring(0,first.indexOf(' '));
+		try {
+			p.sendAndListen("(assert ",longBad,")\n");
+			Assert.fail("Expected an IOException");
+		} catch (IOException e) {
+			Assert.assertEquals("cannot translate",e.getMessage());
+		}
+		// Part of the command was sent, so the process has been restarted, without it
+		String next = p.sendAndListen("b\n");
+		Assert.assertFalse(next,next.startsWith(pid + " "));
+		Assert.assertTrue(next,next.endsWith(" b\n"));
+		Assert.assertFalse(p.busy());
+		p.exit();
+		// Without a transcript the process cannot be restarted as it was, so it is stopped
+		p = shell("cat");
+		try {
+			p.sendAndListen(longBad,"\n");
+			Assert.fail("Expected an IOException");
+		} catch (IOException e) {
+			Assert.assertEquals("cannot translate",e.getMessage());
+		}
+		try {
+			p.sendAndListen("b\n");
+			Assert.fail("Expected the process to be stopped");
+		} catch (SolverProcess.ProverException e) {
+			Assert.assertEquals("The solver was stopped because a command could only be sent in part",e.getMessage());
+		}
+		p.exit();
+	}
+
+	/** Gives the tests the log writer of SolverProcess */
+	static class Logs extends SolverProcess {
+		static final int LIMIT = AsyncLog.LIMIT;
+		Logs() {
+			super(new String[0],"\n",null);
+		}
+		static Writer log(Writer out) {
+			return new AsyncLog(out);
+		}
+	}
+
+	@Test
+	public void checkLogLimit() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		// A log file that cannot be written until released
+		Writer slow = new Writer() {
+			@Override
+			public void write(char[] buf, int off, int len) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e.toString());
+				}
+			}
+			@Override public void flush() {}
+			@Override public void close() {}
+		};
+		final Writer log = Logs.log(slow);
+		final char[] text = new char[Logs.LIMIT];
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 3; i++) log.write(text);
+				} catch (IOException e) {
+					// Fails the test below
+				}
+			}
+		};
+		writer.start();
+		// One write is being written out and one is waiting, so the third waits
+		writer.join(500);
+		Assert.assertTrue(writer.isAlive());
+		release.countDown();
+		writer.join(5000);
+		Assert.assertFalse(writer.isAlive());
+		log.close();
+	}
+
+	@Test
+	public void checkSubmit() throws Exception {
+		Future<IResponse> logic = solver.submit(parseCommand("(set-logic QF_LIA)"));
+		Future<IResponse> decl = solver.submit(parseCommand("(declare-fun x () Int)"));
+		Future<IResponse> bad = solver.submit(parseCommand("(assert (< x 1.0))"));
+		checkResponse(logic.get());
+		checkResponse(decl.get());
+		checkResponse(bad.get(),"No sort specified for decimal literal");
+	}
+}
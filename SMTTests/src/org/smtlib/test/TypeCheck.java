@@ -1,7 +1,9 @@
 package org.smtlib.test;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.smtlib.ISort;
 
 // FIXME - need to check complex sorts; parameterized definitions; Int and NUMERAL types; variadic functions; parameterized function sorts
 // FIXME - need to implement checking of sort expressions
@@ -217,5 +219,60 @@ public class TypeCheck extends TypeCheckRoot {
 		doCommand("(assert (= q qb))","Mismatched sorts of arguments: (X Y) vs. (Z Bool)");
 	}
 	
+	/** Returns the sort of the given constant */
+	ISort sortOf(String name) {
+		return solver.symTable.lookup(0,smt.smtConfig.exprFactory.symbol(name)).resultSort();
+	}
+	
+	@Test
+	public void checkCanonicalSorts() {
+		doCommand("(declare-sort X 1)");
+		doCommand("(declare-sort Y 0)");
+		doCommand("(define-sort Z () (X Y))");
+		doCommand("(define-sort W () Y)");
+		doCommand("(declare-fun q () (X Y))");
+		doCommand("(declare-fun qb () Z)");
+		doCommand("(declare-fun qc () (X W))");
+		doCommand("(declare-fun qd () (X Bool))");
+		// Equal sorts have the same canonical sort, whether or not written with abbreviations
+		Assert.assertNotNull(sortOf("q").canonical());
+		Assert.assertSame(sortOf("q").canonical(),sortOf("qb").canonical());
+		Assert.assertSame(sortOf("q").canonical(),sortOf("qc").canonical());
+		Assert.assertNotSame(sortOf("q").canonical(),sortOf("qd").canonical());
+		Assert.assertSame(sortOf("q").canonical(),sortOf("q").canonical().canonical());
+		doCommand("(assert (= q qc))");
+		doCommand("(assert (= qb qd))","Mismatched sorts of arguments: Z vs. (X Bool)");
+	}
+	
+	@Test
+	public void checkResolvedAbbrev() {
+		doCommand("(declare-sort X 1)");
+		doCommand("(declare-sort Y 0)");
+		doCommand("(define-sort Z () (X Y))");
+		doCommand("(declare-fun f ((X Y)) Bool)");
+		doCommand("(declare-fun q () (X Y))");
+		doCommand("(declare-fun qb () Z)");
+		doCommand("(assert (f q))");
+		// Resolves to the same definition as the application above
+		doCommand("(assert (f qb))");
+		doCommand("(declare-fun qc () (X Bool))");
+		doCommand("(assert (f qc))","Unknown predicate symbol f with argument types (X Bool)");
+	}
+	
+	@Test
+	public void checkResolvedAfterPop() {
+		doCommand("(declare-sort Y 0)");
+		doCommand("(declare-fun y () Y)");
+		doCommand("(push 1)");
+		doCommand("(declare-fun f (Y) Bool)");
+		doCommand("(assert (f y))");
+		doCommand("(assert (f true))","Unknown predicate symbol f with argument types Bool");
+		doCommand("(pop 1)");
+		doCommand("(assert (f y))","Unknown predicate symbol f with argument types Y");
+		doCommand("(declare-fun f (Bool) Bool)");
+		doCommand("(assert (f true))");
+		doCommand("(assert (f y))","Unknown predicate symbol f with argument types Y");
+	}
+	
 
 }